@@ -27,8 +27,10 @@ create table if not exists keep_report
     id         bigint auto_increment comment 'id' primary key,
     chatId     varchar(255)                       not null comment '对话id',
     userId     bigint                             not null comment '创建用户id',
-    messages   text                               not null comment '对话记录（JSON格式存储）',
+    messages   text                               not null comment '旧版对话记录（JSON格式存储，迁移到 chat_message 后清空）',
     lastMessage text                              null comment '最后一条消息内容（用于列表展示）',
+    summary    text                               null comment '滚动摘要（较早的消息压缩后的内容）',
+    summarySeq int      default 0                 not null comment '已折叠进摘要的最后一条消息序号',
     createTime datetime default CURRENT_TIMESTAMP not null comment '创建时间',
     editTime   datetime default CURRENT_TIMESTAMP not null comment '编辑时间',
     updateTime datetime default CURRENT_TIMESTAMP not null on update CURRENT_TIMESTAMP comment '更新时间',
@@ -37,6 +39,38 @@ create table if not exists keep_report
     INDEX idx_user_time (userId, updateTime)  -- 按用户和时间查询的索引
 ) comment '上下文对话表' collate = utf8mb4_unicode_ci;
 
+-- 对话消息表（每条消息一行；keep_report 只保留历史列表使用的表头信息）
+create table if not exists chat_message
+(
+    id             bigint auto_increment comment 'id' primary key,
+    conversationId varchar(255)                       not null comment '对话id（与 keep_report.chatId 一致）',
+    userId         bigint   default 0                 not null comment '用户id（未登录对话为 0）',
+    seq            int                                not null comment '消息在（对话, 用户）内的序号，从 1 开始递增',
+    type           varchar(32)                        not null comment '消息类型：USER、ASSISTANT',
+    content        mediumtext                         not null comment '消息内容（较长内容为 0x01 z + 编码ID + Base64 的压缩格式）',
+    messageId      varchar(64)                        null comment '异步写回分配的消息ID（重试写入时去重，同步写入为 null）',
+    createTime     datetime default CURRENT_TIMESTAMP not null comment '创建时间',
+    UNIQUE KEY uk_conversation_seq (conversationId, userId, seq),  -- 不同用户可使用相同的对话id；追加时防止并发写入相同序号，同时支撑按序号倒序取最近 N 条
+    UNIQUE KEY uk_message_id (messageId)  -- 异步写回重试时同一条消息只写入一次
+) comment '对话消息表' collate = utf8mb4_unicode_ci;
+
+-- 已有库升级：为 keep_report 增加滚动摘要字段
+-- ALTER TABLE keep_report
+--     ADD COLUMN summary    TEXT NULL COMMENT '滚动摘要（较早的消息压缩后的内容）' AFTER lastMessage,
+--     ADD COLUMN summarySeq INT DEFAULT 0 NOT NULL COMMENT '已折叠进摘要的最后一条消息序号' AFTER summary;
+
+-- 已有库升级：chat_message 的序号改为按（对话, 用户）分配，未登录对话的 userId 记为 0
+-- UPDATE chat_message SET userId = 0 WHERE userId IS NULL;
+-- ALTER TABLE chat_message
+--     MODIFY COLUMN userId BIGINT DEFAULT 0 NOT NULL COMMENT '用户id（未登录对话为 0）',
+--     DROP INDEX uk_conversation_seq,
+--     ADD UNIQUE KEY uk_conversation_seq (conversationId, userId, seq);
+
+-- 已有库升级：异步写回的消息ID
+-- ALTER TABLE chat_message
+--     ADD COLUMN messageId VARCHAR(64) NULL COMMENT '异步写回分配的消息ID（重试写入时去重，同步写入为 null）' AFTER content,
+--     ADD UNIQUE KEY uk_message_id (messageId);
+
 -- 健身数据表
 create table if not exists fitness_data
 (
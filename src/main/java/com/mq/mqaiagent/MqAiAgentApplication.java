@@ -5,10 +5,12 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.FilterType;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @ComponentScan(excludeFilters = @ComponentScan.Filter(type = FilterType.ASSIGNABLE_TYPE))
 @MapperScan({"com.mq.mqaiagent.mapper", "com.mq.mqaiagent.assessment.mapper"})
+@EnableScheduling
 public class MqAiAgentApplication {
 
     public static void main(String[] args) {
@@ -0,0 +1,37 @@
+package com.mq.mqaiagent.advisor;
+
+import com.mq.mqaiagent.chatmemory.UserScopedChatMemory;
+import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
+
+import java.util.Map;
+
+/**
+ * 按调用绑定用户身份的对话记忆 Advisor
+ * 在 MessageChatMemoryAdvisor 的基础上，额外读取 {@link #CHAT_MEMORY_USER_ID_KEY} 参数，
+ * 使同一个 ChatClient 可以在不同用户之间共享，用户与对话身份都随每次调用传入。
+ *
+ * @author MQQQ
+ * @version v1.0
+ * @since 2025/9/2
+ */
+public class UserScopedChatMemoryAdvisor extends MessageChatMemoryAdvisor {
+
+    /**
+     * 用户ID 的 advisor 参数名
+     */
+    public static final String CHAT_MEMORY_USER_ID_KEY = "chat_memory_user_id";
+
+    public UserScopedChatMemoryAdvisor(UserScopedChatMemory chatMemory) {
+        super(chatMemory);
+    }
+
+    @Override
+    protected String doGetConversationId(Map<String, Object> context) {
+        String conversationId = super.doGetConversationId(context);
+        Object userId = context.get(CHAT_MEMORY_USER_ID_KEY);
+        Long resolvedUserId = userId == null ? null
+                : userId instanceof Number number ? number.longValue() : Long.valueOf(userId.toString());
+        // 未登录时同样编码，客户端传入的对话ID 不能携带用户身份
+        return UserScopedChatMemory.encode(resolvedUserId, conversationId);
+    }
+}
@@ -125,7 +125,7 @@ public class MqManus extends ToolCallAgent {
         this.userId = userId;
         this.conversationId = conversationId;
         // 创建 DatabaseChatMemory 用于持久化对话
-        this.chatMemory = chatClientPool.createMqManusChatMemory(userId);
+        this.chatMemory = chatClientPool.createMqManusChatMemory();
         ChatClient chatClient = chatClientPool.getMqManusClient(modelType, getSystemPrompt());
         this.setChatClient(chatClient);
     }
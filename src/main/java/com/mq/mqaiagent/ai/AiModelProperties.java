@@ -17,6 +17,11 @@ public class AiModelProperties {
      */
     private String defaultModel = "qwen-plus";
 
+    /**
+     * 内置模型（qwen-plus）每百万 token 的价格，用于挑选最便宜的模型；未配置时不参与比较。
+     */
+    private Double builtinPricePerMillionTokens;
+
     public AiModelType getDefaultModelType() {
         return AiModelType.from(defaultModel, AiModelType.QWEN_PLUS);
     }
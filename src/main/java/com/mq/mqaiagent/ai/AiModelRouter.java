@@ -14,6 +14,7 @@ import java.util.Map;
 /**
  * 模型路由器：根据配置或参数选择实际使用的模型与选项。
  * 支持内置模型（qwen-plus）和所有 OpenAI 兼容的自定义模型（deepseek、glm、gemini 等）。
+ * 返回的 ChatModel 均经过 {@link ModelBulkhead} 包装，按模型类型限制并发。
  */
 @Component
 @Slf4j
@@ -23,16 +24,19 @@ public class AiModelRouter {
     private final CustomModelProperties customModelProperties;
     private final ChatModel dashscopeChatModel;
     private final Map<String, CustomModelChatModelConfig.ModelInstance> openAiCompatibleModelPool;
+    private final ModelBulkhead modelBulkhead;
 
     public AiModelRouter(
             AiModelProperties aiModelProperties,
             CustomModelProperties customModelProperties,
             @Qualifier("dashscopeChatModel") ChatModel dashscopeChatModel,
-            @Qualifier("openAiCompatibleModelPool") Map<String, CustomModelChatModelConfig.ModelInstance> openAiCompatibleModelPool) {
+            @Qualifier("openAiCompatibleModelPool") Map<String, CustomModelChatModelConfig.ModelInstance> openAiCompatibleModelPool,
+            ModelBulkhead modelBulkhead) {
         this.aiModelProperties = aiModelProperties;
         this.customModelProperties = customModelProperties;
         this.dashscopeChatModel = dashscopeChatModel;
         this.openAiCompatibleModelPool = openAiCompatibleModelPool;
+        this.modelBulkhead = modelBulkhead;
     }
 
     public AiModelType getDefaultModelType() {
@@ -83,7 +87,8 @@ public class AiModelRouter {
             if (normalizedModelName != null && openAiCompatibleModelPool.containsKey(normalizedModelName)) {
                 CustomModelChatModelConfig.ModelInstance instance = openAiCompatibleModelPool.get(normalizedModelName);
                 log.debug("路由到模型: {}", normalizedModelName);
-                return new ResolvedModel(effectiveType, instance.chatModel(), instance.chatOptions());
+                return new ResolvedModel(effectiveType,
+                        modelBulkhead.decorate(effectiveType, instance.chatModel()), instance.chatOptions());
             }
             
             log.warn("请求模型: {}，但未在模型池中找到，回退到 qwen-plus", normalizedModelName);
@@ -91,7 +96,36 @@ public class AiModelRouter {
         }
 
         // 默认使用 qwen-plus
-        return new ResolvedModel(effectiveType, dashscopeChatModel, buildDashscopeToolCallOptions());
+        return new ResolvedModel(effectiveType,
+                modelBulkhead.decorate(effectiveType, dashscopeChatModel), buildDashscopeToolCallOptions());
+    }
+
+    /**
+     * 解析配置价格最低的可用模型，用于摘要等对质量要求不高的后台任务。
+     * 只比较配置了价格的模型（内置模型见 builtin-price-per-million-tokens，自定义模型见 price-per-million-tokens），
+     * 都未配置时使用默认模型。
+     */
+    public ResolvedModel resolveCheapest() {
+        String cheapestModelId = null;
+        double cheapestPrice = Double.MAX_VALUE;
+        Double builtinPrice = aiModelProperties.getBuiltinPricePerMillionTokens();
+        if (builtinPrice != null) {
+            cheapestModelId = AiModelType.QWEN_PLUS.getCode();
+            cheapestPrice = builtinPrice;
+        }
+        for (Map.Entry<String, CustomModelProperties.ModelConfig> entry : customModelProperties.getModels().entrySet()) {
+            CustomModelProperties.ModelConfig config = entry.getValue();
+            if (config.isConfigured() && config.getPricePerMillionTokens() != null
+                    && config.getPricePerMillionTokens() < cheapestPrice
+                    && openAiCompatibleModelPool.containsKey(entry.getKey().toLowerCase())) {
+                cheapestModelId = entry.getKey();
+                cheapestPrice = config.getPricePerMillionTokens();
+            }
+        }
+        if (cheapestModelId == null) {
+            return resolve(getDefaultModelType(), getDefaultModelId());
+        }
+        return resolve(cheapestModelId);
     }
 
     /**
@@ -84,6 +84,11 @@ public class CustomModelProperties {
          */
         private Boolean enabled = true;
 
+        /**
+         * 每百万 token 的价格（与内置模型使用同一币种），用于挑选最便宜的模型；未配置时不参与比较。
+         */
+        private Double pricePerMillionTokens;
+
         public boolean isConfigured() {
             return enabled && apiKey != null && !apiKey.isBlank() && baseUrl != null && !baseUrl.isBlank();
         }
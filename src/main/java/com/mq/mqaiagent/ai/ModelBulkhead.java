@@ -0,0 +1,252 @@
+package com.mq.mqaiagent.ai;
+
+import com.mq.mqaiagent.exception.ModelOverloadedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 模型并发隔离（舱壁）。
+ * 每种模型类型一个信号量限制在途请求数，外加一个有界等待队列；
+ * 队列已满立即拒绝，排队超时同样拒绝，避免某个模型变慢时拖垮所有 Tomcat 线程。
+ * 通过 {@link #decorate(AiModelType, ChatModel)} 包装 ChatModel，对所有调用方透明。
+ * 流式调用在订阅时才获取许可，此时 SSE 响应头已经以 200 提交，拒绝只能以流错误结束；
+ * 因此流式接口在返回响应前先调用 {@link #checkAdmission(AiModelType)}，队列已满时直接返回 429。
+ * 通过检查后仍可能在排队中超时，这种情况按流错误处理。
+ */
+@Component
+@Slf4j
+public class ModelBulkhead {
+
+    private final ModelBulkheadProperties properties;
+    private final Map<AiModelType, Compartment> compartments = new EnumMap<>(AiModelType.class);
+    private final Map<DecoratedKey, ChatModel> decoratedModels = new ConcurrentHashMap<>();
+
+    public ModelBulkhead(ModelBulkheadProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        for (AiModelType modelType : AiModelType.values()) {
+            compartments.put(modelType, new Compartment(modelType, meterRegistry));
+        }
+    }
+
+    /**
+     * 为 ChatModel 加上并发隔离（同一个 ChatModel 只包装一次）。
+     */
+    public ChatModel decorate(AiModelType modelType, ChatModel chatModel) {
+        if (!properties.isEnabled() || chatModel == null || modelType == null) {
+            return chatModel;
+        }
+        return decoratedModels.computeIfAbsent(new DecoratedKey(modelType, chatModel),
+                key -> new BulkheadChatModel(compartments.get(modelType), chatModel));
+    }
+
+    /**
+     * 非阻塞的准入检查：模型并发已满且等待队列已满时抛出 {@link ModelOverloadedException}，不占用许可。
+     * 供流式接口在返回响应前调用，使拒绝能映射为 429 + Retry-After。
+     */
+    public void checkAdmission(AiModelType modelType) {
+        if (!properties.isEnabled() || modelType == null) {
+            return;
+        }
+        compartments.get(modelType).checkAdmission();
+    }
+
+    /**
+     * 包装缓存键：同一个 ChatModel 在不同模型类型下分属不同隔离舱。
+     */
+    private record DecoratedKey(AiModelType modelType, ChatModel chatModel) {
+    }
+
+    /**
+     * 单个模型类型的隔离舱。
+     */
+    private final class Compartment {
+
+        private final AiModelType modelType;
+        private final Semaphore permits;
+        private final AtomicInteger waiting = new AtomicInteger();
+        private final Timer waitTimer;
+        private final Counter rejectedQueueFull;
+        private final Counter rejectedTimeout;
+
+        Compartment(AiModelType modelType, MeterRegistry meterRegistry) {
+            this.modelType = modelType;
+            int maxConcurrent = properties.maxConcurrentOf(modelType);
+            this.permits = new Semaphore(maxConcurrent, true);
+            String model = modelType.getCode();
+            Gauge.builder("mq.ai.model.inflight", permits, p -> maxConcurrent - p.availablePermits())
+                    .description("当前在途的模型调用数")
+                    .tag("model", model)
+                    .register(meterRegistry);
+            Gauge.builder("mq.ai.model.queue.depth", waiting, AtomicInteger::get)
+                    .description("等待模型调用许可的请求数")
+                    .tag("model", model)
+                    .register(meterRegistry);
+            this.waitTimer = Timer.builder("mq.ai.model.queue.wait")
+                    .description("获取模型调用许可的等待时间")
+                    .tag("model", model)
+                    .register(meterRegistry);
+            this.rejectedQueueFull = Counter.builder("mq.ai.model.rejected")
+                    .description("被舱壁拒绝的模型调用数")
+                    .tag("model", model)
+                    .tag("reason", "queue_full")
+                    .register(meterRegistry);
+            this.rejectedTimeout = Counter.builder("mq.ai.model.rejected")
+                    .description("被舱壁拒绝的模型调用数")
+                    .tag("model", model)
+                    .tag("reason", "wait_timeout")
+                    .register(meterRegistry);
+        }
+
+        /**
+         * 获取调用许可，失败时抛出 {@link ModelOverloadedException}。
+         */
+        void acquire() {
+            if (permits.tryAcquire()) {
+                waitTimer.record(0, TimeUnit.NANOSECONDS);
+                return;
+            }
+            int maxQueue = properties.maxQueueOf(modelType);
+            if (waiting.incrementAndGet() > maxQueue) {
+                waiting.decrementAndGet();
+                rejectedQueueFull.increment();
+                log.warn("模型 {} 并发已满且等待队列已满（{}），拒绝请求", modelType.getCode(), maxQueue);
+                throw overloaded();
+            }
+            long start = System.nanoTime();
+            boolean acquired;
+            try {
+                acquired = permits.tryAcquire(properties.maxWaitMillisOf(modelType), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                acquired = false;
+            } finally {
+                waiting.decrementAndGet();
+                waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+            if (!acquired) {
+                rejectedTimeout.increment();
+                log.warn("模型 {} 排队等待超时，拒绝请求", modelType.getCode());
+                throw overloaded();
+            }
+        }
+
+        void checkAdmission() {
+            if (permits.availablePermits() > 0) {
+                return;
+            }
+            int maxQueue = properties.maxQueueOf(modelType);
+            if (waiting.get() >= maxQueue) {
+                rejectedQueueFull.increment();
+                log.warn("模型 {} 并发已满且等待队列已满（{}），拒绝流式请求", modelType.getCode(), maxQueue);
+                throw overloaded();
+            }
+        }
+
+        void release() {
+            permits.release();
+        }
+
+        private ModelOverloadedException overloaded() {
+            return new ModelOverloadedException("模型 " + modelType.getCode() + " 当前请求过多，请稍后重试",
+                    properties.getRetryAfterSeconds());
+        }
+    }
+
+    /**
+     * 一次流式调用持有的许可：完成、出错或取消时释放一次；
+     * 取消发生在排队期间时，许可在拿到后立即归还。
+     */
+    private static final class Permit {
+
+        private final Compartment compartment;
+        private boolean acquired;
+        private boolean closed;
+
+        Permit(Compartment compartment) {
+            this.compartment = compartment;
+        }
+
+        void acquire() {
+            compartment.acquire();
+            boolean releaseNow;
+            synchronized (this) {
+                acquired = true;
+                releaseNow = closed;
+            }
+            if (releaseNow) {
+                release();
+            }
+        }
+
+        void release() {
+            boolean releaseNow;
+            synchronized (this) {
+                closed = true;
+                releaseNow = acquired;
+                acquired = false;
+            }
+            if (releaseNow) {
+                compartment.release();
+            }
+        }
+    }
+
+    /**
+     * 带并发隔离的 ChatModel 包装。
+     */
+    private static final class BulkheadChatModel implements ChatModel {
+
+        private final Compartment compartment;
+        private final ChatModel delegate;
+
+        BulkheadChatModel(Compartment compartment, ChatModel delegate) {
+            this.compartment = compartment;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            compartment.acquire();
+            try {
+                return delegate.call(prompt);
+            } finally {
+                compartment.release();
+            }
+        }
+
+        @Override
+        public Flux<ChatResponse> stream(Prompt prompt) {
+            return Flux.defer(() -> {
+                Permit permit = new Permit(compartment);
+                // 排队等待会阻塞，放到 boundedElastic 上，不占用订阅线程（Tomcat / Netty 线程）
+                return Mono.fromRunnable(permit::acquire)
+                        .subscribeOn(Schedulers.boundedElastic())
+                        .thenMany(Flux.defer(() -> delegate.stream(prompt)))
+                        .doFinally(signal -> permit.release());
+            });
+        }
+
+        @Override
+        public ChatOptions getDefaultOptions() {
+            return delegate.getDefaultOptions();
+        }
+    }
+}
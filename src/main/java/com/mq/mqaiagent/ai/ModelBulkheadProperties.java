@@ -0,0 +1,88 @@
+package com.mq.mqaiagent.ai;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 模型并发隔离（舱壁）配置。
+ * 每种模型类型有独立的在途请求上限和有界等待队列，队列满或等待超时即快速拒绝。
+ *
+ * 配置示例：
+ * <pre>
+ * mq:
+ *   ai:
+ *     bulkhead:
+ *       enabled: true
+ *       max-concurrent: 20
+ *       max-queue: 50
+ *       max-wait-millis: 10000
+ *       retry-after-seconds: 5
+ *       models:
+ *         deepseek:
+ *           max-concurrent: 10
+ * </pre>
+ */
+@Component
+@ConfigurationProperties(prefix = "mq.ai.bulkhead")
+@Data
+public class ModelBulkheadProperties {
+
+    /**
+     * 是否启用并发隔离。
+     */
+    private boolean enabled = true;
+
+    /**
+     * 默认每种模型的最大在途请求数。
+     */
+    private int maxConcurrent = 20;
+
+    /**
+     * 默认每种模型的最大排队请求数。
+     */
+    private int maxQueue = 50;
+
+    /**
+     * 排队的最长等待时间（毫秒），超时视为拒绝。
+     */
+    private long maxWaitMillis = 10000;
+
+    /**
+     * 拒绝时建议客户端的重试间隔（秒），写入 Retry-After 响应头。
+     */
+    private int retryAfterSeconds = 5;
+
+    /**
+     * 按模型类型覆盖的配置，key 为 {@link AiModelType#getCode()}。
+     */
+    private Map<String, Limit> models = new HashMap<>();
+
+    /**
+     * 单个模型类型的限制。
+     */
+    @Data
+    public static class Limit {
+        private Integer maxConcurrent;
+        private Integer maxQueue;
+        private Long maxWaitMillis;
+    }
+
+    public int maxConcurrentOf(AiModelType modelType) {
+        Limit limit = models.get(modelType.getCode());
+        return limit != null && limit.getMaxConcurrent() != null ? limit.getMaxConcurrent() : maxConcurrent;
+    }
+
+    public int maxQueueOf(AiModelType modelType) {
+        Limit limit = models.get(modelType.getCode());
+        return limit != null && limit.getMaxQueue() != null ? limit.getMaxQueue() : maxQueue;
+    }
+
+    public long maxWaitMillisOf(AiModelType modelType) {
+        Limit limit = models.get(modelType.getCode());
+        return limit != null && limit.getMaxWaitMillis() != null ? limit.getMaxWaitMillis() : maxWaitMillis;
+    }
+}
@@ -1,8 +1,17 @@
 package com.mq.mqaiagent.app;
 
 import com.mq.mqaiagent.advisor.MyLoggerAdvisor;
+import com.mq.mqaiagent.advisor.UserScopedChatMemoryAdvisor;
 import com.mq.mqaiagent.ai.AiModelRouter;
 import com.mq.mqaiagent.ai.AiModelType;
+import com.mq.mqaiagent.cache.AnswerScopeClassifier;
+import com.mq.mqaiagent.cache.RequestCoalescer;
+import com.mq.mqaiagent.cache.StreamingResponseCache;
+import com.mq.mqaiagent.chatmemory.CachedDatabaseChatMemory;
+import com.mq.mqaiagent.chatmemory.ChatMemoryCompactor;
+import com.mq.mqaiagent.chatmemory.ChatMemoryWriteBehind;
+import com.mq.mqaiagent.chatmemory.UserScopedChatMemory;
+import com.mq.mqaiagent.mapper.ChatMessageMapper;
 import com.mq.mqaiagent.mapper.KeepReportMapper;
 import com.mq.mqaiagent.pool.ChatClientPool;
 import com.mq.mqaiagent.service.AiResponseCacheService;
@@ -12,11 +21,14 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.QuestionAnswerAdvisor;
 import org.springframework.ai.chat.client.advisor.api.Advisor;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.tool.ToolCallback;
 import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
 
 import java.util.List;
 
@@ -51,15 +63,36 @@ public class KeepApp {
     private final CacheService cacheService;
     private final AiResponseCacheService aiResponseCacheService;
     private final ChatClientPool chatClientPool;
+    private final StreamingResponseCache streamingResponseCache;
+    private final RequestCoalescer requestCoalescer;
+    private final AnswerScopeClassifier answerScopeClassifier;
+
+    /**
+     * 与 KeepApp ChatClient 读取同一份对话记忆：判断对话是否已有历史消息，
+     * 以及在回答不经过 ChatClient（缓存命中、复用其他请求的结果）时补写本轮问答
+     */
+    private final UserScopedChatMemory chatHistory;
 
     public KeepApp(KeepReportMapper keepReportMapper,
+            ChatMessageMapper chatMessageMapper,
+            ChatMemoryCompactor chatMemoryCompactor,
+            ChatMemoryWriteBehind chatMemoryWriteBehind,
             CacheService cacheService,
             AiResponseCacheService aiResponseCacheService,
-            ChatClientPool chatClientPool) {
+            ChatClientPool chatClientPool,
+            StreamingResponseCache streamingResponseCache,
+            RequestCoalescer requestCoalescer,
+            AnswerScopeClassifier answerScopeClassifier) {
         this.keepReportMapper = keepReportMapper;
         this.cacheService = cacheService;
         this.aiResponseCacheService = aiResponseCacheService;
         this.chatClientPool = chatClientPool;
+        this.streamingResponseCache = streamingResponseCache;
+        this.requestCoalescer = requestCoalescer;
+        this.answerScopeClassifier = answerScopeClassifier;
+        this.chatHistory = new UserScopedChatMemory(
+                new CachedDatabaseChatMemory(keepReportMapper, chatMessageMapper, chatMemoryCompactor,
+                        chatMemoryWriteBehind, cacheService));
     }
 
     /**
@@ -116,17 +149,17 @@ public class KeepApp {
             }
         }
 
-        ChatClient chatClient = resolveAssessmentClient(modelType, userId);
+        ChatClient chatClient = resolveAssessmentClient(modelType);
         ChatResponse chatResponse = chatClient
                 .prompt()
                 .user(message)
-                .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY,
-                                buildAssessmentConversationId(userId, recordId))
-                        .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 0))
+                .advisors(spec -> applyChatMemoryParams(spec, buildAssessmentConversationId(userId, recordId),
+                        userId, 0))
                 .call()
                 .chatResponse();
         String response = chatResponse.getResult().getOutput().getText();
-        aiResponseCacheService.cacheResponse(cacheQuestion, response, userId, modelType);
+        // 同一份报告的建议会被反复查看，不经过准入过滤
+        aiResponseCacheService.cacheResponse(cacheQuestion, response, userId, modelType, true);
         log.info("assessment AI 建议生成完成，model: {}, recordId: {}, response: {}",
                 modelType.getCode(), recordId, abbreviate(response, 120));
         return response;
@@ -138,27 +171,46 @@ public class KeepApp {
     private String doChatWithCache(String message, String chatId, Long userId, String rawModel) {
         AiModelRouter.ResolvedModel resolvedModel = chatClientPool.resolveModel(rawModel);
         AiModelType modelType = resolvedModel.modelType();
+        // 通用问题使用共享命名空间（不带用户ID），个人问题按用户隔离，匿名用户的个人问题不缓存
+        CacheScope cacheScope = resolveCacheScope(message, chatId, userId);
+        aiResponseCacheService.recordAccess(message);
+        if (!cacheScope.cacheable()) {
+            return callModel(message, chatId, userId, modelType);
+        }
+        Long cacheUserId = cacheScope.userId();
 
-        // 1. 尝试从缓存获取响应（按模型隔离）
-        String cachedResponse = aiResponseCacheService.getCachedResponse(message, userId, modelType);
+        // 1. 尝试从缓存获取响应（按模型隔离），每个请求只计一次访问频率
+        String cachedResponse = aiResponseCacheService.getCachedResponse(message, cacheUserId, modelType);
         if (cachedResponse != null) {
             log.info("使用缓存的 AI 响应，model: {}, message: {}", modelType.getCode(), abbreviate(message, 50));
+            aiResponseCacheService.refreshAheadIfHot(message, cacheUserId, modelType,
+                    () -> regenerateSharedAnswer(message, modelType));
+            recordTurn(chatId, userId, message, cachedResponse);
             return cachedResponse;
         }
 
-        // 2. 缓存未命中，调用 AI 模型
-        ChatClient chatClient = resolveKeepAppClient(modelType, userId);
+        // 2. 缓存未命中，合并相同的进行中请求，只有 leader 调用 AI 模型
+        String coalesceKey = buildCoalesceKey(message, chatId, userId, cacheUserId, modelType);
+        return requestCoalescer.execute(coalesceKey,
+                () -> {
+                    String response = callModel(message, chatId, userId, modelType);
+
+                    // 3. 缓存 AI 响应（按模型隔离）
+                    aiResponseCacheService.cacheResponse(message, response, cacheUserId, modelType);
+                    return response;
+                },
+                response -> recordTurn(chatId, userId, message, response));
+    }
+
+    private String callModel(String message, String chatId, Long userId, AiModelType modelType) {
+        ChatClient chatClient = resolveKeepAppClient(modelType);
         ChatResponse chatResponse = chatClient
                 .prompt()
                 .user(message)
-                .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
-                        .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 10))
+                .advisors(spec -> applyChatMemoryParams(spec, chatId, userId, 10))
                 .call()
                 .chatResponse();
         String response = chatResponse.getResult().getOutput().getText();
-
-        // 3. 缓存 AI 响应（按模型隔离）
-        aiResponseCacheService.cacheResponse(message, response, userId, modelType);
         log.info("AI 模型响应，model: {}, response: {}", modelType.getCode(), abbreviate(response, 80));
         return response;
     }
@@ -181,7 +233,7 @@ public class KeepApp {
      */
     public KeepReport doChatWithReport(String message, String chatId, String model) {
         AiModelType modelType = chatClientPool.resolveModel(model).modelType();
-        ChatClient chatClient = resolveKeepAppClient(modelType, null);
+        ChatClient chatClient = resolveKeepAppClient(modelType);
         KeepReport keepReport = chatClient
                 .prompt()
                 .system(SYSTEM_PROMPT + "每次对话后都要生成健身结果，标题为“用户的健身报告”，内容为建议列表")
@@ -209,7 +261,7 @@ public class KeepApp {
 
     public String doChatWithRag(String message, String chatId, String model) {
         AiModelType modelType = chatClientPool.resolveModel(model).modelType();
-        ChatClient chatClient = resolveKeepAppClient(modelType, null);
+        ChatClient chatClient = resolveKeepAppClient(modelType);
         ChatResponse chatResponse = chatClient
                 .prompt()
                 .user(message)
@@ -238,7 +290,7 @@ public class KeepApp {
 
     public String doChatWithTools(String message, String chatId, String model) {
         AiModelType modelType = chatClientPool.resolveModel(model).modelType();
-        ChatClient chatClient = resolveKeepAppClient(modelType, null);
+        ChatClient chatClient = resolveKeepAppClient(modelType);
         ChatResponse response = chatClient
                 .prompt()
                 .user(message)
@@ -279,30 +331,145 @@ public class KeepApp {
      */
     public Flux<String> doChatByStream(String message, String chatId, Long userId, String model) {
         AiModelType modelType = chatClientPool.resolveModel(model).modelType();
-        ChatClient chatClient = resolveKeepAppClient(modelType, userId);
+        if (!streamingResponseCache.isEnabled()) {
+            return streamFromModel(message, chatId, userId, modelType);
+        }
+        // 缓存查询涉及 Redis 与相似度计算，放到弹性线程池中执行，避免阻塞调用线程
+        return Flux.defer(() -> {
+            CacheScope cacheScope = resolveCacheScope(message, chatId, userId);
+            aiResponseCacheService.recordAccess(message);
+            if (!cacheScope.cacheable()) {
+                return streamFromModel(message, chatId, userId, modelType);
+            }
+            Long cacheUserId = cacheScope.userId();
+            // 1. 命中缓存：按配置的节奏分块回放；每个请求只计一次访问频率
+            String cachedResponse = aiResponseCacheService.getCachedResponse(message, cacheUserId, modelType);
+            if (cachedResponse != null) {
+                log.info("流式对话使用缓存的 AI 响应，model: {}, message: {}", modelType.getCode(),
+                        abbreviate(message, 50));
+                aiResponseCacheService.refreshAheadIfHot(message, cacheUserId, modelType,
+                        () -> regenerateSharedAnswer(message, modelType));
+                recordTurn(chatId, userId, message, cachedResponse);
+                return streamingResponseCache.replay(cachedResponse);
+            }
+            // 2. 未命中：相同的进行中请求共享同一个上游流；上游输出被旁路累积，正常结束后写入缓存
+            String coalesceKey = buildCoalesceKey(message, chatId, userId, cacheUserId, modelType);
+            return requestCoalescer.share(coalesceKey,
+                    streamingResponseCache::replay,
+                    () -> streamingResponseCache.cacheThrough(streamFromModel(message, chatId, userId, modelType),
+                            response -> {
+                                if (aiResponseCacheService.cacheResponse(message, response, cacheUserId, modelType)) {
+                                    log.info("流式 AI 响应已缓存，model: {}, response: {}", modelType.getCode(),
+                                            abbreviate(response, 80));
+                                }
+                            }),
+                    response -> recordTurn(chatId, userId, message, response));
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private Flux<String> streamFromModel(String message, String chatId, Long userId, AiModelType modelType) {
+        ChatClient chatClient = resolveKeepAppClient(modelType);
         return chatClient
                 .prompt()
                 .user(message)
                 // 应用知识库问答
                 .advisors(new QuestionAnswerAdvisor(keepAppVectorStore))
-                .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
-                        .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 10))
+                .advisors(spec -> applyChatMemoryParams(spec, chatId, userId, 10))
                 .stream()
                 .content();
     }
 
-    private ChatClient resolveKeepAppClient(AiModelType modelType, Long userId) {
-        if (userId != null) {
-            return chatClientPool.getKeepAppClientWithMemory(modelType, userId, SYSTEM_PROMPT);
+    /**
+     * 回答不经过 ChatClient 时（缓存命中或复用其他请求的结果），对话记忆顾问不会执行，
+     * 由这里把本轮的用户消息和回答写入当前用户的对话记忆，保持对话历史与实际回答一致
+     */
+    private void recordTurn(String chatId, Long userId, String message, String response) {
+        try {
+            chatHistory.add(UserScopedChatMemory.encode(userId, chatId),
+                    List.of(new UserMessage(message), new AssistantMessage(response)));
+        } catch (Exception e) {
+            log.warn("写入对话记忆失败，chatId: {}, error: {}", chatId, e.getMessage());
+        }
+    }
+
+    /**
+     * 重新生成共享回答（热点回答提前刷新）：不带对话记忆，不写入任何用户的对话历史
+     */
+    private String regenerateSharedAnswer(String message, AiModelType modelType) {
+        return chatClientPool.getKeepAppStatelessClient(modelType, SYSTEM_PROMPT)
+                .prompt()
+                .user(message)
+                .call()
+                .content();
+    }
+
+    /**
+     * 解析缓存作用域：通用问题使用共享命名空间（userId 为 null），登录用户的个人问题按用户隔离；
+     * 匿名用户之间无法区分归属，其个人问题不缓存。
+     * 对话已有历史消息时，回答受上下文影响，一律按个人处理。
+     */
+    private CacheScope resolveCacheScope(String message, String chatId, Long userId) {
+        boolean hasHistory;
+        try {
+            hasHistory = !chatHistory.get(UserScopedChatMemory.encode(userId, chatId), 1).isEmpty();
+        } catch (Exception e) {
+            // 无法确认是否有上下文时按个人处理
+            log.warn("查询对话历史失败，按个人回答处理，chatId: {}, error: {}", chatId, e.getMessage());
+            return CacheScope.personal(userId);
+        }
+        return answerScopeClassifier.classify(message, hasHistory) == AnswerScopeClassifier.Scope.GENERIC
+                ? CacheScope.GENERIC
+                : CacheScope.personal(userId);
+    }
+
+    /**
+     * 生成合并键：只有通用且无历史的问题（共享命名空间）跨对话合并；
+     * 个人问题的回答依赖各自的对话上下文，合并键带上对话ID，只合并同一对话内的重复提交
+     */
+    private String buildCoalesceKey(String message, String chatId, Long userId, Long cacheUserId,
+                                    AiModelType modelType) {
+        String cacheKey = aiResponseCacheService.generateCacheKey(message, cacheUserId, modelType);
+        if (cacheUserId == null) {
+            return cacheKey;
         }
+        return cacheKey + ":" + UserScopedChatMemory.encode(userId, chatId);
+    }
+
+    /**
+     * 缓存作用域
+     *
+     * @param cacheable 是否读写回答缓存
+     * @param userId    缓存使用的用户ID，null 表示共享命名空间
+     */
+    private record CacheScope(boolean cacheable, Long userId) {
+
+        private static final CacheScope GENERIC = new CacheScope(true, null);
+
+        private static final CacheScope UNCACHEABLE = new CacheScope(false, null);
+
+        private static CacheScope personal(Long userId) {
+            return userId == null ? UNCACHEABLE : new CacheScope(true, userId);
+        }
+    }
+
+    private ChatClient resolveKeepAppClient(AiModelType modelType) {
         return chatClientPool.getKeepAppClient(modelType, SYSTEM_PROMPT);
     }
 
-    private ChatClient resolveAssessmentClient(AiModelType modelType, Long userId) {
+    private ChatClient resolveAssessmentClient(AiModelType modelType) {
+        return chatClientPool.getKeepAppClient(modelType, ASSESSMENT_ADVICE_SYSTEM_PROMPT);
+    }
+
+    /**
+     * 为本次调用绑定对话记忆参数：对话ID、检索条数，以及（可选的）用户ID。
+     * ChatClient 在用户之间共享，用户身份只随调用传递。
+     */
+    private void applyChatMemoryParams(ChatClient.AdvisorSpec spec, String chatId, Long userId, int retrieveSize) {
+        spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
+                .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, retrieveSize);
         if (userId != null) {
-            return chatClientPool.getKeepAppClientWithMemory(modelType, userId, ASSESSMENT_ADVICE_SYSTEM_PROMPT);
+            spec.param(UserScopedChatMemoryAdvisor.CHAT_MEMORY_USER_ID_KEY, userId);
         }
-        return chatClientPool.getKeepAppClient(modelType, ASSESSMENT_ADVICE_SYSTEM_PROMPT);
     }
 
     private String buildAssessmentConversationId(Long userId, Long recordId) {
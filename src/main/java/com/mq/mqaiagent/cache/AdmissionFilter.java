@@ -0,0 +1,103 @@
+package com.mq.mqaiagent.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AI 响应缓存准入过滤
+ * 每次查询缓存都把问题的归一化哈希记入 {@link FrequencySketch}；
+ * 写入 Redis 和问题索引前检查估计频率，达到阈值才准入。一次性的个性化问题只留在 L1，
+ * 不会挤占 Redis 与相似问题索引，索引保持小而热，相似度检索也随之变快。
+ * 准入/拒绝计数通过 CacheMetricsService 暴露。
+ */
+@Component
+@Slf4j
+public class AdmissionFilter {
+
+    private final boolean enabled;
+    private final int minFrequency;
+    private final FrequencySketch sketch;
+
+    private final AtomicLong admitted = new AtomicLong(0);
+    private final AtomicLong rejected = new AtomicLong(0);
+
+    public AdmissionFilter(AiResponseCacheProperties properties) {
+        this.enabled = properties.isAdmissionEnabled();
+        this.minFrequency = properties.getAdmissionMinFrequency();
+        this.sketch = new FrequencySketch(properties.getAdmissionSketchWidth());
+        log.info("AI 响应缓存准入过滤初始化完成，enabled: {}, minFrequency: {}, sketchWidth: {}",
+                enabled, minFrequency, properties.getAdmissionSketchWidth());
+    }
+
+    /**
+     * 记录一次问题访问
+     *
+     * @param questionHash 问题的归一化哈希（十六进制）
+     */
+    public void recordAccess(String questionHash) {
+        if (enabled) {
+            sketch.increment(toKey(questionHash));
+        }
+    }
+
+    /**
+     * 判断问题的回答是否准入 Redis 与问题索引
+     *
+     * @param questionHash 问题的归一化哈希（十六进制）
+     * @return 是否准入
+     */
+    public boolean admit(String questionHash) {
+        if (!enabled || sketch.frequency(toKey(questionHash)) >= minFrequency) {
+            admitted.incrementAndGet();
+            return true;
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * 问题的估计访问频率（未启用时为 0）
+     *
+     * @param questionHash 问题的归一化哈希（十六进制）
+     * @return 估计频率，上限为 15
+     */
+    public int frequency(String questionHash) {
+        return enabled ? sketch.frequency(toKey(questionHash)) : 0;
+    }
+
+    /**
+     * 准入次数
+     */
+    public long getAdmitted() {
+        return admitted.get();
+    }
+
+    /**
+     * 拒绝次数
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * 重置准入/拒绝计数（不清空频率统计）
+     */
+    public void resetCounters() {
+        admitted.set(0);
+        rejected.set(0);
+    }
+
+    private long toKey(String questionHash) {
+        // 问题哈希为 SHA-256 截断后的十六进制串，取前 64 位即可
+        if (questionHash.length() >= 16) {
+            try {
+                return Long.parseUnsignedLong(questionHash, 0, 16, 16);
+            } catch (NumberFormatException ignored) {
+                // 非十六进制的哈希退化为 hashCode
+            }
+        }
+        return questionHash.hashCode();
+    }
+}
@@ -0,0 +1,150 @@
+package com.mq.mqaiagent.cache;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * AI 响应缓存配置。
+ * L1 为进程内 Caffeine 缓存（按字节数限制容量），L2 为 Redis；
+ * 清除缓存时通过 Redis 发布/订阅通知其他节点失效各自的 L1。
+ *
+ * 配置示例：
+ * <pre>
+ * mq:
+ *   ai:
+ *     response-cache:
+ *       l1-enabled: true
+ *       l1-max-bytes: 67108864
+ *       l1-expire-seconds: 600
+ *       invalidation-channel: mq:ai:agent:cache:invalidate
+ *       stream-cache-enabled: true
+ *       replay-chunk-chars: 8
+ *       replay-chunk-delay-millis: 20
+ *       coalescing-enabled: true
+ *       coalesce-lease-millis: 60000
+ *       coalesce-max-wait-millis: 30000
+ *       coalesce-poll-initial-millis: 100
+ *       coalesce-poll-max-millis: 2000
+ *       admission-enabled: true
+ *       admission-min-frequency: 2
+ *       admission-sketch-width: 65536
+ *       refresh-ahead-enabled: true
+ *       refresh-ahead-min-frequency: 8
+ *       refresh-ahead-seconds: 1800
+ *       refresh-ahead-check-interval-seconds: 300
+ *       refresh-ahead-concurrency: 2
+ *       refresh-ahead-queue-capacity: 64
+ * </pre>
+ */
+@Component
+@ConfigurationProperties(prefix = "mq.ai.response-cache")
+@Data
+public class AiResponseCacheProperties {
+
+    /**
+     * 是否启用进程内 L1 缓存。
+     */
+    private boolean l1Enabled = true;
+
+    /**
+     * L1 缓存最大占用字节数（按键和值的字符数估算）。
+     */
+    private long l1MaxBytes = 64L * 1024 * 1024;
+
+    /**
+     * L1 缓存写入后的过期时间（秒），应短于 Redis 中的过期时间。
+     */
+    private long l1ExpireSeconds = 600;
+
+    /**
+     * 跨节点缓存失效通知的 Redis 频道。
+     */
+    private String invalidationChannel = "mq:ai:agent:cache:invalidate";
+
+    /**
+     * 流式对话是否读写 AI 响应缓存。
+     */
+    private boolean streamCacheEnabled = true;
+
+    /**
+     * 流式回放缓存回答时每块的字符数。
+     */
+    private int replayChunkChars = 8;
+
+    /**
+     * 流式回放缓存回答时相邻两块的间隔（毫秒），0 表示不限速。
+     */
+    private long replayChunkDelayMillis = 20;
+
+    /**
+     * 是否合并相同的进行中 LLM 请求。
+     */
+    private boolean coalescingEnabled = true;
+
+    /**
+     * 跨节点 leader 租约时长（毫秒），应覆盖一次模型调用的耗时。
+     */
+    private long coalesceLeaseMillis = 60_000;
+
+    /**
+     * follower 等待 leader 结果的上限（毫秒），应接近一次模型调用的超时；超过后自行调用模型。
+     * 实际等待取该值与租约时长中的较小者。
+     */
+    private long coalesceMaxWaitMillis = 30_000;
+
+    /**
+     * 跨节点 follower 轮询 leader 结果的初始间隔（毫秒），之后按 2 倍退避。
+     */
+    private long coalescePollInitialMillis = 100;
+
+    /**
+     * 跨节点 follower 轮询 leader 结果的最大间隔（毫秒）。
+     */
+    private long coalescePollMaxMillis = 2_000;
+
+    /**
+     * 是否启用基于访问频率的准入过滤（TinyLFU）。
+     */
+    private boolean admissionEnabled = true;
+
+    /**
+     * 问题被查询的估计次数达到该值后，回答才写入 Redis 与问题索引。
+     */
+    private int admissionMinFrequency = 2;
+
+    /**
+     * 频率统计每行的计数器数量，应不小于活跃问题数量。
+     */
+    private int admissionSketchWidth = 65536;
+
+    /**
+     * 是否对热点共享回答启用提前刷新：过期前在后台重新生成，避免热点同时过期后集中回源模型。
+     */
+    private boolean refreshAheadEnabled = true;
+
+    /**
+     * 问题的估计访问频率达到该值才视为热点（频率统计上限为 15）。
+     */
+    private int refreshAheadMinFrequency = 8;
+
+    /**
+     * 剩余过期时间不超过该值（秒）时触发刷新。
+     */
+    private long refreshAheadSeconds = 1800;
+
+    /**
+     * 同一缓存键两次检查剩余过期时间的最小间隔（秒）。
+     */
+    private long refreshAheadCheckIntervalSeconds = 300;
+
+    /**
+     * 同时进行的后台刷新数量上限。
+     */
+    private int refreshAheadConcurrency = 2;
+
+    /**
+     * 等待执行的刷新任务上限，超出时丢弃（下次命中会重新检查）。
+     */
+    private int refreshAheadQueueCapacity = 64;
+}
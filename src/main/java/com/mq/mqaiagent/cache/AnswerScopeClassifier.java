@@ -0,0 +1,93 @@
+package com.mq.mqaiagent.cache;
+
+import com.mq.mqaiagent.similarity.TextNormalizer;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * 回答作用域分类：通用（可跨用户共享）或个人
+ * 基于规则与词表，只在以下条件同时满足时判为通用：
+ * 1. 本次对话没有历史消息（回答不受上下文影响）；
+ * 2. 问题中没有个人身体数据、健康状况等自我描述；
+ * 3. 问题没有指代上文（如“刚才”“继续”）。
+ * 判断偏保守：拿不准的一律按个人处理，宁可少命中也不把个人化回答泄露给其他用户。
+ */
+@Component
+public class AnswerScopeClassifier {
+
+    /**
+     * 指代上文的词，出现即说明回答依赖对话上下文
+     */
+    private static final List<String> CONTEXT_REFERENCES = List.of(
+            "刚才", "刚刚", "上面", "前面", "之前", "上次", "你说", "你刚", "继续", "接着",
+            "还有吗", "还有呢", "再详细", "展开说", "换一个", "按照这个", "这个计划", "那个计划");
+
+    /**
+     * 自我描述短语，出现即说明回答会结合用户个人情况
+     */
+    private static final List<String> SELF_DISCLOSURES = List.of(
+            "我的", "我今年", "我现在", "我目前", "我身高", "我体重", "我叫", "本人", "我是", "我有",
+            "我患", "我得了", "我受伤", "我怀孕", "我每天", "我平时", "我已经", "我一直", "我最近",
+            "我男", "我女", "我家");
+
+    /**
+     * 身体数据：数字 + 体重、身高、年龄等单位（归一化后小数点已被去除）
+     */
+    private static final Pattern BODY_METRIC = Pattern.compile("\\d+\\s*(kg|公斤|斤|磅|cm|厘米|岁|bmi)");
+
+    /**
+     * 第一人称 + 身体部位或健康状况
+     */
+    private static final Pattern SELF_HEALTH = Pattern.compile(
+            "我.{0,4}(膝|腰|肩|颈|背|脚踝|手腕|伤|病|疼|痛|血压|血糖|心脏|哮喘|手术|经期)");
+
+    /**
+     * 判断回答作用域
+     *
+     * @param question   用户问题
+     * @param hasHistory 本次对话是否已有历史消息
+     * @return 作用域
+     */
+    public Scope classify(String question, boolean hasHistory) {
+        if (hasHistory || question == null) {
+            return Scope.PERSONAL;
+        }
+        String normalized = TextNormalizer.normalize(question);
+        // 过短的问题（如“好的”“为什么”）通常是在接上文
+        if (!TextNormalizer.isComparable(normalized)) {
+            return Scope.PERSONAL;
+        }
+        if (containsAny(normalized, CONTEXT_REFERENCES) || containsAny(normalized, SELF_DISCLOSURES)) {
+            return Scope.PERSONAL;
+        }
+        if (BODY_METRIC.matcher(normalized).find() || SELF_HEALTH.matcher(normalized).find()) {
+            return Scope.PERSONAL;
+        }
+        return Scope.GENERIC;
+    }
+
+    private static boolean containsAny(String text, List<String> words) {
+        for (String word : words) {
+            if (text.contains(word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 回答作用域
+     */
+    public enum Scope {
+        /**
+         * 通用回答，按模型存入共享命名空间，所有用户可命中
+         */
+        GENERIC,
+        /**
+         * 个人回答，按用户隔离
+         */
+        PERSONAL
+    }
+}
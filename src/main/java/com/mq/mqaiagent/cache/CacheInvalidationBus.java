@@ -0,0 +1,85 @@
+package com.mq.mqaiagent.cache;
+
+import com.alibaba.fastjson2.JSON;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * 基于 Redis 发布/订阅的跨节点缓存失效通知
+ * 本节点发布的消息在本地已经生效，收到后直接忽略。
+ * 发布/订阅不保证送达，L1 缓存仍依赖较短的过期时间兜底。
+ */
+@Component
+@Slf4j
+public class CacheInvalidationBus implements MessageListener {
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final List<Consumer<CacheInvalidationMessage>> handlers = new CopyOnWriteArrayList<>();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    private AiResponseCacheProperties aiResponseCacheProperties;
+
+    @PostConstruct
+    public void init() {
+        redisMessageListenerContainer.addMessageListener(this,
+                new ChannelTopic(aiResponseCacheProperties.getInvalidationChannel()));
+        log.info("缓存失效通知已订阅，channel: {}, nodeId: {}",
+                aiResponseCacheProperties.getInvalidationChannel(), nodeId);
+    }
+
+    /**
+     * 注册失效消息处理器
+     */
+    public void subscribe(Consumer<CacheInvalidationMessage> handler) {
+        handlers.add(handler);
+    }
+
+    /**
+     * 向其他节点发布失效消息
+     */
+    public void publish(String cacheKey, String modelType, String question) {
+        try {
+            CacheInvalidationMessage message = new CacheInvalidationMessage(nodeId, cacheKey, modelType, question);
+            stringRedisTemplate.convertAndSend(aiResponseCacheProperties.getInvalidationChannel(),
+                    JSON.toJSONString(message));
+        } catch (Exception e) {
+            log.warn("发布缓存失效通知失败，cacheKey: {}, error: {}", cacheKey, e.getMessage());
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        try {
+            CacheInvalidationMessage invalidation = JSON.parseObject(
+                    new String(message.getBody(), StandardCharsets.UTF_8), CacheInvalidationMessage.class);
+            if (invalidation == null || nodeId.equals(invalidation.getNodeId())) {
+                return;
+            }
+            for (Consumer<CacheInvalidationMessage> handler : handlers) {
+                handler.accept(invalidation);
+            }
+            log.debug("收到缓存失效通知，cacheKey: {}, from: {}", invalidation.getCacheKey(), invalidation.getNodeId());
+        } catch (Exception e) {
+            log.warn("处理缓存失效通知失败: {}", e.getMessage());
+        }
+    }
+}
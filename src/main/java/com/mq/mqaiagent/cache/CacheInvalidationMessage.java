@@ -0,0 +1,34 @@
+package com.mq.mqaiagent.cache;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 跨节点缓存失效消息
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CacheInvalidationMessage {
+
+    /**
+     * 发布消息的节点ID，节点会忽略自己发布的消息
+     */
+    private String nodeId;
+
+    /**
+     * 需要失效的缓存键，为空表示不涉及响应缓存
+     */
+    private String cacheKey;
+
+    /**
+     * 模型类型编码，配合 question 从本地问题索引中移除
+     */
+    private String modelType;
+
+    /**
+     * 需要从本地问题索引中移除的问题，为空表示不涉及问题索引
+     */
+    private String question;
+}
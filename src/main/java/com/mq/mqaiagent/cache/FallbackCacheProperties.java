@@ -0,0 +1,88 @@
+package com.mq.mqaiagent.cache;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Redis 不可用时的进程内降级缓存配置。
+ *
+ * 配置示例：
+ * <pre>
+ * mq:
+ *   cache:
+ *     fallback:
+ *       enabled: true
+ *       max-entries: 10000
+ *       max-ttl-seconds: 600
+ *       reconcile-interval-millis: 1000
+ *       default-policy: discard
+ *       namespaces:
+ *         - prefix: "mq:ai:agent:chat:memory:"
+ *           policy: invalidate
+ *         - prefix: "mq:ai:agent:metrics:"
+ *           policy: write-back
+ * </pre>
+ */
+@Component
+@ConfigurationProperties(prefix = "mq.cache.fallback")
+@Data
+public class FallbackCacheProperties {
+
+    /**
+     * 是否启用降级缓存；关闭时 Redis 不可用期间读取返回 null、写入返回 false（原行为）。
+     */
+    private boolean enabled = true;
+
+    /**
+     * 最多保存的条目数（值与待失效的键分别计数）。
+     */
+    private long maxEntries = 10_000;
+
+    /**
+     * 本地条目的最长存活时间（秒），短于写入时指定的过期时间时以此为准。
+     */
+    private long maxTtlSeconds = 600;
+
+    /**
+     * Redis 恢复后检查并对账的间隔（毫秒）。
+     */
+    private long reconcileIntervalMillis = 1000;
+
+    /**
+     * 未匹配任何命名空间的键使用的对账策略。
+     */
+    private FallbackCacheStore.ReconcilePolicy defaultPolicy = FallbackCacheStore.ReconcilePolicy.DISCARD;
+
+    /**
+     * 按键前缀配置的对账策略，按最长前缀匹配。
+     */
+    private List<Namespace> namespaces = new ArrayList<>(List.of(
+            new Namespace("mq:ai:agent:chat:memory:", FallbackCacheStore.ReconcilePolicy.INVALIDATE),
+            new Namespace("mq:ai:agent:metrics:", FallbackCacheStore.ReconcilePolicy.WRITE_BACK)));
+
+    @Data
+    public static class Namespace {
+
+        /**
+         * 键前缀
+         */
+        private String prefix;
+
+        /**
+         * 对账策略
+         */
+        private FallbackCacheStore.ReconcilePolicy policy;
+
+        public Namespace() {
+        }
+
+        public Namespace(String prefix, FallbackCacheStore.ReconcilePolicy policy) {
+            this.prefix = prefix;
+            this.policy = policy;
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package com.mq.mqaiagent.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Redis 不可用期间的进程内降级缓存
+ * 熔断打开或调用出现连接失败时，{@code CacheServiceImpl} 的读写落到这里，避免每轮对话都回源 MySQL。
+ * 只在故障期间填充（由回源后的回写与本节点的写入产生），Redis 正常时不镜像数据，避免长期持有与其他节点不一致的副本。
+ * <p>
+ * Redis 恢复后按键前缀（命名空间）配置的策略对账，完成后清空本地条目：
+ * <ul>
+ *     <li>DISCARD：直接丢弃本地条目，Redis 中的旧值继续有效（适合内容与来源无关或可容忍短暂过期的数据）</li>
+ *     <li>INVALIDATE：删除 Redis 中的同名键，下次读取从数据源重建（适合数据源在故障期间被修改的数据，如对话记忆）</li>
+ *     <li>WRITE_BACK：把本地值按剩余过期时间写回 Redis（适合只存在于缓存中的数据，如性能指标）</li>
+ * </ul>
+ * 故障期间的删除总是在恢复后同步到 Redis。对账完成前，读取优先返回本地条目。
+ * 待删除登记有容量上限，超出时被淘汰的键改为登记所在命名空间整体失效，恢复后按前缀 SCAN 删除，
+ * 宁可多删也不让故障期间删除的数据在 Redis 中复活。
+ */
+@Component
+@Slf4j
+public class FallbackCacheStore {
+
+    /**
+     * Redis 恢复后的对账策略
+     */
+    public enum ReconcilePolicy {
+        DISCARD,
+        INVALIDATE,
+        WRITE_BACK
+    }
+
+    /**
+     * 本地条目
+     *
+     * @param value            缓存值
+     * @param localExpireAt    本地过期时间点（毫秒）
+     * @param redisExpireAt    写回 Redis 时使用的原始过期时间点（毫秒）
+     */
+    private record Entry(Object value, long localExpireAt, long redisExpireAt) {
+    }
+
+    /**
+     * 按前缀整体失效时每批 SCAN 与删除的键数
+     */
+    private static final int PREFIX_DELETE_BATCH_SIZE = 500;
+
+    private final FallbackCacheProperties properties;
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final RedisCircuitBreaker redisCircuitBreaker;
+    private final List<FallbackCacheProperties.Namespace> namespaces;
+
+    private final Cache<String, Entry> entries;
+
+    /**
+     * 恢复后需要在 Redis 中删除的键，值为登记序号，用于区分对账期间的重复登记
+     * （同一毫秒内的重复登记用时间戳无法区分）。
+     * 不按时间过期：故障持续多久，恢复后都需要删除。
+     */
+    private final Cache<String, Long> pendingDeletes;
+
+    /**
+     * 待删除登记溢出后需要整体失效的命名空间前缀，值为登记序号；前缀数量受命名空间个数限制
+     */
+    private final Map<String, Long> pendingPrefixDeletes = new ConcurrentHashMap<>();
+
+    private final AtomicLong deleteSequence = new AtomicLong();
+
+    private final Counter hitCounter;
+    private final Counter writeCounter;
+    private final Counter droppedDeleteCounter;
+    private final Map<ReconcilePolicy, Counter> reconcileCounters = new EnumMap<>(ReconcilePolicy.class);
+
+    public FallbackCacheStore(FallbackCacheProperties properties,
+                              RedisTemplate<String, Object> redisTemplate,
+                              RedisCircuitBreaker redisCircuitBreaker,
+                              MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.redisTemplate = redisTemplate;
+        this.redisCircuitBreaker = redisCircuitBreaker;
+        // 最长前缀优先匹配
+        this.namespaces = properties.getNamespaces().stream()
+                .sorted(Comparator.comparingInt((FallbackCacheProperties.Namespace ns) -> ns.getPrefix().length())
+                        .reversed())
+                .toList();
+        this.entries = Caffeine.newBuilder()
+                .maximumSize(properties.getMaxEntries())
+                .expireAfter(new Expiry<String, Entry>() {
+                    @Override
+                    public long expireAfterCreate(String key, Entry entry, long currentTime) {
+                        return remainingNanos(entry);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Entry entry, long currentTime, long currentDuration) {
+                        return remainingNanos(entry);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Entry entry, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+        this.pendingDeletes = Caffeine.newBuilder()
+                .maximumSize(properties.getMaxEntries())
+                // 同步回调：淘汰发生时立即登记命名空间失效，不会在对账前丢失
+                .evictionListener((String key, Long sequence, RemovalCause cause) -> {
+                    if (key != null && cause.wasEvicted()) {
+                        onPendingDeleteDropped(key);
+                    }
+                })
+                .build();
+
+        Gauge.builder("mq.cache.fallback.size", entries, Cache::estimatedSize)
+                .description("降级缓存当前条目数")
+                .register(meterRegistry);
+        this.hitCounter = Counter.builder("mq.cache.fallback.hits")
+                .description("Redis 不可用期间由降级缓存命中的读取次数")
+                .register(meterRegistry);
+        this.writeCounter = Counter.builder("mq.cache.fallback.writes")
+                .description("Redis 不可用期间写入降级缓存的次数")
+                .register(meterRegistry);
+        this.droppedDeleteCounter = Counter.builder("mq.cache.fallback.pending.dropped")
+                .description("待删除登记超出容量被淘汰、改为命名空间整体失效的键数")
+                .register(meterRegistry);
+        for (ReconcilePolicy policy : ReconcilePolicy.values()) {
+            reconcileCounters.put(policy, Counter.builder("mq.cache.fallback.reconciled")
+                    .description("Redis 恢复后对账处理的条目数")
+                    .tag("policy", policy.name())
+                    .register(meterRegistry));
+        }
+        log.info("降级缓存初始化完成，enabled: {}, maxEntries: {}, maxTtlSeconds: {}",
+                properties.isEnabled(), properties.getMaxEntries(), properties.getMaxTtlSeconds());
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * 是否没有任何待对账的数据（Redis 正常时的快速路径）
+     */
+    public boolean isEmpty() {
+        return entries.estimatedSize() == 0 && pendingDeletes.estimatedSize() == 0 && pendingPrefixDeletes.isEmpty();
+    }
+
+    public Object get(String key) {
+        if (!properties.isEnabled()) {
+            return null;
+        }
+        Entry entry = entries.getIfPresent(key);
+        if (entry == null) {
+            return null;
+        }
+        hitCounter.increment();
+        return entry.value();
+    }
+
+    public boolean exists(String key) {
+        return properties.isEnabled() && entries.getIfPresent(key) != null;
+    }
+
+    /**
+     * 故障期间写入
+     *
+     * @param key           缓存键
+     * @param value         缓存值
+     * @param expireSeconds 调用方指定的过期时间（秒）
+     * @return 是否已写入（未启用时返回 false）
+     */
+    public boolean put(String key, Object value, long expireSeconds) {
+        if (!properties.isEnabled() || value == null) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        long localTtlSeconds = Math.min(expireSeconds, properties.getMaxTtlSeconds());
+        entries.put(key, new Entry(value, now + TimeUnit.SECONDS.toMillis(localTtlSeconds),
+                now + TimeUnit.SECONDS.toMillis(expireSeconds)));
+        if (policyOf(key) == ReconcilePolicy.INVALIDATE) {
+            // 本地条目可能先于恢复被淘汰，失效登记单独保存
+            pendingDeletes.put(key, deleteSequence.incrementAndGet());
+        }
+        writeCounter.increment();
+        return true;
+    }
+
+    /**
+     * 故障期间删除：移除本地条目，并登记恢复后在 Redis 中删除
+     */
+    public void delete(String key) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        entries.invalidate(key);
+        pendingDeletes.put(key, deleteSequence.incrementAndGet());
+    }
+
+    /**
+     * 设置本地条目的过期时间；条目不存在时返回 false
+     */
+    public boolean expire(String key, long expireSeconds) {
+        Entry entry = properties.isEnabled() ? entries.getIfPresent(key) : null;
+        if (entry == null) {
+            return false;
+        }
+        return put(key, entry.value(), expireSeconds);
+    }
+
+    /**
+     * Redis 正常写入/删除后清除同名本地数据，Redis 中的值已是最新
+     */
+    public void evict(String key) {
+        entries.invalidate(key);
+        pendingDeletes.invalidate(key);
+    }
+
+    /**
+     * Redis 可用时按命名空间策略对账，失败时保留数据等待下次重试
+     */
+    @Scheduled(fixedDelayString = "${mq.cache.fallback.reconcile-interval-millis:1000}")
+    @SuppressWarnings("unchecked")
+    public void reconcile() {
+        if (isEmpty() || !redisCircuitBreaker.isAvailable()) {
+            return;
+        }
+        // 先处理尚未执行的容量淘汰，让溢出的登记在快照前转为命名空间失效
+        pendingDeletes.cleanUp();
+        Map<String, Long> prefixDeletes = Map.copyOf(pendingPrefixDeletes);
+        Map<String, Long> deletes = Map.copyOf(pendingDeletes.asMap());
+        Map<String, Entry> snapshot = Map.copyOf(entries.asMap());
+        long now = System.currentTimeMillis();
+        List<Map.Entry<String, Entry>> writeBacks = new ArrayList<>();
+        Map<ReconcilePolicy, Integer> counts = new EnumMap<>(ReconcilePolicy.class);
+        for (Map.Entry<String, Entry> item : snapshot.entrySet()) {
+            ReconcilePolicy policy = policyOf(item.getKey());
+            counts.merge(policy, 1, Integer::sum);
+            if (policy == ReconcilePolicy.WRITE_BACK && item.getValue().redisExpireAt() > now) {
+                writeBacks.add(item);
+            }
+        }
+
+        long prefixDeleted = 0;
+        try {
+            // 先按前缀整体失效，再写回，避免写回的数据被随后的前缀删除覆盖
+            for (String prefix : prefixDeletes.keySet()) {
+                prefixDeleted += deleteByPrefix(prefix);
+            }
+            if (!deletes.isEmpty() || !writeBacks.isEmpty()) {
+                redisTemplate.executePipelined(new SessionCallback<Object>() {
+                    @Override
+                    public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                        RedisOperations<String, Object> ops = (RedisOperations<String, Object>) operations;
+                        // 逐键删除，兼容 Redis Cluster
+                        deletes.keySet().forEach(ops::delete);
+                        for (Map.Entry<String, Entry> item : writeBacks) {
+                            ops.opsForValue().set(item.getKey(), item.getValue().value(),
+                                    item.getValue().redisExpireAt() - now, TimeUnit.MILLISECONDS);
+                        }
+                        return null;
+                    }
+                });
+            }
+            redisCircuitBreaker.recordSuccess();
+        } catch (Exception e) {
+            redisCircuitBreaker.recordFailure(e);
+            log.warn("降级缓存对账失败，等待下次重试: {}", e.getMessage());
+            return;
+        }
+
+        // 只移除快照中的版本，对账期间重新写入的数据留到下一轮
+        prefixDeletes.forEach((prefix, sequence) -> pendingPrefixDeletes.remove(prefix, sequence));
+        deletes.forEach((key, sequence) -> pendingDeletes.asMap().remove(key, sequence));
+        snapshot.forEach((key, entry) -> entries.asMap().remove(key, entry));
+        counts.forEach((policy, count) -> reconcileCounters.get(policy).increment(count));
+        log.info("Redis 已恢复，降级缓存对账完成，删除键: {}, 整体失效命名空间: {}（删除 {} 个键）, 写回: {}, 本地条目: {}",
+                deletes.size(), prefixDeletes.keySet(), prefixDeleted, writeBacks.size(), counts);
+    }
+
+    /**
+     * 待删除登记被容量淘汰：登记所在命名空间整体失效并计数
+     */
+    private void onPendingDeleteDropped(String key) {
+        String prefix = namespaceOf(key);
+        pendingPrefixDeletes.put(prefix, deleteSequence.incrementAndGet());
+        droppedDeleteCounter.increment();
+        log.warn("降级缓存待删除登记已满，恢复后整体失效命名空间: {}", prefix);
+    }
+
+    /**
+     * 按前缀 SCAN 并分批删除（逐键删除，兼容 Redis Cluster）
+     *
+     * @return 删除的键数
+     */
+    private long deleteByPrefix(String prefix) {
+        long deleted = 0;
+        List<String> batch = new ArrayList<>(PREFIX_DELETE_BATCH_SIZE);
+        ScanOptions options = ScanOptions.scanOptions().match(prefix + "*").count(PREFIX_DELETE_BATCH_SIZE).build();
+        try (Cursor<String> cursor = redisTemplate.scan(options)) {
+            while (cursor.hasNext()) {
+                batch.add(cursor.next());
+                if (batch.size() >= PREFIX_DELETE_BATCH_SIZE) {
+                    deleted += deleteBatch(batch);
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            deleted += deleteBatch(batch);
+        }
+        return deleted;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int deleteBatch(List<String> keys) {
+        List<String> snapshot = List.copyOf(keys);
+        redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<String, Object> ops = (RedisOperations<String, Object>) operations;
+                snapshot.forEach(ops::delete);
+                return null;
+            }
+        });
+        return snapshot.size();
+    }
+
+    /**
+     * 键所属的命名空间前缀：优先使用配置的命名空间，未配置时取最后一个冒号及之前的部分
+     */
+    String namespaceOf(String key) {
+        for (FallbackCacheProperties.Namespace namespace : namespaces) {
+            if (key.startsWith(namespace.getPrefix())) {
+                return namespace.getPrefix();
+            }
+        }
+        int separator = key.lastIndexOf(':');
+        return separator < 0 ? key : key.substring(0, separator + 1);
+    }
+
+    ReconcilePolicy policyOf(String key) {
+        for (FallbackCacheProperties.Namespace namespace : namespaces) {
+            if (key.startsWith(namespace.getPrefix())) {
+                return namespace.getPolicy();
+            }
+        }
+        return properties.getDefaultPolicy();
+    }
+
+    private static long remainingNanos(Entry entry) {
+        long remainingMillis = entry.localExpireAt() - System.currentTimeMillis();
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, remainingMillis));
+    }
+}
@@ -0,0 +1,81 @@
+package com.mq.mqaiagent.cache;
+
+/**
+ * TinyLFU 频率估计：count-min sketch + 周期性衰减
+ * depth 行计数器，每行通过不同的哈希种子定位一个计数器，估计值取各行最小值（只会高估，不会低估）；
+ * 计数器上限为 15（与 TinyLFU 的 4 位计数器一致），累计写入次数达到采样周期后所有计数器减半，
+ * 让历史热点逐渐冷却，近期频率占主导。
+ * 线程安全：所有方法同步，单次操作只涉及 depth 个数组元素。
+ */
+public final class FrequencySketch {
+
+    private static final int DEPTH = 4;
+
+    private static final int MAX_COUNT = 15;
+
+    private static final long[] SEEDS = {
+            0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L
+    };
+
+    private final int[][] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * @param width 每行计数器数量，向上取整为 2 的幂
+     */
+    public FrequencySketch(int width) {
+        int size = Math.max(16, Integer.highestOneBit(Math.max(1, width - 1)) << 1);
+        this.table = new int[DEPTH][size];
+        this.mask = size - 1;
+        // 与 Caffeine 相同，采样周期取计数器数量的 10 倍
+        this.sampleSize = 10 * size;
+    }
+
+    /**
+     * 记录一次访问
+     */
+    public synchronized void increment(long key) {
+        boolean added = false;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = indexOf(key, i);
+            if (table[i][index] < MAX_COUNT) {
+                table[i][index]++;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * 估计访问频率
+     */
+    public synchronized int frequency(long key) {
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < DEPTH; i++) {
+            frequency = Math.min(frequency, table[i][indexOf(key, i)]);
+        }
+        return frequency;
+    }
+
+    /**
+     * 衰减：所有计数器减半
+     */
+    private void reset() {
+        for (int[] row : table) {
+            for (int j = 0; j < row.length; j++) {
+                row[j] >>>= 1;
+            }
+        }
+        additions >>>= 1;
+    }
+
+    private int indexOf(long key, int row) {
+        long hash = (key + SEEDS[row]) * SEEDS[(row + 1) % DEPTH];
+        hash ^= hash >>> 32;
+        return (int) hash & mask;
+    }
+}
@@ -0,0 +1,354 @@
+package com.mq.mqaiagent.cache;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.DefaultInstantiatorStrategy;
+import com.esotericsoftware.kryo.util.Pool;
+import lombok.extern.slf4j.Slf4j;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 基于 Kryo 的 Redis 值序列化器
+ * 存储格式：[魔数 0xC1][版本][标志位][Kryo 数据（可能经过 Deflate 压缩）]。
+ * 0xC1 在 UTF-8 中永远不会出现，可与旧的 JSON 数据可靠区分：读到不带头部的数据时交给旧序列化器解析，
+ * 下次写入即转换为新格式，旧键无需停机迁移。
+ * 关闭 Kryo 写入（json 模式）时只写旧格式，但仍能读取带头部的数据，因此可以随时在两种模式间切换。
+ * <p>
+ * Kryo 实例非线程安全，通过 {@link Pool} 复用；常用类按固定 ID 注册，只能在末尾追加，不能调整已有顺序。
+ * 不可变集合（如 {@code Stream.toList()} 的结果）统一按可变集合写入，读出后为 ArrayList/LinkedHashMap/LinkedHashSet。
+ * <p>
+ * 字符串仍按旧格式写入：排行榜等 ZSet 成员、Hash 字段值以字节内容作为身份，切换格式会让同一成员出现两份。
+ */
+@Slf4j
+public class KryoRedisSerializer implements RedisSerializer<Object> {
+
+    /**
+     * 魔数，UTF-8 中不会出现的字节
+     */
+    static final byte MAGIC = (byte) 0xC1;
+
+    /**
+     * 当前格式版本
+     */
+    static final byte VERSION = 1;
+
+    /**
+     * 标志位：数据经过 Deflate 压缩
+     */
+    static final byte FLAG_DEFLATE = 0x01;
+
+    private static final int HEADER_LENGTH = 3;
+
+    private static final int OUTPUT_BUFFER_SIZE = 4096;
+
+    /**
+     * 注册类的起始 ID（Kryo 内置基础类型占用了前面的 ID）
+     */
+    private static final int REGISTRATION_ID_BASE = 100;
+
+    private final RedisSerializer<Object> legacySerializer;
+    private final boolean kryoWriteEnabled;
+    private final int compressThresholdBytes;
+    private final Pool<Kryo> kryoPool;
+
+    /**
+     * @param legacySerializer       旧格式（无头部）数据的序列化器，用于惰性迁移
+     * @param compressThresholdBytes Kryo 数据超过该字节数时压缩，小于等于 0 表示不压缩
+     * @param poolSize               Kryo 实例池大小
+     */
+    public KryoRedisSerializer(RedisSerializer<Object> legacySerializer, int compressThresholdBytes, int poolSize) {
+        this(legacySerializer, true, compressThresholdBytes, poolSize);
+    }
+
+    /**
+     * @param legacySerializer       旧格式（无头部）数据的序列化器
+     * @param kryoWriteEnabled       是否以 Kryo 格式写入；为 false 时全部按旧格式写入，读取时仍识别 Kryo 数据
+     * @param compressThresholdBytes Kryo 数据超过该字节数时压缩，小于等于 0 表示不压缩
+     * @param poolSize               Kryo 实例池大小
+     */
+    public KryoRedisSerializer(RedisSerializer<Object> legacySerializer, boolean kryoWriteEnabled,
+                               int compressThresholdBytes, int poolSize) {
+        this.legacySerializer = legacySerializer;
+        this.kryoWriteEnabled = kryoWriteEnabled;
+        this.compressThresholdBytes = compressThresholdBytes;
+        this.kryoPool = new Pool<>(true, false, poolSize) {
+            @Override
+            protected Kryo create() {
+                return createKryo();
+            }
+        };
+    }
+
+    @Override
+    public byte[] serialize(Object value) throws SerializationException {
+        if (value == null) {
+            return new byte[0];
+        }
+        if (!kryoWriteEnabled || value instanceof String) {
+            return legacySerializer.serialize(value);
+        }
+        byte[] payload;
+        Kryo kryo = kryoPool.obtain();
+        try (Output output = new Output(OUTPUT_BUFFER_SIZE, -1)) {
+            kryo.writeClassAndObject(output, value);
+            payload = output.toBytes();
+        } catch (Exception e) {
+            throw new SerializationException("Kryo 序列化失败: " + value.getClass().getName(), e);
+        } finally {
+            kryoPool.free(kryo);
+        }
+
+        byte flags = 0;
+        if (compressThresholdBytes > 0 && payload.length > compressThresholdBytes) {
+            byte[] compressed = deflate(payload);
+            // 压缩收益不足时保留原始数据
+            if (compressed.length < payload.length) {
+                payload = compressed;
+                flags |= FLAG_DEFLATE;
+            }
+        }
+        byte[] bytes = new byte[HEADER_LENGTH + payload.length];
+        bytes[0] = MAGIC;
+        bytes[1] = VERSION;
+        bytes[2] = flags;
+        System.arraycopy(payload, 0, bytes, HEADER_LENGTH, payload.length);
+        return bytes;
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes[0] != MAGIC) {
+            // 旧格式数据（JSON），由旧序列化器解析；Kryo 写入开启时，下次写入转换为新格式
+            return legacySerializer.deserialize(bytes);
+        }
+        if (bytes.length < HEADER_LENGTH || bytes[1] != VERSION) {
+            throw new SerializationException("不支持的缓存数据格式版本: " + (bytes.length > 1 ? bytes[1] : -1));
+        }
+        Input input = (bytes[2] & FLAG_DEFLATE) != 0
+                ? new Input(inflate(bytes, HEADER_LENGTH))
+                : new Input(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH);
+
+        Kryo kryo = kryoPool.obtain();
+        try (input) {
+            return kryo.readClassAndObject(input);
+        } catch (Exception e) {
+            throw new SerializationException("Kryo 反序列化失败", e);
+        } finally {
+            kryoPool.free(kryo);
+        }
+    }
+
+    /**
+     * 创建按本序列化器固定 ID 注册的 Kryo 实例（非线程安全，调用方自行池化）
+     * 本地持久化的数据（如 {@link com.mq.mqaiagent.chatmemory.FileBasedChatMemory} 的段文件）与 Redis 共用同一套注册，
+     * 因此注册顺序同样只能在末尾追加
+     *
+     * @return Kryo 实例
+     */
+    public static Kryo createKryo() {
+        Kryo kryo = new Kryo();
+        // 未注册的类仍可序列化（写入类名），注册只是为了让常用类只占 1~2 个字节
+        kryo.setRegistrationRequired(false);
+        kryo.setReferences(false);
+        // 优先使用无参构造，没有时（Spring AI 的 Message 等）绕过构造函数
+        kryo.setInstantiatorStrategy(new DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
+
+        CopyingListSerializer listSerializer = new CopyingListSerializer();
+        CopyingMapSerializer mapSerializer = new CopyingMapSerializer();
+        CopyingSetSerializer setSerializer = new CopyingSetSerializer();
+        for (String className : List.of("java.util.ImmutableCollections$AbstractImmutableList",
+                "java.util.Collections$UnmodifiableList", "java.util.Collections$SingletonList",
+                "java.util.Collections$EmptyList", "java.util.Arrays$ArrayList", "java.util.ArrayList$SubList")) {
+            addDefaultSerializer(kryo, className, listSerializer);
+        }
+        for (String className : List.of("java.util.ImmutableCollections$AbstractImmutableMap",
+                "java.util.Collections$UnmodifiableMap", "java.util.Collections$SingletonMap",
+                "java.util.Collections$EmptyMap")) {
+            addDefaultSerializer(kryo, className, mapSerializer);
+        }
+        for (String className : List.of("java.util.ImmutableCollections$AbstractImmutableSet",
+                "java.util.Collections$UnmodifiableSet", "java.util.Collections$SingletonSet",
+                "java.util.Collections$EmptySet")) {
+            addDefaultSerializer(kryo, className, setSerializer);
+        }
+
+        // 固定 ID 注册，只能在末尾追加
+        int id = REGISTRATION_ID_BASE;
+        kryo.register(ArrayList.class, id++);
+        kryo.register(LinkedList.class, id++);
+        kryo.register(HashMap.class, id++);
+        kryo.register(LinkedHashMap.class, id++);
+        kryo.register(HashSet.class, id++);
+        kryo.register(LinkedHashSet.class, id++);
+        kryo.register(Date.class, id++);
+        kryo.register(MessageType.class, id++);
+        kryo.register(UserMessage.class, id++);
+        kryo.register(AssistantMessage.class, id++);
+        kryo.register(SystemMessage.class, id++);
+        kryo.register(ToolResponseMessage.class, id++);
+        kryo.register(AssistantMessage.ToolCall.class, id++);
+        kryo.register(ToolResponseMessage.ToolResponse.class, id++);
+        registerByName(kryo, "java.util.ImmutableCollections$List12", listSerializer, id++);
+        registerByName(kryo, "java.util.ImmutableCollections$ListN", listSerializer, id++);
+        registerByName(kryo, "java.util.ImmutableCollections$Map1", mapSerializer, id++);
+        registerByName(kryo, "java.util.ImmutableCollections$MapN", mapSerializer, id++);
+        registerByName(kryo, "java.util.ImmutableCollections$Set12", setSerializer, id++);
+        registerByName(kryo, "java.util.ImmutableCollections$SetN", setSerializer, id++);
+        return kryo;
+    }
+
+    private static void addDefaultSerializer(Kryo kryo, String className, Serializer<?> serializer) {
+        try {
+            kryo.addDefaultSerializer(Class.forName(className), serializer);
+        } catch (ClassNotFoundException e) {
+            log.debug("当前 JDK 不存在集合类 {}，跳过注册", className);
+        }
+    }
+
+    private static void registerByName(Kryo kryo, String className, Serializer<?> serializer, int id) {
+        try {
+            kryo.register(Class.forName(className), serializer, id);
+        } catch (ClassNotFoundException e) {
+            log.debug("当前 JDK 不存在集合类 {}，跳过注册", className);
+        }
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+            byte[] buffer = new byte[OUTPUT_BUFFER_SIZE];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data, int offset) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, offset, data.length - offset);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 3);
+            byte[] buffer = new byte[OUTPUT_BUFFER_SIZE];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new SerializationException("压缩数据不完整");
+                }
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new SerializationException("解压缓存数据失败", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * 不可变/视图 List 按元素写入，读出为 ArrayList
+     */
+    private static final class CopyingListSerializer extends Serializer<List<Object>> {
+
+        @Override
+        public void write(Kryo kryo, Output output, List<Object> list) {
+            writeElements(kryo, output, list);
+        }
+
+        @Override
+        public List<Object> read(Kryo kryo, Input input, Class<? extends List<Object>> type) {
+            int size = input.readVarInt(true);
+            List<Object> list = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                list.add(kryo.readClassAndObject(input));
+            }
+            return list;
+        }
+    }
+
+    /**
+     * 不可变/视图 Set 按元素写入，读出为 LinkedHashSet
+     */
+    private static final class CopyingSetSerializer extends Serializer<Set<Object>> {
+
+        @Override
+        public void write(Kryo kryo, Output output, Set<Object> set) {
+            writeElements(kryo, output, set);
+        }
+
+        @Override
+        public Set<Object> read(Kryo kryo, Input input, Class<? extends Set<Object>> type) {
+            int size = input.readVarInt(true);
+            Set<Object> set = new LinkedHashSet<>(Math.max(16, size * 2));
+            for (int i = 0; i < size; i++) {
+                set.add(kryo.readClassAndObject(input));
+            }
+            return set;
+        }
+    }
+
+    /**
+     * 不可变/视图 Map 按键值对写入，读出为 LinkedHashMap
+     */
+    private static final class CopyingMapSerializer extends Serializer<Map<Object, Object>> {
+
+        @Override
+        public void write(Kryo kryo, Output output, Map<Object, Object> map) {
+            output.writeVarInt(map.size(), true);
+            for (Map.Entry<Object, Object> entry : map.entrySet()) {
+                kryo.writeClassAndObject(output, entry.getKey());
+                kryo.writeClassAndObject(output, entry.getValue());
+            }
+        }
+
+        @Override
+        public Map<Object, Object> read(Kryo kryo, Input input, Class<? extends Map<Object, Object>> type) {
+            int size = input.readVarInt(true);
+            Map<Object, Object> map = new LinkedHashMap<>(Math.max(16, size * 2));
+            for (int i = 0; i < size; i++) {
+                map.put(kryo.readClassAndObject(input), kryo.readClassAndObject(input));
+            }
+            return map;
+        }
+    }
+
+    private static void writeElements(Kryo kryo, Output output, Collection<Object> elements) {
+        output.writeVarInt(elements.size(), true);
+        for (Object element : elements) {
+            kryo.writeClassAndObject(output, element);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.mq.mqaiagent.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AI 响应的进程内 L1 缓存
+ * 容量按字节数（键和值的 UTF-16 字符数 * 2 加对象头估算）限制，而不是条目数，
+ * 避免少量超长回答挤占全部堆内存。
+ */
+@Component
+@Slf4j
+public class LocalResponseCache {
+
+    /**
+     * 单个条目的固定开销估算（String 对象头、数组头、Caffeine 节点）
+     */
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private final boolean enabled;
+    private final Cache<String, String> cache;
+
+    public LocalResponseCache(AiResponseCacheProperties properties) {
+        this.enabled = properties.isL1Enabled();
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(properties.getL1MaxBytes())
+                .weigher((String key, String value) -> weigh(key, value))
+                .expireAfterWrite(properties.getL1ExpireSeconds(), TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        log.info("AI 响应 L1 缓存初始化完成，enabled: {}, maxBytes: {}, expireSeconds: {}",
+                enabled, properties.getL1MaxBytes(), properties.getL1ExpireSeconds());
+    }
+
+    public String get(String key) {
+        return enabled ? cache.getIfPresent(key) : null;
+    }
+
+    public void put(String key, String value) {
+        if (enabled && key != null && value != null) {
+            cache.put(key, value);
+        }
+    }
+
+    public void invalidate(String key) {
+        cache.invalidate(key);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * 当前占用的字节数估算
+     */
+    public long weightedSize() {
+        return cache.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0L))
+                .orElse(0L);
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    static int weigh(String key, String value) {
+        long bytes = 2L * (key.length() + value.length()) + ENTRY_OVERHEAD_BYTES;
+        return (int) Math.min(bytes, Integer.MAX_VALUE);
+    }
+}
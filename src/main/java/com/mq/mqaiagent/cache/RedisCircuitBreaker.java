@@ -0,0 +1,188 @@
+package com.mq.mqaiagent.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.net.ConnectException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Redis 熔断器
+ * 可用状态保存在内存中，由后台定时 PING 和业务调用的连接失败共同维护，
+ * 热路径判断 Redis 是否可用不再产生网络往返；Redis 卡死时打开熔断，后续调用立即跳过 Redis，
+ * 不必每次都等待连接超时。
+ * <ul>
+ *     <li>CLOSED：正常放行；连续失败达到阈值后转为 OPEN</li>
+ *     <li>OPEN：拒绝所有调用；保持 openMillis 后由第一个调用或探测转为 HALF_OPEN</li>
+ *     <li>HALF_OPEN：只放行一次试探，成功转为 CLOSED，失败重新 OPEN</li>
+ * </ul>
+ * 状态与状态转换次数通过 Micrometer 导出：mq.redis.breaker.state、mq.redis.breaker.transitions。
+ */
+@Component
+@Slf4j
+public class RedisCircuitBreaker {
+
+    /**
+     * 熔断器状态
+     */
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final RedisCircuitBreakerProperties properties;
+    private final RedisConnectionFactory connectionFactory;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long openedAt;
+
+    private final Map<State, Map<State, Counter>> transitionCounters = new EnumMap<>(State.class);
+
+    public RedisCircuitBreaker(RedisCircuitBreakerProperties properties,
+                               RedisConnectionFactory connectionFactory,
+                               MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.connectionFactory = connectionFactory;
+        Gauge.builder("mq.redis.breaker.state", state, s -> s.get().ordinal())
+                .description("Redis 熔断器状态：0=CLOSED，1=OPEN，2=HALF_OPEN")
+                .register(meterRegistry);
+        for (State from : State.values()) {
+            Map<State, Counter> counters = new EnumMap<>(State.class);
+            for (State to : State.values()) {
+                if (from != to) {
+                    counters.put(to, Counter.builder("mq.redis.breaker.transitions")
+                            .description("Redis 熔断器状态转换次数")
+                            .tag("from", from.name())
+                            .tag("to", to.name())
+                            .register(meterRegistry));
+                }
+            }
+            transitionCounters.put(from, counters);
+        }
+    }
+
+    /**
+     * Redis 是否可用（只读状态，不会触发半开试探）
+     */
+    public boolean isAvailable() {
+        return state.get() == State.CLOSED;
+    }
+
+    /**
+     * 当前状态
+     */
+    public State getState() {
+        return state.get();
+    }
+
+    /**
+     * 是否放行本次 Redis 调用
+     * OPEN 超过 openMillis 后，第一个调用者把状态切换为 HALF_OPEN 并作为试探放行，
+     * 调用方需通过 {@link #recordSuccess()} / {@link #recordFailure(Throwable)} 回报结果。
+     */
+    public boolean allowRequest() {
+        State current = state.get();
+        if (current == State.CLOSED) {
+            return true;
+        }
+        if (current == State.OPEN && System.currentTimeMillis() - openedAt >= properties.getOpenMillis()) {
+            return transition(State.OPEN, State.HALF_OPEN);
+        }
+        return false;
+    }
+
+    /**
+     * 记录一次成功调用
+     */
+    public void recordSuccess() {
+        if (state.get() == State.HALF_OPEN) {
+            consecutiveFailures.set(0);
+            transition(State.HALF_OPEN, State.CLOSED);
+        } else if (consecutiveFailures.get() != 0) {
+            consecutiveFailures.set(0);
+        }
+    }
+
+    /**
+     * 记录一次失败调用；只有连接失败、超时类异常计入熔断
+     */
+    public void recordFailure(Throwable error) {
+        if (!isConnectivityFailure(error)) {
+            return;
+        }
+        State current = state.get();
+        if (current == State.HALF_OPEN) {
+            open(State.HALF_OPEN);
+        } else if (current == State.CLOSED
+                && consecutiveFailures.incrementAndGet() >= properties.getFailureThreshold()) {
+            open(State.CLOSED);
+        }
+    }
+
+    /**
+     * 后台健康探测：CLOSED 时提前发现故障；OPEN 到期后进入半开并完成试探，
+     * 业务调用拿到试探机会但未回报结果时，也由探测结束半开状态
+     */
+    @Scheduled(fixedDelayString = "${mq.cache.redis-breaker.probe-interval-millis:2000}")
+    public void probe() {
+        if (state.get() == State.OPEN && !allowRequest()) {
+            return;
+        }
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            connection.ping();
+            recordSuccess();
+        } catch (Exception e) {
+            log.debug("Redis 健康探测失败: {}", e.getMessage());
+            recordFailure(e);
+        }
+    }
+
+    private void open(State from) {
+        openedAt = System.currentTimeMillis();
+        if (transition(from, State.OPEN)) {
+            log.warn("Redis 熔断器打开，{} 毫秒内跳过 Redis 调用", properties.getOpenMillis());
+        }
+    }
+
+    private boolean transition(State from, State to) {
+        if (!state.compareAndSet(from, to)) {
+            return false;
+        }
+        transitionCounters.get(from).get(to).increment();
+        if (to == State.CLOSED) {
+            log.info("Redis 熔断器关闭，恢复 Redis 调用");
+        } else if (to == State.HALF_OPEN) {
+            log.info("Redis 熔断器半开，放行一次试探");
+        }
+        return true;
+    }
+
+    /**
+     * 是否为连接失败、超时类异常（而非命令或序列化错误）
+     */
+    public static boolean isConnectivityFailure(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DataAccessResourceFailureException
+                    || cause instanceof QueryTimeoutException
+                    || cause instanceof ConnectException
+                    || cause instanceof TimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,39 @@
+package com.mq.mqaiagent.cache;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Redis 熔断与健康探测配置。
+ *
+ * 配置示例：
+ * <pre>
+ * mq:
+ *   cache:
+ *     redis-breaker:
+ *       probe-interval-millis: 2000
+ *       failure-threshold: 3
+ *       open-millis: 10000
+ * </pre>
+ */
+@Component
+@ConfigurationProperties(prefix = "mq.cache.redis-breaker")
+@Data
+public class RedisCircuitBreakerProperties {
+
+    /**
+     * 后台健康探测（PING）间隔（毫秒）。
+     */
+    private long probeIntervalMillis = 2000;
+
+    /**
+     * 连续失败多少次后熔断（探测失败与业务调用的连接失败都计入）。
+     */
+    private int failureThreshold = 3;
+
+    /**
+     * 熔断后至少保持打开的时长（毫秒），之后进入半开状态放行一次试探。
+     */
+    private long openMillis = 10_000;
+}
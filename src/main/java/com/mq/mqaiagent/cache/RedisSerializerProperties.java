@@ -0,0 +1,40 @@
+package com.mq.mqaiagent.cache;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Redis 值序列化配置。
+ *
+ * 配置示例：
+ * <pre>
+ * mq:
+ *   cache:
+ *     serializer:
+ *       type: kryo
+ *       compress-threshold-bytes: 1024
+ *       pool-size: 32
+ * </pre>
+ */
+@Component
+@ConfigurationProperties(prefix = "mq.cache.serializer")
+@Data
+public class RedisSerializerProperties {
+
+    /**
+     * 写入格式：kryo（二进制，带版本头）或 json（原 Jackson 格式）。
+     * 两种模式都能读取 Kryo 与 JSON 数据，切换时无需清空缓存。
+     */
+    private String type = "kryo";
+
+    /**
+     * 序列化结果超过该字节数时使用 Deflate 压缩，小于等于 0 表示不压缩。
+     */
+    private int compressThresholdBytes = 1024;
+
+    /**
+     * Kryo 实例池大小。
+     */
+    private int poolSize = 32;
+}
@@ -0,0 +1,163 @@
+package com.mq.mqaiagent.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mq.mqaiagent.manager.ResponseStoreManager;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 热点 AI 回答的提前刷新
+ * 命中缓存时，若问题的估计访问频率（{@link AdmissionFilter}）达到阈值，就在后台检查缓存指针的剩余过期时间，
+ * 剩余时间不超过 refreshAheadSeconds 时重新生成回答并写回，热点回答因此不会过期，也就不会在过期瞬间集中回源模型。
+ * <ul>
+ *     <li>请求线程只做频率判断与提交，TTL 查询与模型调用都在有界线程池中执行，队列满时直接丢弃</li>
+ *     <li>同一缓存键在 refreshAheadCheckIntervalSeconds 内只检查一次</li>
+ *     <li>多节点通过 Redis SET NX 认领刷新，同一刷新窗口内只有一个节点调用模型</li>
+ * </ul>
+ */
+@Component
+@Slf4j
+public class RefreshAheadScheduler {
+
+    /**
+     * 刷新认领键前缀
+     */
+    private static final String CLAIM_KEY_PREFIX = "mq:ai:agent:refresh:";
+
+    private final AiResponseCacheProperties properties;
+    private final AdmissionFilter admissionFilter;
+    private final ResponseStoreManager responseStoreManager;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisCircuitBreaker redisCircuitBreaker;
+
+    private final ThreadPoolExecutor executor;
+    private final Cache<String, Boolean> recentlyChecked;
+
+    private final AtomicLong refreshed = new AtomicLong(0);
+    private final AtomicLong failed = new AtomicLong(0);
+    private final AtomicLong dropped = new AtomicLong(0);
+
+    public RefreshAheadScheduler(AiResponseCacheProperties properties,
+                                 AdmissionFilter admissionFilter,
+                                 ResponseStoreManager responseStoreManager,
+                                 StringRedisTemplate stringRedisTemplate,
+                                 RedisCircuitBreaker redisCircuitBreaker) {
+        this.properties = properties;
+        this.admissionFilter = admissionFilter;
+        this.responseStoreManager = responseStoreManager;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redisCircuitBreaker = redisCircuitBreaker;
+        int concurrency = Math.max(1, properties.getRefreshAheadConcurrency());
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, properties.getRefreshAheadQueueCapacity())),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "ai-refresh-ahead-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+        this.recentlyChecked = Caffeine.newBuilder()
+                .maximumSize(10_000)
+                .expireAfterWrite(Duration.ofSeconds(properties.getRefreshAheadCheckIntervalSeconds()))
+                .build();
+        log.info("AI 回答提前刷新初始化完成，enabled: {}, minFrequency: {}, refreshAheadSeconds: {}, concurrency: {}",
+                properties.isRefreshAheadEnabled(), properties.getRefreshAheadMinFrequency(),
+                properties.getRefreshAheadSeconds(), concurrency);
+    }
+
+    /**
+     * 命中缓存后调用：问题足够热且缓存即将过期时，在后台执行刷新
+     *
+     * @param cacheKey     缓存指针键
+     * @param questionHash 问题的归一化哈希
+     * @param refresh      重新生成并写回缓存，返回是否写入成功
+     */
+    public void maybeRefresh(String cacheKey, String questionHash, BooleanSupplier refresh) {
+        if (!properties.isRefreshAheadEnabled()
+                || admissionFilter.frequency(questionHash) < properties.getRefreshAheadMinFrequency()
+                || recentlyChecked.asMap().putIfAbsent(cacheKey, Boolean.TRUE) != null) {
+            return;
+        }
+        try {
+            executor.execute(() -> refreshIfExpiring(cacheKey, refresh));
+        } catch (RejectedExecutionException e) {
+            dropped.incrementAndGet();
+            log.debug("提前刷新队列已满，丢弃本次刷新，key: {}", cacheKey);
+        }
+    }
+
+    private void refreshIfExpiring(String cacheKey, BooleanSupplier refresh) {
+        long ttl = responseStoreManager.ttlSeconds(cacheKey);
+        if (ttl < 0 || ttl > properties.getRefreshAheadSeconds() || !claim(cacheKey)) {
+            return;
+        }
+        try {
+            if (refresh.getAsBoolean()) {
+                refreshed.incrementAndGet();
+                log.info("热点 AI 回答已提前刷新，key: {}, 刷新前剩余: {}s", cacheKey, ttl);
+            } else {
+                failed.incrementAndGet();
+            }
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            log.warn("热点 AI 回答提前刷新失败，key: {}, error: {}", cacheKey, e.getMessage());
+        }
+    }
+
+    /**
+     * 认领本刷新窗口内的刷新；Redis 不可用时不刷新（写回也会失败）
+     */
+    private boolean claim(String cacheKey) {
+        if (!redisCircuitBreaker.allowRequest()) {
+            return false;
+        }
+        try {
+            return Boolean.TRUE.equals(stringRedisTemplate.opsForValue().setIfAbsent(CLAIM_KEY_PREFIX + cacheKey,
+                    "1", Duration.ofSeconds(properties.getRefreshAheadSeconds())));
+        } catch (Exception e) {
+            redisCircuitBreaker.recordFailure(e);
+            log.debug("认领提前刷新失败，key: {}, error: {}", cacheKey, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 已完成的刷新次数
+     */
+    public long getRefreshed() {
+        return refreshed.get();
+    }
+
+    /**
+     * 失败的刷新次数
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * 因队列已满被丢弃的刷新次数
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
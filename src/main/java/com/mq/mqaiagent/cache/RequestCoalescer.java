@@ -0,0 +1,346 @@
+package com.mq.mqaiagent.cache;
+
+import com.mq.mqaiagent.common.ErrorCode;
+import com.mq.mqaiagent.exception.BusinessException;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 相同 LLM 请求的合并（single-flight）
+ * 以 AI 响应缓存键为合并键：
+ * 1. 本节点内，同一个键同时只有一个请求（leader）真正调用模型，其他请求（follower）等待 leader 的结果；
+ * 2. 跨节点时，leader 先通过 Redis 短租约（SET NX PX）竞争，成功后把完整结果发布到结果键再释放租约；
+ *    未抢到租约的节点按退避间隔轮询结果键，租约释放或过期后仍未等到结果则自行调用模型。
+ *    结果键与 AI 响应缓存相互独立，回答未通过缓存准入时 follower 同样能拿到结果，轮询也不会计入缓存访问；
+ * 3. 流式请求的 follower 直接订阅 leader 的共享流，已输出的片段会先回放；
+ *    共享流结束后才订阅的 follower 直接回放完整结果，不会再次请求上游。
+ * follower 的回答没有经过自己的 ChatClient 调用，取得完整结果后通过 onShared 回调交给调用方（如写入自己的对话记忆）。
+ * Redis 不可用时退化为仅本节点合并。
+ */
+@Component
+@Slf4j
+public class RequestCoalescer {
+
+    private static final String LEASE_KEY_PREFIX = "mq:ai:agent:inflight:";
+
+    private static final String RESULT_KEY_PREFIX = "mq:ai:agent:coalesced:";
+
+    /**
+     * 只释放自己持有的租约
+     */
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) end return 0",
+            Long.class);
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final ConcurrentHashMap<String, CompletableFuture<String>> inFlightCalls = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, Flux<String>> inFlightStreams = new ConcurrentHashMap<>();
+
+    private final AtomicLong localCoalesced = new AtomicLong(0);
+
+    private final AtomicLong remoteCoalesced = new AtomicLong(0);
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private AiResponseCacheProperties properties;
+
+    @Resource
+    private RedisCircuitBreaker redisCircuitBreaker;
+
+    /**
+     * 合并执行阻塞式请求
+     *
+     * @param key      合并键（AI 响应缓存键）
+     * @param loader   真正调用模型的逻辑，需自行写入缓存
+     * @param onShared 本次请求复用了其他请求的结果时回调，参数为完整回答
+     * @return 模型响应
+     */
+    public String execute(String key, Supplier<String> loader, Consumer<String> onShared) {
+        if (!properties.isCoalescingEnabled()) {
+            return loader.get();
+        }
+        CompletableFuture<String> future = new CompletableFuture<>();
+        CompletableFuture<String> existing = inFlightCalls.putIfAbsent(key, future);
+        if (existing != null) {
+            localCoalesced.incrementAndGet();
+            log.debug("合并本节点进行中的相同请求，key: {}", key);
+            return await(existing, key, loader, onShared);
+        }
+        try {
+            String response = leadOrFollowRemote(key, loader, onShared);
+            future.complete(response);
+            return response;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightCalls.remove(key, future);
+        }
+    }
+
+    /**
+     * 合并流式请求：本节点内相同的请求共享同一个上游流
+     * 共享流在所有订阅者都取消后断开上游，上游结束后从合并表中移除。
+     * 跨节点时，若其他节点持有租约，先在租约有效期内轮询结果（阻塞调用，调用方需保证在弹性线程池中执行），
+     * 取到结果则回放，否则自行请求上游。
+     *
+     * @param key      合并键（AI 响应缓存键）
+     * @param replay   将完整回答转换为流
+     * @param upstream 创建上游流，需自行在正常结束时写入缓存
+     * @param onShared 本次请求复用了其他请求的结果时回调，参数为完整回答；共享流只在正常结束后回调
+     */
+    public Flux<String> share(String key, Function<String, Flux<String>> replay,
+                              Supplier<Flux<String>> upstream,
+                              Consumer<String> onShared) {
+        if (!properties.isCoalescingEnabled()) {
+            return upstream.get();
+        }
+        Flux<String> existing = inFlightStreams.get(key);
+        if (existing != null) {
+            localCoalesced.incrementAndGet();
+            log.debug("订阅本节点进行中的相同流式请求，key: {}", key);
+            return follow(existing, onShared);
+        }
+        String leaseToken = UUID.randomUUID().toString();
+        if (tryAcquireLease(key, leaseToken) == LeaseResult.HELD_BY_OTHER) {
+            // 租约可能刚被本节点的另一个请求抢到
+            Flux<String> local = inFlightStreams.get(key);
+            if (local != null) {
+                localCoalesced.incrementAndGet();
+                return follow(local, onShared);
+            }
+            String response = awaitRemote(key);
+            if (response != null) {
+                remoteCoalesced.incrementAndGet();
+                onShared.accept(response);
+                return replay.apply(response);
+            }
+        }
+        // 上游正常结束时在完成信号传递给订阅者之前记录结果：合并表中的条目在 doFinally 中才移除，
+        // 这期间拿到共享流的 follower 会让 refCount 重新连接，此时直接回放结果，不再请求上游
+        AtomicReference<String> completed = new AtomicReference<>();
+        AtomicReference<Flux<String>> created = new AtomicReference<>();
+        created.set(Flux.defer(() -> {
+                    String result = completed.get();
+                    if (result != null) {
+                        return replay.apply(result);
+                    }
+                    StringBuilder accumulator = new StringBuilder();
+                    return upstream.get()
+                            .doOnNext(accumulator::append)
+                            .doOnComplete(() -> {
+                                completed.set(accumulator.toString());
+                                publishResult(key, accumulator.toString());
+                            })
+                            .doFinally(signal -> {
+                                inFlightStreams.remove(key, created.get());
+                                releaseLease(key, leaseToken);
+                            });
+                })
+                .replay()
+                .refCount(1));
+        Flux<String> shared = inFlightStreams.putIfAbsent(key, created.get());
+        if (shared != null) {
+            // 并发创建时以先放入的流为准，本次创建的流尚未订阅，不会触发上游调用
+            releaseLease(key, leaseToken);
+            localCoalesced.incrementAndGet();
+            return follow(shared, onShared);
+        }
+        return created.get();
+    }
+
+    /**
+     * 本节点内被合并的请求数
+     */
+    public long getLocalCoalesced() {
+        return localCoalesced.get();
+    }
+
+    /**
+     * 通过等待其他节点结果而被合并的请求数
+     */
+    public long getRemoteCoalesced() {
+        return remoteCoalesced.get();
+    }
+
+    /**
+     * follower 订阅共享流：旁路累积片段，共享流正常结束后回调完整回答，取消或出错时不回调
+     */
+    private Flux<String> follow(Flux<String> shared, Consumer<String> onShared) {
+        return Flux.defer(() -> {
+            StringBuilder accumulator = new StringBuilder();
+            return shared
+                    .doOnNext(accumulator::append)
+                    .doOnComplete(() -> {
+                        if (!accumulator.isEmpty()) {
+                            onShared.accept(accumulator.toString());
+                        }
+                    });
+        });
+    }
+
+    private String leadOrFollowRemote(String key, Supplier<String> loader, Consumer<String> onShared) {
+        String leaseToken = UUID.randomUUID().toString();
+        if (tryAcquireLease(key, leaseToken) == LeaseResult.HELD_BY_OTHER) {
+            String response = awaitRemote(key);
+            if (response != null) {
+                remoteCoalesced.incrementAndGet();
+                onShared.accept(response);
+                return response;
+            }
+            // 其他节点的 leader 失败或超时，由本节点自行调用；此时尝试接管租约，让后来者等待本节点
+            tryAcquireLease(key, leaseToken);
+        }
+        try {
+            String response = loader.get();
+            publishResult(key, response);
+            return response;
+        } finally {
+            releaseLease(key, leaseToken);
+        }
+    }
+
+    /**
+     * 等待本节点 leader 的结果；等待超时则自行调用
+     */
+    private String await(CompletableFuture<String> future, String key, Supplier<String> loader,
+                         Consumer<String> onShared) {
+        String response;
+        try {
+            response = future.get(maxWaitMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("等待合并请求结果超时，自行调用模型，key: {}", key);
+            return loader.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BusinessException(ErrorCode.SYSTEM_ERROR, "等待合并请求结果被中断");
+        } catch (ExecutionException e) {
+            // leader 失败（如模型过载）时直接抛出同一个异常，避免所有 follower 再次冲击模型
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new BusinessException(ErrorCode.SYSTEM_ERROR, "合并请求执行失败: " + e.getCause().getMessage());
+        }
+        onShared.accept(response);
+        return response;
+    }
+
+    /**
+     * 其他节点持有租约时按退避间隔轮询 leader 发布的结果
+     * 每次轮询都经过熔断器：熔断打开或 Redis 调用失败时立即放弃等待，由调用方自行调用模型。
+     *
+     * @return leader 的结果；租约释放、Redis 不可用或到达等待上限仍未取到时返回 null
+     */
+    private String awaitRemote(String key) {
+        long deadline = System.currentTimeMillis() + maxWaitMillis();
+        long interval = Math.max(1, properties.getCoalescePollInitialMillis());
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(Math.min(interval, Math.max(1, deadline - System.currentTimeMillis())));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            if (!redisCircuitBreaker.allowRequest()) {
+                log.debug("Redis 熔断中，停止等待其他节点的结果，key: {}", key);
+                return null;
+            }
+            try {
+                String response = stringRedisTemplate.opsForValue().get(RESULT_KEY_PREFIX + key);
+                if (response != null) {
+                    redisCircuitBreaker.recordSuccess();
+                    log.debug("等到其他节点的相同请求结果，key: {}", key);
+                    return response;
+                }
+                boolean leaseHeld = Boolean.TRUE.equals(stringRedisTemplate.hasKey(LEASE_KEY_PREFIX + key));
+                redisCircuitBreaker.recordSuccess();
+                if (!leaseHeld) {
+                    // leader 先发布结果再释放租约；租约已释放仍没有结果说明 leader 失败，再查一次后放弃等待
+                    return stringRedisTemplate.opsForValue().get(RESULT_KEY_PREFIX + key);
+                }
+            } catch (Exception e) {
+                redisCircuitBreaker.recordFailure(e);
+                log.warn("轮询合并请求结果失败，停止等待，key: {}, error: {}", key, e.getMessage());
+                return null;
+            }
+            interval = Math.min(interval * 2, properties.getCoalescePollMaxMillis());
+        }
+        log.warn("等待其他节点的相同请求结果超时，自行调用模型，key: {}", key);
+        return null;
+    }
+
+    /**
+     * follower 等待 leader 的上限：不超过租约时长，也不超过配置的最大等待时长
+     */
+    private long maxWaitMillis() {
+        return Math.min(properties.getCoalesceLeaseMillis(), properties.getCoalesceMaxWaitMillis());
+    }
+
+    private LeaseResult tryAcquireLease(String key, String token) {
+        if (!redisCircuitBreaker.allowRequest()) {
+            return LeaseResult.UNAVAILABLE;
+        }
+        try {
+            Boolean acquired = stringRedisTemplate.opsForValue().setIfAbsent(LEASE_KEY_PREFIX + key,
+                    nodeId + ":" + token, Duration.ofMillis(properties.getCoalesceLeaseMillis()));
+            return Boolean.TRUE.equals(acquired) ? LeaseResult.ACQUIRED : LeaseResult.HELD_BY_OTHER;
+        } catch (Exception e) {
+            redisCircuitBreaker.recordFailure(e);
+            log.warn("获取请求合并租约失败，仅在本节点内合并，key: {}, error: {}", key, e.getMessage());
+            return LeaseResult.UNAVAILABLE;
+        }
+    }
+
+    /**
+     * leader 释放租约前发布结果，保留时长与租约相同，覆盖 follower 的最后一次轮询
+     */
+    private void publishResult(String key, String response) {
+        if (response == null || response.isEmpty() || !redisCircuitBreaker.allowRequest()) {
+            return;
+        }
+        try {
+            stringRedisTemplate.opsForValue().set(RESULT_KEY_PREFIX + key, response,
+                    Duration.ofMillis(properties.getCoalesceLeaseMillis()));
+        } catch (Exception e) {
+            redisCircuitBreaker.recordFailure(e);
+            log.warn("发布合并请求结果失败，key: {}, error: {}", key, e.getMessage());
+        }
+    }
+
+    private void releaseLease(String key, String token) {
+        try {
+            stringRedisTemplate.execute(RELEASE_SCRIPT, List.of(LEASE_KEY_PREFIX + key), nodeId + ":" + token);
+        } catch (Exception e) {
+            log.warn("释放请求合并租约失败，key: {}, error: {}", key, e.getMessage());
+        }
+    }
+
+    private enum LeaseResult {
+        ACQUIRED,
+        HELD_BY_OTHER,
+        UNAVAILABLE
+    }
+}
@@ -0,0 +1,92 @@
+package com.mq.mqaiagent.cache;
+
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SignalType;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 流式对话的缓存辅助。
+ * 命中时把完整回答切成小块按固定节奏回放，模拟逐 token 输出；
+ * 未命中时旁路累积上游片段，只有上游正常结束才交给调用方写入缓存，取消或出错的流一律不缓存。
+ */
+@Component
+@Slf4j
+public class StreamingResponseCache {
+
+    @Resource
+    private AiResponseCacheProperties properties;
+
+    /**
+     * 流式对话是否读写 AI 响应缓存
+     */
+    public boolean isEnabled() {
+        return properties.isStreamCacheEnabled();
+    }
+
+    /**
+     * 将缓存的完整回答按配置的块大小和间隔回放
+     */
+    public Flux<String> replay(String response) {
+        List<String> chunks = split(response, properties.getReplayChunkChars());
+        Flux<String> flux = Flux.fromIterable(chunks);
+        long delayMillis = properties.getReplayChunkDelayMillis();
+        return delayMillis > 0 ? flux.delayElements(Duration.ofMillis(delayMillis)) : flux;
+    }
+
+    /**
+     * 旁路累积上游片段，上游正常完成后回调完整回答
+     *
+     * @param upstream   上游流式输出
+     * @param onComplete 上游正常完成时的回调，参数为拼接后的完整回答
+     */
+    public Flux<String> cacheThrough(Flux<String> upstream, Consumer<String> onComplete) {
+        return Flux.defer(() -> {
+            StringBuilder accumulator = new StringBuilder();
+            return upstream
+                    .doOnNext(accumulator::append)
+                    .doFinally(signal -> {
+                        // 只有 ON_COMPLETE 表示完整回答；CANCEL（客户端断开）和 ON_ERROR 都可能是截断的内容
+                        if (signal != SignalType.ON_COMPLETE) {
+                            log.debug("流式响应未正常结束，不写入缓存，signal: {}", signal);
+                            return;
+                        }
+                        if (accumulator.isEmpty()) {
+                            return;
+                        }
+                        try {
+                            onComplete.accept(accumulator.toString());
+                        } catch (Exception e) {
+                            log.warn("流式响应写入缓存失败: {}", e.getMessage());
+                        }
+                    });
+        });
+    }
+
+    /**
+     * 按字符数切块，不拆开代理对
+     */
+    static List<String> split(String text, int chunkChars) {
+        List<String> chunks = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return chunks;
+        }
+        int size = Math.max(1, chunkChars);
+        int start = 0;
+        while (start < text.length()) {
+            int end = Math.min(start + size, text.length());
+            if (end < text.length() && Character.isHighSurrogate(text.charAt(end - 1))) {
+                end++;
+            }
+            chunks.add(text.substring(start, end));
+            start = end;
+        }
+        return chunks;
+    }
+}
@@ -0,0 +1,61 @@
+package com.mq.mqaiagent.cache;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 缓存过期时间随机抖动
+ * 同一时段集中写入的键（如早高峰的热门问答）若使用相同的过期时间，会在同一时刻集中失效并回源；
+ * 按命名空间在基础过期时间上加一个均匀分布的随机偏移，把失效时间打散。
+ */
+@Component
+public class TtlJitter {
+
+    private final TtlJitterProperties properties;
+    private final List<TtlJitterProperties.Namespace> namespaces;
+
+    public TtlJitter(TtlJitterProperties properties) {
+        this.properties = properties;
+        // 最长前缀优先匹配
+        this.namespaces = properties.getNamespaces().stream()
+                .sorted(Comparator.comparingInt((TtlJitterProperties.Namespace ns) -> ns.getPrefix().length())
+                        .reversed())
+                .toList();
+    }
+
+    /**
+     * 计算加入抖动后的过期时间
+     *
+     * @param key        缓存键
+     * @param ttlSeconds 基础过期时间（秒）
+     * @return 抖动后的过期时间（秒），不小于 1
+     */
+    public long apply(String key, long ttlSeconds) {
+        return jitter(ttlSeconds, ratioOf(key));
+    }
+
+    static long jitter(long ttlSeconds, double ratio) {
+        if (ratio <= 0 || ttlSeconds <= 1) {
+            return ttlSeconds;
+        }
+        double bounded = Math.min(ratio, 1.0);
+        long spread = (long) (ttlSeconds * bounded);
+        if (spread == 0) {
+            return ttlSeconds;
+        }
+        long offset = ThreadLocalRandom.current().nextLong(-spread, spread + 1);
+        return Math.max(1, ttlSeconds + offset);
+    }
+
+    private double ratioOf(String key) {
+        for (TtlJitterProperties.Namespace namespace : namespaces) {
+            if (key.startsWith(namespace.getPrefix())) {
+                return namespace.getRatio();
+            }
+        }
+        return properties.getDefaultRatio();
+    }
+}
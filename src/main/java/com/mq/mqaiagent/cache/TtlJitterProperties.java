@@ -0,0 +1,64 @@
+package com.mq.mqaiagent.cache;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 缓存过期时间随机抖动配置。
+ *
+ * 配置示例：
+ * <pre>
+ * mq:
+ *   cache:
+ *     ttl-jitter:
+ *       default-ratio: 0
+ *       namespaces:
+ *         - prefix: "mq:ai:agent:ai:response:"
+ *           ratio: 0.1
+ *         - prefix: "mq:ai:agent:chat:memory:"
+ *           ratio: 0.2
+ * </pre>
+ */
+@Component
+@ConfigurationProperties(prefix = "mq.cache.ttl-jitter")
+@Data
+public class TtlJitterProperties {
+
+    /**
+     * 未匹配任何命名空间的键使用的抖动比例，0 表示不抖动。
+     */
+    private double defaultRatio = 0.0;
+
+    /**
+     * 按键前缀配置的抖动比例，按最长前缀匹配。
+     */
+    private List<Namespace> namespaces = new ArrayList<>(List.of(
+            new Namespace("mq:ai:agent:ai:response:", 0.1),
+            new Namespace("mq:ai:agent:chat:memory:", 0.2)));
+
+    @Data
+    public static class Namespace {
+
+        /**
+         * 键前缀
+         */
+        private String prefix;
+
+        /**
+         * 抖动比例（0~1），过期时间在 [ttl * (1 - ratio), ttl * (1 + ratio)] 内均匀随机
+         */
+        private double ratio;
+
+        public Namespace() {
+        }
+
+        public Namespace(String prefix, double ratio) {
+            this.prefix = prefix;
+            this.ratio = ratio;
+        }
+    }
+}
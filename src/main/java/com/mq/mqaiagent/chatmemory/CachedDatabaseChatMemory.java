@@ -1,16 +1,24 @@
 package com.mq.mqaiagent.chatmemory;
 
+import com.mq.mqaiagent.mapper.ChatMessageMapper;
 import com.mq.mqaiagent.mapper.KeepReportMapper;
 import com.mq.mqaiagent.service.CacheService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
  * 带缓存的数据库对话记忆实现
  * 继承DatabaseChatMemory，增加Redis缓存层，实现双层缓存策略
+ * Redis 不可用时缓存读写由 CacheService 的进程内降级缓存承接，不在这里跳过缓存，避免每轮对话都回源数据库
+ * 缓存只保存最近 {@link #CACHE_WINDOW_MESSAGES} 条消息（有滚动摘要时另加摘要），读写量与对话总长度无关；
+ * 请求条数超过窗口时直接按序号从数据库读取最近 N 条
+ * 消息以 Redis 列表保存：新消息写入数据库后 RPUSHX 追加并 LTRIM 到窗口大小，数据库仍是唯一数据源，
+ * 只在缓存未命中时读取数据库重建列表
  * 
  * @author MQQQ
  * @version v1.0
@@ -26,14 +34,24 @@ public class CachedDatabaseChatMemory extends DatabaseChatMemory implements Chat
      */
     private static final long CACHE_EXPIRE_HOURS = 6;
 
+    /**
+     * 缓存的最近消息条数，应不小于对话检索条数（KeepApp 为 10）
+     */
+    static final int CACHE_WINDOW_MESSAGES = 50;
+
     /**
      * 构造函数
      *
-     * @param keepReportMapper 数据库映射器
-     * @param cacheService     缓存服务
+     * @param keepReportMapper  对话表头数据库映射器
+     * @param chatMessageMapper 对话消息数据库映射器
+     * @param compactor         对话记忆压缩器，为 null 时不压缩
+     * @param writeBehind       对话记忆异步写回，为 null 或未启用时同步写入数据库
+     * @param cacheService      缓存服务
      */
-    public CachedDatabaseChatMemory(KeepReportMapper keepReportMapper, CacheService cacheService) {
-        super(keepReportMapper);
+    public CachedDatabaseChatMemory(KeepReportMapper keepReportMapper, ChatMessageMapper chatMessageMapper,
+                                    ChatMemoryCompactor compactor, ChatMemoryWriteBehind writeBehind,
+                                    CacheService cacheService) {
+        super(keepReportMapper, chatMessageMapper, compactor, writeBehind);
         this.cacheService = cacheService;
         log.info("CachedDatabaseChatMemory 初始化完成");
     }
@@ -67,49 +85,21 @@ public class CachedDatabaseChatMemory extends DatabaseChatMemory implements Chat
     }
 
     /**
-     * 向指定对话 ID 的记忆中添加消息列表（带缓存）
-     * 会将新消息追加到现有消息列表末尾，并同时更新缓存和数据库
-     *
-     * @param conversationId 对话的唯一标识符
-     * @param messages       要添加的消息列表
+     * 消息写入数据库后追加到缓存列表（RPUSHX + LTRIM），不再回读数据库
+     * 缓存列表不存在时不创建，由下一次读取未命中时按数据库重建
      */
     @Override
-    public void add(String conversationId, List<Message> messages) {
-        try {
-            // 1. 先调用父类方法更新数据库
-            super.add(conversationId, messages);
-
-            // 2. 更新缓存
-            updateCache(conversationId, getCurrentUserId());
-
-            log.debug("对话记忆添加成功，conversationId: {}, messageCount: {}", conversationId, messages.size());
-        } catch (Exception e) {
-            log.error("对话记忆添加失败，conversationId: {}, error: {}", conversationId, e.getMessage(), e);
-            // 即使缓存更新失败，数据库操作已成功，不抛出异常
-        }
-    }
-
-    /**
-     * 向指定对话 ID 的记忆中添加消息列表（支持用户ID，带缓存）
-     *
-     * @param conversationId 对话的唯一标识符
-     * @param userId         用户ID
-     * @param messages       要添加的消息列表
-     */
-    public void add(String conversationId, Long userId, List<Message> messages) {
+    protected void onAppended(String conversationId, Long userId, List<Message> appended) {
         try {
-            // 1. 先调用父类方法更新数据库
-            super.add(conversationId, userId, messages);
-
-            // 2. 更新缓存
-            updateCache(conversationId, userId);
-
-            log.debug("对话记忆添加成功，conversationId: {}, userId: {}, messageCount: {}",
-                    conversationId, userId, messages.size());
+            String cacheKey = cacheService.generateChatMemoryKey(conversationId, userId);
+            cacheService.listAppend(cacheKey, appended, CACHE_WINDOW_MESSAGES, CACHE_EXPIRE_HOURS);
+            log.debug("对话缓存追加成功，conversationId: {}, userId: {}, messageCount: {}",
+                    conversationId, userId, appended.size());
         } catch (Exception e) {
-            log.error("对话记忆添加失败，conversationId: {}, userId: {}, error: {}",
+            log.error("对话缓存追加失败，conversationId: {}, userId: {}, error: {}",
                     conversationId, userId, e.getMessage(), e);
-            // 即使缓存更新失败，数据库操作已成功，不抛出异常
+            // 追加失败时清除缓存，避免缺消息的列表被继续命中
+            clearCache(conversationId, userId);
         }
     }
 
@@ -122,39 +112,8 @@ public class CachedDatabaseChatMemory extends DatabaseChatMemory implements Chat
      * @return 包含最近 N 条消息的列表，按时间顺序排列（旧 -> 新）
      */
     @Override
-    @SuppressWarnings("unchecked")
     public List<Message> get(String conversationId, int lastN) {
-        String cacheKey = cacheService.generateChatMemoryKey(conversationId, getCurrentUserId());
-
-        try {
-            // 1. 优先从缓存获取
-            if (cacheService.isRedisAvailable()) {
-                List<Message> cachedMessages = cacheService.get(cacheKey, List.class);
-                if (cachedMessages != null) {
-                    // 缓存命中，返回最近N条消息
-                    return getLastNMessages(cachedMessages, lastN);
-                }
-            }
-
-            // 2. 缓存未命中，从数据库获取
-            List<Message> dbMessages = super.get(conversationId, lastN);
-
-            // 3. 回写缓存（存储完整消息列表，而不仅仅是lastN条）
-            if (cacheService.isRedisAvailable() && !dbMessages.isEmpty()) {
-                // 获取完整消息列表用于缓存
-                List<Message> fullMessages = super.get(conversationId, Integer.MAX_VALUE);
-                cacheService.set(cacheKey, fullMessages, CACHE_EXPIRE_HOURS);
-            }
-
-            return dbMessages;
-
-        } catch (Exception e) {
-            log.error("获取对话记忆失败，conversationId: {}, lastN: {}, error: {}",
-                    conversationId, lastN, e.getMessage(), e);
-
-            // 缓存异常时降级到数据库直连
-            return super.get(conversationId, lastN);
-        }
+        return get(conversationId, getCurrentUserId(), lastN);
     }
 
     /**
@@ -165,31 +124,44 @@ public class CachedDatabaseChatMemory extends DatabaseChatMemory implements Chat
      * @param lastN          要获取的最近消息的数量
      * @return 包含最近 N 条消息的列表，按时间顺序排列（旧 -> 新）
      */
-    @SuppressWarnings("unchecked")
+    @Override
     public List<Message> get(String conversationId, Long userId, int lastN) {
+        if (lastN <= 0) {
+            return new ArrayList<>();
+        }
+        if (lastN > CACHE_WINDOW_MESSAGES) {
+            // 超出缓存窗口，直接从数据库读取最近N条
+            return super.get(conversationId, userId, lastN);
+        }
         String cacheKey = cacheService.generateChatMemoryKey(conversationId, userId);
 
         try {
-            // 1. 优先从缓存获取
-            if (cacheService.isRedisAvailable()) {
-                List<Message> cachedMessages = cacheService.get(cacheKey, List.class);
-                if (cachedMessages != null) {
-                    // 缓存命中，返回最近N条消息
-                    return getLastNMessages(cachedMessages, lastN);
+            // 1. 优先从缓存列表读取末尾N条，摘要单独存放
+            List<Object> cachedMessages = cacheService.listTail(cacheKey, lastN);
+            if (!cachedMessages.isEmpty()) {
+                String summary = cacheService.get(summaryKey(cacheKey), String.class);
+                // 摘要键已过期时视为未命中，按数据库重建
+                if (summary != null) {
+                    List<Message> result = new ArrayList<>(cachedMessages.size() + 1);
+                    if (!summary.isBlank()) {
+                        result.add(new SystemMessage(summary));
+                    }
+                    for (Object cached : cachedMessages) {
+                        result.add((Message) cached);
+                    }
+                    return result;
                 }
             }
 
-            // 2. 缓存未命中，从数据库获取
-            List<Message> dbMessages = super.get(conversationId, userId, lastN);
+            // 2. 缓存未命中，从数据库读取缓存窗口内的消息（一次查询）
+            List<Message> windowMessages = super.get(conversationId, userId, CACHE_WINDOW_MESSAGES);
 
-            // 3. 回写缓存（存储完整消息列表）
-            if (cacheService.isRedisAvailable() && !dbMessages.isEmpty()) {
-                // 获取完整消息列表用于缓存
-                List<Message> fullMessages = super.get(conversationId, userId, Integer.MAX_VALUE);
-                cacheService.set(cacheKey, fullMessages, CACHE_EXPIRE_HOURS);
+            // 3. 重建缓存列表
+            if (!windowMessages.isEmpty()) {
+                rebuildCache(cacheKey, windowMessages);
             }
 
-            return dbMessages;
+            return getLastNMessages(windowMessages, lastN);
 
         } catch (Exception e) {
             log.error("获取对话记忆失败，conversationId: {}, userId: {}, lastN: {}, error: {}",
@@ -210,6 +182,7 @@ public class CachedDatabaseChatMemory extends DatabaseChatMemory implements Chat
         try {
             String cacheKey = cacheService.generateChatMemoryKey(conversationId, userId);
             cacheService.delete(cacheKey);
+            cacheService.delete(summaryKey(cacheKey));
             log.debug("对话缓存清除成功，conversationId: {}, userId: {}", conversationId, userId);
         } catch (Exception e) {
             log.error("对话缓存清除失败，conversationId: {}, userId: {}, error: {}",
@@ -218,44 +191,59 @@ public class CachedDatabaseChatMemory extends DatabaseChatMemory implements Chat
     }
 
     /**
-     * 更新缓存
+     * 压缩生效后缓存中仍是折叠前的消息，清除后由下一次读取按「摘要 + 最近消息」重建
+     */
+    @Override
+    protected void onCompacted(String conversationId, Long userId) {
+        clearCache(conversationId, userId);
+    }
+
+    /**
+     * 用数据库读取的窗口重建缓存：消息写入列表，摘要写入独立的键（无摘要时写空串）
+     * 摘要先于列表写入，读取方看到列表时摘要键一定存在
      *
-     * @param conversationId 对话ID
-     * @param userId         用户ID（可选）
+     * @param cacheKey       对话缓存键
+     * @param windowMessages 缓存窗口内的消息，可能以滚动摘要开头
      */
-    private void updateCache(String conversationId, Long userId) {
-        if (!cacheService.isRedisAvailable()) {
-            return;
-        }
+    private void rebuildCache(String cacheKey, List<Message> windowMessages) {
+        boolean hasSummary = windowMessages.get(0) instanceof SystemMessage;
+        String summary = hasSummary ? windowMessages.get(0).getText() : "";
+        cacheService.set(summaryKey(cacheKey), summary, CACHE_EXPIRE_HOURS);
+        cacheService.listReplace(cacheKey, hasSummary ? windowMessages.subList(1, windowMessages.size()) : windowMessages,
+                CACHE_EXPIRE_HOURS);
+    }
 
-        try {
-            // 从数据库获取最新的完整消息列表
-            List<Message> fullMessages = super.get(conversationId, userId, Integer.MAX_VALUE);
-            if (!fullMessages.isEmpty()) {
-                String cacheKey = cacheService.generateChatMemoryKey(conversationId, userId);
-                cacheService.set(cacheKey, fullMessages, CACHE_EXPIRE_HOURS);
-            }
-        } catch (Exception e) {
-            log.error("缓存更新失败，conversationId: {}, userId: {}, error: {}",
-                    conversationId, userId, e.getMessage(), e);
-        }
+    /**
+     * 摘要缓存键，与消息列表共用哈希标签，落在同一个槽
+     *
+     * @param cacheKey 对话缓存键
+     * @return 摘要缓存键
+     */
+    static String summaryKey(String cacheKey) {
+        return cacheKey + ":summary";
     }
 
     /**
      * 从消息列表中获取最近N条消息
+     * 列表以滚动摘要开头时始终保留摘要，与 {@link DatabaseChatMemory#get(String, Long, int)} 的返回一致
      *
-     * @param messages 完整消息列表
+     * @param messages 缓存窗口内的消息列表
      * @param lastN    要获取的消息数量
      * @return 最近N条消息
      */
-    private List<Message> getLastNMessages(List<Message> messages, int lastN) {
+    static List<Message> getLastNMessages(List<Message> messages, int lastN) {
         if (messages.isEmpty() || lastN <= 0) {
             return messages;
         }
 
-        int skipCount = Math.max(0, messages.size() - lastN);
-        return messages.stream()
-                .skip(skipCount)
-                .toList();
+        if (!(messages.get(0) instanceof SystemMessage)) {
+            return List.copyOf(messages.subList(Math.max(0, messages.size() - lastN), messages.size()));
+        }
+        // 摘要不计入条数
+        int from = Math.max(1, messages.size() - lastN);
+        List<Message> result = new ArrayList<>(messages.size() - from + 1);
+        result.add(messages.get(0));
+        result.addAll(messages.subList(from, messages.size()));
+        return result;
     }
 }
@@ -0,0 +1,29 @@
+package com.mq.mqaiagent.chatmemory;
+
+/**
+ * 对话消息内容的压缩编码。
+ * 每种编码用一个字符作为 ID 写进存储格式的头部（见 {@link ChatContentCodecs}），
+ * 读取时按 ID 选择解码方式，因此 ID 一经使用就不能再分配给其他编码。
+ */
+public interface ChatContentCodec {
+
+    /**
+     * 写入存储格式头部的编码 ID（可打印 ASCII 字符）。
+     */
+    char id();
+
+    /**
+     * 编码名称，用于日志与统计。
+     */
+    String name();
+
+    /**
+     * 压缩 UTF-8 字节。
+     */
+    byte[] encode(byte[] data);
+
+    /**
+     * 解压为 UTF-8 字节。
+     */
+    byte[] decode(byte[] data);
+}
@@ -0,0 +1,139 @@
+package com.mq.mqaiagent.chatmemory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 对话消息内容的存储格式：chat_message.content 为文本列，压缩后的内容以「魔数 + 编码 ID + Base64」保存。
+ * <pre>
+ * 0x01 'z' 'D' Base64(deflate(UTF-8))   压缩内容
+ * 0x01 'z' 'N' 原文                    原文恰好以魔数开头时的转义，或重写旧行时不值得压缩的原文
+ * 其他                                 未压缩的原文（包括本格式上线前写入的行）
+ * </pre>
+ * 只有 UTF-8 长度不小于 {@link #MIN_ENCODE_BYTES} 且编码后确实更短的内容才会压缩，
+ * 因此短消息与旧行都按原文读取，不需要迁移。
+ * 新增编码时实现 {@link ChatContentCodec} 并调用 {@link #register}，已写入的数据按头部的编码 ID 解码，
+ * 切换默认编码不影响旧数据。
+ */
+public final class ChatContentCodecs {
+
+    /**
+     * 魔数（0x01 'z'）：控制字符开头，正常的对话文本不会以它开头
+     */
+    public static final String MAGIC = "\u0001z";
+
+    /**
+     * 原文转义使用的编码 ID
+     */
+    public static final char PLAIN_ID = 'N';
+
+    /**
+     * 小于该字节数的内容不压缩：中文文本 Deflate 后约为原文的 60%~70%，再经 Base64 膨胀 4/3，
+     * 1KB 以下最多节省约 10%，不值得付出编码与解码的 CPU
+     */
+    public static final int MIN_ENCODE_BYTES = 1024;
+
+    private static final int HEADER_LENGTH = MAGIC.length() + 1;
+
+    private static final Map<Character, ChatContentCodec> CODECS = new ConcurrentHashMap<>();
+
+    private static volatile ChatContentCodec defaultCodec;
+
+    static {
+        setDefaultCodec(new DeflateChatContentCodec());
+    }
+
+    private ChatContentCodecs() {
+    }
+
+    /**
+     * 注册编码，使包含该编码 ID 的数据可以被读取。
+     */
+    public static void register(ChatContentCodec codec) {
+        if (codec.id() == PLAIN_ID || codec.id() < '!' || codec.id() > '~') {
+            throw new IllegalArgumentException("编码 ID 必须是可打印 ASCII 字符且不能为 " + PLAIN_ID + ": " + codec.id());
+        }
+        ChatContentCodec existing = CODECS.putIfAbsent(codec.id(), codec);
+        if (existing != null && !existing.name().equals(codec.name())) {
+            throw new IllegalArgumentException("编码 ID " + codec.id() + " 已被 " + existing.name() + " 使用");
+        }
+    }
+
+    /**
+     * 注册并设置写入时使用的编码。
+     */
+    public static void setDefaultCodec(ChatContentCodec codec) {
+        register(codec);
+        defaultCodec = codec;
+    }
+
+    public static ChatContentCodec getDefaultCodec() {
+        return defaultCodec;
+    }
+
+    /**
+     * 把消息内容编码为存储格式。
+     *
+     * @param text 消息原文，可为 null。
+     * @return 压缩后的内容；不值得压缩时返回原文（以魔数开头的原文会被转义）。
+     */
+    public static String encode(String text) {
+        if (text == null) {
+            return null;
+        }
+        byte[] raw = text.getBytes(StandardCharsets.UTF_8);
+        if (raw.length >= MIN_ENCODE_BYTES) {
+            ChatContentCodec codec = defaultCodec;
+            String encoded = MAGIC + codec.id() + Base64.getEncoder().encodeToString(codec.encode(raw));
+            // 编码结果只含 ASCII，字符数即存储字节数
+            if (encoded.length() < raw.length) {
+                return encoded;
+            }
+        }
+        return text.startsWith(MAGIC) ? MAGIC + PLAIN_ID + text : text;
+    }
+
+    /**
+     * 重写旧行时使用的编码：与 {@link #encode} 相同，但不值得压缩的内容也加上原文头部，
+     * 使重写过的行都以魔数开头，之后按前缀筛选旧行时不会被再次选中。
+     *
+     * @param text 消息原文，不能为 null。
+     * @return 以魔数开头的存储格式。
+     */
+    public static String encodeMarked(String text) {
+        String encoded = encode(text);
+        return isEncoded(encoded) ? encoded : MAGIC + PLAIN_ID + text;
+    }
+
+    /**
+     * 把存储格式还原为消息原文，未编码的内容原样返回。
+     *
+     * @param stored 数据库中的内容，可为 null。
+     * @return 消息原文。
+     * @throws IllegalStateException 编码 ID 未注册或数据损坏。
+     */
+    public static String decode(String stored) {
+        if (!isEncoded(stored)) {
+            return stored;
+        }
+        char id = stored.charAt(MAGIC.length());
+        if (id == PLAIN_ID) {
+            return stored.substring(HEADER_LENGTH);
+        }
+        ChatContentCodec codec = CODECS.get(id);
+        if (codec == null) {
+            throw new IllegalStateException("未注册的对话内容编码: " + id);
+        }
+        byte[] data = Base64.getDecoder().decode(stored.substring(HEADER_LENGTH));
+        return new String(codec.decode(data), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 内容是否为带头部的存储格式。
+     */
+    public static boolean isEncoded(String stored) {
+        return stored != null && stored.length() >= HEADER_LENGTH && stored.startsWith(MAGIC);
+    }
+}
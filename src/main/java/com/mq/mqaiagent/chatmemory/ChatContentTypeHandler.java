@@ -0,0 +1,38 @@
+package com.mq.mqaiagent.chatmemory;
+
+import org.apache.ibatis.type.BaseTypeHandler;
+import org.apache.ibatis.type.JdbcType;
+
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * chat_message.content 的类型处理器：写入时按 {@link ChatContentCodecs} 压缩，读取时透明解压，
+ * 实体与业务代码始终只看到消息原文。
+ * 不注册为全局处理器，只在 ChatMessage 实体与 ChatMessageMapper.xml 中按字段指定。
+ */
+public class ChatContentTypeHandler extends BaseTypeHandler<String> {
+
+    @Override
+    public void setNonNullParameter(PreparedStatement ps, int i, String parameter, JdbcType jdbcType)
+            throws SQLException {
+        ps.setString(i, ChatContentCodecs.encode(parameter));
+    }
+
+    @Override
+    public String getNullableResult(ResultSet rs, String columnName) throws SQLException {
+        return ChatContentCodecs.decode(rs.getString(columnName));
+    }
+
+    @Override
+    public String getNullableResult(ResultSet rs, int columnIndex) throws SQLException {
+        return ChatContentCodecs.decode(rs.getString(columnIndex));
+    }
+
+    @Override
+    public String getNullableResult(CallableStatement cs, int columnIndex) throws SQLException {
+        return ChatContentCodecs.decode(cs.getString(columnIndex));
+    }
+}
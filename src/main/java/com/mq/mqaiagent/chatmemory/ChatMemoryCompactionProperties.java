@@ -0,0 +1,65 @@
+package com.mq.mqaiagent.chatmemory;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 对话记忆压缩配置。
+ * 未摘要部分的估算 token 数超过预算时，把较早的消息折叠进滚动摘要，只保留最近若干条原文。
+ *
+ * 配置示例：
+ * <pre>
+ * mq:
+ *   ai:
+ *     memory-compaction:
+ *       enabled: true
+ *       token-budget: 3000
+ *       keep-recent-messages: 6
+ *       summary-max-chars: 800
+ *       concurrency: 1
+ *       queue-capacity: 32
+ *       prune-summarized-messages: false
+ * </pre>
+ */
+@Component
+@ConfigurationProperties(prefix = "mq.ai.memory-compaction")
+@Data
+public class ChatMemoryCompactionProperties {
+
+    /**
+     * 是否启用对话记忆压缩。
+     */
+    private boolean enabled = true;
+
+    /**
+     * 摘要加未摘要消息的估算 token 上限，超过后触发压缩。
+     */
+    private int tokenBudget = 3000;
+
+    /**
+     * 压缩时保留原文的最近消息条数。
+     */
+    private int keepRecentMessages = 6;
+
+    /**
+     * 摘要的最大字符数。
+     */
+    private int summaryMaxChars = 800;
+
+    /**
+     * 同时进行的后台压缩数量。
+     */
+    private int concurrency = 1;
+
+    /**
+     * 等待中的压缩任务上限，超出时丢弃（下一轮对话会再次触发）。
+     */
+    private int queueCapacity = 32;
+
+    /**
+     * 是否删除已折叠进摘要的消息行。
+     * 开启后数据库存储不再随对话增长，但历史详情只能看到摘要之后的消息。
+     */
+    private boolean pruneSummarizedMessages = false;
+}
@@ -0,0 +1,346 @@
+package com.mq.mqaiagent.chatmemory;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mq.mqaiagent.ai.AiModelRouter;
+import com.mq.mqaiagent.mapper.ChatMessageMapper;
+import com.mq.mqaiagent.mapper.KeepReportMapper;
+import com.mq.mqaiagent.model.dto.keepReport.KeepReport;
+import com.mq.mqaiagent.model.entity.ChatMessage;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 对话记忆的滚动摘要压缩
+ * 每次追加消息后提交一次检查：摘要与摘要之后的消息估算 token 数超过预算时，
+ * 用配置价格最低的模型把较早的消息折叠进 keep_report 表头中的滚动摘要，只保留最近若干条原文。
+ * 读取记忆时返回「摘要 + 摘要之后的消息」，提示词长度与缓存占用因此不再随对话长度增长。
+ * <ul>
+ *     <li>压缩在有界线程池中执行，同一对话同时只有一个任务，队列满时丢弃（下一轮对话会再次触发）</li>
+ *     <li>写回摘要时以旧的摘要位置为条件，多节点并发压缩时只有一方生效</li>
+ *     <li>同一线程池还负责把压缩格式上线前写入的较长消息重写为存储格式（与是否启用摘要压缩无关），
+ *     不占用写入路径</li>
+ * </ul>
+ */
+@Component
+@Slf4j
+public class ChatMemoryCompactor {
+
+    private static final String SUMMARY_SYSTEM_PROMPT = "你负责压缩健身助手与用户的对话记忆。"
+            + "根据已有摘要和新增对话输出一段更新后的摘要：保留用户的身体数据、健身目标、偏好、伤病与限制、"
+            + "助手已给出的关键建议以及尚未完成的事项，省略寒暄和重复内容。只输出摘要正文，不超过 %d 字。";
+
+    /**
+     * 每批重写的旧行数
+     */
+    static final int RECOMPRESS_BATCH = 200;
+
+    private final ChatMemoryCompactionProperties properties;
+    private final AiModelRouter aiModelRouter;
+    private final KeepReportMapper keepReportMapper;
+    private final ChatMessageMapper chatMessageMapper;
+
+    private final ThreadPoolExecutor executor;
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    /**
+     * 旧行已全部重写的（用户, 对话），所有对话记忆实例共用，避免每次写入都扫描
+     */
+    private final Cache<String, Boolean> recompressedConversations = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .build();
+
+    private final AtomicLong compacted = new AtomicLong(0);
+    private final AtomicLong failed = new AtomicLong(0);
+    private final AtomicLong dropped = new AtomicLong(0);
+
+    public ChatMemoryCompactor(ChatMemoryCompactionProperties properties,
+                               AiModelRouter aiModelRouter,
+                               KeepReportMapper keepReportMapper,
+                               ChatMessageMapper chatMessageMapper) {
+        this.properties = properties;
+        this.aiModelRouter = aiModelRouter;
+        this.keepReportMapper = keepReportMapper;
+        this.chatMessageMapper = chatMessageMapper;
+        int concurrency = Math.max(1, properties.getConcurrency());
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, properties.getQueueCapacity())),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "chat-memory-compactor-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+        log.info("对话记忆压缩初始化完成，enabled: {}, tokenBudget: {}, keepRecentMessages: {}",
+                properties.isEnabled(), properties.getTokenBudget(), properties.getKeepRecentMessages());
+    }
+
+    /**
+     * 追加消息后调用：在后台检查并在超出预算时压缩
+     *
+     * @param safeConversationId 处理后的对话ID（keep_report.chatId）
+     * @param userId             用户ID，可为 null
+     * @param onCompacted        压缩生效后的回调（如清除对话缓存）
+     */
+    public void maybeCompact(String safeConversationId, Long userId, Runnable onCompacted) {
+        // 不同用户可以使用相同的对话ID，按（用户, 对话）去重
+        String compactKey = DatabaseChatMemory.ownerOf(userId) + ":" + safeConversationId;
+        if (!properties.isEnabled() || !inFlight.add(compactKey)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    if (compact(safeConversationId, userId)) {
+                        onCompacted.run();
+                    }
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    log.warn("对话记忆压缩失败，对话ID: {}, error: {}", safeConversationId, e.getMessage());
+                } finally {
+                    inFlight.remove(compactKey);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(compactKey);
+            dropped.incrementAndGet();
+            log.debug("对话记忆压缩队列已满，丢弃本次压缩，对话ID: {}", safeConversationId);
+        }
+    }
+
+    /**
+     * 追加消息后调用：在后台把对话中压缩格式上线前写入的较长消息重写为存储格式
+     * 每个（用户, 对话）在进程内只处理到没有剩余旧行为止；队列满或失败时不记录完成，下一次写入会再次提交
+     *
+     * @param safeConversationId 处理后的对话ID（chat_message.conversationId）
+     * @param userId             用户ID，可为 null
+     */
+    public void recompressLater(String safeConversationId, Long userId) {
+        Long ownerId = DatabaseChatMemory.ownerOf(userId);
+        String conversationKey = ownerId + ":" + safeConversationId;
+        String taskKey = "recompress:" + conversationKey;
+        if (recompressedConversations.getIfPresent(conversationKey) != null || !inFlight.add(taskKey)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    recompress(safeConversationId, ownerId);
+                    recompressedConversations.put(conversationKey, Boolean.TRUE);
+                } catch (Exception e) {
+                    log.warn("重写未压缩的对话消息失败，对话ID: {}, 用户ID: {}, error: {}",
+                            safeConversationId, ownerId, e.getMessage());
+                } finally {
+                    inFlight.remove(taskKey);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(taskKey);
+            log.debug("对话记忆压缩队列已满，跳过本次旧行重写，对话ID: {}", safeConversationId);
+        }
+    }
+
+    /**
+     * 分批重写（用户, 对话）中尚未转为存储格式的较长消息，直到没有剩余旧行
+     * 不值得压缩的内容加上原文头部写回，之后不会被再次选中，每一批都会减少剩余行数
+     *
+     * @return 重写的行数
+     */
+    int recompress(String safeConversationId, Long ownerId) {
+        int rewritten = 0;
+        List<ChatMessage> rows;
+        do {
+            rows = chatMessageMapper.selectUncompressed(safeConversationId, ownerId,
+                    ChatContentCodecs.MIN_ENCODE_BYTES, ChatContentCodecs.MAGIC + "%", RECOMPRESS_BATCH);
+            for (ChatMessage row : rows) {
+                chatMessageMapper.updateStoredContent(row.getId(), ChatContentCodecs.encodeMarked(row.getContent()));
+            }
+            rewritten += rows.size();
+        } while (rows.size() == RECOMPRESS_BATCH);
+        if (rewritten > 0) {
+            log.debug("已重写未压缩的对话消息: {}, 用户ID: {}, 消息数: {}", safeConversationId, ownerId, rewritten);
+        }
+        return rewritten;
+    }
+
+    private boolean compact(String safeConversationId, Long userId) {
+        Long ownerId = DatabaseChatMemory.ownerOf(userId);
+        LambdaQueryWrapper<KeepReport> queryWrapper = new LambdaQueryWrapper<>();
+        queryWrapper.select(KeepReport::getId, KeepReport::getSummary, KeepReport::getSummarySeq)
+                .eq(KeepReport::getChatId, safeConversationId)
+                .eq(KeepReport::getUserId, ownerId)
+                .last("LIMIT 1");
+        KeepReport header = keepReportMapper.selectOne(queryWrapper);
+        if (header == null) {
+            return false;
+        }
+        int summarySeq = header.getSummarySeq() != null ? header.getSummarySeq() : 0;
+        List<ChatMessage> tail = chatMessageMapper.selectAfterSeq(safeConversationId, ownerId, summarySeq);
+        int foldCount = foldCount(header.getSummary(), tail,
+                properties.getTokenBudget(), properties.getKeepRecentMessages());
+        if (foldCount == 0) {
+            return false;
+        }
+        List<ChatMessage> folded = tail.subList(0, foldCount);
+        String summary = summarize(header.getSummary(), folded);
+        if (StrUtil.isBlank(summary)) {
+            failed.incrementAndGet();
+            log.warn("摘要模型返回空内容，跳过本次压缩，对话ID: {}", safeConversationId);
+            return false;
+        }
+        int newSummarySeq = folded.get(foldCount - 1).getSeq();
+        // 以旧的摘要位置为条件，其他节点已先行压缩时本次结果作废
+        LambdaUpdateWrapper<KeepReport> updateWrapper = new LambdaUpdateWrapper<>();
+        updateWrapper.eq(KeepReport::getId, header.getId())
+                .eq(KeepReport::getSummarySeq, summarySeq)
+                .set(KeepReport::getSummary, summary)
+                .set(KeepReport::getSummarySeq, newSummarySeq);
+        if (keepReportMapper.update(null, updateWrapper) == 0) {
+            log.debug("对话已被并发压缩，放弃本次结果，对话ID: {}", safeConversationId);
+            return false;
+        }
+        if (properties.isPruneSummarizedMessages()) {
+            chatMessageMapper.delete(new LambdaQueryWrapper<ChatMessage>()
+                    .eq(ChatMessage::getConversationId, safeConversationId)
+                    .eq(ChatMessage::getUserId, ownerId)
+                    .le(ChatMessage::getSeq, newSummarySeq));
+        }
+        compacted.incrementAndGet();
+        log.info("对话记忆已压缩，对话ID: {}, 折叠消息数: {}, 摘要位置: {} -> {}, 摘要长度: {}",
+                safeConversationId, foldCount, summarySeq, newSummarySeq, summary.length());
+        return true;
+    }
+
+    private String summarize(String previousSummary, List<ChatMessage> folded) {
+        StringBuilder input = new StringBuilder();
+        if (StrUtil.isNotBlank(previousSummary)) {
+            input.append("【已有摘要】\n").append(previousSummary).append("\n\n");
+        }
+        input.append("【新增对话】\n");
+        for (ChatMessage message : folded) {
+            input.append(MessageType.USER.name().equals(message.getType()) ? "用户：" : "助手：")
+                    .append(message.getContent())
+                    .append('\n');
+        }
+        AiModelRouter.ResolvedModel model = aiModelRouter.resolveCheapest();
+        String summary = model.chatModel()
+                .call(new Prompt(List.of(
+                        new SystemMessage(String.format(SUMMARY_SYSTEM_PROMPT, properties.getSummaryMaxChars())),
+                        new UserMessage(input.toString()))))
+                .getResult()
+                .getOutput()
+                .getText();
+        return StrUtil.maxLength(StrUtil.trim(summary), properties.getSummaryMaxChars());
+    }
+
+    /**
+     * 计算需要折叠进摘要的消息条数
+     * 估算 token 数未超出预算、或消息不多于保留条数时返回 0；
+     * 保留部分从用户消息开始，避免把一问一答拆开：优先取保留窗口内的第一条用户消息，
+     * 窗口内没有用户消息时（如一次提问后连续多条助手或工具消息）向前找上一条用户消息，
+     * 仍找不到时按保留条数截断，保证至少保留 keepRecentMessages 条原文。
+     *
+     * @param summary            已有摘要
+     * @param tail               摘要之后的消息（按序号升序）
+     * @param tokenBudget        token 预算
+     * @param keepRecentMessages 保留原文的消息条数
+     * @return 从 tail 开头起需要折叠的条数
+     */
+    static int foldCount(String summary, List<ChatMessage> tail, int tokenBudget, int keepRecentMessages) {
+        int keep = Math.max(0, keepRecentMessages);
+        if (tail.size() <= keep) {
+            return 0;
+        }
+        long tokens = estimateTokens(summary);
+        for (ChatMessage message : tail) {
+            tokens += estimateTokens(message.getContent());
+        }
+        if (tokens <= tokenBudget) {
+            return 0;
+        }
+        int boundary = tail.size() - keep;
+        for (int cut = boundary; cut < tail.size(); cut++) {
+            if (isUserMessage(tail.get(cut))) {
+                return cut;
+            }
+        }
+        // 向前查找时不取第 0 条，否则本轮什么都不折叠
+        for (int cut = boundary - 1; cut > 0; cut--) {
+            if (isUserMessage(tail.get(cut))) {
+                return cut;
+            }
+        }
+        return boundary;
+    }
+
+    private static boolean isUserMessage(ChatMessage message) {
+        return MessageType.USER.name().equals(message.getType());
+    }
+
+    /**
+     * 粗略估算文本的 token 数：中日韩字符及全角符号按每字 1 个，其余按每 4 个字符 1 个
+     *
+     * @param text 文本
+     * @return 估算的 token 数
+     */
+    static int estimateTokens(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        int wide = 0;
+        int narrow = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= '\u2E80') {
+                wide++;
+            } else {
+                narrow++;
+            }
+        }
+        return wide + (narrow + 3) / 4;
+    }
+
+    /**
+     * 已生效的压缩次数
+     */
+    public long getCompacted() {
+        return compacted.get();
+    }
+
+    /**
+     * 失败的压缩次数
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * 因队列已满被丢弃的压缩次数
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
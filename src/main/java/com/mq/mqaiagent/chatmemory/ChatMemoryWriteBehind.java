@@ -0,0 +1,642 @@
+package com.mq.mqaiagent.chatmemory;
+
+import com.alibaba.fastjson2.JSON;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * 对话记忆的异步写回（write-behind）
+ * 开启后 {@link DatabaseChatMemory} 追加消息时不再同步写 MySQL：新消息先追加到本地日志（可配置每次 fsync），
+ * 再由后台线程按对话合并成一次批量写入，对话响应不再等待 MySQL 写入，突发流量下数据库写次数随之减少。
+ * <ul>
+ *     <li>日志按段滚动：每轮写出前封存当前段，该轮的消息全部写入数据库或转写到新段后删除封存的段；
+ *     每个对话写入成功后追加一条检查点记录，启动时按记录号重放残留的段，检查点之前的消息不再重复写入</li>
+ *     <li>同一对话按追加顺序写入：只有一个后台写出线程，写出失败的消息放回该对话队首；
+ *     拒绝异步写入前先同步写出该对话排队中的消息</li>
+ *     <li>排队、读取、清除与检查点都按（对话, 用户）区分，不同用户的同名对话互不影响</li>
+ *     <li>每条消息在追加时分配全局唯一的消息ID，写入方按消息ID跳过已写入的消息：
+ *     写出失败后的重试、检查点丢失后的重放都不会重复写入</li>
+ *     <li>读取与写出同一对话时持有同一把分段锁，读取方合并数据库与尚未写出的消息，不会漏读或重复读取</li>
+ * </ul>
+ */
+@Component
+@Slf4j
+public class ChatMemoryWriteBehind {
+
+    /**
+     * 检查点记录的类型：content 为该（对话, 用户）已落地（写入数据库或被清除）的最大记录号
+     */
+    static final String CHECKPOINT_TYPE = "CHECKPOINT";
+
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int LOCK_STRIPES = 64;
+
+    /**
+     * 把一个对话合并后的消息写入数据库
+     * 同一批消息可能被重复交给写入方（写入成功但后续步骤失败、检查点丢失），写入方必须按消息ID幂等
+     */
+    @FunctionalInterface
+    public interface Sink {
+
+        /**
+         * @param conversationId     原始对话ID
+         * @param safeConversationId 处理后的对话ID
+         * @param userId             用户ID，可为 null
+         * @param entries            按追加顺序排列的消息
+         */
+        void persist(String conversationId, String safeConversationId, Long userId, List<Entry> entries);
+    }
+
+    /**
+     * 日志中的一条记录（一行 JSON）
+     *
+     * @param id                 全局递增的记录号，决定重放顺序
+     * @param messageId          消息ID（UUID），写入数据库时用于去重；检查点记录为 null
+     * @param conversationId     原始对话ID
+     * @param safeConversationId 处理后的对话ID
+     * @param userId             用户ID，可为 null
+     * @param type               消息类型（{@link org.springframework.ai.chat.messages.MessageType} 名称）或检查点
+     * @param content            消息内容
+     * @param createTime         追加时间（毫秒）
+     */
+    public record Entry(long id, String messageId, String conversationId, String safeConversationId, Long userId,
+                        String type, String content, long createTime) {
+    }
+
+    /**
+     * 一个对话排队中的消息
+     */
+    private static final class PendingConversation {
+        private final String conversationId;
+        private final String safeConversationId;
+        private final Long userId;
+        private final List<Entry> entries = new ArrayList<>();
+        private Sink sink;
+
+        private PendingConversation(String conversationId, String safeConversationId, Long userId) {
+            this.conversationId = conversationId;
+            this.safeConversationId = safeConversationId;
+            this.userId = userId;
+        }
+    }
+
+    private final ChatMemoryWriteBehindProperties properties;
+    private final ReentrantLock[] stripes = new ReentrantLock[LOCK_STRIPES];
+    private final ScheduledExecutorService flusher;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private volatile boolean active;
+    private volatile Sink defaultSink;
+
+    /**
+     * 以下字段由 logLock 保护；queued 与 flushing 以 {@link #queueKey} 为键
+     */
+    private final Object logLock = new Object();
+    private Path logDir;
+    private Path currentSegment;
+    private FileChannel channel;
+    private long segmentIndex;
+    private long nextId = 1;
+    private int queuedMessages;
+    private LinkedHashMap<String, PendingConversation> queued = new LinkedHashMap<>();
+    private final Map<String, PendingConversation> flushing = new HashMap<>();
+    private final Deque<Path> sealedSegments = new ArrayDeque<>();
+
+    private final AtomicLong appended = new AtomicLong(0);
+    private final AtomicLong flushedMessages = new AtomicLong(0);
+    private final AtomicLong flushedBatches = new AtomicLong(0);
+    private final AtomicLong failedFlushes = new AtomicLong(0);
+    private final AtomicLong rejected = new AtomicLong(0);
+
+    public ChatMemoryWriteBehind(ChatMemoryWriteBehindProperties properties) {
+        this.properties = properties;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.active = properties.isEnabled() && open();
+        if (!active) {
+            this.flusher = null;
+            log.info("对话记忆异步写回未启用，enabled: {}", properties.isEnabled());
+            return;
+        }
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chat-memory-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(10, properties.getFlushIntervalMillis());
+        flusher.scheduleWithFixedDelay(this::flushQuietly, interval, interval, TimeUnit.MILLISECONDS);
+        log.info("对话记忆异步写回初始化完成，logDir: {}, fsync: {}, flushIntervalMillis: {}, 重放消息数: {}",
+                logDir, properties.isFsync(), interval, queuedMessages);
+    }
+
+    /**
+     * 是否接受异步写入
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * 设置重放消息使用的写入方（先到先得）
+     * 运行期追加的消息使用追加时传入的写入方，启动时从日志重放的消息没有写入方，使用这里设置的默认值
+     *
+     * @param sink 写入方
+     */
+    public void bindDefaultSink(Sink sink) {
+        if (defaultSink == null) {
+            defaultSink = sink;
+        }
+    }
+
+    /**
+     * 追加消息：写入本地日志后进入写出队列
+     *
+     * @param conversationId     原始对话ID
+     * @param safeConversationId 处理后的对话ID
+     * @param userId             用户ID，可为 null
+     * @param messages           要追加的消息（已跳过空内容）
+     * @param sink               写出时使用的写入方
+     * @return 是否已接受；返回 false 时调用方应同步写入数据库（该对话排队中的消息已先行写出）
+     */
+    public boolean append(String conversationId, String safeConversationId, Long userId,
+                          List<Message> messages, Sink sink) {
+        if (!active) {
+            return false;
+        }
+        String queueKey = queueKey(safeConversationId, userId);
+        boolean accepted = false;
+        int pending;
+        synchronized (logLock) {
+            if (queuedMessages + messages.size() <= properties.getMaxPendingMessages()) {
+                long now = System.currentTimeMillis();
+                List<Entry> entries = new ArrayList<>(messages.size());
+                for (Message message : messages) {
+                    entries.add(new Entry(nextId++, UUID.randomUUID().toString(), conversationId,
+                            safeConversationId, userId, message.getMessageType().name(), message.getText(), now));
+                }
+                try {
+                    writeEntries(entries);
+                    entries.forEach(entry -> enqueue(entry, sink));
+                    accepted = true;
+                } catch (IOException e) {
+                    log.error("写入对话记忆日志失败，对话ID: {}, error: {}", safeConversationId, e.getMessage(), e);
+                }
+            }
+            pending = queuedMessages;
+        }
+        if (!accepted) {
+            rejected.incrementAndGet();
+            flushConversation(queueKey);
+            return false;
+        }
+        appended.addAndGet(messages.size());
+        if (pending >= properties.getMaxBatchMessages()) {
+            requestFlush();
+        }
+        return true;
+    }
+
+    /**
+     * 在对话锁内读取：reader 收到该用户在该对话中尚未写入数据库的消息，并在锁内完成数据库读取
+     *
+     * @param safeConversationId 处理后的对话ID
+     * @param userId             用户ID，可为 null
+     * @param reader             读取逻辑
+     * @param <T>                返回类型
+     * @return reader 的返回值
+     */
+    public <T> T read(String safeConversationId, Long userId, Function<List<Entry>, T> reader) {
+        String queueKey = queueKey(safeConversationId, userId);
+        ReentrantLock lock = stripe(queueKey);
+        lock.lock();
+        try {
+            List<Entry> pending = new ArrayList<>();
+            synchronized (logLock) {
+                PendingConversation inFlight = flushing.get(queueKey);
+                if (inFlight != null) {
+                    pending.addAll(inFlight.entries);
+                }
+                PendingConversation waiting = queued.get(queueKey);
+                if (waiting != null) {
+                    pending.addAll(waiting.entries);
+                }
+            }
+            return reader.apply(pending);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 丢弃该用户在对话中排队的消息（清除对话时调用），并写入检查点防止重启后重放
+     *
+     * @param safeConversationId 处理后的对话ID
+     * @param userId             用户ID，可为 null
+     */
+    public void discard(String safeConversationId, Long userId) {
+        if (!active) {
+            return;
+        }
+        String queueKey = queueKey(safeConversationId, userId);
+        ReentrantLock lock = stripe(queueKey);
+        lock.lock();
+        try {
+            synchronized (logLock) {
+                PendingConversation waiting = queued.remove(queueKey);
+                if (waiting != null) {
+                    queuedMessages -= waiting.entries.size();
+                }
+                flushing.remove(queueKey);
+                writeCheckpoint(safeConversationId, userId, nextId - 1);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 写出一轮：封存当前日志段，按对话逐个写入数据库
+     * 只在写出线程中调用（测试可直接调用）
+     */
+    void flush() {
+        if (defaultSink == null) {
+            // 还没有任何对话记忆实例，重放的消息无处写入
+            return;
+        }
+        List<String> queueKeys;
+        List<Path> sealed;
+        synchronized (logLock) {
+            if (queued.isEmpty() && sealedSegments.isEmpty()) {
+                return;
+            }
+            try {
+                rotateSegment();
+            } catch (IOException e) {
+                log.error("滚动对话记忆日志失败，error: {}", e.getMessage(), e);
+                return;
+            }
+            flushing.putAll(queued);
+            queueKeys = new ArrayList<>(queued.keySet());
+            queued = new LinkedHashMap<>();
+            queuedMessages = 0;
+            sealed = new ArrayList<>(sealedSegments);
+        }
+
+        boolean allDurable = true;
+        for (String queueKey : queueKeys) {
+            allDurable &= flushOne(queueKey);
+        }
+        if (!allDurable) {
+            // 有消息既未写入数据库也未转写到新段，保留封存的段，下一轮再删除
+            return;
+        }
+        synchronized (logLock) {
+            sealedSegments.removeAll(sealed);
+        }
+        for (Path segment : sealed) {
+            try {
+                Files.deleteIfExists(segment);
+            } catch (IOException e) {
+                log.warn("删除对话记忆日志段失败: {}, error: {}", segment, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 写出单个对话在 flushing 中的消息
+     *
+     * @return 这些消息是否已落地（写入数据库，或写入失败后转写到当前日志段）
+     */
+    private boolean flushOne(String queueKey) {
+        ReentrantLock lock = stripe(queueKey);
+        lock.lock();
+        try {
+            PendingConversation batch;
+            synchronized (logLock) {
+                batch = flushing.get(queueKey);
+            }
+            if (batch == null) {
+                // 已被同步写出或清除
+                return true;
+            }
+            String safeConversationId = batch.safeConversationId;
+            Sink sink = batch.sink != null ? batch.sink : defaultSink;
+            try {
+                sink.persist(batch.conversationId, safeConversationId, batch.userId, batch.entries);
+                flushedMessages.addAndGet(batch.entries.size());
+                flushedBatches.incrementAndGet();
+                synchronized (logLock) {
+                    flushing.remove(queueKey);
+                    writeCheckpoint(safeConversationId, batch.userId, batch.entries.get(batch.entries.size() - 1).id());
+                }
+                return true;
+            } catch (Exception e) {
+                failedFlushes.incrementAndGet();
+                log.warn("对话记忆写回数据库失败，稍后重试，对话ID: {}, 消息数: {}, error: {}",
+                        safeConversationId, batch.entries.size(), e.getMessage());
+                synchronized (logLock) {
+                    flushing.remove(queueKey);
+                    requeueFirst(queueKey, batch);
+                    try {
+                        writeEntries(batch.entries);
+                        return true;
+                    } catch (IOException ioe) {
+                        log.error("转写对话记忆日志失败，对话ID: {}, error: {}", safeConversationId, ioe.getMessage(), ioe);
+                        return false;
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 在调用线程中同步写出一个（对话, 用户）排队中的全部消息
+     */
+    private void flushConversation(String queueKey) {
+        ReentrantLock lock = stripe(queueKey);
+        lock.lock();
+        try {
+            synchronized (logLock) {
+                PendingConversation waiting = queued.remove(queueKey);
+                if (waiting == null) {
+                    return;
+                }
+                queuedMessages -= waiting.entries.size();
+                PendingConversation inFlight = flushing.get(queueKey);
+                if (inFlight == null) {
+                    flushing.put(queueKey, waiting);
+                } else {
+                    inFlight.entries.addAll(waiting.entries);
+                    if (waiting.sink != null) {
+                        inFlight.sink = waiting.sink;
+                    }
+                }
+            }
+            flushOne(queueKey);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("对话记忆写回异常，error: {}", e.getMessage(), e);
+        }
+    }
+
+    private void requestFlush() {
+        if (flusher != null && flushScheduled.compareAndSet(false, true)) {
+            flusher.execute(() -> {
+                flushScheduled.set(false);
+                flushQuietly();
+            });
+        }
+    }
+
+    /**
+     * 应用关闭时写出剩余消息；写出失败的消息留在日志中，下次启动时重放
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (!active) {
+            return;
+        }
+        active = false;
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushQuietly();
+        synchronized (logLock) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("关闭对话记忆日志失败，error: {}", e.getMessage());
+            }
+        }
+        log.info("对话记忆异步写回已关闭，剩余未写出消息数: {}", queuedMessages);
+    }
+
+    /**
+     * 打开日志目录：重放残留的段，并新建当前段
+     *
+     * @return 是否成功
+     */
+    private boolean open() {
+        synchronized (logLock) {
+            try {
+                logDir = Paths.get(properties.getLogDir());
+                Files.createDirectories(logDir);
+                replay();
+                openSegment();
+                return true;
+            } catch (IOException e) {
+                log.error("打开对话记忆日志目录失败，退回同步写入，logDir: {}, error: {}",
+                        properties.getLogDir(), e.getMessage(), e);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 按记录号重放全部残留段：同一记录号只保留一次（转写产生的重复），检查点丢弃该（对话, 用户）之前的消息
+     */
+    private void replay() throws IOException {
+        List<Path> segments;
+        try (Stream<Path> files = Files.list(logDir)) {
+            segments = files.filter(path -> segmentIndexOf(path) >= 0).sorted().toList();
+        }
+        TreeMap<Long, Entry> entries = new TreeMap<>();
+        for (Path segment : segments) {
+            segmentIndex = Math.max(segmentIndex, segmentIndexOf(segment));
+            for (String line : Files.readAllLines(segment, StandardCharsets.UTF_8)) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    Entry entry = JSON.parseObject(line, Entry.class);
+                    entries.put(entry.id(), entry);
+                } catch (Exception e) {
+                    // 崩溃时写了一半的末行
+                    log.warn("跳过无法解析的对话记忆日志记录，段: {}", segment.getFileName());
+                }
+            }
+            sealedSegments.add(segment);
+        }
+        for (Entry entry : entries.values()) {
+            nextId = Math.max(nextId, entry.id() + 1);
+            if (CHECKPOINT_TYPE.equals(entry.type())) {
+                String queueKey = queueKey(entry.safeConversationId(), entry.userId());
+                PendingConversation pending = queued.get(queueKey);
+                if (pending != null) {
+                    long handledId = Long.parseLong(entry.content());
+                    int before = pending.entries.size();
+                    pending.entries.removeIf(handled -> handled.id() <= handledId);
+                    queuedMessages -= before - pending.entries.size();
+                    if (pending.entries.isEmpty()) {
+                        queued.remove(queueKey);
+                    }
+                }
+            } else {
+                enqueue(entry, null);
+            }
+        }
+        segmentIndex++;
+        if (queuedMessages > 0) {
+            log.info("从对话记忆日志重放 {} 条未写入数据库的消息，对话数: {}", queuedMessages, queued.size());
+        }
+    }
+
+    private void enqueue(Entry entry, Sink sink) {
+        PendingConversation pending = queued.computeIfAbsent(queueKey(entry.safeConversationId(), entry.userId()),
+                key -> new PendingConversation(entry.conversationId(), entry.safeConversationId(), entry.userId()));
+        if (sink != null) {
+            pending.sink = sink;
+        }
+        pending.entries.add(entry);
+        queuedMessages++;
+    }
+
+    /**
+     * 写入失败的消息放回队首，排在写出期间新追加的消息之前
+     */
+    private void requeueFirst(String queueKey, PendingConversation batch) {
+        PendingConversation newer = queued.remove(queueKey);
+        LinkedHashMap<String, PendingConversation> requeued = new LinkedHashMap<>();
+        if (newer != null) {
+            batch.entries.addAll(newer.entries);
+            if (newer.sink != null) {
+                batch.sink = newer.sink;
+            }
+            queuedMessages -= newer.entries.size();
+        }
+        requeued.put(queueKey, batch);
+        requeued.putAll(queued);
+        queued = requeued;
+        queuedMessages += batch.entries.size();
+    }
+
+    private void writeCheckpoint(String safeConversationId, Long userId, long handledId) {
+        try {
+            writeEntries(List.of(new Entry(nextId++, null, null, safeConversationId, userId,
+                    CHECKPOINT_TYPE, String.valueOf(handledId), System.currentTimeMillis())));
+        } catch (IOException e) {
+            // 检查点缺失只会导致重启后重放这部分消息，写入方按消息ID跳过已写入的消息
+            log.warn("写入对话记忆检查点失败，对话ID: {}, error: {}", safeConversationId, e.getMessage());
+        }
+    }
+
+    private void writeEntries(List<Entry> entries) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (Entry entry : entries) {
+            lines.append(JSON.toJSONString(entry)).append('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        if (properties.isFsync()) {
+            channel.force(false);
+        }
+    }
+
+    private void rotateSegment() throws IOException {
+        if (channel.size() == 0) {
+            return;
+        }
+        channel.close();
+        sealedSegments.add(currentSegment);
+        segmentIndex++;
+        openSegment();
+    }
+
+    private void openSegment() throws IOException {
+        currentSegment = logDir.resolve(String.format("%s%012d%s", SEGMENT_PREFIX, segmentIndex, SEGMENT_SUFFIX));
+        channel = FileChannel.open(currentSegment,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static long segmentIndexOf(Path path) {
+        String name = path.getFileName().toString();
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 排队与分段锁使用的键：不同用户可以使用相同的对话ID，必须按（用户, 对话）区分
+     */
+    private static String queueKey(String safeConversationId, Long userId) {
+        return (userId != null ? "u" + userId : "a") + ":" + safeConversationId;
+    }
+
+    private ReentrantLock stripe(String queueKey) {
+        return stripes[(queueKey.hashCode() & 0x7fffffff) % LOCK_STRIPES];
+    }
+
+    public long getAppended() {
+        return appended.get();
+    }
+
+    public long getFlushedMessages() {
+        return flushedMessages.get();
+    }
+
+    public long getFlushedBatches() {
+        return flushedBatches.get();
+    }
+
+    public long getFailedFlushes() {
+        return failedFlushes.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public int getPendingMessages() {
+        synchronized (logLock) {
+            return queuedMessages;
+        }
+    }
+}
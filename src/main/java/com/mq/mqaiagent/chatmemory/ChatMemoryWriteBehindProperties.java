@@ -0,0 +1,60 @@
+package com.mq.mqaiagent.chatmemory;
+
+import com.mq.mqaiagent.constant.FileConstant;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 对话记忆异步写回配置。
+ * 开启后新消息先追加到本地日志，再由后台线程按对话合并后批量写入 MySQL。
+ *
+ * 配置示例：
+ * <pre>
+ * mq:
+ *   ai:
+ *     memory-write-behind:
+ *       enabled: false
+ *       log-dir: ./tmp/chat-memory-wal
+ *       fsync: true
+ *       flush-interval-millis: 200
+ *       max-batch-messages: 500
+ *       max-pending-messages: 10000
+ * </pre>
+ */
+@Component
+@ConfigurationProperties(prefix = "mq.ai.memory-write-behind")
+@Data
+public class ChatMemoryWriteBehindProperties {
+
+    /**
+     * 是否启用异步写回，关闭时每次追加同步写入数据库。
+     */
+    private boolean enabled = false;
+
+    /**
+     * 本地日志目录，多实例部署时每个实例需使用各自的目录。
+     */
+    private String logDir = FileConstant.FILE_SAVE_DIR + "/chat-memory-wal";
+
+    /**
+     * 每次追加后是否 fsync。
+     * 关闭后写入只进入操作系统页缓存，进程崩溃不丢消息，但机器掉电可能丢失最近一段时间的消息。
+     */
+    private boolean fsync = true;
+
+    /**
+     * 后台写出的间隔（毫秒）。
+     */
+    private long flushIntervalMillis = 200;
+
+    /**
+     * 排队消息达到该数量时立即写出，不等待下一个间隔。
+     */
+    private int maxBatchMessages = 500;
+
+    /**
+     * 排队消息上限，超出后该对话退回同步写入（先写出已排队的消息，保证顺序）。
+     */
+    private int maxPendingMessages = 10000;
+}
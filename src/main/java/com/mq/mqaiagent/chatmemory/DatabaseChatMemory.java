@@ -4,13 +4,18 @@ import com.alibaba.fastjson2.JSON;
 import com.alibaba.fastjson2.JSONArray;
 import com.alibaba.fastjson2.JSONObject;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
+import com.mq.mqaiagent.mapper.ChatMessageMapper;
 import com.mq.mqaiagent.model.dto.keepReport.KeepReport;
+import com.mq.mqaiagent.model.entity.ChatMessage;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
 import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.dao.DuplicateKeyException;
 
 import java.util.*;
 
@@ -18,6 +23,11 @@ import java.util.*;
  * ClassName：DatabaseChatMemory
  * Package:com.mq.mqaiagent.chatmemory
  * Description: 持久化对话到 MySQL
+ * 每条消息是 chat_message 中的一行（只追加），keep_report 只作为历史列表使用的表头（最后一条消息、更新时间）；
+ * 旧版存放在 keep_report.messages 中的整段 JSON 在第一次读写该对话时迁移为消息行；
+ * 配置了 {@link ChatMemoryCompactor} 时，较早的消息会被折叠进表头中的滚动摘要，读取时返回「摘要 + 摘要之后的消息」；
+ * 配置并启用了 {@link ChatMemoryWriteBehind} 时，追加只写本地日志，由后台线程合并写入数据库，读取时合并尚未写出的消息；
+ * 较长的消息内容由 {@link ChatContentTypeHandler} 压缩存储，压缩格式上线前写入的行在对话再次写入后由压缩器在后台重写
  * Author：MQQQ
  *
  * @Create:2025/6/19 - 18:51
@@ -26,16 +36,71 @@ import java.util.*;
 @Slf4j
 public class DatabaseChatMemory implements ChatMemory {
 
+    /**
+     * 并发追加同一对话导致序号冲突时的最大尝试次数
+     */
+    private static final int MAX_APPEND_ATTEMPTS = 3;
+
+    /**
+     * 滚动摘要在记忆中的前缀
+     */
+    private static final String SUMMARY_PREFIX = "以下是此前对话的摘要：\n";
+
+    /**
+     * 未登录对话在 chat_message 与 keep_report 中记录的用户ID
+     */
+    static final long ANONYMOUS_USER_ID = 0L;
+
     private final com.mq.mqaiagent.mapper.KeepReportMapper KeepReportMapper;
+    private final ChatMessageMapper chatMessageMapper;
+    private final ChatMemoryCompactor compactor;
+    private final ChatMemoryWriteBehind writeBehind;
     private Long currentUserId; // 当前用户ID
 
     /**
-     * 构造函数，初始化 KeepReportMapper。
+     * 构造函数，初始化数据库操作 Mapper（不压缩对话记忆）。
      *
-     * @param KeepReportMapper 健身报告数据库操作 Mapper
+     * @param KeepReportMapper  对话表头（keep_report）数据库操作 Mapper
+     * @param chatMessageMapper 对话消息（chat_message）数据库操作 Mapper
      */
-    public DatabaseChatMemory(com.mq.mqaiagent.mapper.KeepReportMapper KeepReportMapper) {
+    public DatabaseChatMemory(com.mq.mqaiagent.mapper.KeepReportMapper KeepReportMapper,
+                              ChatMessageMapper chatMessageMapper) {
+        this(KeepReportMapper, chatMessageMapper, null);
+    }
+
+    /**
+     * 构造函数，初始化数据库操作 Mapper 与对话记忆压缩器。
+     *
+     * @param KeepReportMapper  对话表头（keep_report）数据库操作 Mapper
+     * @param chatMessageMapper 对话消息（chat_message）数据库操作 Mapper
+     * @param compactor         对话记忆压缩器，为 null 时不压缩
+     */
+    public DatabaseChatMemory(com.mq.mqaiagent.mapper.KeepReportMapper KeepReportMapper,
+                              ChatMessageMapper chatMessageMapper,
+                              ChatMemoryCompactor compactor) {
+        this(KeepReportMapper, chatMessageMapper, compactor, null);
+    }
+
+    /**
+     * 构造函数，初始化数据库操作 Mapper、对话记忆压缩器与异步写回。
+     *
+     * @param KeepReportMapper  对话表头（keep_report）数据库操作 Mapper
+     * @param chatMessageMapper 对话消息（chat_message）数据库操作 Mapper
+     * @param compactor         对话记忆压缩器，为 null 时不压缩
+     * @param writeBehind       对话记忆异步写回，为 null 或未启用时同步写入数据库
+     */
+    public DatabaseChatMemory(com.mq.mqaiagent.mapper.KeepReportMapper KeepReportMapper,
+                              ChatMessageMapper chatMessageMapper,
+                              ChatMemoryCompactor compactor,
+                              ChatMemoryWriteBehind writeBehind) {
         this.KeepReportMapper = KeepReportMapper;
+        this.chatMessageMapper = chatMessageMapper;
+        this.compactor = compactor;
+        this.writeBehind = writeBehind != null && writeBehind.isActive() ? writeBehind : null;
+        if (this.writeBehind != null) {
+            // 启动时从日志重放的消息由第一个创建的实例写入数据库
+            this.writeBehind.bindDefaultSink(this::persistPending);
+        }
     }
 
     /**
@@ -49,41 +114,47 @@ public class DatabaseChatMemory implements ChatMemory {
 
     /**
      * 向指定对话 ID 的记忆中添加消息列表。
-     * 会将新消息追加到现有消息列表末尾，并持久化到数据库。
+     * 新消息以追加方式批量写入 chat_message，不读取也不重写已有历史。
      *
      * @param conversationId 对话的唯一标识符。
      * @param messages       要添加的消息列表。
      */
     @Override
     public void add(String conversationId, List<Message> messages) {
-        if (currentUserId != null) {
-            // 如果设置了用户ID，使用支持用户ID的方法
-            add(conversationId, currentUserId, messages);
-        } else {
-            // 获取当前对话的完整历史记录
-            List<Message> conversationMessages = getOrCreateConversation(conversationId);
-            // 将新消息添加到历史记录末尾
-            conversationMessages.addAll(messages);
-            // 保存更新后的完整对话历史
-            saveConversation(conversationId, conversationMessages);
-        }
+        add(conversationId, currentUserId, messages);
     }
 
     /**
      * 向指定对话 ID 的记忆中添加消息列表（支持用户ID）。
-     * 会将新消息追加到现有消息列表末尾，并持久化到数据库。
+     * 新消息按序号追加到 chat_message（一条批量 INSERT），随后刷新 keep_report 表头的最后一条消息与更新时间。
      *
      * @param conversationId 对话的唯一标识符。
-     * @param userId         用户ID。
+     * @param userId         用户ID，可为 null。
      * @param messages       要添加的消息列表。
      */
     public void add(String conversationId, Long userId, List<Message> messages) {
-        // 获取当前对话的完整历史记录
-        List<Message> conversationMessages = getOrCreateConversation(conversationId, userId);
-        // 将新消息添加到历史记录末尾
-        conversationMessages.addAll(messages);
-        // 保存更新后的完整对话历史
-        saveConversation(conversationId, userId, conversationMessages);
+        String safeConversationId = getSafeConversationId(conversationId);
+        List<Message> toAppend = messages == null ? List.of() : messages.stream()
+                // 跳过空内容的消息
+                .filter(message -> message.getText() != null && !message.getText().isBlank())
+                .toList();
+        if (toAppend.isEmpty()) {
+            return;
+        }
+        // 异步写回：写入本地日志即返回，数据库写入与压缩检查由后台线程完成
+        if (writeBehind != null
+                && writeBehind.append(conversationId, safeConversationId, userId, toAppend, this::persistPending)) {
+            onAppended(conversationId, userId, toAppend);
+            return;
+        }
+        try {
+            writeMessages(safeConversationId, userId, toAppend, null, new Date());
+            onAppended(conversationId, userId, toAppend);
+            log.debug("成功追加对话消息: {}, 用户ID: {}, 消息数: {}", safeConversationId, userId, toAppend.size());
+            compactLater(conversationId, safeConversationId, userId);
+        } catch (Exception e) {
+            log.error("保存对话记录失败，对话ID: {}, 用户ID: {}, 错误: {}", safeConversationId, userId, e.getMessage(), e);
+        }
     }
 
     /**
@@ -97,68 +168,121 @@ public class DatabaseChatMemory implements ChatMemory {
      */
     @Override
     public List<Message> get(String conversationId, int lastN) {
-        if (currentUserId != null) {
-            // 如果设置了用户ID，使用支持用户ID的方法
-            return get(conversationId, currentUserId, lastN);
-        } else {
-            // 获取完整的对话历史
-            List<Message> allMessages = getOrCreateConversation(conversationId);
-            if (allMessages.isEmpty()) {
-                // 对话为空，返回空列表
-                return allMessages;
-            }
-            // 计算需要跳过的消息数量
-            int skipCount = Math.max(0, allMessages.size() - lastN);
-            return allMessages.stream()
-                    // 跳过前面的消息
-                    .skip(skipCount)
-                    // 返回最后 N 条消息
-                    .toList();
-        }
+        return get(conversationId, currentUserId, lastN);
     }
 
     /**
      * 获取指定对话 ID 的最近 N 条消息（支持用户ID）。
-     * 如果请求的消息数量 N 大于等于实际消息总数，则返回所有消息。
-     * 如果对话不存在或为空，则返回空列表。
+     * 通过 (conversationId, userId, seq) 索引倒序读取 N 行，读取量与历史长度无关；
+     * keep_report 中还有旧版 JSON 时先迁移再读取。已有滚动摘要时，摘要作为第一条消息返回，
+     * 其后只包含摘要之后的消息。
      *
      * @param conversationId 对话的唯一标识符。
-     * @param userId         用户ID。
+     * @param userId         用户ID，可为 null。
      * @param lastN          要获取的最近消息的数量。
      * @return 包含最近 N 条消息的列表，按时间顺序排列（旧 -> 新）。
      */
     public List<Message> get(String conversationId, Long userId, int lastN) {
-        // 获取完整的对话历史
-        List<Message> allMessages = getOrCreateConversation(conversationId, userId);
-        if (allMessages.isEmpty()) {
-            // 对话为空，返回空列表
-            return allMessages;
+        if (lastN <= 0) {
+            return new ArrayList<>();
+        }
+        String safeConversationId = getSafeConversationId(conversationId);
+        if (writeBehind != null) {
+            // 在对话锁内读取，保证与后台写出互斥：尚未写入数据库的消息一定在 pending 中
+            return writeBehind.read(safeConversationId, userId,
+                    pending -> readMessages(safeConversationId, userId, lastN, pending));
+        }
+        return readMessages(safeConversationId, userId, lastN, List.of());
+    }
+
+    /**
+     * 从数据库读取最近 N 条消息，并在末尾合并尚未写入数据库的消息。
+     */
+    private List<Message> readMessages(String safeConversationId, Long userId, int lastN,
+                                       List<ChatMemoryWriteBehind.Entry> pending) {
+        try {
+            Long ownerId = ownerOf(userId);
+            KeepReport header = findHeader(safeConversationId, ownerId);
+            migrateLegacyMessages(header);
+            List<ChatMessage> rows = chatMessageMapper.selectLatest(safeConversationId, ownerId, lastN);
+            List<Message> messages = new ArrayList<>(rows.size() + 1);
+            int summarySeq = 0;
+            if (header != null && header.getSummary() != null && !header.getSummary().isBlank()) {
+                messages.add(new SystemMessage(SUMMARY_PREFIX + header.getSummary()));
+                summarySeq = header.getSummarySeq() != null ? header.getSummarySeq() : 0;
+            }
+            // 查询结果按序号倒序，逆序遍历得到 旧 -> 新；已折叠进摘要的消息跳过
+            for (int i = rows.size() - 1; i >= 0; i--) {
+                if (rows.get(i).getSeq() <= summarySeq) {
+                    continue;
+                }
+                Message message = toMessage(rows.get(i));
+                if (message != null) {
+                    messages.add(message);
+                }
+            }
+            if (!pending.isEmpty()) {
+                // 已写入消息行、但因表头刷新失败等待重试的消息不重复返回
+                Set<String> readIds = new HashSet<>();
+                rows.forEach(row -> readIds.add(row.getMessageId()));
+                for (ChatMemoryWriteBehind.Entry entry : pending) {
+                    if (entry.messageId() != null && readIds.contains(entry.messageId())) {
+                        continue;
+                    }
+                    Message message = toMessage(toRow(entry));
+                    if (message != null) {
+                        messages.add(message);
+                    }
+                }
+                // 摘要不计入条数，合并后只保留最近 N 条
+                int first = !messages.isEmpty() && messages.get(0) instanceof SystemMessage ? 1 : 0;
+                int excess = messages.size() - first - lastN;
+                if (excess > 0) {
+                    messages.subList(first, first + excess).clear();
+                }
+            }
+            return messages;
+        } catch (Exception e) {
+            log.error("获取对话记录失败，对话ID: {}, 用户ID: {}, 错误: {}", safeConversationId, userId, e.getMessage(), e);
+            return new ArrayList<>();
         }
-        // 计算需要跳过的消息数量
-        int skipCount = Math.max(0, allMessages.size() - lastN);
-        return allMessages.stream()
-                // 跳过前面的消息
-                .skip(skipCount)
-                // 返回最后 N 条消息
-                .toList();
     }
 
     /**
-     * 清除指定对话 ID 的所有记忆（删除对应的数据库记录）。
+     * 清除指定对话 ID 的所有记忆（删除表头与全部消息行）。
      *
      * @param conversationId 对话的唯一标识符。
      */
     @Override
     public void clear(String conversationId) {
+        clear(conversationId, currentUserId);
+    }
+
+    /**
+     * 清除指定用户的对话记忆（删除表头与全部消息行），其他用户的同名对话不受影响。
+     *
+     * @param conversationId 对话的唯一标识符。
+     * @param userId         用户ID，可为 null。
+     */
+    public void clear(String conversationId, Long userId) {
+        String safeConversationId = getSafeConversationId(conversationId);
+        Long ownerId = ownerOf(userId);
+        if (writeBehind != null) {
+            writeBehind.discard(safeConversationId, userId);
+        }
         try {
             // 构建查询条件
             LambdaQueryWrapper<KeepReport> queryWrapper = new LambdaQueryWrapper<>();
-            queryWrapper.eq(KeepReport::getChatId, getSafeConversationId(conversationId));
+            queryWrapper.eq(KeepReport::getChatId, safeConversationId)
+                    .eq(KeepReport::getUserId, ownerId);
 
             // 删除对应的记录
             int deletedRows = KeepReportMapper.delete(queryWrapper);
-            if (deletedRows > 0) {
-                log.info("成功清除对话记录: {}", conversationId);
+            int deletedMessages = chatMessageMapper.delete(new LambdaQueryWrapper<ChatMessage>()
+                    .eq(ChatMessage::getConversationId, safeConversationId)
+                    .eq(ChatMessage::getUserId, ownerId));
+            if (deletedRows > 0 || deletedMessages > 0) {
+                log.info("成功清除对话记录: {}, 消息数: {}", conversationId, deletedMessages);
             } else {
                 log.warn("尝试清除不存在的对话记录: {}", conversationId);
             }
@@ -168,189 +292,279 @@ public class DatabaseChatMemory implements ChatMemory {
     }
 
     /**
-     * 获取或创建指定对话 ID 的消息列表。
-     * 如果对应的记录存在，则从中反序列化消息列表；否则，返回一个新的空列表。
+     * 异步写回的写入方：把一个对话合并后的消息一次写入数据库，失败时抛出异常由写回组件重试。
+     * 消息按消息ID去重，消息行已写入但表头刷新失败后的重试只会重新刷新表头，不会重复追加消息。
+     */
+    private void persistPending(String conversationId, String safeConversationId, Long userId,
+                                List<ChatMemoryWriteBehind.Entry> entries) {
+        List<Message> messages = new ArrayList<>(entries.size());
+        List<String> messageIds = new ArrayList<>(entries.size());
+        for (ChatMemoryWriteBehind.Entry entry : entries) {
+            Message message = toMessage(toRow(entry));
+            if (message != null) {
+                messages.add(message);
+                messageIds.add(entry.messageId());
+            }
+        }
+        if (messages.isEmpty()) {
+            return;
+        }
+        writeMessages(safeConversationId, userId, messages, messageIds, new Date(entries.get(0).createTime()));
+        log.debug("异步写回对话消息: {}, 用户ID: {}, 消息数: {}", safeConversationId, userId, messages.size());
+        compactLater(conversationId, safeConversationId, userId);
+    }
+
+    /**
+     * 把消息追加到 chat_message 并刷新表头；旧版整段 JSON 先迁移，保证新消息排在历史之后。
      *
-     * @param conversationId 对话的唯一标识符。
-     * @return 对话的消息列表。如果反序列化失败或记录不存在，则返回空列表。
+     * @param messageIds 与 messages 一一对应的消息ID（异步写回），同步写入时为 null
      */
-    private List<Message> getOrCreateConversation(String conversationId) {
-        String safeConversationId = getSafeConversationId(conversationId);
-        try {
-            // 构建查询条件
-            LambdaQueryWrapper<KeepReport> queryWrapper = new LambdaQueryWrapper<>();
-            queryWrapper.eq(KeepReport::getChatId, safeConversationId);
+    private void writeMessages(String safeConversationId, Long userId, List<Message> messages,
+                               List<String> messageIds, Date createTime) {
+        Long ownerId = ownerOf(userId);
+        KeepReport header = findHeader(safeConversationId, ownerId);
+        migrateLegacyMessages(header);
+        appendMessages(safeConversationId, ownerId, messages, messageIds, createTime);
+        touchHeader(header, safeConversationId, ownerId, getLastMessageContent(messages));
+        recompressLater(safeConversationId, ownerId);
+    }
 
-            // 查询数据库
-            KeepReport loveReport = KeepReportMapper.selectOne(queryWrapper);
+    /**
+     * 写入后在后台把对话中压缩格式上线前写入的较长消息重写为存储格式，不阻塞本次写入。
+     */
+    private void recompressLater(String safeConversationId, Long ownerId) {
+        if (compactor != null) {
+            compactor.recompressLater(safeConversationId, ownerId);
+        }
+    }
 
-            if (loveReport != null && loveReport.getMessages() != null && !loveReport.getMessages().isBlank()) {
-                // 从数据库记录中反序列化完整的消息列表
-                try {
-                    // 解析存储的简化消息格式
-                    return deserializeMessages(loveReport.getMessages());
-                } catch (Exception e) {
-                    log.error("反序列化对话消息失败，对话ID: {}, 错误: {}", safeConversationId, e.getMessage(), e);
-                    // 反序列化失败，可能数据已损坏，返回空列表
-                    return new ArrayList<>();
-                }
-            } else {
-                log.debug("未找到对话记录或消息为空，对话ID: {}", safeConversationId);
-            }
-        } catch (Exception e) {
-            log.error("获取对话记录失败，对话ID: {}, 错误: {}", safeConversationId, e.getMessage(), e);
+    /**
+     * 追加后在后台检查是否需要压缩。
+     */
+    private void compactLater(String conversationId, String safeConversationId, Long userId) {
+        if (compactor != null) {
+            compactor.maybeCompact(safeConversationId, userId, () -> onCompacted(conversationId, userId));
         }
+    }
 
-        // 如果记录不存在或发生异常，返回新的空列表
-        return new ArrayList<>();
+    /**
+     * 消息写入数据库成功后的回调，子类可在此把新消息追加到对话缓存。
+     *
+     * @param conversationId 原始对话ID。
+     * @param userId         用户ID，可为 null。
+     * @param appended       本次写入的消息（已跳过空内容），按时间顺序排列。
+     */
+    protected void onAppended(String conversationId, Long userId, List<Message> appended) {
     }
 
     /**
-     * 获取或创建指定对话 ID 的消息列表（支持用户ID）。
-     * 如果对应的记录存在，则从中反序列化消息列表；否则，返回一个新的空列表。
+     * 对话被压缩后的回调，子类可在此清除对话缓存。
      *
-     * @param conversationId 对话的唯一标识符。
-     * @param userId         用户ID。
-     * @return 对话的消息列表。如果反序列化失败或记录不存在，则返回空列表。
+     * @param conversationId 原始对话ID。
+     * @param userId         用户ID，可为 null。
      */
-    private List<Message> getOrCreateConversation(String conversationId, Long userId) {
-        String safeConversationId = getSafeConversationId(conversationId);
-        try {
-            // 构建查询条件
-            LambdaQueryWrapper<KeepReport> queryWrapper = new LambdaQueryWrapper<>();
-            queryWrapper.eq(KeepReport::getChatId, safeConversationId)
-                    .eq(KeepReport::getUserId, userId);
+    protected void onCompacted(String conversationId, Long userId) {
+    }
 
-            // 查询数据库
-            KeepReport keepReport = KeepReportMapper.selectOne(queryWrapper);
+    /**
+     * 查询对话表头（keep_report）。
+     *
+     * @param safeConversationId 处理后的对话ID。
+     * @param ownerId            用户ID，未登录对话为 {@link #ANONYMOUS_USER_ID}。
+     * @return 表头记录，不存在时返回 null。
+     */
+    private KeepReport findHeader(String safeConversationId, Long ownerId) {
+        LambdaQueryWrapper<KeepReport> queryWrapper = new LambdaQueryWrapper<>();
+        queryWrapper.eq(KeepReport::getChatId, safeConversationId)
+                .eq(KeepReport::getUserId, ownerId)
+                .last("LIMIT 1");
+        return KeepReportMapper.selectOne(queryWrapper);
+    }
 
-            if (keepReport != null && keepReport.getMessages() != null && !keepReport.getMessages().isBlank()) {
-                // 从数据库记录中反序列化完整的消息列表
+    /**
+     * 把表头中旧版整段 JSON 格式的对话记录迁移为 chat_message 行，并清空旧字段。
+     * 迁移只在第一次读写该对话时发生一次；并发迁移时唯一索引保证只有一方写入成功。
+     * 消息行按表头的（对话, 用户）写入与核对，确认这些行已存在后才清空旧字段。
+     *
+     * @param header 对话表头，可为 null。
+     * @return 是否执行了迁移。
+     */
+    private boolean migrateLegacyMessages(KeepReport header) {
+        if (header == null || header.getMessages() == null || header.getMessages().isBlank()) {
+            return false;
+        }
+        String safeConversationId = header.getChatId();
+        Long ownerId = ownerOf(header.getUserId());
+        List<Message> legacyMessages;
+        try {
+            legacyMessages = deserializeMessages(header.getMessages());
+        } catch (Exception e) {
+            // 数据已损坏时保留原字段，便于人工排查
+            log.error("反序列化旧版对话消息失败，对话ID: {}, 错误: {}", safeConversationId, e.getMessage(), e);
+            return false;
+        }
+        if (!legacyMessages.isEmpty()) {
+            // 已有消息行说明之前迁移过（只是清空旧字段失败），不再重复写入
+            if (chatMessageMapper.selectMaxSeq(safeConversationId, ownerId) == 0) {
                 try {
-                    // 解析存储的简化消息格式
-                    return deserializeMessages(keepReport.getMessages());
-                } catch (Exception e) {
-                    log.error("反序列化对话消息失败，对话ID: {}, 用户ID: {}, 错误: {}", safeConversationId, userId, e.getMessage(), e);
-                    // 反序列化失败，可能数据已损坏，返回空列表
-                    return new ArrayList<>();
+                    chatMessageMapper.insertBatch(toRows(safeConversationId, ownerId, 0, legacyMessages, null,
+                            header.getCreateTime() != null ? header.getCreateTime() : new Date()));
+                } catch (DuplicateKeyException e) {
+                    log.debug("对话已被并发迁移，对话ID: {}", safeConversationId);
                 }
-            } else {
-                log.debug("未找到对话记录或消息为空，对话ID: {}, 用户ID: {}", safeConversationId, userId);
             }
-        } catch (Exception e) {
-            log.error("获取对话记录失败，对话ID: {}, 用户ID: {}, 错误: {}", safeConversationId, userId, e.getMessage(), e);
+            // 迁移写入的序号是 1..N，最大序号不足 N 说明这些行并未落库，保留旧字段下次重试
+            int migratedSeq = chatMessageMapper.selectMaxSeq(safeConversationId, ownerId);
+            if (migratedSeq < legacyMessages.size()) {
+                log.warn("旧版对话记录迁移未完成，保留旧字段，对话ID: {}, 用户ID: {}, 消息数: {}, 已有最大序号: {}",
+                        safeConversationId, ownerId, legacyMessages.size(), migratedSeq);
+                return false;
+            }
         }
-
-        // 如果记录不存在或发生异常，返回新的空列表
-        return new ArrayList<>();
+        LambdaUpdateWrapper<KeepReport> updateWrapper = new LambdaUpdateWrapper<>();
+        updateWrapper.eq(KeepReport::getId, header.getId())
+                .set(KeepReport::getMessages, "");
+        KeepReportMapper.update(null, updateWrapper);
+        header.setMessages("");
+        log.info("旧版对话记录已迁移到 chat_message，对话ID: {}, 消息数: {}", safeConversationId, legacyMessages.size());
+        return true;
     }
 
     /**
-     * 将指定对话的完整消息列表序列化并保存到数据库。
-     * 会覆盖之前的记录。
-     *
-     * @param conversationId 对话的唯一标识符。
-     * @param messages       要保存的完整消息列表。
+     * 以当前最大序号为起点批量追加消息；并发写入同一对话导致序号冲突时重新分配序号重试。
+     * 带消息ID的消息每次尝试前先跳过已写入的部分，同一条消息只会追加一次。
      */
-    private void saveConversation(String conversationId, List<Message> messages) {
-        String safeConversationId = getSafeConversationId(conversationId);
-        try {
-            // 将消息列表转换为简化的JSON格式
-            String messagesJson = serializeMessages(messages);
-
-            // 构建查询条件
-            LambdaQueryWrapper<KeepReport> queryWrapper = new LambdaQueryWrapper<>();
-            queryWrapper.eq(KeepReport::getChatId, safeConversationId);
-
-            // 查询数据库中是否已存在该对话的记录
-            KeepReport existingReport = KeepReportMapper.selectOne(queryWrapper);
-
-            if (existingReport != null) {
-                // 更新现有记录的 messages 字段
-                existingReport.setMessages(messagesJson);
-                int updatedRows = KeepReportMapper.updateById(existingReport);
-                if (updatedRows > 0) {
-                    log.debug("成功更新对话记录: {}", safeConversationId);
-                } else {
-                    log.warn("更新对话记录失败（可能已被删除）: {}", safeConversationId);
+    private void appendMessages(String safeConversationId, Long userId, List<Message> messages,
+                                List<String> messageIds, Date createTime) {
+        for (int attempt = 1; ; attempt++) {
+            List<Message> toInsert = messages;
+            List<String> idsToInsert = messageIds;
+            Set<String> persisted = selectPersistedMessageIds(messageIds);
+            if (!persisted.isEmpty()) {
+                toInsert = new ArrayList<>(messages.size());
+                idsToInsert = new ArrayList<>(messages.size());
+                for (int i = 0; i < messages.size(); i++) {
+                    if (!persisted.contains(messageIds.get(i))) {
+                        toInsert.add(messages.get(i));
+                        idsToInsert.add(messageIds.get(i));
+                    }
                 }
-            } else {
-                // 创建新记录
-                KeepReport newReport = KeepReport.builder()
-                        .chatId(safeConversationId)
-                        .createTime(new Date())
-                        .updateTime(new Date())
-                        // 存储序列化后的完整消息列表
-                        .messages(messagesJson)
-                        .build();
-                int insertedRows = KeepReportMapper.insert(newReport);
-                if (insertedRows > 0) {
-                    log.debug("成功插入新对话记录: {}", safeConversationId);
-                } else {
-                    log.error("插入新对话记录失败: {}", safeConversationId);
+                log.debug("跳过已写入的对话消息，对话ID: {}, 已写入: {}, 待写入: {}",
+                        safeConversationId, messages.size() - toInsert.size(), toInsert.size());
+                if (toInsert.isEmpty()) {
+                    return;
                 }
             }
-        } catch (Exception e) {
-            log.error("保存对话记录失败，对话ID: {}, 错误: {}", safeConversationId, e.getMessage(), e);
+            int maxSeq = chatMessageMapper.selectMaxSeq(safeConversationId, userId);
+            try {
+                chatMessageMapper.insertBatch(toRows(safeConversationId, userId, maxSeq, toInsert, idsToInsert,
+                        createTime));
+                return;
+            } catch (DuplicateKeyException e) {
+                if (attempt >= MAX_APPEND_ATTEMPTS) {
+                    throw e;
+                }
+                log.debug("对话消息序号冲突，重新分配序号，对话ID: {}, 第 {} 次尝试", safeConversationId, attempt);
+            }
         }
     }
 
     /**
-     * 将指定对话的完整消息列表序列化并保存到数据库（支持用户ID）。
-     * 会覆盖之前的记录。
+     * 查询已写入数据库的消息ID，没有消息ID（同步写入或旧版日志记录）时返回空集合。
+     */
+    private Set<String> selectPersistedMessageIds(List<String> messageIds) {
+        if (messageIds == null) {
+            return Set.of();
+        }
+        List<String> candidates = messageIds.stream().filter(Objects::nonNull).toList();
+        if (candidates.isEmpty()) {
+            return Set.of();
+        }
+        return new HashSet<>(chatMessageMapper.selectExistingMessageIds(candidates));
+    }
+
+    /**
+     * 刷新对话表头：不存在时创建，存在时只更新最后一条消息与更新时间。
+     */
+    private void touchHeader(KeepReport header, String safeConversationId, Long userId, String lastMessage) {
+        Date now = new Date();
+        if (header != null) {
+            LambdaUpdateWrapper<KeepReport> updateWrapper = new LambdaUpdateWrapper<>();
+            updateWrapper.eq(KeepReport::getId, header.getId())
+                    .set(KeepReport::getLastMessage, lastMessage)
+                    .set(KeepReport::getUpdateTime, now);
+            if (KeepReportMapper.update(null, updateWrapper) == 0) {
+                log.warn("更新对话表头失败（可能已被删除）: {}, 用户ID: {}", safeConversationId, userId);
+            }
+            return;
+        }
+        KeepReport newReport = KeepReport.builder()
+                .chatId(safeConversationId)
+                .userId(userId)
+                .createTime(now)
+                .updateTime(now)
+                // 消息内容存放在 chat_message，旧字段留空
+                .messages("")
+                .lastMessage(lastMessage)
+                .build();
+        if (KeepReportMapper.insert(newReport) == 0) {
+            log.error("插入新对话表头失败: {}, 用户ID: {}", safeConversationId, userId);
+        }
+    }
+
+    /**
+     * 把消息转换为 chat_message 行，序号从 startSeq + 1 开始连续分配。
      *
-     * @param conversationId 对话的唯一标识符。
-     * @param userId         用户ID。
-     * @param messages       要保存的完整消息列表。
+     * @param messageIds 与 messages 一一对应的消息ID，为 null 时不记录
      */
-    private void saveConversation(String conversationId, Long userId, List<Message> messages) {
-        String safeConversationId = getSafeConversationId(conversationId);
-        try {
-            // 将消息列表转换为简化的JSON格式
-            String messagesJson = serializeMessages(messages);
+    private List<ChatMessage> toRows(String safeConversationId, Long userId, int startSeq,
+                                     List<Message> messages, List<String> messageIds, Date createTime) {
+        List<ChatMessage> rows = new ArrayList<>(messages.size());
+        int seq = startSeq;
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            rows.add(ChatMessage.builder()
+                    .conversationId(safeConversationId)
+                    .userId(userId)
+                    .seq(++seq)
+                    .type(message.getMessageType().name())
+                    .content(message.getText())
+                    .messageId(messageIds != null ? messageIds.get(i) : null)
+                    .createTime(createTime)
+                    .build());
+        }
+        return rows;
+    }
 
-            // 获取最后一条消息内容用于列表展示
-            String lastMessage = getLastMessageContent(messages);
+    /**
+     * 把异步写回日志中的记录转换为（尚未分配序号的）chat_message 行。
+     */
+    private ChatMessage toRow(ChatMemoryWriteBehind.Entry entry) {
+        return ChatMessage.builder()
+                .conversationId(entry.safeConversationId())
+                .userId(entry.userId())
+                .type(entry.type())
+                .content(entry.content())
+                .createTime(new Date(entry.createTime()))
+                .build();
+    }
 
-            // 构建查询条件
-            LambdaQueryWrapper<KeepReport> queryWrapper = new LambdaQueryWrapper<>();
-            queryWrapper.eq(KeepReport::getChatId, safeConversationId)
-                    .eq(KeepReport::getUserId, userId);
-
-            // 查询数据库中是否已存在该对话的记录
-            KeepReport existingReport = KeepReportMapper.selectOne(queryWrapper);
-
-            if (existingReport != null) {
-                // 更新现有记录的 messages 和 lastMessage 字段
-                existingReport.setMessages(messagesJson);
-                existingReport.setLastMessage(lastMessage);
-                int updatedRows = KeepReportMapper.updateById(existingReport);
-                if (updatedRows > 0) {
-                    log.debug("成功更新对话记录: {}, 用户ID: {}", safeConversationId, userId);
-                } else {
-                    log.warn("更新对话记录失败（可能已被删除）: {}, 用户ID: {}", safeConversationId, userId);
-                }
-            } else {
-                // 创建新记录
-                KeepReport newReport = KeepReport.builder()
-                        .chatId(safeConversationId)
-                        .userId(userId)
-                        .createTime(new Date())
-                        .updateTime(new Date())
-                        // 存储序列化后的完整消息列表
-                        .messages(messagesJson)
-                        .lastMessage(lastMessage)
-                        .build();
-                int insertedRows = KeepReportMapper.insert(newReport);
-                if (insertedRows > 0) {
-                    log.debug("成功插入新对话记录: {}, 用户ID: {}", safeConversationId, userId);
-                } else {
-                    log.error("插入新对话记录失败: {}, 用户ID: {}", safeConversationId, userId);
-                }
-            }
-        } catch (Exception e) {
-            log.error("保存对话记录失败，对话ID: {}, 用户ID: {}, 错误: {}", safeConversationId, userId, e.getMessage(), e);
+    /**
+     * 把 chat_message 行还原为消息，不支持的类型返回 null。
+     */
+    private Message toMessage(ChatMessage row) {
+        if (row.getContent() == null || row.getContent().isBlank()) {
+            return null;
+        }
+        if (MessageType.USER.name().equals(row.getType())) {
+            return new UserMessage(row.getContent());
+        }
+        if (MessageType.ASSISTANT.name().equals(row.getType())) {
+            // 创建助手消息，使用空的元数据
+            return new AssistantMessage(row.getContent(), new HashMap<>());
         }
+        log.warn("不支持的消息类型: {}", row.getType());
+        return null;
     }
 
     /**
@@ -375,6 +589,17 @@ public class DatabaseChatMemory implements ChatMemory {
         return content != null ? content : "暂无消息";
     }
 
+    /**
+     * chat_message 与 keep_report 中记录的用户ID：未登录对话记为 {@link #ANONYMOUS_USER_ID}，
+     * 保证（对话, 用户, 序号）唯一索引对未登录对话同样生效，且不会读到其他用户的同名对话
+     *
+     * @param userId 用户ID，可为 null
+     * @return 非空的用户ID
+     */
+    static Long ownerOf(Long userId) {
+        return userId != null ? userId : ANONYMOUS_USER_ID;
+    }
+
     /**
      * 处理对话 ID，确保其可以安全地用作数据库记录的聊天ID。
      *
@@ -401,61 +626,7 @@ public class DatabaseChatMemory implements ChatMemory {
     }
 
     /**
-     * 将消息列表序列化为简化的JSON格式。
-     * 格式为：[
-     * {
-     * "messageType": "USER",
-     * "message": "用户消息内容"
-     * },
-     * {
-     * "messageType": "ASSISTANT",
-     * "message": { ... JSON对象 ... }
-     * }
-     * ]
-     *
-     * @param messages 要序列化的消息列表
-     * @return 序列化后的JSON字符串
-     */
-    private String serializeMessages(List<Message> messages) {
-        JSONArray jsonArray = new JSONArray();
-
-        for (Message message : messages) {
-            // 跳过空内容的消息
-            String text = message.getText();
-            if (text == null || text.isBlank()) {
-                log.debug("跳过空内容的消息，类型: {}", message.getMessageType());
-                continue;
-            }
-
-            JSONObject jsonObject = new JSONObject();
-            jsonObject.put("messageType", message.getMessageType().toString());
-
-            if (message instanceof UserMessage) {
-                // 用户消息直接存储文本内容
-                jsonObject.put("message", text);
-            } else if (message instanceof AssistantMessage) {
-                // 助手消息可能包含JSON格式的内容，尝试解析
-                try {
-                    // 尝试将内容解析为JSON对象
-                    JSONObject contentJson = JSON.parseObject(text);
-                    jsonObject.put("message", contentJson);
-                } catch (Exception e) {
-                    // 如果解析失败，则直接存储文本内容
-                    jsonObject.put("message", text);
-                }
-            } else {
-                // 其他类型的消息直接存储文本内容
-                jsonObject.put("message", text);
-            }
-
-            jsonArray.add(jsonObject);
-        }
-
-        return jsonArray.toString();
-    }
-
-    /**
-     * 将简化的JSON格式反序列化为消息列表。
+     * 将旧版简化的JSON格式反序列化为消息列表（仅用于迁移 keep_report.messages）。
      *
      * @param json 要反序列化的JSON字符串
      * @return 反序列化后的消息列表
@@ -0,0 +1,78 @@
+package com.mq.mqaiagent.chatmemory;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate 编码（不带 zlib 头与校验和，省下 6 字节；完整性由数据库保证）
+ */
+public class DeflateChatContentCodec implements ChatContentCodec {
+
+    public static final char ID = 'D';
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private final int level;
+
+    /**
+     * @param level 压缩级别 1~9；单条消息只有几 KB，级别 6 与级别 1 的压缩率几乎相同，默认使用 {@link Deflater#BEST_SPEED}
+     */
+    public DeflateChatContentCodec(int level) {
+        this.level = level;
+    }
+
+    public DeflateChatContentCodec() {
+        this(Deflater.BEST_SPEED);
+    }
+
+    @Override
+    public char id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return "deflate";
+    }
+
+    @Override
+    public byte[] encode(byte[] data) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 16);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public byte[] decode(byte[] data) {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 3);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("Deflate 数据不完整");
+                }
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Deflate 数据损坏", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -3,118 +3,603 @@ package com.mq.mqaiagent.chatmemory;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.Pool;
+import com.mq.mqaiagent.cache.KryoRedisSerializer;
+import lombok.extern.slf4j.Slf4j;
 import org.objenesis.strategy.StdInstantiatorStrategy;
 import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.messages.Message;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
 
 /**
  * ClassName：FileBasedChatMemory
  * Package:com.mq.mqaiagent.chatmemory
- * Description: 基于文件持久化的对话记忆
+ * Description: 基于文件持久化的对话记忆（单机本地存储引擎）
+ * 所有对话追加写入同一组内存映射的段文件，每条消息是一条独立的 Kryo 记录，不再每次重写整个对话文件：
+ * <ul>
+ *     <li>记录格式：[长度 int][CRC32 int][类型 byte][对话内序号 long][对话ID长度 short][对话ID][Kryo 数据]，
+ *     长度为 0 表示段内数据结束；崩溃时写了一半的记录因校验失败被丢弃，之后从该位置继续写入</li>
+ *     <li>内存中为每个对话维护按序号排列的记录位置，get(lastN) 只读取最后 N 条记录，与历史长度无关</li>
+ *     <li>clear 写入一条墓碑记录（清除到哪个序号）并删除索引；后台线程把存活数据比例过低的已封存段
+ *     中的存活记录搬到当前段后删除该段</li>
+ *     <li>Kryo 实例非线程安全，通过 {@link Pool} 复用，注册表与 {@link KryoRedisSerializer} 共用</li>
+ * </ul>
+ * 写入只进入操作系统页缓存：进程崩溃不丢数据，机器掉电可能丢失最近一次刷盘（封存段或后台周期刷盘）之后的写入。
+ * 旧版每个对话一个 .kryo 文件的数据在启动时导入段文件后删除。
  * Author：MQQQ
  *
  * @Create:2025/6/19 - 17:51
  * @Version:v1.0
  */
-public class FileBasedChatMemory implements ChatMemory {
+@Slf4j
+public class FileBasedChatMemory implements ChatMemory, AutoCloseable {
 
-    private final String BASE_DIR;
-    private static final Kryo kryo = new Kryo();
+    /**
+     * 默认段大小（字节），映射为稀疏文件，未写入的部分不占磁盘
+     */
+    public static final int DEFAULT_SEGMENT_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * 已封存段中存活数据低于该比例时压缩
+     */
+    private static final double COMPACT_LIVE_RATIO = 0.5;
+
+    /**
+     * 后台压缩与刷盘的间隔（秒）
+     */
+    private static final long MAINTENANCE_INTERVAL_SECONDS = 30;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String LEGACY_SUFFIX = ".kryo";
+
+    private static final byte KIND_MESSAGE = 1;
+    private static final byte KIND_CLEAR = 2;
+
+    /**
+     * 记录前缀：长度 + CRC32
+     */
+    private static final int PREFIX_BYTES = 8;
+
+    /**
+     * 记录体固定部分：类型 + 序号 + 对话ID长度
+     */
+    private static final int BODY_FIXED_BYTES = 1 + 8 + 2;
 
-    static {
-        kryo.setRegistrationRequired(false);
-        // 设置实例化策略
-        kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+    private static final int KRYO_POOL_SIZE = 16;
+
+    private final Path baseDir;
+    private final int segmentBytes;
+    private final Pool<Kryo> kryoPool = new Pool<>(true, false, KRYO_POOL_SIZE) {
+        @Override
+        protected Kryo create() {
+            return KryoRedisSerializer.createKryo();
+        }
+    };
+
+    /**
+     * 写操作（追加、清除、压缩）持有写锁，读取持有读锁
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final Map<String, ConversationIndex> indexes = new HashMap<>();
+    private Segment activeSegment;
+    private final ScheduledExecutorService maintenance;
+
+    /**
+     * 一个段文件
+     */
+    private static final class Segment {
+        private final long id;
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private int writePosition;
+        private long liveBytes;
+        private long tombstoneBytes;
+        private boolean dirty;
+
+        private Segment(long id, Path path, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * 一个对话的记录位置，下标 i 对应序号 baseSeq + i
+     */
+    private static final class ConversationIndex {
+        private long baseSeq;
+        private long[] positions = new long[8];
+        private int size;
+
+        private long nextSeq() {
+            return baseSeq + size;
+        }
+
+        private void add(long position) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            positions[size++] = position;
+        }
     }
 
     // 构造对象时，指定文件保存目录
     public FileBasedChatMemory(String dir) {
-        this.BASE_DIR = dir;
-        File baseDir = new File(dir);
-        if (!baseDir.exists()) {
-            baseDir.mkdirs();
+        this(dir, DEFAULT_SEGMENT_BYTES);
+    }
+
+    /**
+     * @param dir          文件保存目录
+     * @param segmentBytes 段文件大小（字节）
+     */
+    public FileBasedChatMemory(String dir, int segmentBytes) {
+        this.baseDir = Paths.get(dir);
+        this.segmentBytes = segmentBytes;
+        try {
+            Files.createDirectories(baseDir);
+            recover();
+            importLegacyFiles();
+        } catch (IOException e) {
+            throw new IllegalStateException("打开对话记忆目录失败: " + dir, e);
         }
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "file-chat-memory-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintenance.scheduleWithFixedDelay(this::maintain,
+                MAINTENANCE_INTERVAL_SECONDS, MAINTENANCE_INTERVAL_SECONDS, TimeUnit.SECONDS);
     }
 
     @Override
     public void add(String conversationId, List<Message> messages) {
-        List<Message> conversationMessages = getOrCreateConversation(conversationId);
-        conversationMessages.addAll(messages);
-        saveConversation(conversationId, conversationMessages);
+        if (messages == null || messages.isEmpty()) {
+            return;
+        }
+        // 在锁外序列化，写锁内只做内存拷贝
+        List<byte[]> payloads = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            payloads.add(serialize(message));
+        }
+        lock.writeLock().lock();
+        try {
+            ConversationIndex index = indexes.computeIfAbsent(conversationId, key -> new ConversationIndex());
+            for (byte[] payload : payloads) {
+                long position = append(KIND_MESSAGE, index.nextSeq(), conversationId, payload);
+                index.add(position);
+                segmentOf(position).liveBytes += recordLength(position);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("写入对话记忆失败: " + conversationId, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     @Override
     public List<Message> get(String conversationId, int lastN) {
-        List<Message> allMessages = getOrCreateConversation(conversationId);
-        return allMessages.stream()
-                .skip(Math.max(0, allMessages.size() - lastN))
-                .toList();
+        if (lastN <= 0) {
+            return new ArrayList<>();
+        }
+        lock.readLock().lock();
+        try {
+            ConversationIndex index = indexes.get(conversationId);
+            if (index == null) {
+                return new ArrayList<>();
+            }
+            int from = Math.max(0, index.size - lastN);
+            List<Message> messages = new ArrayList<>(index.size - from);
+            for (int i = from; i < index.size; i++) {
+                messages.add(readMessage(index.positions[i]));
+            }
+            return messages;
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     @Override
     public void clear(String conversationId) {
-        File file = getConversationFile(conversationId);
-        if (file.exists()) {
-            file.delete();
-        }
-    }
-
-    /**
-     * 获取对话，如果不存在则创建一个空的对话
-     * @param conversationId
-     * @return
-     */
-    private List<Message> getOrCreateConversation(String conversationId) {
-        // 根据conversationId获取对应的文件
-        File file = getConversationFile(conversationId);
-        // 创建一个空的Message列表
-        List<Message> messages = new ArrayList<>();
-        // 如果文件存在
-        if (file.exists()) {
-            try (Input input = new Input(new FileInputStream(file))) {
-                // 使用kryo读取文件中的对象，并将其转换为ArrayList<Message>类型
-                messages = kryo.readObject(input, ArrayList.class);
-            } catch (IOException e) {
-                // 打印异常信息
-                e.printStackTrace();
+        lock.writeLock().lock();
+        try {
+            ConversationIndex index = indexes.get(conversationId);
+            if (index == null || index.size == 0) {
+                return;
+            }
+            for (int i = 0; i < index.size; i++) {
+                segmentOf(index.positions[i]).liveBytes -= recordLength(index.positions[i]);
             }
+            // 墓碑记录：重启时丢弃序号不大于它的记录；保留序号，之后的新消息继续递增
+            long tombstone = append(KIND_CLEAR, index.nextSeq() - 1, conversationId, new byte[0]);
+            countTombstone(segmentOf(tombstone), recordLength(tombstone));
+            ConversationIndex restarted = new ConversationIndex();
+            restarted.baseSeq = index.nextSeq();
+            indexes.put(conversationId, restarted);
+        } catch (IOException e) {
+            throw new IllegalStateException("清除对话记忆失败: " + conversationId, e);
+        } finally {
+            lock.writeLock().unlock();
         }
-        // 返回Message列表
-        return messages;
     }
 
     /**
-     * 保存对话
-     *
-     * @param conversationId
-     * @param messages
-     */
-    private void saveConversation(String conversationId, List<Message> messages) {
-        // 获取对话文件
-        File file = getConversationFile(conversationId);
-        try (Output output = new Output(new FileOutputStream(file))) {
-            // 使用kryo序列化消息列表
-            kryo.writeObject(output, messages);
-        } catch (IOException e) {
-            // 打印异常信息
-            e.printStackTrace();
+     * 停止后台线程并刷盘
+     */
+    @Override
+    public void close() {
+        maintenance.shutdown();
+        lock.writeLock().lock();
+        try {
+            for (Segment segment : segments.values()) {
+                if (segment.dirty) {
+                    segment.buffer.force();
+                    segment.dirty = false;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 
     /**
-     * 获取对话文件
+     * 后台维护：刷盘当前段，压缩存活比例过低的已封存段
+     */
+    private void maintain() {
+        try {
+            compact();
+            lock.writeLock().lock();
+            try {
+                if (activeSegment.dirty) {
+                    activeSegment.buffer.force();
+                    activeSegment.dirty = false;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } catch (Exception e) {
+            log.error("对话记忆段文件维护失败，error: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 压缩存活数据比例低于阈值的已封存段：存活记录搬到当前段并更新索引，墓碑在仍有更早的段时一并搬运
+     */
+    void compact() throws IOException {
+        for (Segment candidate : new ArrayList<>(segments.values())) {
+            lock.writeLock().lock();
+            try {
+                if (candidate == activeSegment || !segments.containsKey(candidate.id)) {
+                    continue;
+                }
+                // 最早的段中的墓碑已没有需要屏蔽的记录，不计入存活数据
+                boolean oldest = segments.firstKey() == candidate.id;
+                long liveBytes = oldest ? candidate.liveBytes - candidate.tombstoneBytes : candidate.liveBytes;
+                if (liveBytes >= candidate.writePosition * COMPACT_LIVE_RATIO) {
+                    continue;
+                }
+                int moved = 0;
+                int position = 0;
+                while (position + PREFIX_BYTES <= candidate.writePosition) {
+                    int length = candidate.buffer.getInt(position);
+                    long oldPosition = position(candidate.id, position);
+                    byte kind = candidate.buffer.get(position + PREFIX_BYTES);
+                    long seq = candidate.buffer.getLong(position + PREFIX_BYTES + 1);
+                    String conversationId = readConversationId(candidate.buffer, position);
+                    if (kind == KIND_MESSAGE) {
+                        ConversationIndex index = indexes.get(conversationId);
+                        int slot = index == null ? -1 : (int) (seq - index.baseSeq);
+                        if (slot >= 0 && slot < index.size && index.positions[slot] == oldPosition) {
+                            long newPosition = copyRecord(candidate, position, length);
+                            index.positions[slot] = newPosition;
+                            segmentOf(newPosition).liveBytes += PREFIX_BYTES + length;
+                            moved++;
+                        }
+                    } else if (kind == KIND_CLEAR && !oldest) {
+                        // 更早的段里可能还有被清除的记录，墓碑需要继续保留
+                        long newPosition = copyRecord(candidate, position, length);
+                        countTombstone(segmentOf(newPosition), PREFIX_BYTES + length);
+                    }
+                    position += PREFIX_BYTES + length;
+                }
+                segments.remove(candidate.id);
+                Files.deleteIfExists(candidate.path);
+                log.info("对话记忆段文件压缩完成: {}, 搬运记录数: {}", candidate.path.getFileName(), moved);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * 追加一条记录，当前段空间不足时封存并新建段
      *
-     * @param conversationId
-     * @return
+     * @return 记录位置
+     */
+    private long append(byte kind, long seq, String conversationId, byte[] payload) throws IOException {
+        byte[] id = conversationId.getBytes(StandardCharsets.UTF_8);
+        int bodyLength = BODY_FIXED_BYTES + id.length + payload.length;
+        ensureCapacity(PREFIX_BYTES + bodyLength);
+        Segment segment = activeSegment;
+        int offset = segment.writePosition;
+        MappedByteBuffer buffer = segment.buffer;
+        int bodyOffset = offset + PREFIX_BYTES;
+        buffer.put(bodyOffset, kind);
+        buffer.putLong(bodyOffset + 1, seq);
+        buffer.putShort(bodyOffset + 9, (short) id.length);
+        buffer.put(bodyOffset + BODY_FIXED_BYTES, id);
+        buffer.put(bodyOffset + BODY_FIXED_BYTES + id.length, payload);
+        buffer.putInt(offset + 4, crc(buffer, bodyOffset, bodyLength));
+        // 最后写长度，长度非 0 即表示记录完整
+        buffer.putInt(offset, bodyLength);
+        segment.writePosition = offset + PREFIX_BYTES + bodyLength;
+        segment.dirty = true;
+        return position(segment.id, offset);
+    }
+
+    private long copyRecord(Segment from, int offset, int bodyLength) throws IOException {
+        ensureCapacity(PREFIX_BYTES + bodyLength);
+        Segment segment = activeSegment;
+        int target = segment.writePosition;
+        byte[] record = new byte[PREFIX_BYTES + bodyLength];
+        from.buffer.get(offset, record);
+        segment.buffer.put(target, record);
+        segment.writePosition = target + record.length;
+        segment.dirty = true;
+        return position(segment.id, target);
+    }
+
+    private void ensureCapacity(int recordBytes) throws IOException {
+        // 段尾至少留出一个长度字段的 0 作为结束标记
+        if (activeSegment != null
+                && activeSegment.writePosition + recordBytes + 4 <= activeSegment.buffer.capacity()) {
+            return;
+        }
+        if (activeSegment != null) {
+            activeSegment.buffer.force();
+            activeSegment.dirty = false;
+        }
+        long id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        activeSegment = openSegment(id, Math.max(segmentBytes, recordBytes + 4));
+        segments.put(id, activeSegment);
+    }
+
+    private Segment openSegment(long id, int capacity) throws IOException {
+        Path path = baseDir.resolve(String.format("%s%012d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // 已有段按文件实际大小映射（可能是超大记录单独占用的段）
+            long size = Math.max(channel.size(), capacity);
+            return new Segment(id, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+    }
+
+    /**
+     * 启动时扫描全部段：校验记录、按墓碑丢弃已清除的记录，重建每个对话按序号排列的索引。
+     * 压缩在搬运存活记录之后、删除原段之前崩溃时，同一（对话, 序号）会在两个段中各有一份，
+     * 只保留段号最大的一份（搬运后的副本），被丢弃的副本不计入存活数据，原段会在之后的压缩中删除
+     */
+    private void recover() throws IOException {
+        List<Path> paths;
+        try (Stream<Path> files = Files.list(baseDir)) {
+            paths = files.filter(path -> segmentIdOf(path) > 0)
+                    .sorted(Comparator.comparingLong(FileBasedChatMemory::segmentIdOf))
+                    .toList();
+        }
+        Map<String, Long> clearedUpTo = new HashMap<>();
+        Map<String, TreeMap<Long, long[]>> records = new HashMap<>();
+        int duplicates = 0;
+        for (Path path : paths) {
+            long id = segmentIdOf(path);
+            Segment segment = openSegment(id, 0);
+            segments.put(id, segment);
+            activeSegment = segment;
+            MappedByteBuffer buffer = segment.buffer;
+            int position = 0;
+            while (position + PREFIX_BYTES <= buffer.capacity()) {
+                int length = buffer.getInt(position);
+                if (length < BODY_FIXED_BYTES || position + PREFIX_BYTES + length > buffer.capacity()
+                        || buffer.getInt(position + 4) != crc(buffer, position + PREFIX_BYTES, length)) {
+                    if (length != 0) {
+                        log.warn("对话记忆段文件 {} 在偏移 {} 处记录不完整，之后的数据被丢弃", path.getFileName(), position);
+                        // 清掉残缺记录的长度字段，避免下次启动再次误读
+                        buffer.putInt(position, 0);
+                    }
+                    break;
+                }
+                byte kind = buffer.get(position + PREFIX_BYTES);
+                long seq = buffer.getLong(position + PREFIX_BYTES + 1);
+                String conversationId = readConversationId(buffer, position);
+                if (kind == KIND_CLEAR) {
+                    clearedUpTo.merge(conversationId, seq, Math::max);
+                    // 墓碑在它所在的段成为最早的段之前一直有效
+                    countTombstone(segment, PREFIX_BYTES + length);
+                } else if (records.computeIfAbsent(conversationId, key -> new TreeMap<>())
+                        .put(seq, new long[]{seq, position(id, position), PREFIX_BYTES + length}) != null) {
+                    // 段按编号升序扫描，后出现的副本覆盖先出现的
+                    duplicates++;
+                }
+                position += PREFIX_BYTES + length;
+            }
+            segment.writePosition = position;
+        }
+        for (Map.Entry<String, TreeMap<Long, long[]>> entry : records.entrySet()) {
+            long cleared = clearedUpTo.getOrDefault(entry.getKey(), -1L);
+            List<long[]> live = new ArrayList<>(entry.getValue().tailMap(cleared, false).values());
+            ConversationIndex index = new ConversationIndex();
+            index.baseSeq = live.isEmpty() ? cleared + 1 : live.get(0)[0];
+            for (long[] record : live) {
+                index.add(record[1]);
+                segmentOf(record[1]).liveBytes += record[2];
+            }
+            indexes.put(entry.getKey(), index);
+        }
+        // 只有墓碑的对话也要记住序号，之后的新消息不能与墓碑冲突
+        clearedUpTo.forEach((conversationId, seq) -> indexes.computeIfAbsent(conversationId, key -> {
+            ConversationIndex index = new ConversationIndex();
+            index.baseSeq = seq + 1;
+            return index;
+        }));
+        if (activeSegment == null) {
+            ensureCapacity(0);
+        }
+        if (!paths.isEmpty()) {
+            log.info("对话记忆段文件恢复完成，段数: {}, 对话数: {}, 丢弃的重复记录数: {}",
+                    paths.size(), indexes.size(), duplicates);
+        }
+    }
+
+    /**
+     * 导入旧版每个对话一个 .kryo 文件的数据，导入后删除旧文件。
+     * 导入后、删除旧文件前崩溃时，下次启动会再次读到该文件：段中已有的记录与旧文件逐条比对，
+     * 只补写尚未导入的部分，已完整导入时直接删除旧文件；两者不一致时保留旧文件，不混合写入
+     */
+    private void importLegacyFiles() throws IOException {
+        List<Path> legacyFiles;
+        try (Stream<Path> files = Files.list(baseDir)) {
+            legacyFiles = files.filter(path -> path.getFileName().toString().endsWith(LEGACY_SUFFIX)).toList();
+        }
+        if (legacyFiles.isEmpty()) {
+            return;
+        }
+        // 旧文件按旧的 Kryo 配置写入（未注册类，写入类名）
+        Kryo legacyKryo = new Kryo();
+        legacyKryo.setRegistrationRequired(false);
+        legacyKryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+        for (Path file : legacyFiles) {
+            String name = file.getFileName().toString();
+            String conversationId = name.substring(0, name.length() - LEGACY_SUFFIX.length());
+            try (InputStream stream = Files.newInputStream(file); Input input = new Input(stream)) {
+                @SuppressWarnings("unchecked")
+                List<Message> messages = legacyKryo.readObject(input, ArrayList.class);
+                List<Message> imported = get(conversationId, Integer.MAX_VALUE);
+                int common = commonPrefix(imported, messages);
+                if (common < imported.size() && common < messages.size()) {
+                    log.error("段文件中的对话记录与旧版文件不一致，保留原文件: {}, 已有记录数: {}, 旧文件消息数: {}",
+                            name, imported.size(), messages.size());
+                    continue;
+                }
+                // 首次导入时 common 为 0；上次导入中途崩溃时只补写剩余部分；已完整导入时没有剩余
+                if (common < messages.size()) {
+                    add(conversationId, messages.subList(common, messages.size()));
+                }
+            } catch (Exception e) {
+                log.error("导入旧版对话记忆文件失败，保留原文件: {}, error: {}", name, e.getMessage(), e);
+                continue;
+            }
+            Files.delete(file);
+        }
+        activeSegment.buffer.force();
+        log.info("旧版对话记忆文件导入完成，文件数: {}", legacyFiles.size());
+    }
+
+    /**
+     * 两个消息列表从头开始类型与内容都相同的消息数
      */
-    private File getConversationFile(String conversationId) {
-        return new File(BASE_DIR, conversationId + ".kryo");
+    private static int commonPrefix(List<Message> imported, List<Message> legacy) {
+        int common = 0;
+        while (common < imported.size() && common < legacy.size()
+                && imported.get(common).getMessageType() == legacy.get(common).getMessageType()
+                && Objects.equals(imported.get(common).getText(), legacy.get(common).getText())) {
+            common++;
+        }
+        return common;
+    }
+
+    private Message readMessage(long position) {
+        Segment segment = segmentOf(position);
+        int offset = offsetOf(position);
+        int length = segment.buffer.getInt(offset);
+        int idLength = segment.buffer.getShort(offset + PREFIX_BYTES + 9);
+        int payloadOffset = offset + PREFIX_BYTES + BODY_FIXED_BYTES + idLength;
+        byte[] payload = new byte[length - BODY_FIXED_BYTES - idLength];
+        segment.buffer.get(payloadOffset, payload);
+        Kryo kryo = kryoPool.obtain();
+        try (Input input = new Input(payload)) {
+            return (Message) kryo.readClassAndObject(input);
+        } finally {
+            kryoPool.free(kryo);
+        }
+    }
+
+    private byte[] serialize(Message message) {
+        Kryo kryo = kryoPool.obtain();
+        try (Output output = new Output(256, -1)) {
+            kryo.writeClassAndObject(output, message);
+            return output.toBytes();
+        } finally {
+            kryoPool.free(kryo);
+        }
+    }
+
+    private static String readConversationId(MappedByteBuffer buffer, int offset) {
+        int idLength = buffer.getShort(offset + PREFIX_BYTES + 9);
+        byte[] id = new byte[idLength];
+        buffer.get(offset + PREFIX_BYTES + BODY_FIXED_BYTES, id);
+        return new String(id, StandardCharsets.UTF_8);
+    }
+
+    private static int crc(MappedByteBuffer buffer, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(offset, length));
+        return (int) crc.getValue();
+    }
+
+    private static void countTombstone(Segment segment, int recordBytes) {
+        segment.liveBytes += recordBytes;
+        segment.tombstoneBytes += recordBytes;
+    }
+
+    private int recordLength(long position) {
+        return PREFIX_BYTES + segmentOf(position).buffer.getInt(offsetOf(position));
+    }
+
+    private Segment segmentOf(long position) {
+        return segments.get(position >>> 32);
+    }
+
+    private static long position(long segmentId, int offset) {
+        return (segmentId << 32) | offset;
+    }
+
+    private static int offsetOf(long position) {
+        return (int) position;
+    }
+
+    private static long segmentIdOf(Path path) {
+        String name = path.getFileName().toString();
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
     }
 }
@@ -0,0 +1,121 @@
+package com.mq.mqaiagent.chatmemory;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.List;
+
+/**
+ * 按请求解析用户身份的对话记忆
+ * 与用户无关，可被同一个 ChatClient 的所有请求共享：用户ID 不再保存在可变字段里，
+ * 而是由 {@link com.mq.mqaiagent.advisor.UserScopedChatMemoryAdvisor} 从每次调用的 advisor 参数中取出，
+ * 编码进对话键后传入，本类再解码并转发给底层的数据库记忆。
+ *
+ * @author MQQQ
+ * @version v1.0
+ * @since 2025/9/2
+ */
+@Slf4j
+public class UserScopedChatMemory implements ChatMemory {
+
+    /**
+     * 带用户身份的对话键前缀，格式：u:{userId}:{conversationId}
+     */
+    private static final String USER_SCOPE_PREFIX = "u:";
+
+    /**
+     * 未登录请求的对话键前缀，格式：a:{conversationId}。
+     * 对话ID 由客户端传入，未登录时也必须加前缀，否则形如 u:5:xxx 的对话ID 会被当作用户 5 的对话解码
+     */
+    private static final String ANONYMOUS_SCOPE_PREFIX = "a:";
+
+    private final DatabaseChatMemory delegate;
+
+    /**
+     * 构造函数
+     *
+     * @param delegate 实际负责持久化的数据库记忆（可以是带缓存的实现）
+     */
+    public UserScopedChatMemory(DatabaseChatMemory delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void add(String conversationId, List<Message> messages) {
+        ScopedConversation scoped = decode(conversationId);
+        if (scoped.userId() != null) {
+            delegate.add(scoped.conversationId(), scoped.userId(), messages);
+        } else {
+            delegate.add(scoped.conversationId(), messages);
+        }
+    }
+
+    @Override
+    public List<Message> get(String conversationId, int lastN) {
+        ScopedConversation scoped = decode(conversationId);
+        if (scoped.userId() != null) {
+            return delegate.get(scoped.conversationId(), scoped.userId(), lastN);
+        }
+        return delegate.get(scoped.conversationId(), lastN);
+    }
+
+    @Override
+    public void clear(String conversationId) {
+        ScopedConversation scoped = decode(conversationId);
+        if (scoped.userId() != null) {
+            delegate.clear(scoped.conversationId(), scoped.userId());
+        } else {
+            delegate.clear(scoped.conversationId());
+        }
+        if (delegate instanceof CachedDatabaseChatMemory cachedMemory) {
+            cachedMemory.clearCache(scoped.conversationId(), scoped.userId());
+        }
+    }
+
+    /**
+     * 将用户ID 与对话ID 编码为一个对话键
+     *
+     * @param userId         用户ID（可为null）
+     * @param conversationId 对话ID
+     * @return 编码后的对话键；userId 为 null 时编码为未登录对话键
+     */
+    public static String encode(Long userId, String conversationId) {
+        if (userId == null) {
+            return ANONYMOUS_SCOPE_PREFIX + conversationId;
+        }
+        return USER_SCOPE_PREFIX + userId + ":" + conversationId;
+    }
+
+    /**
+     * 解码对话键
+     *
+     * @param scopedConversationId 编码后的对话键
+     * @return 用户ID 与原始对话ID
+     */
+    public static ScopedConversation decode(String scopedConversationId) {
+        if (scopedConversationId != null && scopedConversationId.startsWith(ANONYMOUS_SCOPE_PREFIX)) {
+            return new ScopedConversation(null, scopedConversationId.substring(ANONYMOUS_SCOPE_PREFIX.length()));
+        }
+        if (scopedConversationId == null || !scopedConversationId.startsWith(USER_SCOPE_PREFIX)) {
+            return new ScopedConversation(null, scopedConversationId);
+        }
+        int separator = scopedConversationId.indexOf(':', USER_SCOPE_PREFIX.length());
+        if (separator < 0) {
+            return new ScopedConversation(null, scopedConversationId);
+        }
+        try {
+            Long userId = Long.valueOf(scopedConversationId.substring(USER_SCOPE_PREFIX.length(), separator));
+            return new ScopedConversation(userId, scopedConversationId.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            log.debug("对话键不含合法的用户ID，按普通对话ID处理: {}", scopedConversationId);
+            return new ScopedConversation(null, scopedConversationId);
+        }
+    }
+
+    /**
+     * 解码后的对话身份
+     */
+    public record ScopedConversation(Long userId, String conversationId) {
+    }
+}
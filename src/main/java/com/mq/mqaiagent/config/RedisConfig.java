@@ -4,12 +4,16 @@ import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.jsontype.impl.LaissezFaireSubTypeValidator;
+import com.mq.mqaiagent.cache.KryoRedisSerializer;
+import com.mq.mqaiagent.cache.RedisSerializerProperties;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
 /**
@@ -25,22 +29,23 @@ public class RedisConfig {
 
     /**
      * 配置 RedisTemplate
-     * 使用 Jackson2JsonRedisSerializer 来序列化和反序列化 Redis 的 value 值
+     * value 默认使用 Kryo 二进制序列化（mq.cache.serializer.type=json 时按 Jackson 格式写入），
+     * 两种模式都能读取对方写入的数据，切换模式后旧键在下次写入时转换为当前格式
      * 
-     * @param connectionFactory Redis连接工厂
+     * @param connectionFactory    Redis连接工厂
+     * @param serializerProperties 序列化配置
      * @return RedisTemplate实例
      */
     @Bean
-    public RedisTemplate<String, Object> redisTemplate(RedisConnectionFactory connectionFactory) {
+    public RedisTemplate<String, Object> redisTemplate(RedisConnectionFactory connectionFactory,
+                                                       RedisSerializerProperties serializerProperties) {
         RedisTemplate<String, Object> template = new RedisTemplate<>();
         template.setConnectionFactory(connectionFactory);
 
-        // 使用Jackson2JsonRedisSerializer来序列化和反序列化redis的value值
-        Jackson2JsonRedisSerializer<Object> jackson2JsonRedisSerializer = new Jackson2JsonRedisSerializer<>(Object.class);
-        ObjectMapper objectMapper = new ObjectMapper();
-        objectMapper.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY);
-        objectMapper.activateDefaultTyping(LaissezFaireSubTypeValidator.instance, ObjectMapper.DefaultTyping.NON_FINAL);
-        jackson2JsonRedisSerializer.setObjectMapper(objectMapper);
+        // json 模式同样通过 KryoRedisSerializer 读取，避免切回 json 后读不出已写入的 Kryo 数据
+        RedisSerializer<Object> valueSerializer = new KryoRedisSerializer(jacksonSerializer(),
+                "kryo".equalsIgnoreCase(serializerProperties.getType()),
+                serializerProperties.getCompressThresholdBytes(), serializerProperties.getPoolSize());
 
         // 使用StringRedisSerializer来序列化和反序列化redis的key值
         StringRedisSerializer stringRedisSerializer = new StringRedisSerializer();
@@ -49,14 +54,41 @@ public class RedisConfig {
         template.setKeySerializer(stringRedisSerializer);
         // hash的key也采用String的序列化方式
         template.setHashKeySerializer(stringRedisSerializer);
-        // value序列化方式采用jackson
-        template.setValueSerializer(jackson2JsonRedisSerializer);
-        // hash的value序列化方式采用jackson
-        template.setHashValueSerializer(jackson2JsonRedisSerializer);
+        // value序列化方式
+        template.setValueSerializer(valueSerializer);
+        // hash的value序列化方式
+        template.setHashValueSerializer(valueSerializer);
         
         template.afterPropertiesSet();
         
-        log.info("Redis配置初始化完成");
+        log.info("Redis配置初始化完成，value序列化方式: {}", serializerProperties.getType());
         return template;
     }
+
+    /**
+     * 原 Jackson 序列化器（带类型信息的 JSON），json 模式用于写入，两种模式都用于读取不带 Kryo 头部的数据
+     *
+     * @return Jackson2JsonRedisSerializer实例
+     */
+    public static Jackson2JsonRedisSerializer<Object> jacksonSerializer() {
+        Jackson2JsonRedisSerializer<Object> jackson2JsonRedisSerializer = new Jackson2JsonRedisSerializer<>(Object.class);
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY);
+        objectMapper.activateDefaultTyping(LaissezFaireSubTypeValidator.instance, ObjectMapper.DefaultTyping.NON_FINAL);
+        jackson2JsonRedisSerializer.setObjectMapper(objectMapper);
+        return jackson2JsonRedisSerializer;
+    }
+
+    /**
+     * 配置 Redis 消息监听容器，用于跨节点缓存失效通知
+     *
+     * @param connectionFactory Redis连接工厂
+     * @return RedisMessageListenerContainer实例
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        return container;
+    }
 }
@@ -3,9 +3,11 @@ package com.mq.mqaiagent.controller;
 import com.mq.mqaiagent.agent.MqManus;
 import com.mq.mqaiagent.ai.AiModelRouter;
 import com.mq.mqaiagent.ai.AiModelType;
+import com.mq.mqaiagent.ai.ModelBulkhead;
 import com.mq.mqaiagent.app.KeepApp;
 import com.mq.mqaiagent.common.BaseResponse;
 import com.mq.mqaiagent.common.ResultUtils;
+import com.mq.mqaiagent.exception.ModelOverloadedException;
 import com.mq.mqaiagent.model.entity.User;
 import com.mq.mqaiagent.pool.ChatClientPool;
 import com.mq.mqaiagent.service.UserService;
@@ -21,6 +23,7 @@ import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import reactor.core.publisher.Flux;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -53,6 +56,9 @@ public class AiController {
     @Resource
     private AiModelRouter aiModelRouter;
 
+    @Resource
+    private ModelBulkhead modelBulkhead;
+
     /**
      * KeepApp 使用流式对话（支持用户认证）前端调用的接口
      *
@@ -64,6 +70,7 @@ public class AiController {
     @GetMapping(value = "/keep_app/chat/sse/user", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
     public Flux<String> doChatWithKeepAppSSEUser(String message, String chatId, String model, HttpServletRequest request) {
         User currentUser = userService.getLoginUser(request);
+        checkAdmission(model);
         return keepApp.doChatByStream(message, chatId, currentUser.getId(), model);
     }
 
@@ -72,10 +79,17 @@ public class AiController {
      */
     @GetMapping("/keep_app/chat/server_sent_event")
     public Flux<ServerSentEvent<String>> doChatWithKeepAppServerSentEvent(String message, String chatId, String model) {
+        checkAdmission(model);
         return keepApp.doChatByStream(message, chatId, model)
                 .map(chunk -> ServerSentEvent.<String>builder()
                         .data(chunk)
-                        .build());
+                        .build())
+                // 响应已提交后才被舱壁拒绝（排队超时），以 error 事件告知客户端稍后重试
+                .onErrorResume(ModelOverloadedException.class, e -> Flux.just(ServerSentEvent.<String>builder()
+                        .event("error")
+                        .data(e.getMessage())
+                        .retry(Duration.ofSeconds(e.getRetryAfterSeconds()))
+                        .build()));
     }
 
     /**
@@ -87,6 +101,7 @@ public class AiController {
      */
     @GetMapping("/keep_app/chat/sse/emitter")
     public SseEmitter doChatWithKeepAppSseEmitter(String message, String chatId, String model) {
+        checkAdmission(model);
         SseEmitter emitter = new SseEmitter(180000L);
         keepApp.doChatByStream(message, chatId, model)
                 .subscribe(
@@ -108,6 +123,7 @@ public class AiController {
     @GetMapping("/manus/chat")
     public SseEmitter doChatWithManus(String message, String model) {
         AiModelType modelType = chatClientPool.resolveModel(model).modelType();
+        modelBulkhead.checkAdmission(modelType);
         MqManus mqManus = new MqManus(allTools, chatClientPool, modelType);
         return mqManus.runStream(message);
     }
@@ -131,10 +147,18 @@ public class AiController {
     public SseEmitter doChatWithManusUser(String message, String chatId, String model, HttpServletRequest request) {
         User currentUser = userService.getLoginUser(request);
         AiModelType modelType = chatClientPool.resolveModel(model).modelType();
+        modelBulkhead.checkAdmission(modelType);
         MqManus mqManus = new MqManus(allTools, chatClientPool, currentUser.getId(), chatId, modelType);
         return mqManus.runStream(message);
     }
 
+    /**
+     * 流式接口在返回响应前检查模型舱壁，队列已满时由全局异常处理器返回 429 + Retry-After
+     */
+    private void checkAdmission(String model) {
+        modelBulkhead.checkAdmission(chatClientPool.resolveModel(model).modelType());
+    }
+
     /**
      * 获取可用的 AI 模型列表
      * 
@@ -1,9 +1,12 @@
 package com.mq.mqaiagent.controller;
 
 import com.mq.mqaiagent.annotation.AuthCheck;
+import com.mq.mqaiagent.cache.RefreshAheadScheduler;
+import com.mq.mqaiagent.cache.RequestCoalescer;
 import com.mq.mqaiagent.common.BaseResponse;
 import com.mq.mqaiagent.common.ResultUtils;
 import com.mq.mqaiagent.constant.UserConstant;
+import com.mq.mqaiagent.manager.ResponseStoreManager;
 import com.mq.mqaiagent.service.AiResponseCacheService;
 import com.mq.mqaiagent.service.CacheMetricsService;
 import com.mq.mqaiagent.service.CacheService;
@@ -36,6 +39,12 @@ public class CacheController {
     @Resource
     private CacheMetricsService cacheMetricsService;
 
+    @Resource
+    private RequestCoalescer requestCoalescer;
+
+    @Resource
+    private RefreshAheadScheduler refreshAheadScheduler;
+
     /**
      * 获取缓存性能报告
      */
@@ -62,9 +71,21 @@ public class CacheController {
             status.put("chatMemoryCacheHitRate", cacheMetricsService.getChatMemoryCacheHitRate());
             status.put("aiResponseCacheHitRate", cacheMetricsService.getAiResponseCacheHitRate());
             status.put("savedApiCalls", cacheMetricsService.getSavedApiCalls());
+            status.put("aiResponseAdmissions", cacheMetricsService.getAiResponseAdmissions());
+            status.put("aiResponseRejections", cacheMetricsService.getAiResponseRejections());
 
             AiResponseCacheService.CacheStats aiCacheStats = aiResponseCacheService.getCacheStats();
             status.put("totalCachedQuestions", aiCacheStats.getTotalCachedQuestions());
+            status.put("aiResponseL1HitRate", aiCacheStats.getL1HitRate());
+            status.put("aiResponseL2HitRate", aiCacheStats.getL2HitRate());
+            status.put("aiResponseL1Bytes", aiCacheStats.getL1WeightedBytes());
+            status.put("aiResponseSharedHitRate", aiCacheStats.getSharedHitRate());
+            status.put("aiResponsePersonalHitRate", aiCacheStats.getPersonalHitRate());
+            status.put("coalescedLocalRequests", requestCoalescer.getLocalCoalesced());
+            status.put("coalescedRemoteRequests", requestCoalescer.getRemoteCoalesced());
+            status.put("refreshAheadRefreshed", refreshAheadScheduler.getRefreshed());
+            status.put("refreshAheadFailed", refreshAheadScheduler.getFailed());
+            status.put("refreshAheadDropped", refreshAheadScheduler.getDropped());
 
             log.debug("获取缓存状态成功");
             return ResultUtils.success(status);
@@ -165,6 +186,7 @@ public class CacheController {
             Map<String, Object> config = new HashMap<>();
             config.put("chatMemoryCachePrefix", "mq:ai:agent:chat:memory:");
             config.put("aiResponseCachePrefix", "mq:ai:agent:ai:response:");
+            config.put("aiResponseBodyPrefix", ResponseStoreManager.BODY_KEY_PREFIX);
             config.put("redisAvailable", cacheService.isRedisAvailable());
 
             log.debug("获取缓存配置成功");
@@ -34,9 +34,9 @@ public class ChatClientPoolController {
     public BaseResponse<ChatClientPool.CacheStats> getCacheStats() {
         try {
             ChatClientPool.CacheStats stats = chatClientPool.getCacheStats();
-            log.info("ChatClient对象池统计信息: 缓存命中: {}, 缓存未命中: {}, 命中率: {:.2f}%, 当前缓存大小: {}, 总创建数量: {}",
-                    stats.cacheHits(), stats.cacheMisses(), stats.hitRate() * 100, 
-                    stats.currentCacheSize(), stats.totalCreated());
+            log.info("ChatClient对象池统计信息: 缓存命中: {}, 缓存未命中: {}, 命中率: {}%, 当前缓存大小: {}, 总创建数量: {}, 淘汰数量: {}",
+                    stats.cacheHits(), stats.cacheMisses(), String.format("%.2f", stats.hitRate() * 100),
+                    stats.currentCacheSize(), stats.totalCreated(), stats.evictionCount());
             return ResultUtils.success(stats);
         } catch (Exception e) {
             log.error("获取ChatClient对象池统计信息失败", e);
@@ -0,0 +1,25 @@
+package com.mq.mqaiagent.exception;
+
+import com.mq.mqaiagent.common.ErrorCode;
+
+/**
+ * 模型过载异常：模型并发已满且等待队列已满（或排队超时）
+ * 由全局异常处理器转换为 HTTP 429，并携带 Retry-After 响应头
+ *
+ */
+public class ModelOverloadedException extends BusinessException {
+
+    /**
+     * 建议的重试间隔（秒）
+     */
+    private final int retryAfterSeconds;
+
+    public ModelOverloadedException(String message, int retryAfterSeconds) {
+        super(ErrorCode.TOO_MANY_REQUESTS_ERROR, message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,220 @@
+package com.mq.mqaiagent.manager;
+
+import com.mq.mqaiagent.cache.RedisCircuitBreaker;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Redis 问题索引操作
+ * 每个模型一个 ZSET，成员为问题原文，分值为最近使用时间（毫秒）。
+ * 写入通过 Lua 脚本原子完成：ZADD + 按最近使用时间淘汰过期问题 + ZREMRANGEBYRANK 限制容量 + 续期，
+ * 多节点并发写入不会互相覆盖，单次写入代价为 O(log n)。
+ */
+@Component
+@Slf4j
+public class QuestionIndexManager {
+
+    /**
+     * 写入问题并裁剪索引
+     * KEYS[1]=索引键，ARGV[1]=问题，ARGV[2]=当前时间（毫秒），ARGV[3]=最大问题数，
+     * ARGV[4]=保留时长（毫秒），ARGV[5]=索引过期时间（秒）
+     */
+    private static final RedisScript<Long> ADD_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('ZADD', KEYS[1], ARGV[2], ARGV[1]) "
+                    + "redis.call('ZREMRANGEBYSCORE', KEYS[1], '-inf', '(' .. (tonumber(ARGV[2]) - tonumber(ARGV[4]))) "
+                    + "local size = redis.call('ZCARD', KEYS[1]) "
+                    + "local max = tonumber(ARGV[3]) "
+                    + "if size > max then "
+                    + "  redis.call('ZREMRANGEBYRANK', KEYS[1], 0, size - max - 1) "
+                    + "  size = max "
+                    + "end "
+                    + "redis.call('EXPIRE', KEYS[1], ARGV[5]) "
+                    + "return size",
+            Long.class);
+
+    /**
+     * 刷新已存在问题的最近使用时间（不存在则不写入）
+     */
+    private static final RedisScript<Long> TOUCH_SCRIPT = new DefaultRedisScript<>(
+            "return redis.call('ZADD', KEYS[1], 'XX', ARGV[2], ARGV[1])",
+            Long.class);
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisCircuitBreaker redisCircuitBreaker;
+
+    /**
+     * 写入问题（已存在则刷新最近使用时间）
+     *
+     * @param key             索引键
+     * @param question        问题原文
+     * @param maxQuestions    最多保留的问题数
+     * @param retentionMillis 最近使用时间早于该时长的问题会被移除
+     * @param expireSeconds   索引键过期时间（秒）
+     * @return 是否写入成功
+     */
+    public boolean add(String key, String question, int maxQuestions, long retentionMillis, long expireSeconds) {
+        if (!redisCircuitBreaker.allowRequest()) {
+            return false;
+        }
+        try {
+            stringRedisTemplate.execute(ADD_SCRIPT, List.of(key), question,
+                    String.valueOf(System.currentTimeMillis()), String.valueOf(maxQuestions),
+                    String.valueOf(retentionMillis), String.valueOf(expireSeconds));
+            return true;
+        } catch (Exception e) {
+            redisCircuitBreaker.recordFailure(e);
+            log.error("写入问题索引失败，key: {}, error: {}", key, e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * 刷新问题的最近使用时间
+     */
+    public void touch(String key, String question) {
+        if (!redisCircuitBreaker.allowRequest()) {
+            return;
+        }
+        try {
+            stringRedisTemplate.execute(TOUCH_SCRIPT, List.of(key), question,
+                    String.valueOf(System.currentTimeMillis()));
+        } catch (Exception e) {
+            redisCircuitBreaker.recordFailure(e);
+            log.warn("刷新问题索引使用时间失败，key: {}, error: {}", key, e.getMessage());
+        }
+    }
+
+    /**
+     * 移除问题
+     *
+     * @return 是否存在并被移除
+     */
+    public boolean remove(String key, String question) {
+        if (!redisCircuitBreaker.allowRequest()) {
+            return false;
+        }
+        try {
+            Long removed = stringRedisTemplate.opsForZSet().remove(key, question);
+            return removed != null && removed > 0;
+        } catch (Exception e) {
+            redisCircuitBreaker.recordFailure(e);
+            log.error("从问题索引中移除问题失败，key: {}, error: {}", key, e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * 读取全部问题，按最近使用时间升序
+     *
+     * @return 问题列表；Redis 不可用时返回 null
+     */
+    public List<ScoredQuestion> loadAll(String key) {
+        if (!redisCircuitBreaker.allowRequest()) {
+            return null;
+        }
+        try {
+            return toScoredQuestions(stringRedisTemplate.opsForZSet().rangeWithScores(key, 0, -1));
+        } catch (Exception e) {
+            redisCircuitBreaker.recordFailure(e);
+            log.error("读取问题索引失败，key: {}, error: {}", key, e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * 读取最近使用时间不早于 minScore 的问题，按最近使用时间升序
+     *
+     * @return 问题列表；Redis 不可用时返回 null
+     */
+    public List<ScoredQuestion> loadSince(String key, double minScore) {
+        if (!redisCircuitBreaker.allowRequest()) {
+            return null;
+        }
+        try {
+            return toScoredQuestions(stringRedisTemplate.opsForZSet()
+                    .rangeByScoreWithScores(key, minScore, Double.POSITIVE_INFINITY));
+        } catch (Exception e) {
+            redisCircuitBreaker.recordFailure(e);
+            log.error("增量读取问题索引失败，key: {}, error: {}", key, e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * 索引中的问题数量
+     */
+    public long size(String key) {
+        if (!redisCircuitBreaker.allowRequest()) {
+            return 0;
+        }
+        try {
+            Long size = stringRedisTemplate.opsForZSet().zCard(key);
+            return size != null ? size : 0;
+        } catch (Exception e) {
+            redisCircuitBreaker.recordFailure(e);
+            log.error("获取问题索引大小失败，key: {}, error: {}", key, e.getMessage(), e);
+            return 0;
+        }
+    }
+
+    /**
+     * 将旧版整表存储的问题列表迁移到 ZSET（按原顺序赋予递增分值）
+     *
+     * @param key       ZSET 索引键
+     * @param questions 旧问题列表，按插入顺序
+     */
+    public void migrate(String key, List<String> questions, long expireSeconds) {
+        if (questions == null || questions.isEmpty()) {
+            return;
+        }
+        long base = System.currentTimeMillis() - questions.size();
+        Set<ZSetOperations.TypedTuple<String>> tuples = new LinkedHashSet<>();
+        for (int i = 0; i < questions.size(); i++) {
+            tuples.add(ZSetOperations.TypedTuple.of(questions.get(i), (double) (base + i)));
+        }
+        if (!redisCircuitBreaker.allowRequest()) {
+            return;
+        }
+        try {
+            stringRedisTemplate.opsForZSet().add(key, tuples);
+            stringRedisTemplate.expire(key, Duration.ofSeconds(expireSeconds));
+            log.info("旧版问题索引已迁移到 ZSET，key: {}, size: {}", key, questions.size());
+        } catch (Exception e) {
+            redisCircuitBreaker.recordFailure(e);
+            log.error("迁移旧版问题索引失败，key: {}, error: {}", key, e.getMessage(), e);
+        }
+    }
+
+    private List<ScoredQuestion> toScoredQuestions(Set<ZSetOperations.TypedTuple<String>> tuples) {
+        List<ScoredQuestion> questions = new ArrayList<>();
+        if (tuples == null) {
+            return questions;
+        }
+        for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+            if (tuple.getValue() != null && tuple.getScore() != null) {
+                questions.add(new ScoredQuestion(tuple.getValue(), tuple.getScore()));
+            }
+        }
+        return questions;
+    }
+
+    /**
+     * 问题及其最近使用时间
+     */
+    public record ScoredQuestion(String question, double score) {
+    }
+}
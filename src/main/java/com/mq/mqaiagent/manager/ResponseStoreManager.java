@@ -0,0 +1,261 @@
+package com.mq.mqaiagent.manager;
+
+import com.mq.mqaiagent.cache.FallbackCacheStore;
+import com.mq.mqaiagent.cache.RedisCircuitBreaker;
+import com.mq.mqaiagent.cache.TtlJitter;
+import com.mq.mqaiagent.utils.HashUtils;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按内容寻址的 AI 响应存储
+ * 响应正文只按内容哈希（SHA-256 截断为 128 位）存一份：mq:ai:agent:ai:body:{contentHash}；
+ * 按用户、模型区分的缓存键只是指向正文的指针，值为 32 个字符的内容哈希，各自拥有独立的过期时间。
+ * 正文的过期时间始终不短于引用它的最长指针：每次写入指针都会把正文的过期时间延长到至少与指针相同，
+ * 指针被删除后正文不会立即删除，最迟在最后一个指针过期时随之过期。
+ * 写入时每个命令只操作一个键；批量读取使用 MGET，Redis Cluster 下由客户端按槽拆分。
+ * 指针与正文按哈希分散在各个槽中，不使用哈希标签，避免热点集中到单个节点。
+ * Redis 不可用时读写落到 {@link FallbackCacheStore}：本地直接以指针键保存正文，故障期间的删除在恢复后同步到 Redis。
+ */
+@Component
+@Slf4j
+public class ResponseStoreManager {
+
+    /**
+     * 响应正文键前缀
+     */
+    public static final String BODY_KEY_PREFIX = "mq:ai:agent:ai:body:";
+
+    /**
+     * 正文已存在时把过期时间延长到至少 ARGV[1] 秒，返回 1；不存在返回 0
+     */
+    private static final RedisScript<Long> RETAIN_BODY_SCRIPT = new DefaultRedisScript<>(
+            "local ttl = redis.call('TTL', KEYS[1]) "
+                    + "if ttl == -2 then return 0 end "
+                    + "if ttl >= 0 and ttl < tonumber(ARGV[1]) then redis.call('EXPIRE', KEYS[1], ARGV[1]) end "
+                    + "return 1",
+            Long.class);
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisCircuitBreaker redisCircuitBreaker;
+
+    @Resource
+    private TtlJitter ttlJitter;
+
+    @Resource
+    private FallbackCacheStore fallbackCacheStore;
+
+    /**
+     * 通过指针读取响应
+     *
+     * @param pointerKey 指针键
+     * @return 响应正文；不存在时返回 null，Redis 不可用时从降级缓存读取
+     */
+    public String get(String pointerKey) {
+        if (!redisCircuitBreaker.allowRequest()) {
+            return fallbackGet(pointerKey);
+        }
+        // Redis 刚恢复、降级数据尚未对账时，本地条目比 Redis 中的更新
+        String local = fallbackCacheStore.isEmpty() ? null : fallbackGet(pointerKey);
+        if (local != null) {
+            return local;
+        }
+        try {
+            String contentHash = stringRedisTemplate.opsForValue().get(pointerKey);
+            redisCircuitBreaker.recordSuccess();
+            if (contentHash == null) {
+                return null;
+            }
+            String body = stringRedisTemplate.opsForValue().get(BODY_KEY_PREFIX + contentHash);
+            if (body == null) {
+                // 正文先于指针过期（仅在时钟或手工删除等异常情况下出现），清理悬空指针
+                stringRedisTemplate.delete(pointerKey);
+                log.debug("AI 响应指针指向的正文不存在，已清理指针，key: {}", pointerKey);
+            }
+            return body;
+        } catch (Exception e) {
+            redisCircuitBreaker.recordFailure(e);
+            log.error("读取 AI 响应失败，key: {}, error: {}", pointerKey, e.getMessage(), e);
+            return RedisCircuitBreaker.isConnectivityFailure(e) ? fallbackGet(pointerKey) : null;
+        }
+    }
+
+    /**
+     * 批量通过指针读取响应：一次 MGET 读取全部指针，再一次 MGET 读取去重后的正文
+     *
+     * @param pointerKeys 指针键列表
+     * @return 与 pointerKeys 顺序一致的响应列表，不存在的指针对应 null；Redis 不可用时从降级缓存读取
+     */
+    public List<String> multiGet(List<String> pointerKeys) {
+        List<String> responses = new ArrayList<>(Collections.nCopies(pointerKeys.size(), null));
+        if (pointerKeys.isEmpty()) {
+            return responses;
+        }
+        if (!redisCircuitBreaker.allowRequest()) {
+            return fallbackMultiGet(pointerKeys);
+        }
+        try {
+            List<String> fetched = stringRedisTemplate.opsForValue().multiGet(pointerKeys);
+            redisCircuitBreaker.recordSuccess();
+            if (fetched == null) {
+                return fallbackCacheStore.isEmpty() ? responses : fallbackMultiGet(pointerKeys);
+            }
+            List<String> contentHashes = new ArrayList<>(fetched);
+            if (!fallbackCacheStore.isEmpty()) {
+                // 尚未对账的本地条目优先
+                List<String> locals = fallbackMultiGet(pointerKeys);
+                for (int i = 0; i < pointerKeys.size(); i++) {
+                    if (locals.get(i) != null) {
+                        responses.set(i, locals.get(i));
+                        contentHashes.set(i, null);
+                    }
+                }
+            }
+            Map<String, String> bodies = new LinkedHashMap<>();
+            for (String contentHash : contentHashes) {
+                if (contentHash != null) {
+                    bodies.putIfAbsent(contentHash, null);
+                }
+            }
+            if (bodies.isEmpty()) {
+                return responses;
+            }
+            List<String> hashes = new ArrayList<>(bodies.keySet());
+            List<String> bodyKeys = hashes.stream().map(hash -> BODY_KEY_PREFIX + hash).toList();
+            List<String> values = stringRedisTemplate.opsForValue().multiGet(bodyKeys);
+            if (values == null) {
+                return responses;
+            }
+            for (int i = 0; i < hashes.size(); i++) {
+                bodies.put(hashes.get(i), values.get(i));
+            }
+            for (int i = 0; i < pointerKeys.size(); i++) {
+                String contentHash = contentHashes.get(i);
+                if (contentHash != null) {
+                    responses.set(i, bodies.get(contentHash));
+                }
+            }
+            return responses;
+        } catch (Exception e) {
+            redisCircuitBreaker.recordFailure(e);
+            log.error("批量读取 AI 响应失败，keyCount: {}, error: {}", pointerKeys.size(), e.getMessage(), e);
+            return RedisCircuitBreaker.isConnectivityFailure(e) ? fallbackMultiGet(pointerKeys) : responses;
+        }
+    }
+
+    /**
+     * 写入响应：正文已存在时只续期，不重复上传
+     *
+     * @param pointerKey    指针键
+     * @param response      响应正文
+     * @param expireSeconds 指针基础过期时间（秒），实际过期时间按命名空间加入随机抖动
+     * @return 是否写入成功
+     */
+    public boolean put(String pointerKey, String response, long expireSeconds) {
+        long ttlSeconds = ttlJitter.apply(pointerKey, expireSeconds);
+        String contentHash = HashUtils.sha256Hex128(response);
+        String bodyKey = BODY_KEY_PREFIX + contentHash;
+        if (!redisCircuitBreaker.allowRequest()) {
+            return fallbackCacheStore.put(pointerKey, response, ttlSeconds);
+        }
+        try {
+            // 先保证正文存在，再写指针，指针任何时刻都不会指向缺失的正文
+            Long retained = stringRedisTemplate.execute(RETAIN_BODY_SCRIPT, List.of(bodyKey),
+                    String.valueOf(ttlSeconds));
+            if (retained == null || retained == 0) {
+                Boolean created = stringRedisTemplate.opsForValue().setIfAbsent(bodyKey, response,
+                        Duration.ofSeconds(ttlSeconds));
+                if (!Boolean.TRUE.equals(created)) {
+                    // 并发写入了相同内容，只需续期
+                    stringRedisTemplate.execute(RETAIN_BODY_SCRIPT, List.of(bodyKey), String.valueOf(ttlSeconds));
+                }
+            }
+            stringRedisTemplate.opsForValue().set(pointerKey, contentHash, Duration.ofSeconds(ttlSeconds));
+            redisCircuitBreaker.recordSuccess();
+            evictFallback(pointerKey);
+            return true;
+        } catch (Exception e) {
+            redisCircuitBreaker.recordFailure(e);
+            log.error("写入 AI 响应失败，key: {}, error: {}", pointerKey, e.getMessage(), e);
+            return RedisCircuitBreaker.isConnectivityFailure(e)
+                    && fallbackCacheStore.put(pointerKey, response, ttlSeconds);
+        }
+    }
+
+    /**
+     * 指针的剩余过期时间
+     *
+     * @return 剩余秒数；指针不存在或 Redis 不可用时返回 -1
+     */
+    public long ttlSeconds(String pointerKey) {
+        if (!redisCircuitBreaker.allowRequest()) {
+            return -1;
+        }
+        try {
+            Long ttl = stringRedisTemplate.getExpire(pointerKey);
+            return ttl == null || ttl < 0 ? -1 : ttl;
+        } catch (Exception e) {
+            redisCircuitBreaker.recordFailure(e);
+            log.error("读取 AI 响应指针过期时间失败，key: {}, error: {}", pointerKey, e.getMessage(), e);
+            return -1;
+        }
+    }
+
+    /**
+     * 删除指针，正文由过期时间回收
+     *
+     * @return 指针是否存在并被删除
+     */
+    public boolean delete(String pointerKey) {
+        if (!redisCircuitBreaker.allowRequest()) {
+            boolean existed = fallbackCacheStore.exists(pointerKey);
+            fallbackCacheStore.delete(pointerKey);
+            return existed;
+        }
+        try {
+            Boolean deleted = stringRedisTemplate.delete(pointerKey);
+            redisCircuitBreaker.recordSuccess();
+            evictFallback(pointerKey);
+            return Boolean.TRUE.equals(deleted);
+        } catch (Exception e) {
+            redisCircuitBreaker.recordFailure(e);
+            log.error("删除 AI 响应指针失败，key: {}, error: {}", pointerKey, e.getMessage(), e);
+            if (RedisCircuitBreaker.isConnectivityFailure(e)) {
+                fallbackCacheStore.delete(pointerKey);
+            }
+            return false;
+        }
+    }
+
+    private String fallbackGet(String pointerKey) {
+        return fallbackCacheStore.get(pointerKey) instanceof String body ? body : null;
+    }
+
+    private List<String> fallbackMultiGet(List<String> pointerKeys) {
+        List<String> responses = new ArrayList<>(pointerKeys.size());
+        for (String pointerKey : pointerKeys) {
+            responses.add(fallbackGet(pointerKey));
+        }
+        return responses;
+    }
+
+    private void evictFallback(String pointerKey) {
+        if (!fallbackCacheStore.isEmpty()) {
+            fallbackCacheStore.evict(pointerKey);
+        }
+    }
+}
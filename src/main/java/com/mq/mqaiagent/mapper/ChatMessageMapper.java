@@ -0,0 +1,70 @@
+package com.mq.mqaiagent.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.mq.mqaiagent.model.entity.ChatMessage;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+/**
+ * 对话消息数据库操作
+ */
+public interface ChatMessageMapper extends BaseMapper<ChatMessage> {
+
+    /**
+     * 批量插入消息（一条 INSERT 语句）
+     */
+    int insertBatch(@Param("messages") List<ChatMessage> messages);
+
+    /**
+     * 查询已写入的消息ID（走 uk_message_id），异步写回重试时据此跳过已写入的消息
+     *
+     * @param messageIds 异步写回分配的消息ID，不能为空
+     */
+    List<String> selectExistingMessageIds(@Param("messageIds") List<String> messageIds);
+
+    /**
+     * 查询对话最近的 limit 条消息，按序号倒序返回
+     *
+     * @param userId 用户ID，未登录对话为 0
+     */
+    List<ChatMessage> selectLatest(@Param("conversationId") String conversationId,
+                                   @Param("userId") Long userId,
+                                   @Param("limit") int limit);
+
+    /**
+     * 查询序号大于 afterSeq 的全部消息，按序号升序返回
+     *
+     * @param userId 用户ID，未登录对话为 0
+     */
+    List<ChatMessage> selectAfterSeq(@Param("conversationId") String conversationId,
+                                     @Param("userId") Long userId,
+                                     @Param("afterSeq") int afterSeq);
+
+    /**
+     * 查询对话中字节数不小于 minBytes、且不是存储格式的消息（只返回 id 与 content）
+     *
+     * @param userId         用户ID，未登录对话为 0
+     * @param encodedPattern 存储格式的 LIKE 前缀，即 ChatContentCodecs.MAGIC + "%"
+     */
+    List<ChatMessage> selectUncompressed(@Param("conversationId") String conversationId,
+                                         @Param("userId") Long userId,
+                                         @Param("minBytes") int minBytes,
+                                         @Param("encodedPattern") String encodedPattern,
+                                         @Param("limit") int limit);
+
+    /**
+     * 重写一条消息的内容
+     *
+     * @param storedContent 已编码的存储格式（见 ChatContentCodecs），原样写入
+     */
+    int updateStoredContent(@Param("id") Long id, @Param("storedContent") String storedContent);
+
+    /**
+     * 查询对话当前的最大序号，没有消息时返回 0
+     * 序号按（对话, 用户）分配，不同用户的同名对话互不影响
+     *
+     * @param userId 用户ID，未登录对话为 0
+     */
+    int selectMaxSeq(@Param("conversationId") String conversationId, @Param("userId") Long userId);
+}
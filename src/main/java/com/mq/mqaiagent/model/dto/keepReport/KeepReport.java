@@ -39,7 +39,7 @@ public class KeepReport implements Serializable {
     private Long userId;
 
     /**
-     * 对话记录（JSON格式存储）
+     * 旧版对话记录（JSON格式存储），迁移到 chat_message 后为空串
      */
     @TableField(value = "messages")
     private String messages;
@@ -50,6 +50,18 @@ public class KeepReport implements Serializable {
     @TableField(value = "lastMessage")
     private String lastMessage;
 
+    /**
+     * 滚动摘要（较早的消息压缩后的内容）
+     */
+    @TableField(value = "summary")
+    private String summary;
+
+    /**
+     * 已折叠进摘要的最后一条消息序号，0 表示尚无摘要
+     */
+    @TableField(value = "summarySeq")
+    private Integer summarySeq;
+
     /**
      * 创建时间
      */
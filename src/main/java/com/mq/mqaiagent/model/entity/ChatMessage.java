@@ -0,0 +1,67 @@
+package com.mq.mqaiagent.model.entity;
+
+import com.baomidou.mybatisplus.annotation.*;
+import com.mq.mqaiagent.chatmemory.ChatContentTypeHandler;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * 对话消息实体类（每条消息一行，只追加不更新）
+ * @TableName chat_message
+ */
+@TableName(value = "chat_message", autoResultMap = true)
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ChatMessage implements Serializable {
+    /**
+     * id
+     */
+    @TableId(type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 对话id（与 keep_report.chatId 一致）
+     */
+    private String conversationId;
+
+    /**
+     * 用户id（未登录对话为 0）
+     */
+    private Long userId;
+
+    /**
+     * 消息在（对话, 用户）内的序号，从 1 开始递增
+     */
+    private Integer seq;
+
+    /**
+     * 消息类型：USER、ASSISTANT
+     */
+    private String type;
+
+    /**
+     * 消息内容（较长的内容在数据库中压缩存储，读写时由类型处理器透明转换）
+     */
+    @TableField(typeHandler = ChatContentTypeHandler.class)
+    private String content;
+
+    /**
+     * 异步写回分配的消息ID，重试写入时据此跳过已写入的消息；同步写入的消息为 null
+     */
+    private String messageId;
+
+    /**
+     * 创建时间
+     */
+    private Date createTime;
+
+    @TableField(exist = false)
+    private static final long serialVersionUID = 1L;
+}
@@ -3,26 +3,32 @@ package com.mq.mqaiagent.pool;
 import com.mq.mqaiagent.ai.AiModelRouter;
 import com.mq.mqaiagent.ai.AiModelType;
 import com.mq.mqaiagent.advisor.MyLoggerAdvisor;
+import com.mq.mqaiagent.advisor.UserScopedChatMemoryAdvisor;
 import com.mq.mqaiagent.chatmemory.CachedDatabaseChatMemory;
+import com.mq.mqaiagent.chatmemory.ChatMemoryCompactor;
+import com.mq.mqaiagent.chatmemory.ChatMemoryWriteBehind;
 import com.mq.mqaiagent.chatmemory.DatabaseChatMemory;
+import com.mq.mqaiagent.chatmemory.UserScopedChatMemory;
+import com.mq.mqaiagent.mapper.ChatMessageMapper;
 import com.mq.mqaiagent.mapper.KeepReportMapper;
 import com.mq.mqaiagent.service.CacheService;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
-import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.chat.prompt.ChatOptions;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
-import java.time.LocalDateTime;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
+import java.time.Duration;
 
 /**
  * ChatClient 对象池
  * 用于缓存和复用 ChatClient 实例，避免频繁创建对象造成的性能开销
+ * 底层基于 Caffeine：容量硬上限（W-TinyLFU 淘汰）、按访问/写入过期，且同一个键只会被创建一次
  * 
  * @author MQQQ
  * @version v1.0
@@ -39,31 +45,42 @@ public class ChatClientPool {
     private KeepReportMapper keepReportMapper;
 
     @Resource
-    private CacheService cacheService;
+    private ChatMessageMapper chatMessageMapper;
 
-    /**
-     * ChatClient 缓存池
-     * Key: 缓存键（由用户ID、系统提示词、是否支持记忆等组成）
-     * Value: 缓存的 ChatClient 实例信息
-     */
-    private final ConcurrentHashMap<String, CachedChatClient> clientCache = new ConcurrentHashMap<>();
+    @Resource
+    private ChatMemoryCompactor chatMemoryCompactor;
+
+    @Resource
+    private ChatMemoryWriteBehind chatMemoryWriteBehind;
+
+    @Resource
+    private CacheService cacheService;
 
     /**
-     * 性能统计
+     * 缓存配置
      */
-    private final AtomicLong cacheHits = new AtomicLong(0);
-    private final AtomicLong cacheMisses = new AtomicLong(0);
-    private final AtomicLong totalCreated = new AtomicLong(0);
+    private static final int MAX_CACHE_SIZE = 1000;           // 最大缓存数量（硬上限，超过后按 W-TinyLFU 淘汰）
+    private static final long CACHE_EXPIRE_MINUTES = 60;     // 缓存过期时间（分钟，自创建起算）
+    private static final long INACTIVE_THRESHOLD_MINUTES = 30; // 不活跃阈值（分钟，自最后一次访问起算）
 
     /**
-     * 缓存配置
+     * ChatClient 缓存池
+     * Key: 缓存键（由客户端类型、模型、系统提示词、是否支持记忆组成，与用户无关）
+     * Value: 缓存的 ChatClient 实例
      */
-    private static final int MAX_CACHE_SIZE = 1000;           // 最大缓存数量
-    private static final long CACHE_EXPIRE_MINUTES = 60;     // 缓存过期时间（分钟）
-    private static final long INACTIVE_THRESHOLD_MINUTES = 30; // 不活跃阈值（分钟）
+    private final Cache<String, ChatClient> clientCache = Caffeine.newBuilder()
+            .maximumSize(MAX_CACHE_SIZE)
+            .expireAfterWrite(Duration.ofMinutes(CACHE_EXPIRE_MINUTES))
+            .expireAfterAccess(Duration.ofMinutes(INACTIVE_THRESHOLD_MINUTES))
+            .recordStats()
+            .removalListener((String key, ChatClient client, RemovalCause cause) ->
+                    log.debug("ChatClient 移出缓存，key: {}, cause: {}", key, cause))
+            .build();
 
     /**
-     * 获取或创建 KeepApp 专用的 ChatClient（不支持用户记忆）
+     * 获取或创建 KeepApp 专用的 ChatClient
+     * 同一 (模型, 系统提示词) 只有一个实例，被所有用户共享；
+     * 用户与对话身份通过 advisor 参数随每次调用传入（见 {@link UserScopedChatMemoryAdvisor}）
      * 
      * @param systemPrompt 系统提示词
      * @return ChatClient 实例
@@ -74,26 +91,18 @@ public class ChatClientPool {
 
     public ChatClient getKeepAppClient(AiModelType modelType, String systemPrompt) {
         AiModelRouter.ResolvedModel resolvedModel = aiModelRouter.resolve(modelType);
-        String cacheKey = generateCacheKey("keepapp", null, systemPrompt, false, resolvedModel.modelType());
+        String cacheKey = generateCacheKey("keepapp", systemPrompt, true, resolvedModel.modelType());
         return getOrCreateClient(cacheKey, () -> createKeepAppClient(resolvedModel.chatModel(), systemPrompt));
     }
 
     /**
-     * 获取或创建支持用户记忆的 KeepApp ChatClient
-     * 
-     * @param userId 用户ID
-     * @param systemPrompt 系统提示词
-     * @return ChatClient 实例
-    */
-    public ChatClient getKeepAppClientWithMemory(Long userId, String systemPrompt) {
-        return getKeepAppClientWithMemory(null, userId, systemPrompt);
-    }
-
-    public ChatClient getKeepAppClientWithMemory(AiModelType modelType, Long userId, String systemPrompt) {
+     * 获取或创建不带对话记忆的 KeepApp ChatClient
+     * 用于与具体对话无关的后台调用（如热点回答提前刷新），不会读写任何用户的对话历史
+     */
+    public ChatClient getKeepAppStatelessClient(AiModelType modelType, String systemPrompt) {
         AiModelRouter.ResolvedModel resolvedModel = aiModelRouter.resolve(modelType);
-        String cacheKey = generateCacheKey("keepapp", userId, systemPrompt, true, resolvedModel.modelType());
-        return getOrCreateClient(cacheKey,
-                () -> createKeepAppClientWithMemory(resolvedModel.chatModel(), userId, systemPrompt));
+        String cacheKey = generateCacheKey("keepapp", systemPrompt, false, resolvedModel.modelType());
+        return getOrCreateClient(cacheKey, () -> createMqManusClient(resolvedModel.chatModel(), systemPrompt));
     }
 
     /**
@@ -108,26 +117,26 @@ public class ChatClientPool {
 
     public ChatClient getMqManusClient(AiModelType modelType, String systemPrompt) {
         AiModelRouter.ResolvedModel resolvedModel = aiModelRouter.resolve(modelType);
-        String cacheKey = generateCacheKey("mqmanus", null, systemPrompt, false, resolvedModel.modelType());
+        String cacheKey = generateCacheKey("mqmanus", systemPrompt, false, resolvedModel.modelType());
         return getOrCreateClient(cacheKey, () -> createMqManusClient(resolvedModel.chatModel(), systemPrompt));
     }
 
     /**
      * 获取或创建支持记忆的 MqManus ChatClient
+     * 与 KeepApp 一样与用户无关，用户身份通过 advisor 参数传入
      * 
-     * @param userId 用户ID
      * @param systemPrompt 系统提示词
      * @return ChatClient 实例
     */
-    public ChatClient getMqManusClientWithMemory(Long userId, String systemPrompt) {
-        return getMqManusClientWithMemory(null, userId, systemPrompt);
+    public ChatClient getMqManusClientWithMemory(String systemPrompt) {
+        return getMqManusClientWithMemory(null, systemPrompt);
     }
 
-    public ChatClient getMqManusClientWithMemory(AiModelType modelType, Long userId, String systemPrompt) {
+    public ChatClient getMqManusClientWithMemory(AiModelType modelType, String systemPrompt) {
         AiModelRouter.ResolvedModel resolvedModel = aiModelRouter.resolve(modelType);
-        String cacheKey = generateCacheKey("mqmanus", userId, systemPrompt, true, resolvedModel.modelType());
+        String cacheKey = generateCacheKey("mqmanus", systemPrompt, true, resolvedModel.modelType());
         return getOrCreateClient(cacheKey,
-                () -> createMqManusClientWithMemory(resolvedModel.chatModel(), userId, systemPrompt));
+                () -> createMqManusClientWithMemory(resolvedModel.chatModel(), systemPrompt));
     }
 
     public AiModelType getDefaultModelType() {
@@ -158,52 +167,23 @@ public class ChatClientPool {
      * @return ChatClient 实例
      */
     private ChatClient getOrCreateClient(String cacheKey, ClientFactory clientFactory) {
-        CachedChatClient cachedClient = clientCache.get(cacheKey);
-        // 检查缓存是否命中且未过期
-        if (cachedClient != null && !cachedClient.isExpired()) {
-            cachedClient.updateLastAccessed(); // 更新最后访问时间
-            cacheHits.incrementAndGet();
-            log.debug("ChatClient 缓存命中，key: {}", cacheKey);
-            return cachedClient.getChatClient();
-        }
-        // 缓存未命中或已过期，创建新实例
-        cacheMisses.incrementAndGet();
-        totalCreated.incrementAndGet();
-        // 检查缓存大小，如果超过限制则清理
-        if (clientCache.size() >= MAX_CACHE_SIZE) {
-            cleanupExpiredClients();
-        }
-        ChatClient newClient = clientFactory.create();
-        CachedChatClient newCachedClient = new CachedChatClient(newClient);
-        clientCache.put(cacheKey, newCachedClient);
-        log.debug("创建新的 ChatClient 实例，key: {}, 当前缓存大小: {}", cacheKey, clientCache.size());
-        return newClient;
+        // Caffeine 的 get 是原子的 compute-if-absent：并发首请求只有一个线程执行工厂方法，其余线程等待其结果
+        return clientCache.get(cacheKey, key -> {
+            log.debug("创建新的 ChatClient 实例，key: {}, 当前缓存大小: {}", key, clientCache.estimatedSize());
+            return clientFactory.create();
+        });
     }
 
     /**
-     * 创建 KeepApp 专用的 ChatClient（不支持记忆）
+     * 创建 KeepApp 专用的 ChatClient
+     * 对话记忆按请求解析用户ID，因此一个实例即可服务所有用户
      */
     private ChatClient createKeepAppClient(ChatModel chatModel, String systemPrompt) {
-        CachedDatabaseChatMemory chatMemory = new CachedDatabaseChatMemory(keepReportMapper, cacheService);
+        CachedDatabaseChatMemory chatMemory = new CachedDatabaseChatMemory(keepReportMapper, chatMessageMapper, chatMemoryCompactor, chatMemoryWriteBehind, cacheService);
         return ChatClient.builder(chatModel)
                 .defaultSystem(systemPrompt)
                 .defaultAdvisors(
-                        new MessageChatMemoryAdvisor(chatMemory),
-                        new MyLoggerAdvisor()
-                )
-                .build();
-    }
-
-    /**
-     * 创建支持用户记忆的 KeepApp ChatClient
-     */
-    private ChatClient createKeepAppClientWithMemory(ChatModel chatModel, Long userId, String systemPrompt) {
-        CachedDatabaseChatMemory chatMemory = new CachedDatabaseChatMemory(keepReportMapper, cacheService);
-        chatMemory.setCurrentUserId(userId);
-        return ChatClient.builder(chatModel)
-                .defaultSystem(systemPrompt)
-                .defaultAdvisors(
-                        new MessageChatMemoryAdvisor(chatMemory),
+                        new UserScopedChatMemoryAdvisor(new UserScopedChatMemory(chatMemory)),
                         new MyLoggerAdvisor()
                 )
                 .build();
@@ -223,13 +203,12 @@ public class ChatClientPool {
      * 创建支持记忆的 MqManus ChatClient
      * 注意：MqManus 不使用 Redis 缓存，直接使用数据库存储，避免序列化问题
      */
-    private ChatClient createMqManusClientWithMemory(ChatModel chatModel, Long userId, String systemPrompt) {
+    private ChatClient createMqManusClientWithMemory(ChatModel chatModel, String systemPrompt) {
         // MqManus 使用不带缓存的 DatabaseChatMemory，避免 Redis 序列化错误
-        DatabaseChatMemory chatMemory = new DatabaseChatMemory(keepReportMapper);
-        chatMemory.setCurrentUserId(userId);
+        DatabaseChatMemory chatMemory = new DatabaseChatMemory(keepReportMapper, chatMessageMapper, chatMemoryCompactor, chatMemoryWriteBehind);
         return ChatClient.builder(chatModel)
                 .defaultAdvisors(
-                        new MessageChatMemoryAdvisor(chatMemory),
+                        new UserScopedChatMemoryAdvisor(new UserScopedChatMemory(chatMemory)),
                         new MyLoggerAdvisor()
                 )
                 .build();
@@ -237,37 +216,28 @@ public class ChatClientPool {
     
     /**
      * 创建 MqManus 专用的 DatabaseChatMemory
-     * 用于 AI超级智能体的对话持久化
+     * 用于 AI超级智能体的对话持久化（写入时显式传入用户ID）
      * 
-     * @param userId 用户ID
      * @return DatabaseChatMemory 实例
      */
-    public DatabaseChatMemory createMqManusChatMemory(Long userId) {
-        DatabaseChatMemory chatMemory = new DatabaseChatMemory(keepReportMapper);
-        if (userId != null) {
-            chatMemory.setCurrentUserId(userId);
-        }
-        return chatMemory;
+    public DatabaseChatMemory createMqManusChatMemory() {
+        return new DatabaseChatMemory(keepReportMapper, chatMessageMapper, chatMemoryCompactor, chatMemoryWriteBehind);
     }
 
     /**
      * 生成缓存键
      * 
      * @param clientType 客户端类型（keepapp/mqmanus）
-     * @param userId 用户ID（可为null）
      * @param systemPrompt 系统提示词
      * @param withMemory 是否支持记忆
      * @return 缓存键
      */
-    private String generateCacheKey(String clientType, Long userId, String systemPrompt, boolean withMemory,
+    private String generateCacheKey(String clientType, String systemPrompt, boolean withMemory,
             AiModelType modelType) {
         AiModelType safeModelType = modelType == null ? aiModelRouter.getDefaultModelType() : modelType;
         StringBuilder keyBuilder = new StringBuilder();
         keyBuilder.append(clientType);
         keyBuilder.append(":model:").append(safeModelType.getCode());
-        if (userId != null) {
-            keyBuilder.append(":user:").append(userId);
-        }
         
         // 使用系统提示词的哈希值避免键过长
         keyBuilder.append(":prompt:").append(systemPrompt.hashCode());
@@ -280,54 +250,43 @@ public class ChatClientPool {
 
     /**
      * 定时清理过期的 ChatClient 实例
+     * 过期与容量淘汰由 Caffeine 维护，这里只是主动触发一次维护任务，让过期条目及时释放
      */
     @Scheduled(fixedDelay = 300000) // 每5分钟执行一次
     public void cleanupExpiredClients() {
-        int beforeSize = clientCache.size();
-        clientCache.entrySet().removeIf(entry -> {
-            CachedChatClient cachedClient = entry.getValue();
-            boolean shouldRemove = cachedClient.isExpired() || cachedClient.isInactive();
-            if (shouldRemove) {
-                log.debug("清理过期的 ChatClient，key: {}", entry.getKey());
-            }
-            return shouldRemove;
-        });
-        int afterSize = clientCache.size();
+        long beforeSize = clientCache.estimatedSize();
+        clientCache.cleanUp();
+        long afterSize = clientCache.estimatedSize();
         if (beforeSize != afterSize) {
-            log.info("ChatClient 缓存清理完成，清理前: {}, 清理后: {}, 清理数量: {}", 
+            log.info("ChatClient 缓存清理完成，清理前: {}, 清理后: {}, 清理数量: {}",
                     beforeSize, afterSize, beforeSize - afterSize);
         }
     }
 
     /**
-     * 获取缓存统计信息
+     * 获取缓存统计信息（直接来自 Caffeine 的统计）
      */
     public CacheStats getCacheStats() {
+        com.github.benmanes.caffeine.cache.stats.CacheStats stats = clientCache.stats();
         return new CacheStats(
-                cacheHits.get(),
-                cacheMisses.get(),
-                totalCreated.get(),
-                clientCache.size(),
-                calculateHitRate()
+                stats.hitCount(),
+                stats.missCount(),
+                stats.loadSuccessCount(),
+                (int) clientCache.estimatedSize(),
+                stats.hitRate(),
+                stats.evictionCount(),
+                stats.loadFailureCount(),
+                stats.averageLoadPenalty() / 1_000_000.0
         );
     }
 
-    /**
-     * 计算缓存命中率
-     */
-    private double calculateHitRate() {
-        long hits = cacheHits.get();
-        long misses = cacheMisses.get();
-        long total = hits + misses;
-        return total == 0 ? 0.0 : (double) hits / total;
-    }
-
     /**
      * 清空所有缓存（用于测试或紧急情况）
      */
     public void clearAll() {
-        int size = clientCache.size();
-        clientCache.clear();
+        long size = clientCache.estimatedSize();
+        clientCache.invalidateAll();
+        clientCache.cleanUp();
         log.warn("清空所有 ChatClient 缓存，清理数量: {}", size);
     }
 
@@ -339,32 +298,6 @@ public class ChatClientPool {
         ChatClient create();
     }
 
-    /**
-     * 缓存的 ChatClient 包装类
-     */
-    private static class CachedChatClient {
-        private final ChatClient chatClient;
-        private final LocalDateTime createdTime;
-        private volatile LocalDateTime lastAccessedTime;
-        public CachedChatClient(ChatClient chatClient) {
-            this.chatClient = chatClient;
-            this.createdTime = LocalDateTime.now();
-            this.lastAccessedTime = LocalDateTime.now();
-        }
-        public ChatClient getChatClient() {
-            return chatClient;
-        }
-        public void updateLastAccessed() {
-            this.lastAccessedTime = LocalDateTime.now();
-        }
-        public boolean isExpired() {
-            return LocalDateTime.now().isAfter(createdTime.plusMinutes(CACHE_EXPIRE_MINUTES));
-        }
-        public boolean isInactive() {
-            return LocalDateTime.now().isAfter(lastAccessedTime.plusMinutes(INACTIVE_THRESHOLD_MINUTES));
-        }
-    }
-
     /**
      * 缓存统计信息
      */
@@ -373,6 +306,9 @@ public class ChatClientPool {
             long cacheMisses,
             long totalCreated,
             int currentCacheSize,
-            double hitRate
+            double hitRate,
+            long evictionCount,
+            long loadFailureCount,
+            double averageLoadPenaltyMillis
     ) {}
 }
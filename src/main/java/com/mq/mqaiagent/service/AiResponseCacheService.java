@@ -2,6 +2,8 @@ package com.mq.mqaiagent.service;
 
 import com.mq.mqaiagent.ai.AiModelType;
 
+import java.util.function.Supplier;
+
 /**
  * @author MQ
  * @description 针对AI响应缓存操作的数据库操作Service
@@ -21,9 +23,18 @@ public interface AiResponseCacheService {
 
     /**
      * 带模型维度的缓存查询（避免不同模型串缓存）。
+     * 查询本身不计入问题的访问频率，见 {@link #recordAccess(String)}。
      */
     String getCachedResponse(String question, Long userId, AiModelType modelType);
 
+    /**
+     * 记录一次用户提问，作为写入时准入过滤的访问频率依据。
+     * 每个用户请求只记录一次，重试、合并等待等内部查询不应调用。
+     *
+     * @param question 用户问题
+     */
+    void recordAccess(String question);
+
     /**
      * 缓存AI响应
      *
@@ -39,6 +50,16 @@ public interface AiResponseCacheService {
      */
     boolean cacheResponse(String question, String response, Long userId, AiModelType modelType);
 
+    /**
+     * 带模型维度的缓存写入，可跳过准入过滤。
+     * 默认只有被提问次数达到准入阈值的问题才写入 Redis 与问题索引；
+     * 调用方明确知道回答会被复用（如体测报告建议）时可跳过。
+     *
+     * @param bypassAdmission 是否跳过准入过滤
+     */
+    boolean cacheResponse(String question, String response, Long userId, AiModelType modelType,
+                          boolean bypassAdmission);
+
     /**
      * 清除指定问题的缓存
      *
@@ -53,6 +74,19 @@ public interface AiResponseCacheService {
      */
     boolean clearCache(String question, Long userId, AiModelType modelType);
 
+    /**
+     * 生成 AI 响应缓存键（问题归一化哈希 + 模型 + 用户，userId 为 null 时落在共享命名空间），也用作相同请求的合并键。
+     */
+    String generateCacheKey(String question, Long userId, AiModelType modelType);
+
+    /**
+     * 命中缓存后调用：共享回答（userId 为 null）的问题足够热且缓存即将过期时，
+     * 在后台用 regenerate 重新生成并写回缓存；个人回答依赖对话上下文，不做提前刷新。
+     *
+     * @param regenerate 不带对话记忆地重新生成回答
+     */
+    void refreshAheadIfHot(String question, Long userId, AiModelType modelType, Supplier<String> regenerate);
+
     /**
      * 获取缓存统计信息
      *
@@ -68,10 +102,58 @@ public interface AiResponseCacheService {
         private final int totalRequests;
         private final double hitRate;
 
+        /**
+         * L1（进程内）命中次数
+         */
+        private final long l1Hits;
+
+        /**
+         * L2（Redis）命中次数，含相似问题命中
+         */
+        private final long l2Hits;
+
+        /**
+         * L1 命中率：L1 命中 / 总请求
+         */
+        private final double l1HitRate;
+
+        /**
+         * L2 命中率：L2 命中 / 未命中 L1 的请求
+         */
+        private final double l2HitRate;
+
+        /**
+         * L1 当前占用字节数估算
+         */
+        private final long l1WeightedBytes;
+
+        /**
+         * 共享命名空间（通用回答，不区分用户）命中率
+         */
+        private final double sharedHitRate;
+
+        /**
+         * 个人命名空间（按用户隔离）命中率
+         */
+        private final double personalHitRate;
+
         public CacheStats(int totalCachedQuestions, int totalRequests, double hitRate) {
+            this(totalCachedQuestions, totalRequests, hitRate, 0, 0, 0.0, 0.0, 0, 0.0, 0.0);
+        }
+
+        public CacheStats(int totalCachedQuestions, int totalRequests, double hitRate,
+                          long l1Hits, long l2Hits, double l1HitRate, double l2HitRate, long l1WeightedBytes,
+                          double sharedHitRate, double personalHitRate) {
             this.totalCachedQuestions = totalCachedQuestions;
             this.totalRequests = totalRequests;
             this.hitRate = hitRate;
+            this.l1Hits = l1Hits;
+            this.l2Hits = l2Hits;
+            this.l1HitRate = l1HitRate;
+            this.l2HitRate = l2HitRate;
+            this.l1WeightedBytes = l1WeightedBytes;
+            this.sharedHitRate = sharedHitRate;
+            this.personalHitRate = personalHitRate;
         }
 
         public int getTotalCachedQuestions() {
@@ -86,10 +168,42 @@ public interface AiResponseCacheService {
             return hitRate;
         }
 
+        public long getL1Hits() {
+            return l1Hits;
+        }
+
+        public long getL2Hits() {
+            return l2Hits;
+        }
+
+        public double getL1HitRate() {
+            return l1HitRate;
+        }
+
+        public double getL2HitRate() {
+            return l2HitRate;
+        }
+
+        public long getL1WeightedBytes() {
+            return l1WeightedBytes;
+        }
+
+        public double getSharedHitRate() {
+            return sharedHitRate;
+        }
+
+        public double getPersonalHitRate() {
+            return personalHitRate;
+        }
+
         @Override
         public String toString() {
-            return String.format("CacheStats{totalCachedQuestions=%d, totalRequests=%d, hitRate=%.2f%%}",
-                    totalCachedQuestions, totalRequests, hitRate * 100);
+            return String.format("CacheStats{totalCachedQuestions=%d, totalRequests=%d, hitRate=%.2f%%, "
+                            + "l1HitRate=%.2f%%, l2HitRate=%.2f%%, l1WeightedBytes=%d, "
+                            + "sharedHitRate=%.2f%%, personalHitRate=%.2f%%}",
+                    totalCachedQuestions, totalRequests, hitRate * 100,
+                    l1HitRate * 100, l2HitRate * 100, l1WeightedBytes,
+                    sharedHitRate * 100, personalHitRate * 100);
         }
     }
 }
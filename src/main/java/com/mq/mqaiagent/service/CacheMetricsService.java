@@ -48,6 +48,20 @@ public interface CacheMetricsService {
      */
     long getSavedApiCalls();
 
+    /**
+     * 获取AI响应通过准入过滤、写入Redis的次数
+     *
+     * @return 准入次数
+     */
+    long getAiResponseAdmissions();
+
+    /**
+     * 获取AI响应因访问频率不足被拒绝写入Redis的次数
+     *
+     * @return 拒绝次数
+     */
+    long getAiResponseRejections();
+
     /**
      * 获取完整的缓存性能报告
      *
@@ -84,6 +98,13 @@ public interface CacheMetricsService {
         private final long aiResponseCacheMisses;
         private final double aiResponseCacheHitRate;
         private final int totalCachedQuestions;
+        private final double aiResponseL1HitRate;
+        private final double aiResponseL2HitRate;
+        private final long aiResponseL1Bytes;
+        private final double aiResponseSharedHitRate;
+        private final double aiResponsePersonalHitRate;
+        private final long aiResponseAdmissions;
+        private final long aiResponseRejections;
 
         private final long savedApiCalls;
         private final boolean redisAvailable;
@@ -93,7 +114,10 @@ public interface CacheMetricsService {
         public CachePerformanceReport(long chatMemoryCacheHits, long chatMemoryCacheMisses,
                 double chatMemoryCacheHitRate, long aiResponseCacheHits,
                 long aiResponseCacheMisses, double aiResponseCacheHitRate,
-                int totalCachedQuestions, long savedApiCalls, boolean redisAvailable) {
+                int totalCachedQuestions, double aiResponseL1HitRate, double aiResponseL2HitRate,
+                long aiResponseL1Bytes, double aiResponseSharedHitRate, double aiResponsePersonalHitRate,
+                long aiResponseAdmissions, long aiResponseRejections,
+                long savedApiCalls, boolean redisAvailable) {
             this.chatMemoryCacheHits = chatMemoryCacheHits;
             this.chatMemoryCacheMisses = chatMemoryCacheMisses;
             this.chatMemoryCacheHitRate = chatMemoryCacheHitRate;
@@ -101,6 +125,13 @@ public interface CacheMetricsService {
             this.aiResponseCacheMisses = aiResponseCacheMisses;
             this.aiResponseCacheHitRate = aiResponseCacheHitRate;
             this.totalCachedQuestions = totalCachedQuestions;
+            this.aiResponseL1HitRate = aiResponseL1HitRate;
+            this.aiResponseL2HitRate = aiResponseL2HitRate;
+            this.aiResponseL1Bytes = aiResponseL1Bytes;
+            this.aiResponseSharedHitRate = aiResponseSharedHitRate;
+            this.aiResponsePersonalHitRate = aiResponsePersonalHitRate;
+            this.aiResponseAdmissions = aiResponseAdmissions;
+            this.aiResponseRejections = aiResponseRejections;
             this.savedApiCalls = savedApiCalls;
             this.redisAvailable = redisAvailable;
             this.timestamp = System.currentTimeMillis();
@@ -135,6 +166,34 @@ public interface CacheMetricsService {
             return totalCachedQuestions;
         }
 
+        public double getAiResponseL1HitRate() {
+            return aiResponseL1HitRate;
+        }
+
+        public double getAiResponseL2HitRate() {
+            return aiResponseL2HitRate;
+        }
+
+        public long getAiResponseL1Bytes() {
+            return aiResponseL1Bytes;
+        }
+
+        public double getAiResponseSharedHitRate() {
+            return aiResponseSharedHitRate;
+        }
+
+        public double getAiResponsePersonalHitRate() {
+            return aiResponsePersonalHitRate;
+        }
+
+        public long getAiResponseAdmissions() {
+            return aiResponseAdmissions;
+        }
+
+        public long getAiResponseRejections() {
+            return aiResponseRejections;
+        }
+
         public long getSavedApiCalls() {
             return savedApiCalls;
         }
@@ -153,6 +212,9 @@ public interface CacheMetricsService {
                     "CachePerformanceReport{\n" +
                             "  对话记忆缓存: 命中=%d, 未命中=%d, 命中率=%.2f%%\n" +
                             "  AI响应缓存: 命中=%d, 未命中=%d, 命中率=%.2f%%\n" +
+                            "  AI响应分级命中率: L1=%.2f%%, L2=%.2f%%, L1占用=%d字节\n" +
+                            "  AI响应命名空间命中率: 共享=%.2f%%, 个人=%.2f%%\n" +
+                            "  AI响应准入: 准入=%d, 拒绝=%d\n" +
                             "  缓存问题总数: %d\n" +
                             "  节省API调用: %d次\n" +
                             "  Redis状态: %s\n" +
@@ -160,6 +222,9 @@ public interface CacheMetricsService {
                             "}",
                     chatMemoryCacheHits, chatMemoryCacheMisses, chatMemoryCacheHitRate * 100,
                     aiResponseCacheHits, aiResponseCacheMisses, aiResponseCacheHitRate * 100,
+                    aiResponseL1HitRate * 100, aiResponseL2HitRate * 100, aiResponseL1Bytes,
+                    aiResponseSharedHitRate * 100, aiResponsePersonalHitRate * 100,
+                    aiResponseAdmissions, aiResponseRejections,
                     totalCachedQuestions, savedApiCalls,
                     redisAvailable ? "可用" : "不可用", timestamp);
         }
@@ -1,5 +1,11 @@
 package com.mq.mqaiagent.service;
 
+import org.springframework.data.redis.core.RedisOperations;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
 /**
  * @author MQ
  * @description 针对缓存操作的数据库操作Service
@@ -69,6 +75,64 @@ public interface CacheService {
      */
     boolean expire(String key, long expireHours);
 
+    /**
+     * 批量获取缓存（一次 MGET 往返）
+     * Redis Cluster 下跨槽的键由客户端按槽拆分，同一哈希标签（见 {@link #hashTag(Object)}）的键只需一条命令
+     *
+     * @param keys 缓存键列表
+     * @return 与 keys 顺序一致的值列表，不存在的键对应 null；Redis 不可用或发生异常时全部为 null
+     */
+    List<Object> multiGet(List<String> keys);
+
+    /**
+     * 批量设置缓存，每个键使用各自的过期时间（一次流水线往返）
+     *
+     * @param entries 缓存键到缓存值及过期时间的映射
+     * @return 是否全部提交成功
+     */
+    boolean multiSet(Map<String, CacheService.CacheEntry> entries);
+
+    /**
+     * 读取列表末尾的元素（LRANGE key -count -1）
+     *
+     * @param key   列表键
+     * @param count 读取的元素个数
+     * @return 按写入顺序排列的末尾元素；列表不存在、Redis 不可用或发生异常时返回空列表
+     */
+    List<Object> listTail(String key, int count);
+
+    /**
+     * 向已存在的列表追加元素，并裁剪到最近 maxSize 个、刷新过期时间（RPUSHX + LTRIM + EXPIRE，一次流水线往返）
+     * 列表不存在时不会创建，由调用方在下一次读取未命中时整体重建
+     *
+     * @param key         列表键
+     * @param values      追加的元素
+     * @param maxSize     保留的最大元素个数
+     * @param expireHours 过期时间（小时）
+     * @return 是否提交成功
+     */
+    boolean listAppend(String key, List<?> values, int maxSize, long expireHours);
+
+    /**
+     * 用给定元素重建列表（DEL + RPUSH + EXPIRE，一次流水线往返）
+     *
+     * @param key         列表键
+     * @param values      列表元素，为空时只删除列表
+     * @param expireHours 过期时间（小时）
+     * @return 是否提交成功
+     */
+    boolean listReplace(String key, List<?> values, long expireHours);
+
+    /**
+     * 以流水线方式执行一组命令，只产生一次网络往返
+     * 回调中通过 operations 发出的命令不会立即返回结果（返回值均为 null），
+     * 结果按发出顺序、经过 value 序列化器反序列化后在方法返回值中给出
+     *
+     * @param commands 发出命令的回调
+     * @return 与命令顺序一致的结果列表；Redis 不可用或发生异常时返回空列表
+     */
+    List<Object> executePipelined(Consumer<RedisOperations<String, Object>> commands);
+
     /**
      * 生成对话记忆缓存键
      *
@@ -88,8 +152,29 @@ public interface CacheService {
 
     /**
      * 检查Redis连接状态
+     * 返回熔断器维护的内存状态，不会产生网络往返
      *
      * @return 是否连接正常
      */
     boolean isRedisAvailable();
+
+    /**
+     * 生成 Redis Cluster 哈希标签
+     * 键中只有花括号内的部分参与槽计算，需要一起操作（MGET、Lua 脚本、RENAME 等）的键应使用相同的标签
+     *
+     * @param tag 标签内容，如用户ID、排行榜周期
+     * @return 形如 {tag} 的哈希标签
+     */
+    static String hashTag(Object tag) {
+        return "{" + tag + "}";
+    }
+
+    /**
+     * 批量写入的缓存项
+     *
+     * @param value         缓存值
+     * @param expireSeconds 过期时间（秒）
+     */
+    record CacheEntry(Object value, long expireSeconds) {
+    }
 }
@@ -1,5 +1,7 @@
 package com.mq.mqaiagent.service;
 
+import com.mq.mqaiagent.similarity.QuestionIndex;
+
 import java.util.List;
 
 /**
@@ -51,6 +53,14 @@ public interface TextSimilarityService {
      */
     List<TextSimilarityService.SimilarityResult> calculateSimilarities(String targetText, List<String> candidates);
 
+    /**
+     * 创建与当前相似度算法配套的相似问题索引
+     *
+     * @param capacity 索引最多容纳的问题数量
+     * @return 相似问题索引
+     */
+    QuestionIndex createQuestionIndex(int capacity);
+
     /**
      * 相似度计算结果
      */
@@ -3,19 +3,37 @@ package com.mq.mqaiagent.service.impl;
 import cn.hutool.core.util.StrUtil;
 import com.mq.mqaiagent.ai.AiModelRouter;
 import com.mq.mqaiagent.ai.AiModelType;
+import com.mq.mqaiagent.cache.AdmissionFilter;
+import com.mq.mqaiagent.cache.CacheInvalidationBus;
+import com.mq.mqaiagent.cache.CacheInvalidationMessage;
+import com.mq.mqaiagent.cache.LocalResponseCache;
+import com.mq.mqaiagent.cache.RefreshAheadScheduler;
+import com.mq.mqaiagent.manager.QuestionIndexManager;
+import com.mq.mqaiagent.manager.ResponseStoreManager;
 import com.mq.mqaiagent.service.AiResponseCacheService;
 import com.mq.mqaiagent.service.CacheService;
 import com.mq.mqaiagent.service.TextSimilarityService;
+import com.mq.mqaiagent.similarity.QuestionIndex;
+import jakarta.annotation.PostConstruct;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 /**
  * 针对 AI 响应缓存操作的 Service 实现。
  * 关键点：缓存键与相似问题索引都需要按模型隔离，避免不同模型串缓存。
+ * 两级缓存：L1 为进程内 {@link LocalResponseCache}，L2 为 Redis；清除缓存时通过发布/订阅通知其他节点。
+ * L2 按内容寻址（{@link ResponseStoreManager}）：缓存键只是指向正文的指针，相同回答只存一份。
+ * 写入 L2 前经过 {@link AdmissionFilter} 按问题访问频率准入。
  */
 @Service
 @Slf4j
@@ -30,25 +48,103 @@ public class AiResponseCacheServiceImpl implements AiResponseCacheService {
     @Resource
     private AiModelRouter aiModelRouter;
 
+    @Resource
+    private QuestionIndexManager questionIndexManager;
+
+    @Resource
+    private ResponseStoreManager responseStoreManager;
+
+    @Resource
+    private LocalResponseCache localResponseCache;
+
+    @Resource
+    private AdmissionFilter admissionFilter;
+
+    @Resource
+    private CacheInvalidationBus cacheInvalidationBus;
+
+    @Resource
+    private RefreshAheadScheduler refreshAheadScheduler;
+
     /**
      * AI 响应缓存过期时间（小时）
      */
     private static final long AI_RESPONSE_CACHE_EXPIRE_HOURS = 12;
 
+    /**
+     * AI 响应指针过期时间（秒）
+     */
+    private static final long AI_RESPONSE_CACHE_EXPIRE_SECONDS = TimeUnit.HOURS.toSeconds(AI_RESPONSE_CACHE_EXPIRE_HOURS);
+
     /**
      * 问题索引缓存过期时间（小时）
      */
     private static final long QUESTION_INDEX_CACHE_EXPIRE_HOURS = 24;
 
     /**
-     * 问题索引缓存键（基础前缀）
+     * 旧版问题索引缓存键（基础前缀），整表存储的 List，仅用于迁移
      */
-    private static final String QUESTION_INDEX_KEY_BASE = "mq:ai:agent:question:index";
+    private static final String LEGACY_QUESTION_INDEX_KEY_BASE = "mq:ai:agent:question:index";
+
+    /**
+     * 问题索引 ZSET 键（基础前缀）
+     */
+    private static final String QUESTION_INDEX_KEY_BASE = "mq:ai:agent:question:zindex";
+
+    /**
+     * 共享命名空间（通用回答）的缓存键前缀
+     */
+    private static final String GENERIC_NAMESPACE = "generic:";
 
     /**
      * 最大缓存问题数量
      */
-    private static final int MAX_CACHED_QUESTIONS = 1000;
+    private static final int MAX_CACHED_QUESTIONS = 100_000;
+
+    /**
+     * 本地倒排索引最多容纳的问题数量
+     */
+    private static final int MAX_INDEXED_QUESTIONS = 200_000;
+
+    /**
+     * 本地倒排索引从 Redis 问题索引增量同步的间隔（毫秒）
+     */
+    private static final long QUESTION_INDEX_SYNC_INTERVAL_MILLIS = 60_000;
+
+    /**
+     * 本地倒排索引从 Redis 问题索引全量重建的间隔（毫秒），用于清理其他节点删除的问题
+     */
+    private static final long QUESTION_INDEX_FULL_SYNC_INTERVAL_MILLIS = 10 * 60_000;
+
+    /**
+     * 增量同步时向前多取的时间窗口（毫秒），容忍节点间时钟偏差
+     */
+    private static final long QUESTION_INDEX_SYNC_OVERLAP_MILLIS = 5_000;
+
+    /**
+     * 按模型隔离的本地相似问题倒排索引
+     */
+    private final Map<AiModelType, LocalQuestionIndex> localQuestionIndexes = new ConcurrentHashMap<>();
+
+    /**
+     * 各级缓存命中计数
+     */
+    private final AtomicLong l1Hits = new AtomicLong(0);
+    private final AtomicLong l2Hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+
+    /**
+     * 共享命名空间（通用回答）与个人命名空间的查询、命中计数
+     */
+    private final AtomicLong sharedLookups = new AtomicLong(0);
+    private final AtomicLong sharedHits = new AtomicLong(0);
+    private final AtomicLong personalLookups = new AtomicLong(0);
+    private final AtomicLong personalHits = new AtomicLong(0);
+
+    @PostConstruct
+    public void init() {
+        cacheInvalidationBus.subscribe(this::onInvalidation);
+    }
 
     @Override
     public String getCachedResponse(String question, Long userId) {
@@ -61,27 +157,66 @@ public class AiResponseCacheServiceImpl implements AiResponseCacheService {
             return null;
         }
         AiModelType resolvedModelType = resolveModelType(modelType);
+        String response = lookupResponse(question, userId, resolvedModelType);
+        // 无用户ID的键即共享命名空间（通用回答），按命名空间分别统计命中率
+        if (userId == null) {
+            sharedLookups.incrementAndGet();
+            if (response != null) {
+                sharedHits.incrementAndGet();
+            }
+        } else {
+            personalLookups.incrementAndGet();
+            if (response != null) {
+                personalHits.incrementAndGet();
+            }
+        }
+        return response;
+    }
 
+    @Override
+    public void recordAccess(String question) {
+        if (StrUtil.isBlank(question)) {
+            return;
+        }
+        admissionFilter.recordAccess(textSimilarityService.generateTextHash(question));
+    }
+
+    private String lookupResponse(String question, Long userId, AiModelType resolvedModelType) {
         try {
-            // 1. 尝试精确匹配
+            // 1. 尝试 L1 精确匹配
             String exactCacheKey = generateCacheKey(question, userId, resolvedModelType);
-            String exactResponse = cacheService.get(exactCacheKey, String.class);
+            String localResponse = localResponseCache.get(exactCacheKey);
+            if (localResponse != null) {
+                l1Hits.incrementAndGet();
+                log.debug("AI 响应 L1 缓存命中，model: {}, question: {}",
+                        resolvedModelType.getCode(), abbreviate(question, 50));
+                return localResponse;
+            }
+
+            // 2. 尝试 L2 精确匹配
+            String exactResponse = responseStoreManager.get(exactCacheKey);
             if (exactResponse != null) {
+                l2Hits.incrementAndGet();
                 log.debug("AI 响应精确缓存命中，model: {}, question: {}",
                         resolvedModelType.getCode(), abbreviate(question, 50));
+                localResponseCache.put(exactCacheKey, exactResponse);
+                questionIndexManager.touch(getQuestionIndexKey(resolvedModelType), question);
                 return exactResponse;
             }
 
-            // 2. 尝试相似问题匹配
+            // 3. 尝试相似问题匹配
             String similarResponse = findSimilarResponse(question, userId, resolvedModelType);
             if (similarResponse != null) {
+                l2Hits.incrementAndGet();
                 log.debug("AI 响应相似缓存命中，model: {}, question: {}",
                         resolvedModelType.getCode(), abbreviate(question, 50));
-                // 将相似问题的响应也缓存到当前问题的键中
-                cacheService.set(exactCacheKey, similarResponse, AI_RESPONSE_CACHE_EXPIRE_HOURS);
+                // 当前问题的键指向同一份正文，不会重复存储
+                responseStoreManager.put(exactCacheKey, similarResponse, AI_RESPONSE_CACHE_EXPIRE_SECONDS);
+                localResponseCache.put(exactCacheKey, similarResponse);
                 return similarResponse;
             }
 
+            misses.incrementAndGet();
             log.debug("AI 响应缓存未命中，model: {}, question: {}",
                     resolvedModelType.getCode(), abbreviate(question, 50));
             return null;
@@ -100,17 +235,33 @@ public class AiResponseCacheServiceImpl implements AiResponseCacheService {
 
     @Override
     public boolean cacheResponse(String question, String response, Long userId, AiModelType modelType) {
+        return cacheResponse(question, response, userId, modelType, false);
+    }
+
+    @Override
+    public boolean cacheResponse(String question, String response, Long userId, AiModelType modelType,
+                                 boolean bypassAdmission) {
         if (StrUtil.isBlank(question) || StrUtil.isBlank(response)) {
             return false;
         }
         AiModelType resolvedModelType = resolveModelType(modelType);
 
         try {
-            // 1. 缓存 AI 响应
             String cacheKey = generateCacheKey(question, userId, resolvedModelType);
-            boolean cacheResult = cacheService.set(cacheKey, response, AI_RESPONSE_CACHE_EXPIRE_HOURS);
 
-            // 2. 更新问题索引
+            // 1. 准入过滤：低频问题只放入 L1，不写入 Redis 与问题索引
+            if (!bypassAdmission && !admissionFilter.admit(textSimilarityService.generateTextHash(question))) {
+                localResponseCache.put(cacheKey, response);
+                log.debug("AI 响应未达到准入频率，仅写入 L1，model: {}, question: {}",
+                        resolvedModelType.getCode(), abbreviate(question, 50));
+                return false;
+            }
+
+            // 2. 缓存 AI 响应
+            boolean cacheResult = responseStoreManager.put(cacheKey, response, AI_RESPONSE_CACHE_EXPIRE_SECONDS);
+            localResponseCache.put(cacheKey, response);
+
+            // 3. 更新问题索引
             if (cacheResult) {
                 updateQuestionIndex(question, resolvedModelType);
                 log.debug("AI 响应缓存成功，model: {}, question: {}",
@@ -140,7 +291,10 @@ public class AiResponseCacheServiceImpl implements AiResponseCacheService {
 
         try {
             String cacheKey = generateCacheKey(question, userId, resolvedModelType);
-            boolean result = cacheService.delete(cacheKey);
+            localResponseCache.invalidate(cacheKey);
+            boolean result = responseStoreManager.delete(cacheKey);
+            // 其他节点的 L1 可能仍持有该响应，无论 L2 是否存在都需要通知
+            cacheInvalidationBus.publish(cacheKey, resolvedModelType.getCode(), result ? question : null);
 
             if (result) {
                 removeFromQuestionIndex(question, resolvedModelType);
@@ -164,15 +318,29 @@ public class AiResponseCacheServiceImpl implements AiResponseCacheService {
 
     private AiResponseCacheService.CacheStats getCacheStats(AiModelType modelType) {
         try {
-            List<String> questionIndex = getQuestionIndex(modelType);
-            int totalCachedQuestions = questionIndex.size();
-            return new AiResponseCacheService.CacheStats(totalCachedQuestions, 0, 0.0);
+            int totalCachedQuestions = (int) questionIndexManager.size(getQuestionIndexKey(modelType));
+            long l1 = l1Hits.get();
+            long l2 = l2Hits.get();
+            long total = l1 + l2 + misses.get();
+            long l1Misses = total - l1;
+            return new AiResponseCacheService.CacheStats(totalCachedQuestions, (int) total,
+                    total == 0 ? 0.0 : (double) (l1 + l2) / total,
+                    l1, l2,
+                    total == 0 ? 0.0 : (double) l1 / total,
+                    l1Misses == 0 ? 0.0 : (double) l2 / l1Misses,
+                    localResponseCache.weightedSize(),
+                    ratio(sharedHits.get(), sharedLookups.get()),
+                    ratio(personalHits.get(), personalLookups.get()));
         } catch (Exception e) {
             log.error("获取缓存统计信息失败: {}", e.getMessage(), e);
             return new AiResponseCacheService.CacheStats(0, 0, 0.0);
         }
     }
 
+    private static double ratio(long hits, long lookups) {
+        return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+
     private AiModelType resolveModelType(AiModelType modelType) {
         return modelType == null ? aiModelRouter.getDefaultModelType() : modelType;
     }
@@ -185,8 +353,11 @@ public class AiResponseCacheServiceImpl implements AiResponseCacheService {
     /**
      * 生成缓存键。
      * 对 qwen-plus 保持旧逻辑不变；其他模型增加模型前缀隔离。
+     * 共享命名空间（userId 为 null）单独加 generic 前缀，旧版未经分类的匿名回答不会被当作通用回答读取。
      */
-    private String generateCacheKey(String question, Long userId, AiModelType modelType) {
+    @Override
+    public String generateCacheKey(String question, Long userId, AiModelType modelType) {
+        modelType = resolveModelType(modelType);
         String questionHash = textSimilarityService.generateTextHash(question);
         String modelScopedHash = isLegacyModel(modelType)
                 ? questionHash
@@ -195,7 +366,21 @@ public class AiResponseCacheServiceImpl implements AiResponseCacheService {
         if (userId != null) {
             return cacheService.generateAiResponseKey(userId + ":" + modelScopedHash);
         }
-        return cacheService.generateAiResponseKey(modelScopedHash);
+        return cacheService.generateAiResponseKey(GENERIC_NAMESPACE + modelScopedHash);
+    }
+
+    @Override
+    public void refreshAheadIfHot(String question, Long userId, AiModelType modelType, Supplier<String> regenerate) {
+        if (userId != null || StrUtil.isBlank(question)) {
+            return;
+        }
+        AiModelType resolvedModelType = resolveModelType(modelType);
+        String cacheKey = generateCacheKey(question, null, resolvedModelType);
+        refreshAheadScheduler.maybeRefresh(cacheKey, textSimilarityService.generateTextHash(question), () -> {
+            String response = regenerate.get();
+            return StrUtil.isNotBlank(response)
+                    && cacheResponse(question, response, null, resolvedModelType, true);
+        });
     }
 
     /**
@@ -205,31 +390,41 @@ public class AiResponseCacheServiceImpl implements AiResponseCacheService {
      * @param userId   用户ID（可选）
      * @return 相似问题的响应，如果没有找到则返回null
      */
-    @SuppressWarnings("unchecked")
     private String findSimilarResponse(String question, Long userId, AiModelType modelType) {
         try {
-            List<String> questionIndex = getQuestionIndex(modelType);
-            if (questionIndex.isEmpty()) {
-                return null;
+            // 只对索引召回的候选问题做相似度计算
+            List<TextSimilarityService.SimilarityResult> similarities = getLocalQuestionIndex(modelType)
+                    .search(question, textSimilarityService.getSimilarityThreshold());
+
+            // 按相似度顺序收集候选，直到第一个 L1 命中；排在它之前的候选一次批量读取 L2
+            List<TextSimilarityService.SimilarityResult> candidates = new ArrayList<>();
+            List<String> candidateKeys = new ArrayList<>();
+            String localHitResponse = null;
+            TextSimilarityService.SimilarityResult localHit = null;
+            for (TextSimilarityService.SimilarityResult result : similarities) {
+                if (!result.isSimilar(textSimilarityService.getSimilarityThreshold())) {
+                    continue;
+                }
+                String similarCacheKey = generateCacheKey(result.getText(), userId, modelType);
+                String cachedResponse = localResponseCache.get(similarCacheKey);
+                if (cachedResponse != null) {
+                    localHitResponse = cachedResponse;
+                    localHit = result;
+                    break;
+                }
+                candidates.add(result);
+                candidateKeys.add(similarCacheKey);
             }
 
-            List<TextSimilarityService.SimilarityResult> similarities = textSimilarityService
-                    .calculateSimilarities(question, questionIndex);
-
-            for (TextSimilarityService.SimilarityResult result : similarities) {
-                if (result.isSimilar(textSimilarityService.getSimilarityThreshold())) {
-                    String similarCacheKey = generateCacheKey(result.getText(), userId, modelType);
-                    String cachedResponse = cacheService.get(similarCacheKey, String.class);
-                    if (cachedResponse != null) {
-                        log.debug("找到相似问题缓存，model: {}, 原问题: {}, 相似问题: {}, 相似度: {}",
-                                modelType.getCode(),
-                                abbreviate(question, 30),
-                                abbreviate(result.getText(), 30),
-                                result.getSimilarity());
-                        return cachedResponse;
-                    }
+            List<String> remoteResponses = responseStoreManager.multiGet(candidateKeys);
+            for (int i = 0; i < candidates.size(); i++) {
+                if (remoteResponses.get(i) != null) {
+                    return onSimilarHit(question, candidates.get(i), remoteResponses.get(i), modelType);
                 }
             }
+            if (localHit != null) {
+                return onSimilarHit(question, localHit, localHitResponse, modelType);
+            }
 
             return null;
 
@@ -239,63 +434,130 @@ public class AiResponseCacheServiceImpl implements AiResponseCacheService {
         }
     }
 
-    private String getQuestionIndexKey(AiModelType modelType) {
-        return isLegacyModel(modelType)
-                ? QUESTION_INDEX_KEY_BASE
-                : QUESTION_INDEX_KEY_BASE + ":" + modelType.getCode();
+    private String onSimilarHit(String question, TextSimilarityService.SimilarityResult result,
+                                String response, AiModelType modelType) {
+        log.debug("找到相似问题缓存，model: {}, 原问题: {}, 相似问题: {}, 相似度: {}",
+                modelType.getCode(),
+                abbreviate(question, 30),
+                abbreviate(result.getText(), 30),
+                result.getSimilarity());
+        questionIndexManager.touch(getQuestionIndexKey(modelType), result.getText());
+        return response;
     }
 
     /**
-     * 获取问题索引。
+     * 获取本地倒排索引。
+     * 超过同步间隔时从 Redis 问题索引增量拉取新写入/刚使用过的问题，超过全量间隔时整体重建；
+     * 同一时刻只有一个线程执行同步，其他线程直接使用当前索引。
      */
-    @SuppressWarnings("unchecked")
-    private List<String> getQuestionIndex(AiModelType modelType) {
-        try {
-            String key = getQuestionIndexKey(modelType);
-            List<String> index = cacheService.get(key, List.class);
-            return index != null ? index : new ArrayList<>();
-        } catch (Exception e) {
-            log.error("获取问题索引失败: {}", e.getMessage(), e);
-            return new ArrayList<>();
+    private QuestionIndex getLocalQuestionIndex(AiModelType modelType) {
+        LocalQuestionIndex local = localQuestionIndexes.computeIfAbsent(modelType,
+                type -> new LocalQuestionIndex(textSimilarityService.createQuestionIndex(MAX_INDEXED_QUESTIONS)));
+        long now = System.currentTimeMillis();
+        if (now - local.lastSyncMillis >= QUESTION_INDEX_SYNC_INTERVAL_MILLIS
+                && local.syncing.compareAndSet(false, true)) {
+            try {
+                syncLocalQuestionIndex(modelType, local, now);
+            } finally {
+                local.syncing.set(false);
+            }
+        }
+        return local.index;
+    }
+
+    private void syncLocalQuestionIndex(AiModelType modelType, LocalQuestionIndex local, long now) {
+        String key = getQuestionIndexKey(modelType);
+        boolean fullSync = now - local.lastFullSyncMillis >= QUESTION_INDEX_FULL_SYNC_INTERVAL_MILLIS;
+        if (fullSync) {
+            migrateLegacyQuestionIndex(modelType);
+        }
+        List<QuestionIndexManager.ScoredQuestion> questions = fullSync
+                ? questionIndexManager.loadAll(key)
+                : questionIndexManager.loadSince(key, local.highWaterScore - QUESTION_INDEX_SYNC_OVERLAP_MILLIS);
+        if (questions == null) {
+            // Redis 不可用时保留本地索引，稍后重试
+            local.lastSyncMillis = now;
+            return;
+        }
+
+        List<String> texts = new ArrayList<>(questions.size());
+        double highWaterScore = local.highWaterScore;
+        for (QuestionIndexManager.ScoredQuestion question : questions) {
+            texts.add(question.question());
+            highWaterScore = Math.max(highWaterScore, question.score());
+        }
+        if (fullSync) {
+            local.index.replaceAll(texts);
+            local.lastFullSyncMillis = now;
+        } else {
+            texts.forEach(local.index::add);
         }
+        local.highWaterScore = highWaterScore;
+        local.lastSyncMillis = now;
+        log.debug("本地问题索引已同步，model: {}, full: {}, fetched: {}, size: {}",
+                modelType.getCode(), fullSync, texts.size(), local.index.size());
     }
 
     /**
-     * 更新问题索引。
+     * 将旧版整表存储的问题索引迁移到 ZSET（仅在 ZSET 尚不存在时执行一次）。
      */
-    private void updateQuestionIndex(String question, AiModelType modelType) {
+    @SuppressWarnings("unchecked")
+    private void migrateLegacyQuestionIndex(AiModelType modelType) {
+        String legacyKey = isLegacyModel(modelType)
+                ? LEGACY_QUESTION_INDEX_KEY_BASE
+                : LEGACY_QUESTION_INDEX_KEY_BASE + ":" + modelType.getCode();
         try {
+            List<String> legacyIndex = cacheService.get(legacyKey, List.class);
+            if (legacyIndex == null) {
+                return;
+            }
             String key = getQuestionIndexKey(modelType);
-            List<String> questionIndex = getQuestionIndex(modelType);
-
-            if (!questionIndex.contains(question)) {
-                questionIndex.add(question);
-
-                if (questionIndex.size() > MAX_CACHED_QUESTIONS) {
-                    questionIndex = questionIndex.subList(
-                            questionIndex.size() - MAX_CACHED_QUESTIONS,
-                            questionIndex.size());
-                }
-
-                cacheService.set(key, questionIndex, QUESTION_INDEX_CACHE_EXPIRE_HOURS);
+            if (questionIndexManager.size(key) == 0) {
+                questionIndexManager.migrate(key, legacyIndex, TimeUnit.HOURS.toSeconds(QUESTION_INDEX_CACHE_EXPIRE_HOURS));
             }
+            cacheService.delete(legacyKey);
         } catch (Exception e) {
-            log.error("更新问题索引失败: {}", e.getMessage(), e);
+            log.error("迁移旧版问题索引失败: {}", e.getMessage(), e);
         }
     }
 
+    private String getQuestionIndexKey(AiModelType modelType) {
+        return isLegacyModel(modelType)
+                ? QUESTION_INDEX_KEY_BASE
+                : QUESTION_INDEX_KEY_BASE + ":" + modelType.getCode();
+    }
+
+    /**
+     * 更新问题索引（原子写入 Redis ZSET，并同步写入本地倒排索引）。
+     */
+    private void updateQuestionIndex(String question, AiModelType modelType) {
+        getLocalQuestionIndex(modelType).add(question);
+        questionIndexManager.add(getQuestionIndexKey(modelType), question, MAX_CACHED_QUESTIONS,
+                TimeUnit.HOURS.toMillis(AI_RESPONSE_CACHE_EXPIRE_HOURS),
+                TimeUnit.HOURS.toSeconds(QUESTION_INDEX_CACHE_EXPIRE_HOURS));
+    }
+
     /**
      * 从问题索引中移除问题。
      */
     private void removeFromQuestionIndex(String question, AiModelType modelType) {
-        try {
-            String key = getQuestionIndexKey(modelType);
-            List<String> questionIndex = getQuestionIndex(modelType);
-            if (questionIndex.remove(question)) {
-                cacheService.set(key, questionIndex, QUESTION_INDEX_CACHE_EXPIRE_HOURS);
+        getLocalQuestionIndex(modelType).remove(question);
+        questionIndexManager.remove(getQuestionIndexKey(modelType), question);
+    }
+
+    /**
+     * 处理其他节点发布的缓存失效通知：失效 L1 响应，并从本地问题索引中移除问题。
+     */
+    private void onInvalidation(CacheInvalidationMessage message) {
+        if (message.getCacheKey() != null) {
+            localResponseCache.invalidate(message.getCacheKey());
+        }
+        if (message.getQuestion() != null && message.getModelType() != null) {
+            AiModelType modelType = AiModelType.from(message.getModelType(), null);
+            LocalQuestionIndex local = localQuestionIndexes.get(modelType);
+            if (local != null) {
+                local.index.remove(message.getQuestion());
             }
-        } catch (Exception e) {
-            log.error("从问题索引中移除问题失败: {}", e.getMessage(), e);
         }
     }
 
@@ -305,4 +567,19 @@ public class AiResponseCacheServiceImpl implements AiResponseCacheService {
         }
         return text.substring(0, Math.min(maxLen, text.length()));
     }
+
+    /**
+     * 单个模型的本地倒排索引及其同步状态
+     */
+    private static final class LocalQuestionIndex {
+        private final QuestionIndex index;
+        private final AtomicBoolean syncing = new AtomicBoolean(false);
+        private volatile long lastSyncMillis;
+        private volatile long lastFullSyncMillis;
+        private volatile double highWaterScore;
+
+        LocalQuestionIndex(QuestionIndex index) {
+            this.index = index;
+        }
+    }
 }
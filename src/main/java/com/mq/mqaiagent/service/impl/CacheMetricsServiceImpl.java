@@ -1,5 +1,6 @@
 package com.mq.mqaiagent.service.impl;
 
+import com.mq.mqaiagent.cache.AdmissionFilter;
 import com.mq.mqaiagent.service.AiResponseCacheService;
 import com.mq.mqaiagent.service.CacheMetricsService;
 import com.mq.mqaiagent.service.CacheService;
@@ -24,6 +25,9 @@ public class CacheMetricsServiceImpl implements CacheMetricsService {
     @Resource
     private AiResponseCacheService aiResponseCacheService;
 
+    @Resource
+    private AdmissionFilter admissionFilter;
+
     /**
      * 对话记忆缓存命中次数
      */
@@ -111,6 +115,16 @@ public class CacheMetricsServiceImpl implements CacheMetricsService {
         return savedApiCalls.get();
     }
 
+    @Override
+    public long getAiResponseAdmissions() {
+        return admissionFilter.getAdmitted();
+    }
+
+    @Override
+    public long getAiResponseRejections() {
+        return admissionFilter.getRejected();
+    }
+
     @Override
     public CacheMetricsService.CachePerformanceReport getPerformanceReport() {
         // 获取AI响应缓存统计
@@ -127,6 +141,13 @@ public class CacheMetricsServiceImpl implements CacheMetricsService {
                 aiResponseCacheMisses.get(),
                 getAiResponseCacheHitRate(),
                 aiCacheStats.getTotalCachedQuestions(),
+                aiCacheStats.getL1HitRate(),
+                aiCacheStats.getL2HitRate(),
+                aiCacheStats.getL1WeightedBytes(),
+                aiCacheStats.getSharedHitRate(),
+                aiCacheStats.getPersonalHitRate(),
+                getAiResponseAdmissions(),
+                getAiResponseRejections(),
 
                 // 性能节省指标
                 savedApiCalls.get(),
@@ -142,6 +163,7 @@ public class CacheMetricsServiceImpl implements CacheMetricsService {
         aiResponseCacheHits.set(0);
         aiResponseCacheMisses.set(0);
         savedApiCalls.set(0);
+        admissionFilter.resetCounters();
 
         log.info("缓存性能计数器已重置");
     }
@@ -149,11 +171,7 @@ public class CacheMetricsServiceImpl implements CacheMetricsService {
     @Override
     public void persistMetrics() {
         try {
-            if (!cacheService.isRedisAvailable()) {
-                log.warn("Redis不可用，无法持久化性能指标");
-                return;
-            }
-
+            // Redis 不可用时写入降级缓存，恢复后按 write-back 策略写回
             CacheMetricsService.CachePerformanceReport report = getPerformanceReport();
             String metricsKey = METRICS_PREFIX + "performance_report";
 
@@ -1,12 +1,23 @@
 package com.mq.mqaiagent.service.impl;
 
+import com.mq.mqaiagent.cache.FallbackCacheStore;
+import com.mq.mqaiagent.cache.RedisCircuitBreaker;
+import com.mq.mqaiagent.cache.TtlJitter;
 import com.mq.mqaiagent.service.CacheService;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
 * @author MQ
@@ -20,6 +31,21 @@ public class CacheServiceImpl implements CacheService {
     @Resource
     private RedisTemplate<String, Object> redisTemplate;
 
+    @Resource
+    private RedisCircuitBreaker redisCircuitBreaker;
+
+    /**
+     * Redis 不可用期间承接读写的进程内降级缓存
+     */
+    @Resource
+    private FallbackCacheStore fallbackCacheStore;
+
+    /**
+     * 按命名空间为过期时间加入随机抖动，避免同一时段写入的键集中失效
+     */
+    @Resource
+    private TtlJitter ttlJitter;
+
     /**
      * 缓存键前缀
      */
@@ -42,13 +68,21 @@ public class CacheServiceImpl implements CacheService {
 
     @Override
     public boolean set(String key, Object value, long expireHours) {
+        if (!redisCircuitBreaker.allowRequest()) {
+            return fallbackCacheStore.put(key, value, TimeUnit.HOURS.toSeconds(expireHours));
+        }
         try {
-            redisTemplate.opsForValue().set(key, value, expireHours, TimeUnit.HOURS);
+            redisTemplate.opsForValue().set(key, value,
+                    ttlJitter.apply(key, TimeUnit.HOURS.toSeconds(expireHours)), TimeUnit.SECONDS);
+            redisCircuitBreaker.recordSuccess();
+            evictFallback(key);
             log.debug("缓存设置成功，key: {}, expireHours: {}", key, expireHours);
             return true;
         } catch (Exception e) {
+            redisCircuitBreaker.recordFailure(e);
             log.error("缓存设置失败，key: {}, error: {}", key, e.getMessage(), e);
-            return false;
+            return RedisCircuitBreaker.isConnectivityFailure(e)
+                    && fallbackCacheStore.put(key, value, TimeUnit.HOURS.toSeconds(expireHours));
         }
     }
 
@@ -59,8 +93,19 @@ public class CacheServiceImpl implements CacheService {
 
     @Override
     public Object get(String key) {
+        if (!redisCircuitBreaker.allowRequest()) {
+            return fallbackCacheStore.get(key);
+        }
+        // Redis 刚恢复、降级数据尚未对账时，本地条目比 Redis 中的更新
+        if (!fallbackCacheStore.isEmpty()) {
+            Object local = fallbackCacheStore.get(key);
+            if (local != null) {
+                return local;
+            }
+        }
         try {
             Object value = redisTemplate.opsForValue().get(key);
+            redisCircuitBreaker.recordSuccess();
             if (value != null) {
                 log.debug("缓存命中，key: {}", key);
             } else {
@@ -68,8 +113,9 @@ public class CacheServiceImpl implements CacheService {
             }
             return value;
         } catch (Exception e) {
+            redisCircuitBreaker.recordFailure(e);
             log.error("缓存获取失败，key: {}, error: {}", key, e.getMessage(), e);
-            return null;
+            return RedisCircuitBreaker.isConnectivityFailure(e) ? fallbackCacheStore.get(key) : null;
         }
     }
 
@@ -90,43 +136,248 @@ public class CacheServiceImpl implements CacheService {
 
     @Override
     public boolean delete(String key) {
+        if (!redisCircuitBreaker.allowRequest()) {
+            boolean existed = fallbackCacheStore.exists(key);
+            fallbackCacheStore.delete(key);
+            return existed;
+        }
         try {
             Boolean result = redisTemplate.delete(key);
+            redisCircuitBreaker.recordSuccess();
+            evictFallback(key);
             log.debug("缓存删除，key: {}, result: {}", key, result);
             return Boolean.TRUE.equals(result);
         } catch (Exception e) {
+            redisCircuitBreaker.recordFailure(e);
             log.error("缓存删除失败，key: {}, error: {}", key, e.getMessage(), e);
+            if (RedisCircuitBreaker.isConnectivityFailure(e)) {
+                fallbackCacheStore.delete(key);
+            }
             return false;
         }
     }
 
     @Override
     public boolean exists(String key) {
+        if (!redisCircuitBreaker.allowRequest()) {
+            return fallbackCacheStore.exists(key);
+        }
         try {
             Boolean result = redisTemplate.hasKey(key);
+            redisCircuitBreaker.recordSuccess();
             return Boolean.TRUE.equals(result);
         } catch (Exception e) {
+            redisCircuitBreaker.recordFailure(e);
             log.error("缓存存在性检查失败，key: {}, error: {}", key, e.getMessage(), e);
-            return false;
+            return RedisCircuitBreaker.isConnectivityFailure(e) && fallbackCacheStore.exists(key);
         }
     }
 
     @Override
     public boolean expire(String key, long expireHours) {
+        if (!redisCircuitBreaker.allowRequest()) {
+            return fallbackCacheStore.expire(key, TimeUnit.HOURS.toSeconds(expireHours));
+        }
         try {
-            Boolean result = redisTemplate.expire(key, expireHours, TimeUnit.HOURS);
+            Boolean result = redisTemplate.expire(key,
+                    ttlJitter.apply(key, TimeUnit.HOURS.toSeconds(expireHours)), TimeUnit.SECONDS);
+            redisCircuitBreaker.recordSuccess();
             log.debug("缓存过期时间设置，key: {}, expireHours: {}, result: {}", key, expireHours, result);
             return Boolean.TRUE.equals(result);
         } catch (Exception e) {
+            redisCircuitBreaker.recordFailure(e);
             log.error("缓存过期时间设置失败，key: {}, error: {}", key, e.getMessage(), e);
             return false;
         }
     }
 
+    @Override
+    public List<Object> multiGet(List<String> keys) {
+        if (keys == null || keys.isEmpty()) {
+            return Collections.emptyList();
+        }
+        if (!redisCircuitBreaker.allowRequest()) {
+            return fallbackValues(keys);
+        }
+        try {
+            List<Object> values = redisTemplate.opsForValue().multiGet(keys);
+            redisCircuitBreaker.recordSuccess();
+            if (values == null || values.size() != keys.size()) {
+                return fallbackValues(keys);
+            }
+            if (!fallbackCacheStore.isEmpty()) {
+                values = new ArrayList<>(values);
+                for (int i = 0; i < keys.size(); i++) {
+                    Object local = fallbackCacheStore.get(keys.get(i));
+                    if (local != null) {
+                        values.set(i, local);
+                    }
+                }
+            }
+            log.debug("批量获取缓存，keyCount: {}", keys.size());
+            return values;
+        } catch (Exception e) {
+            redisCircuitBreaker.recordFailure(e);
+            log.error("批量获取缓存失败，keyCount: {}, error: {}", keys.size(), e.getMessage(), e);
+            return fallbackValues(keys);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean multiSet(Map<String, CacheService.CacheEntry> entries) {
+        if (entries == null || entries.isEmpty()) {
+            return true;
+        }
+        if (!redisCircuitBreaker.allowRequest()) {
+            return fallbackPutAll(entries);
+        }
+        try {
+            redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                    RedisOperations<String, Object> ops = (RedisOperations<String, Object>) operations;
+                    entries.forEach((key, entry) -> ops.opsForValue()
+                            .set(key, entry.value(), ttlJitter.apply(key, entry.expireSeconds()), TimeUnit.SECONDS));
+                    return null;
+                }
+            });
+            redisCircuitBreaker.recordSuccess();
+            entries.keySet().forEach(this::evictFallback);
+            log.debug("批量设置缓存成功，keyCount: {}", entries.size());
+            return true;
+        } catch (Exception e) {
+            redisCircuitBreaker.recordFailure(e);
+            log.error("批量设置缓存失败，keyCount: {}, error: {}", entries.size(), e.getMessage(), e);
+            return RedisCircuitBreaker.isConnectivityFailure(e) && fallbackPutAll(entries);
+        }
+    }
+
+    @Override
+    public List<Object> listTail(String key, int count) {
+        if (count <= 0) {
+            return Collections.emptyList();
+        }
+        if (!redisCircuitBreaker.allowRequest()) {
+            return fallbackListTail(key, count);
+        }
+        // Redis 刚恢复、降级数据尚未对账时，本地列表比 Redis 中的更新
+        if (!fallbackCacheStore.isEmpty() && fallbackCacheStore.exists(key)) {
+            return fallbackListTail(key, count);
+        }
+        try {
+            List<Object> values = redisTemplate.opsForList().range(key, -count, -1);
+            redisCircuitBreaker.recordSuccess();
+            log.debug("列表读取，key: {}, count: {}, size: {}", key, count, values == null ? 0 : values.size());
+            return values != null ? values : Collections.emptyList();
+        } catch (Exception e) {
+            redisCircuitBreaker.recordFailure(e);
+            log.error("列表读取失败，key: {}, error: {}", key, e.getMessage(), e);
+            return RedisCircuitBreaker.isConnectivityFailure(e) ? fallbackListTail(key, count) : Collections.emptyList();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean listAppend(String key, List<?> values, int maxSize, long expireHours) {
+        if (values == null || values.isEmpty()) {
+            return true;
+        }
+        if (!redisCircuitBreaker.allowRequest()) {
+            return fallbackListAppend(key, values, maxSize, expireHours);
+        }
+        // 降级期间写入过本地列表时，Redis 中的列表已过时：删除两边，由下一次读取重建
+        boolean staleInRedis = !fallbackCacheStore.isEmpty() && fallbackCacheStore.exists(key);
+        long expireSeconds = ttlJitter.apply(key, TimeUnit.HOURS.toSeconds(expireHours));
+        try {
+            redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                    RedisOperations<String, Object> ops = (RedisOperations<String, Object>) operations;
+                    if (staleInRedis) {
+                        ops.delete(key);
+                        return null;
+                    }
+                    for (Object value : values) {
+                        ops.opsForList().rightPushIfPresent(key, value);
+                    }
+                    ops.opsForList().trim(key, -maxSize, -1);
+                    ops.expire(key, expireSeconds, TimeUnit.SECONDS);
+                    return null;
+                }
+            });
+            redisCircuitBreaker.recordSuccess();
+            evictFallback(key);
+            log.debug("列表追加，key: {}, valueCount: {}, maxSize: {}", key, values.size(), maxSize);
+            return true;
+        } catch (Exception e) {
+            redisCircuitBreaker.recordFailure(e);
+            log.error("列表追加失败，key: {}, error: {}", key, e.getMessage(), e);
+            return RedisCircuitBreaker.isConnectivityFailure(e) && fallbackListAppend(key, values, maxSize, expireHours);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean listReplace(String key, List<?> values, long expireHours) {
+        if (values == null || values.isEmpty()) {
+            return delete(key);
+        }
+        if (!redisCircuitBreaker.allowRequest()) {
+            return fallbackCacheStore.put(key, new ArrayList<>(values), TimeUnit.HOURS.toSeconds(expireHours));
+        }
+        long expireSeconds = ttlJitter.apply(key, TimeUnit.HOURS.toSeconds(expireHours));
+        try {
+            redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                    RedisOperations<String, Object> ops = (RedisOperations<String, Object>) operations;
+                    ops.delete(key);
+                    ops.opsForList().rightPushAll(key, values.toArray());
+                    ops.expire(key, expireSeconds, TimeUnit.SECONDS);
+                    return null;
+                }
+            });
+            redisCircuitBreaker.recordSuccess();
+            evictFallback(key);
+            log.debug("列表重建，key: {}, size: {}", key, values.size());
+            return true;
+        } catch (Exception e) {
+            redisCircuitBreaker.recordFailure(e);
+            log.error("列表重建失败，key: {}, error: {}", key, e.getMessage(), e);
+            return RedisCircuitBreaker.isConnectivityFailure(e)
+                    && fallbackCacheStore.put(key, new ArrayList<>(values), TimeUnit.HOURS.toSeconds(expireHours));
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Object> executePipelined(Consumer<RedisOperations<String, Object>> commands) {
+        if (!redisCircuitBreaker.allowRequest()) {
+            return Collections.emptyList();
+        }
+        try {
+            List<Object> results = redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                    commands.accept((RedisOperations<String, Object>) operations);
+                    return null;
+                }
+            });
+            redisCircuitBreaker.recordSuccess();
+            return results;
+        } catch (Exception e) {
+            redisCircuitBreaker.recordFailure(e);
+            log.error("流水线执行失败，error: {}", e.getMessage(), e);
+            return Collections.emptyList();
+        }
+    }
+
     @Override
     public String generateChatMemoryKey(String conversationId, Long userId) {
         if (userId != null) {
-            return CHAT_MEMORY_PREFIX + userId + ":" + conversationId;
+            // 同一用户的对话缓存落在同一个槽，便于批量操作
+            return CHAT_MEMORY_PREFIX + CacheService.hashTag(userId) + ":" + conversationId;
         }
         return CHAT_MEMORY_PREFIX + conversationId;
     }
@@ -136,14 +387,54 @@ public class CacheServiceImpl implements CacheService {
         return AI_RESPONSE_PREFIX + questionHash;
     }
 
-    @Override
-    public boolean isRedisAvailable() {
-        try {
-            redisTemplate.getConnectionFactory().getConnection().ping();
-            return true;
-        } catch (Exception e) {
-            log.warn("Redis连接检查失败: {}", e.getMessage());
+    private void evictFallback(String key) {
+        if (!fallbackCacheStore.isEmpty()) {
+            fallbackCacheStore.evict(key);
+        }
+    }
+
+    private List<Object> fallbackValues(List<String> keys) {
+        List<Object> values = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            values.add(fallbackCacheStore.get(key));
+        }
+        return values;
+    }
+
+    /**
+     * 降级期间列表以普通值保存在本地（恢复后按命名空间策略对账，对话记忆为 invalidate）
+     */
+    private List<Object> fallbackListTail(String key, int count) {
+        if (!(fallbackCacheStore.get(key) instanceof List<?> list) || list.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(list.subList(Math.max(0, list.size() - count), list.size()));
+    }
+
+    private boolean fallbackListAppend(String key, List<?> values, int maxSize, long expireHours) {
+        // 与 RPUSHX 一致：本地没有该列表时不创建
+        if (!(fallbackCacheStore.get(key) instanceof List<?> list)) {
             return false;
         }
+        List<Object> appended = new ArrayList<>(list);
+        appended.addAll(values);
+        if (appended.size() > maxSize) {
+            appended = new ArrayList<>(appended.subList(appended.size() - maxSize, appended.size()));
+        }
+        return fallbackCacheStore.put(key, appended, TimeUnit.HOURS.toSeconds(expireHours));
+    }
+
+    private boolean fallbackPutAll(Map<String, CacheService.CacheEntry> entries) {
+        boolean stored = true;
+        for (Map.Entry<String, CacheService.CacheEntry> entry : entries.entrySet()) {
+            stored &= fallbackCacheStore.put(entry.getKey(), entry.getValue().value(), entry.getValue().expireSeconds());
+        }
+        return stored;
+    }
+
+    @Override
+    public boolean isRedisAvailable() {
+        // 读取熔断器维护的状态，不产生网络往返（由后台探测定时刷新）
+        return redisCircuitBreaker.isAvailable();
     }
 }
@@ -5,10 +5,12 @@ import com.alibaba.fastjson2.JSONArray;
 import com.alibaba.fastjson2.JSONObject;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
+import com.mq.mqaiagent.mapper.ChatMessageMapper;
 import com.mq.mqaiagent.mapper.KeepReportMapper;
 import com.mq.mqaiagent.model.dto.keepReport.KeepReport;
 import com.mq.mqaiagent.model.dto.ChatHistoryDetailDTO;
 import com.mq.mqaiagent.model.dto.ChatHistoryListDTO;
+import com.mq.mqaiagent.model.entity.ChatMessage;
 import com.mq.mqaiagent.service.ChatHistoryService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
@@ -31,12 +33,17 @@ public class ChatHistoryServiceImpl implements ChatHistoryService {
     @Resource
     private KeepReportMapper keepReportMapper;
 
+    @Resource
+    private ChatMessageMapper chatMessageMapper;
+
     @Override
     public List<ChatHistoryListDTO> getChatHistoryList(Long userId) {
         try {
-            // 构建查询条件：根据用户ID查询，按更新时间倒序排列
+            // 构建查询条件：根据用户ID查询，按更新时间倒序排列；只读表头字段，不加载对话内容
             LambdaQueryWrapper<KeepReport> queryWrapper = new LambdaQueryWrapper<>();
-            queryWrapper.eq(KeepReport::getUserId, userId)
+            queryWrapper.select(KeepReport::getChatId, KeepReport::getLastMessage,
+                            KeepReport::getCreateTime, KeepReport::getUpdateTime)
+                        .eq(KeepReport::getUserId, userId)
                         .eq(KeepReport::getIsDelete, 0)
                         .orderByDesc(KeepReport::getUpdateTime);
 
@@ -71,13 +78,31 @@ public class ChatHistoryServiceImpl implements ChatHistoryService {
             // 查询数据库
             KeepReport keepReport = keepReportMapper.selectOne(queryWrapper);
 
-            if (keepReport == null || keepReport.getMessages() == null || keepReport.getMessages().isBlank()) {
-                log.warn("未找到对话记录或消息为空，用户ID: {}, 对话ID: {}", userId, chatId);
+            if (keepReport == null) {
+                log.warn("未找到对话记录，用户ID: {}, 对话ID: {}", userId, chatId);
                 return null;
             }
 
-            // 解析消息JSON
-            List<ChatHistoryDetailDTO.ChatMessageDTO> messages = parseMessages(keepReport.getMessages());
+            // 按序号读取消息行；尚未迁移的旧对话仍解析表头中的 JSON
+            List<ChatHistoryDetailDTO.ChatMessageDTO> messages;
+            if (keepReport.getMessages() != null && !keepReport.getMessages().isBlank()) {
+                messages = parseMessages(keepReport.getMessages());
+            } else {
+                messages = chatMessageMapper.selectList(new LambdaQueryWrapper<ChatMessage>()
+                                .eq(ChatMessage::getConversationId, chatId)
+                                .eq(ChatMessage::getUserId, userId)
+                                .orderByAsc(ChatMessage::getSeq))
+                        .stream()
+                        .map(row -> ChatHistoryDetailDTO.ChatMessageDTO.builder()
+                                .messageType(row.getType())
+                                .message(row.getContent())
+                                .build())
+                        .collect(Collectors.toList());
+            }
+            if (messages.isEmpty()) {
+                log.warn("对话消息为空，用户ID: {}, 对话ID: {}", userId, chatId);
+                return null;
+            }
 
             return ChatHistoryDetailDTO.builder()
                     .chatId(chatId)
@@ -0,0 +1,33 @@
+package com.mq.mqaiagent.service.impl;
+
+import com.mq.mqaiagent.similarity.MinHashLshQuestionIndex;
+import com.mq.mqaiagent.similarity.QuestionIndex;
+import com.mq.mqaiagent.similarity.SimilarityProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+/**
+ * 基于 MinHash/LSH 的文本相似度 Service 实现
+ * 两两相似度计算与 {@link TextSimilarityServiceImpl} 一致，
+ * 相似问题索引改用 MinHash 签名分桶召回候选，查询代价与语料规模无关。
+ * 通过 mq.ai.similarity.engine=minhash 启用。
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(prefix = "mq.ai.similarity", name = "engine", havingValue = "minhash")
+public class MinHashTextSimilarityServiceImpl extends TextSimilarityServiceImpl {
+
+    private final SimilarityProperties similarityProperties;
+
+    public MinHashTextSimilarityServiceImpl(SimilarityProperties similarityProperties) {
+        this.similarityProperties = similarityProperties;
+    }
+
+    @Override
+    public QuestionIndex createQuestionIndex(int capacity) {
+        SimilarityProperties.MinHash minhash = similarityProperties.getMinhash();
+        log.info("使用 MinHash/LSH 相似问题索引，bands: {}, rows: {}", minhash.getBands(), minhash.getRows());
+        return new MinHashLshQuestionIndex(capacity, minhash.getBands(), minhash.getRows(), minhash.getSeed());
+    }
+}
@@ -4,6 +4,7 @@ import com.mq.mqaiagent.mapper.ExerciseLogMapper;
 import com.mq.mqaiagent.mapper.UserMapper;
 import com.mq.mqaiagent.model.dto.ranking.*;
 import com.mq.mqaiagent.model.entity.User;
+import com.mq.mqaiagent.service.CacheService;
 import com.mq.mqaiagent.service.RankingService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.RedisTemplate;
@@ -17,11 +18,14 @@ import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
  * 排行榜服务实现类
+ * 同一周期的排行榜 ZSET 与首次上榜时间 Hash 使用相同的哈希标签（ranking:{week:2025-09-08}），
+ * 在 Redis Cluster 下落在同一个槽；一次请求内的多条命令通过流水线合并为一次往返。
  */
 @Service
 @Slf4j
@@ -30,6 +34,9 @@ public class RankingServiceImpl implements RankingService {
     @Resource
     private RedisTemplate<String, Object> redisTemplate;
 
+    @Resource
+    private CacheService cacheService;
+
     @Resource
     private ExerciseLogMapper exerciseLogMapper;
 
@@ -40,6 +47,11 @@ public class RankingServiceImpl implements RankingService {
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
     private static final DateTimeFormatter DATETIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
 
+    /**
+     * 已完成旧键迁移的周期（rankingType:startDate），每个周期每个进程只检查一次
+     */
+    private final Set<String> migratedPeriods = ConcurrentHashMap.newKeySet();
+
     @Override
     public void updateRankingAfterAdd(Long userId, Date dateRecorded,
                                      LocalDate weekStartDate, LocalDate monthStartDate) {
@@ -83,24 +95,21 @@ public class RankingServiceImpl implements RankingService {
      */
     private void updateRanking(Long userId, Date dateRecorded,
                               String rankingType, LocalDate startDate) {
-        String redisKey = "ranking:" + rankingType + ":" + startDate.format(DATE_FORMATTER);
-        String firstTimeKey = "ranking:first:" + rankingType + ":" + startDate.format(DATE_FORMATTER);
+        RankingKeys keys = rankingKeys(rankingType, startDate);
+        String redisKey = keys.ranking();
+        String firstTimeKey = keys.firstTime();
         String userIdStr = String.valueOf(userId);
 
-        // 1. 检查用户是否首次上榜
-        Boolean hasFirstTime = redisTemplate.opsForHash().hasKey(firstTimeKey, userIdStr);
-        long firstRecordTimestamp;
-
-        if (hasFirstTime == null || !hasFirstTime) {
-            // 首次上榜，记录时间
-            firstRecordTimestamp = dateRecorded.getTime() / 1000; // 转为秒级时间戳
-            redisTemplate.opsForHash().put(firstTimeKey, userIdStr,
-                    String.valueOf(firstRecordTimestamp));
-        } else {
-            // 非首次，获取已记录的首次时间
-            Object value = redisTemplate.opsForHash().get(firstTimeKey, userIdStr);
-            firstRecordTimestamp = Long.parseLong(value.toString());
+        // 1. 首次上榜时记录时间（HSETNX），并读取已记录的首次时间，一次往返完成
+        String candidateTimestamp = String.valueOf(dateRecorded.getTime() / 1000); // 转为秒级时间戳
+        List<Object> firstTimeResults = cacheService.executePipelined(operations -> {
+            operations.opsForHash().putIfAbsent(firstTimeKey, userIdStr, candidateTimestamp);
+            operations.opsForHash().get(firstTimeKey, userIdStr);
+        });
+        if (firstTimeResults.size() != 2 || firstTimeResults.get(1) == null) {
+            throw new IllegalStateException("Redis 不可用，无法读取首次上榜时间");
         }
+        long firstRecordTimestamp = Long.parseLong(firstTimeResults.get(1).toString());
 
         // 2. 查询当前用户在该周期内的运动记录总数
         int exerciseCount = countExerciseInPeriod(userId, rankingType, startDate);
@@ -108,13 +117,16 @@ public class RankingServiceImpl implements RankingService {
         // 3. 计算 score = exerciseCount * 10^13 + (10^13 - firstRecordTimestamp)
         double score = exerciseCount * SCORE_MULTIPLIER + (SCORE_MULTIPLIER - firstRecordTimestamp);
 
-        // 4. 更新 Redis Zset
-        redisTemplate.opsForZSet().add(redisKey, userIdStr, score);
-
-        // 5. 设置 Key 过期时间（周榜14天，月榜60天）
+        // 4. 更新 Redis Zset，并设置 Key 过期时间（周榜14天，月榜60天），一次往返完成
         long expireDays = "week".equals(rankingType) ? 14 : 60;
-        redisTemplate.expire(redisKey, expireDays, TimeUnit.DAYS);
-        redisTemplate.expire(firstTimeKey, expireDays, TimeUnit.DAYS);
+        List<Object> updateResults = cacheService.executePipelined(operations -> {
+            operations.opsForZSet().add(redisKey, userIdStr, score);
+            operations.expire(redisKey, expireDays, TimeUnit.DAYS);
+            operations.expire(firstTimeKey, expireDays, TimeUnit.DAYS);
+        });
+        if (updateResults.isEmpty()) {
+            throw new IllegalStateException("Redis 不可用，排行榜未更新");
+        }
     }
 
     /**
@@ -134,11 +146,13 @@ public class RankingServiceImpl implements RankingService {
     private void checkAndRemoveIfZero(Long userId, String rankingType, LocalDate startDate) {
         int count = countExerciseInPeriod(userId, rankingType, startDate);
         if (count == 0) {
-            String redisKey = "ranking:" + rankingType + ":" + startDate.format(DATE_FORMATTER);
-            String firstTimeKey = "ranking:first:" + rankingType + ":" + startDate.format(DATE_FORMATTER);
+            RankingKeys keys = rankingKeys(rankingType, startDate);
+            String userIdStr = String.valueOf(userId);
 
-            redisTemplate.opsForZSet().remove(redisKey, String.valueOf(userId));
-            redisTemplate.opsForHash().delete(firstTimeKey, String.valueOf(userId));
+            cacheService.executePipelined(operations -> {
+                operations.opsForZSet().remove(keys.ranking(), userIdStr);
+                operations.opsForHash().delete(keys.firstTime(), userIdStr);
+            });
         }
     }
 
@@ -157,16 +171,22 @@ public class RankingServiceImpl implements RankingService {
 
         // 2. 计算 Redis Key
         LocalDate startDate = calculateStartDate(rankingType);
-        String redisKey = "ranking:" + rankingType + ":" + startDate.format(DATE_FORMATTER);
+        RankingKeys keys = rankingKeys(rankingType, startDate);
+        String redisKey = keys.ranking();
 
-        // 3. 从 Redis Zset 获取排行数据（按 score 降序）
+        // 3. 从 Redis Zset 获取排行数据（按 score 降序）与总数，一次往返完成
         int start = (current - 1) * pageSize;
         int end = start + pageSize - 1;
-        Set<ZSetOperations.TypedTuple<Object>> rankingSet =
-                redisTemplate.opsForZSet().reverseRangeWithScores(redisKey, start, end);
+        List<Object> rankingResults = cacheService.executePipelined(operations -> {
+            operations.opsForZSet().reverseRangeWithScores(redisKey, start, end);
+            operations.opsForZSet().zCard(redisKey);
+        });
+        Set<ZSetOperations.TypedTuple<Object>> rankingSet = rankingResults.size() == 2
+                ? castTuples(rankingResults.get(0))
+                : null;
 
         // 4. 获取总数
-        Long total = redisTemplate.opsForZSet().zCard(redisKey);
+        Long total = rankingResults.size() == 2 ? (Long) rankingResults.get(1) : null;
         if (total == null) {
             total = 0L;
         }
@@ -183,7 +203,7 @@ public class RankingServiceImpl implements RankingService {
         Map<Long, User> userInfoMap = batchGetUserInfo(userIds);
 
         // 7. 获取首次记录时间
-        String firstTimeKey = "ranking:first:" + rankingType + ":" + startDate.format(DATE_FORMATTER);
+        String firstTimeKey = keys.firstTime();
         // 修复：将 Long 类型的 userId 转换为 String，避免 Redis 序列化错误
         List<Object> userIdObjects = userIds.stream()
                 .map(String::valueOf)
@@ -327,15 +347,25 @@ public class RankingServiceImpl implements RankingService {
     public MyRankingResponse getMyRanking(Long userId, String rankingType) {
         // 1. 计算 Redis Key
         LocalDate startDate = calculateStartDate(rankingType);
-        String redisKey = "ranking:" + rankingType + ":" + startDate.format(DATE_FORMATTER);
-        String firstTimeKey = "ranking:first:" + rankingType + ":" + startDate.format(DATE_FORMATTER);
+        RankingKeys keys = rankingKeys(rankingType, startDate);
+        String redisKey = keys.ranking();
+        String firstTimeKey = keys.firstTime();
         String userIdStr = String.valueOf(userId);
 
-        // 2. 获取用户 score（判断是否上榜）
-        Double score = redisTemplate.opsForZSet().score(redisKey, userIdStr);
+        // 2. 获取用户 score、总人数、排名与首次记录时间，一次往返完成
+        List<Object> myResults = cacheService.executePipelined(operations -> {
+            operations.opsForZSet().score(redisKey, userIdStr);
+            operations.opsForZSet().zCard(redisKey);
+            operations.opsForZSet().reverseRank(redisKey, userIdStr);
+            operations.opsForHash().get(firstTimeKey, userIdStr);
+        });
+        if (myResults.size() != 4) {
+            return MyRankingResponse.notOnBoard(0);
+        }
+        Double score = (Double) myResults.get(0);
 
         // 3. 获取总人数
-        Long totalUsers = redisTemplate.opsForZSet().zCard(redisKey);
+        Long totalUsers = (Long) myResults.get(1);
         int total = totalUsers != null ? totalUsers.intValue() : 0;
 
         if (score == null) {
@@ -344,7 +374,7 @@ public class RankingServiceImpl implements RankingService {
         }
 
         // 4. 获取用户排名（reverseRank 从0开始，需要+1）
-        Long rank = redisTemplate.opsForZSet().reverseRank(redisKey, userIdStr);
+        Long rank = (Long) myResults.get(2);
         int myRank = rank != null ? rank.intValue() + 1 : 0;
 
         // 5. 解析运动次数
@@ -358,7 +388,7 @@ public class RankingServiceImpl implements RankingService {
         ExerciseStats stats = getExerciseStats(userId, rankingType, startDate);
 
         // 8. 获取首次记录时间
-        Object firstTimeObj = redisTemplate.opsForHash().get(firstTimeKey, userIdStr);
+        Object firstTimeObj = myResults.get(3);
         String firstRecordTime = null;
         if (firstTimeObj != null) {
             long timestamp = Long.parseLong(firstTimeObj.toString());
@@ -451,7 +481,7 @@ public class RankingServiceImpl implements RankingService {
     public boolean refreshRanking(String rankingType) {
         try {
             LocalDate startDate = calculateStartDate(rankingType);
-            String redisKey = "ranking:" + rankingType + ":" + startDate.format(DATE_FORMATTER);
+            String redisKey = rankingKeys(rankingType, startDate).ranking();
 
             // 清除现有排行榜数据
             redisTemplate.delete(redisKey);
@@ -465,4 +495,77 @@ public class RankingServiceImpl implements RankingService {
             return false;
         }
     }
+
+    /**
+     * 计算指定周期的排行榜键
+     * 首次访问某个周期时，把不带哈希标签的旧键合并到新键，保留当前周期已有的排名与首次上榜时间。
+     * 旧键与新键在 Redis Cluster 下通常不在同一个槽，不能使用 RENAME，只能逐个键读取、写入、删除
+     */
+    private RankingKeys rankingKeys(String rankingType, LocalDate startDate) {
+        String period = rankingType + ":" + startDate.format(DATE_FORMATTER);
+        String tag = CacheService.hashTag(period);
+        RankingKeys keys = new RankingKeys("ranking:" + tag, "ranking:first:" + tag);
+        if (!migratedPeriods.contains(period)) {
+            try {
+                migrateLegacyRanking("ranking:" + period, keys.ranking());
+                migrateLegacyFirstTime("ranking:first:" + period, keys.firstTime());
+                migratedPeriods.add(period);
+            } catch (Exception e) {
+                log.warn("排行榜旧键迁移失败，下次访问时重试: period={}, error={}", period, e.getMessage());
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * 旧排行榜 ZSET 合并到新键：新键中已有的成员是迁移后写入的最新分数，只补充缺少的成员（ZADD NX）
+     */
+    private void migrateLegacyRanking(String legacyKey, String key) {
+        if (!Boolean.TRUE.equals(redisTemplate.hasKey(legacyKey))) {
+            return;
+        }
+        Set<ZSetOperations.TypedTuple<Object>> tuples = redisTemplate.opsForZSet().rangeWithScores(legacyKey, 0, -1);
+        if (tuples != null && !tuples.isEmpty()) {
+            redisTemplate.opsForZSet().addIfAbsent(key, tuples);
+        }
+        finishLegacyMigration(legacyKey, key);
+    }
+
+    /**
+     * 旧首次上榜时间 Hash 合并到新键：已有的字段保持不变（HSETNX）
+     */
+    private void migrateLegacyFirstTime(String legacyKey, String key) {
+        if (!Boolean.TRUE.equals(redisTemplate.hasKey(legacyKey))) {
+            return;
+        }
+        Map<Object, Object> entries = redisTemplate.opsForHash().entries(legacyKey);
+        for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+            redisTemplate.opsForHash().putIfAbsent(key, entry.getKey(), entry.getValue());
+        }
+        finishLegacyMigration(legacyKey, key);
+    }
+
+    /**
+     * 新键沿用旧键的过期时间（新键已有过期时间时不覆盖），然后删除旧键
+     */
+    private void finishLegacyMigration(String legacyKey, String key) {
+        Long ttl = redisTemplate.getExpire(legacyKey, TimeUnit.SECONDS);
+        Long currentTtl = redisTemplate.getExpire(key, TimeUnit.SECONDS);
+        if (ttl != null && ttl > 0 && currentTtl != null && currentTtl == -1) {
+            redisTemplate.expire(key, ttl, TimeUnit.SECONDS);
+        }
+        redisTemplate.delete(legacyKey);
+        log.info("排行榜旧键已迁移: {} -> {}", legacyKey, key);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Set<ZSetOperations.TypedTuple<Object>> castTuples(Object value) {
+        return (Set<ZSetOperations.TypedTuple<Object>>) value;
+    }
+
+    /**
+     * 同一周期的排行榜 ZSET 键与首次上榜时间 Hash 键
+     */
+    private record RankingKeys(String ranking, String firstTime) {
+    }
 }
@@ -2,10 +2,17 @@ package com.mq.mqaiagent.service.impl;
 
 import cn.hutool.core.util.StrUtil;
 import com.mq.mqaiagent.service.TextSimilarityService;
+import com.mq.mqaiagent.similarity.BigramQuestionIndex;
+import com.mq.mqaiagent.similarity.BigramVector;
+import com.mq.mqaiagent.similarity.QuestionIndex;
+import com.mq.mqaiagent.similarity.TextNormalizer;
+import com.mq.mqaiagent.utils.HashUtils;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
-import java.util.*;
+import java.util.Collections;
+import java.util.List;
 import java.util.stream.Collectors;
 
 /**
@@ -15,6 +22,7 @@ import java.util.stream.Collectors;
  */
 @Service
 @Slf4j
+@ConditionalOnProperty(prefix = "mq.ai.similarity", name = "engine", havingValue = "cosine", matchIfMissing = true)
 public class TextSimilarityServiceImpl implements TextSimilarityService {
 
     /**
@@ -22,32 +30,19 @@ public class TextSimilarityServiceImpl implements TextSimilarityService {
      */
     private static final double SIMILARITY_THRESHOLD = 0.75;
 
-    /**
-     * 最小文本长度，低于此长度的文本不进行相似度计算
-     */
-    private static final int MIN_TEXT_LENGTH = 5;
-
     @Override
     public double calculateCosineSimilarity(String text1, String text2) {
         if (StrUtil.isBlank(text1) || StrUtil.isBlank(text2)) {
             return 0.0;
         }
 
-        // 1. 预处理文本
-        String processedText1 = preprocessText(text1);
-        String processedText2 = preprocessText(text2);
-
-        if (processedText1.length() < MIN_TEXT_LENGTH || processedText2.length() < MIN_TEXT_LENGTH) {
-            return 0.0;
-        }
-
         try {
-            // 2. 分词并构建词频向量
-            Map<String, Integer> vector1 = buildWordFrequencyVector(processedText1);
-            Map<String, Integer> vector2 = buildWordFrequencyVector(processedText2);
+            // 1. 预处理文本并构建 2-gram 词频向量（过短的文本得到空向量）
+            BigramVector vector1 = BigramVector.of(TextNormalizer.normalize(text1));
+            BigramVector vector2 = BigramVector.of(TextNormalizer.normalize(text2));
 
-            // 3. 计算余弦相似度
-            return computeCosineSimilarity(vector1, vector2);
+            // 2. 计算余弦相似度
+            return vector1.cosine(vector2);
         } catch (Exception e) {
             log.error("计算文本相似度失败: text1={}, text2={}, error={}", 
                      text1.substring(0, Math.min(50, text1.length())), 
@@ -74,9 +69,9 @@ public class TextSimilarityServiceImpl implements TextSimilarityService {
             return "empty";
         }
         
-        // 预处理文本后计算哈希
-        String processedText = preprocessText(text);
-        return String.valueOf(processedText.hashCode());
+        // 预处理文本后计算 128 位哈希，避免 32 位 hashCode 让不相关的问题共用缓存
+        String processedText = TextNormalizer.normalize(text);
+        return HashUtils.sha256Hex128(processedText);
     }
 
     @Override
@@ -90,98 +85,23 @@ public class TextSimilarityServiceImpl implements TextSimilarityService {
             return Collections.emptyList();
         }
 
+        // 目标文本只特征化一次
+        BigramVector targetVector = BigramVector.of(TextNormalizer.normalize(targetText));
+        if (targetVector.isEmpty()) {
+            return Collections.emptyList();
+        }
+
         return candidates.stream()
-                .map(candidate -> new TextSimilarityService.SimilarityResult(candidate, calculateCosineSimilarity(targetText, candidate)))
+                .filter(StrUtil::isNotBlank)
+                .map(candidate -> new TextSimilarityService.SimilarityResult(candidate,
+                        targetVector.cosine(BigramVector.of(TextNormalizer.normalize(candidate)))))
                 .filter(result -> result.getSimilarity() > 0.0)
                 .sorted((r1, r2) -> Double.compare(r2.getSimilarity(), r1.getSimilarity()))
                 .collect(Collectors.toList());
     }
 
-    /**
-     * 文本预处理
-     *
-     * @param text 原始文本
-     * @return 预处理后的文本
-     */
-    private String preprocessText(String text) {
-        if (StrUtil.isBlank(text)) {
-            return "";
-        }
-
-        return text
-                // 转换为小写
-                .toLowerCase()
-                // 移除多余的空白字符
-                .replaceAll("\\s+", " ")
-                // 移除标点符号（保留中文字符）
-                .replaceAll("[\\p{Punct}&&[^\\u4e00-\\u9fa5]]", "")
-                // 去除首尾空格
-                .trim();
-    }
-
-    /**
-     * 构建词频向量
-     * 使用简单的字符级别分词（适合中文）
-     *
-     * @param text 预处理后的文本
-     * @return 词频向量
-     */
-    private Map<String, Integer> buildWordFrequencyVector(String text) {
-        Map<String, Integer> vector = new HashMap<>();
-        
-        // 使用字符级别的n-gram（这里使用2-gram）
-        for (int i = 0; i < text.length() - 1; i++) {
-            String gram = text.substring(i, i + 2);
-            vector.merge(gram, 1, Integer::sum);
-        }
-        
-        // 如果文本太短，也添加单字符
-        if (text.length() <= 3) {
-            for (char c : text.toCharArray()) {
-                String singleChar = String.valueOf(c);
-                vector.merge(singleChar, 1, Integer::sum);
-            }
-        }
-        
-        return vector;
-    }
-
-    /**
-     * 计算两个词频向量的余弦相似度
-     *
-     * @param vector1 第一个向量
-     * @param vector2 第二个向量
-     * @return 余弦相似度
-     */
-    private double computeCosineSimilarity(Map<String, Integer> vector1, Map<String, Integer> vector2) {
-        if (vector1.isEmpty() || vector2.isEmpty()) {
-            return 0.0;
-        }
-
-        // 获取所有维度
-        Set<String> allDimensions = new HashSet<>();
-        allDimensions.addAll(vector1.keySet());
-        allDimensions.addAll(vector2.keySet());
-
-        // 计算点积和模长
-        double dotProduct = 0.0;
-        double norm1 = 0.0;
-        double norm2 = 0.0;
-
-        for (String dimension : allDimensions) {
-            int value1 = vector1.getOrDefault(dimension, 0);
-            int value2 = vector2.getOrDefault(dimension, 0);
-
-            dotProduct += value1 * value2;
-            norm1 += value1 * value1;
-            norm2 += value2 * value2;
-        }
-
-        // 避免除零
-        if (norm1 == 0.0 || norm2 == 0.0) {
-            return 0.0;
-        }
-
-        return dotProduct / (Math.sqrt(norm1) * Math.sqrt(norm2));
+    @Override
+    public QuestionIndex createQuestionIndex(int capacity) {
+        return new BigramQuestionIndex(capacity);
     }
 }
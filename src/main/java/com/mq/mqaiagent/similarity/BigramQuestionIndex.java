@@ -0,0 +1,87 @@
+package com.mq.mqaiagent.similarity;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 相似问题倒排索引：2-gram -> 问题ID
+ * 候选生成采用余弦前缀过滤：按倒排表长度从短到长处理查询的 gram，
+ * 一旦剩余 gram 的模长占比已不足阈值，未出现过的问题不可能再达到阈值，停止扩充候选，
+ * 最后只对候选集做精确余弦校验，结果与逐条计算完全一致。
+ */
+public class BigramQuestionIndex extends QuestionIndex {
+
+    /**
+     * 浮点误差容忍度，避免边界上的相似问题被剪枝
+     */
+    private static final double EPSILON = 1e-9;
+
+    private final Map<Integer, Set<Integer>> postings = new HashMap<>();
+
+    public BigramQuestionIndex(int capacity) {
+        super(capacity);
+    }
+
+    @Override
+    protected Collection<Integer> candidates(BigramVector query, double threshold) {
+        // 1. 按倒排表长度升序处理查询 gram（稀有 gram 优先）
+        Integer[] order = new Integer[query.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingInt(i -> postingSize(query.gramAt(i))));
+
+        // 2. 前缀过滤：剩余模长 / 查询模长 < 阈值时，新问题不可能达到阈值
+        double remainingSquares = query.norm() * query.norm();
+        double minRemainingNorm = threshold * query.norm() - EPSILON;
+        Set<Integer> candidates = new HashSet<>();
+        for (int i : order) {
+            if (Math.sqrt(Math.max(remainingSquares, 0.0)) < minRemainingNorm) {
+                break;
+            }
+            Set<Integer> ids = postings.get(query.gramAt(i));
+            if (ids != null) {
+                candidates.addAll(ids);
+            }
+            int count = query.countAt(i);
+            remainingSquares -= (double) count * count;
+        }
+        return candidates;
+    }
+
+    @Override
+    protected void onAdded(int id, BigramVector vector) {
+        for (int i = 0; i < vector.size(); i++) {
+            postings.computeIfAbsent(vector.gramAt(i), k -> new HashSet<>()).add(id);
+        }
+    }
+
+    @Override
+    protected void onRemoved(int id, BigramVector vector) {
+        for (int i = 0; i < vector.size(); i++) {
+            int gram = vector.gramAt(i);
+            Set<Integer> ids = postings.get(gram);
+            if (ids != null) {
+                ids.remove(id);
+                if (ids.isEmpty()) {
+                    postings.remove(gram);
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void onCleared() {
+        postings.clear();
+    }
+
+    private int postingSize(int gram) {
+        Set<Integer> ids = postings.get(gram);
+        return ids == null ? 0 : ids.size();
+    }
+}
@@ -0,0 +1,127 @@
+package com.mq.mqaiagent.similarity;
+
+import java.util.Arrays;
+
+/**
+ * 字符 2-gram 词频向量（预先计算好模长）
+ * 每个 gram 用两个字符拼成一个 int（高 16 位为前一个字符，低 16 位为后一个字符），
+ * 以升序 int[] 存放 gram、平行 int[] 存放词频；余弦相似度通过归并求点积，计算过程不分配内存。
+ * 问题入索引时构建一次并常驻内存，查询时只需对新问题做一次特征化。
+ */
+public final class BigramVector {
+
+    private static final int[] NO_GRAMS = new int[0];
+
+    private static final BigramVector EMPTY = new BigramVector(NO_GRAMS, NO_GRAMS, 0.0);
+
+    private final int[] grams;
+    private final int[] counts;
+    private final double norm;
+
+    private BigramVector(int[] grams, int[] counts, double norm) {
+        this.grams = grams;
+        this.counts = counts;
+        this.norm = norm;
+    }
+
+    /**
+     * 由预处理后的文本构建向量
+     * 使用字符级别的 2-gram（适合中文）；短于 {@link TextNormalizer#isComparable} 要求的文本不参与比较
+     *
+     * @param normalizedText 预处理后的文本
+     * @return 词频向量；不满足最小长度时返回空向量
+     */
+    public static BigramVector of(String normalizedText) {
+        if (!TextNormalizer.isComparable(normalizedText)) {
+            return EMPTY;
+        }
+        int length = normalizedText.length();
+        int bigramCount = length - 1;
+        int[] raw = new int[bigramCount];
+        for (int i = 0; i < bigramCount; i++) {
+            raw[i] = pack(normalizedText.charAt(i), normalizedText.charAt(i + 1));
+        }
+        Arrays.sort(raw);
+
+        // 相邻相同的 gram 合并为词频
+        int distinct = 0;
+        int[] counts = new int[raw.length];
+        for (int gram : raw) {
+            if (distinct > 0 && raw[distinct - 1] == gram) {
+                counts[distinct - 1]++;
+            } else {
+                raw[distinct] = gram;
+                counts[distinct] = 1;
+                distinct++;
+            }
+        }
+        long sumOfSquares = 0;
+        for (int i = 0; i < distinct; i++) {
+            sumOfSquares += (long) counts[i] * counts[i];
+        }
+        return new BigramVector(Arrays.copyOf(raw, distinct), Arrays.copyOf(counts, distinct),
+                Math.sqrt(sumOfSquares));
+    }
+
+    /**
+     * 与另一个向量的余弦相似度（两个有序数组归并求点积，不分配内存）
+     *
+     * @param other 另一个向量
+     * @return 余弦相似度，范围[0,1]
+     */
+    public double cosine(BigramVector other) {
+        if (isEmpty() || other.isEmpty()) {
+            return 0.0;
+        }
+        int[] otherGrams = other.grams;
+        int[] otherCounts = other.counts;
+        long dotProduct = 0;
+        int i = 0;
+        int j = 0;
+        while (i < grams.length && j < otherGrams.length) {
+            int a = grams[i];
+            int b = otherGrams[j];
+            if (a == b) {
+                dotProduct += (long) counts[i++] * otherCounts[j++];
+            } else if (a < b) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return dotProduct / (norm * other.norm);
+    }
+
+    public boolean isEmpty() {
+        return grams.length == 0;
+    }
+
+    public double norm() {
+        return norm;
+    }
+
+    /**
+     * 不同 gram 的个数
+     */
+    public int size() {
+        return grams.length;
+    }
+
+    /**
+     * 第 i 个 gram（按升序）
+     */
+    public int gramAt(int i) {
+        return grams[i];
+    }
+
+    /**
+     * 第 i 个 gram 的词频
+     */
+    public int countAt(int i) {
+        return counts[i];
+    }
+
+    private static int pack(char first, char second) {
+        return (first << 16) | second;
+    }
+}
@@ -0,0 +1,137 @@
+package com.mq.mqaiagent.similarity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+/**
+ * 基于 MinHash 签名 + LSH 分桶的相似问题索引
+ * 每个问题的 2-gram 集合（int 编码）计算 bands * rows 个 MinHash 值，按 band 切分后分桶；
+ * 查询时只取与目标问题至少有一个 band 完全相同的问题作为候选，再做精确余弦校验。
+ * 候选数只与桶大小有关，与语料规模无关，代价是存在漏召回（由 bands/rows 调节）。
+ * Jaccard 相似度为 s 的两个问题成为候选的概率为 1 - (1 - s^rows)^bands。
+ */
+public class MinHashLshQuestionIndex extends QuestionIndex {
+
+    private final int bands;
+    private final int rows;
+    private final long[] hashSeeds;
+    private final List<Map<Long, Set<Integer>>> buckets;
+
+    public MinHashLshQuestionIndex(int capacity, int bands, int rows, long seed) {
+        super(capacity);
+        if (bands <= 0 || rows <= 0) {
+            throw new IllegalArgumentException("bands and rows must be positive");
+        }
+        this.bands = bands;
+        this.rows = rows;
+        this.hashSeeds = new long[bands * rows];
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = 0; i < hashSeeds.length; i++) {
+            hashSeeds[i] = random.nextLong();
+        }
+        this.buckets = new ArrayList<>(bands);
+        for (int b = 0; b < bands; b++) {
+            buckets.add(new HashMap<>());
+        }
+    }
+
+    @Override
+    protected Collection<Integer> candidates(BigramVector query, double threshold) {
+        long[] bandKeys = bandKeys(query);
+        Set<Integer> candidates = new HashSet<>();
+        for (int b = 0; b < bands; b++) {
+            Set<Integer> ids = buckets.get(b).get(bandKeys[b]);
+            if (ids != null) {
+                candidates.addAll(ids);
+            }
+        }
+        return candidates;
+    }
+
+    @Override
+    protected void onAdded(int id, BigramVector vector) {
+        if (vector.isEmpty()) {
+            return;
+        }
+        long[] bandKeys = bandKeys(vector);
+        for (int b = 0; b < bands; b++) {
+            buckets.get(b).computeIfAbsent(bandKeys[b], k -> new HashSet<>()).add(id);
+        }
+    }
+
+    @Override
+    protected void onRemoved(int id, BigramVector vector) {
+        if (vector.isEmpty()) {
+            return;
+        }
+        // 签名可由向量确定性地重新计算，不单独保存以节省内存
+        long[] bandKeys = bandKeys(vector);
+        for (int b = 0; b < bands; b++) {
+            Map<Long, Set<Integer>> band = buckets.get(b);
+            Set<Integer> ids = band.get(bandKeys[b]);
+            if (ids != null) {
+                ids.remove(id);
+                if (ids.isEmpty()) {
+                    band.remove(bandKeys[b]);
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void onCleared() {
+        for (Map<Long, Set<Integer>> band : buckets) {
+            band.clear();
+        }
+    }
+
+    /**
+     * 计算 MinHash 签名
+     */
+    private int[] signature(BigramVector vector) {
+        int[] signature = new int[hashSeeds.length];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        for (int g = 0; g < vector.size(); g++) {
+            long feature = vector.gramAt(g);
+            for (int i = 0; i < hashSeeds.length; i++) {
+                int hash = (int) (mix(feature ^ hashSeeds[i]) >>> 33);
+                if (hash < signature[i]) {
+                    signature[i] = hash;
+                }
+            }
+        }
+        return signature;
+    }
+
+    private long[] bandKeys(BigramVector vector) {
+        int[] signature = signature(vector);
+        long[] keys = new long[bands];
+        for (int b = 0; b < bands; b++) {
+            long key = 1;
+            for (int r = 0; r < rows; r++) {
+                key = key * 0x9E3779B97F4A7C15L + signature[b * rows + r];
+            }
+            keys[b] = mix(key);
+        }
+        return keys;
+    }
+
+    /**
+     * 64 位哈希混淆（MurmurHash3 fmix64）
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
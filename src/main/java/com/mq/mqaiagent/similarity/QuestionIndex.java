@@ -0,0 +1,218 @@
+package com.mq.mqaiagent.similarity;
+
+import com.mq.mqaiagent.service.TextSimilarityService;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 相似问题索引基类
+ * 负责问题的增删、容量淘汰（按插入顺序淘汰最早的问题）、读写锁和候选的精确余弦校验；
+ * 子类只需实现候选生成策略（倒排 2-gram、MinHash/LSH 等）。
+ * 每个问题入索引时预先计算好词频向量，查询时只对新问题特征化一次。
+ */
+public abstract class QuestionIndex {
+
+    private final int capacity;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * 问题原文 -> 问题ID（按插入顺序，用于容量淘汰）
+     */
+    private final LinkedHashMap<String, Integer> idByQuestion = new LinkedHashMap<>();
+    private final Map<Integer, IndexedQuestion> questions = new HashMap<>();
+    private int nextId;
+
+    protected QuestionIndex(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * 添加问题（已存在则忽略）
+     *
+     * @param question 问题原文
+     */
+    public void add(String question) {
+        if (question == null) {
+            return;
+        }
+        BigramVector vector = BigramVector.of(TextNormalizer.normalize(question));
+        lock.writeLock().lock();
+        try {
+            addLocked(question, vector);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 移除问题
+     *
+     * @param question 问题原文
+     * @return 是否存在并被移除
+     */
+    public boolean remove(String question) {
+        if (question == null) {
+            return false;
+        }
+        lock.writeLock().lock();
+        try {
+            return removeLocked(question);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 用给定的问题列表整体替换索引内容（用于与 Redis 中的问题列表同步）
+     *
+     * @param allQuestions 问题列表，按插入顺序
+     */
+    public void replaceAll(Collection<String> allQuestions) {
+        // 特征化在锁外完成，缩短写锁持有时间
+        List<String> texts = new ArrayList<>();
+        List<BigramVector> vectors = new ArrayList<>();
+        for (String question : allQuestions) {
+            if (question != null) {
+                texts.add(question);
+                vectors.add(BigramVector.of(TextNormalizer.normalize(question)));
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            clearLocked();
+            for (int i = 0; i < texts.size(); i++) {
+                addLocked(texts.get(i), vectors.get(i));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            clearLocked();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return idByQuestion.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 查找与目标问题相似度不低于阈值的已索引问题
+     *
+     * @param question  目标问题
+     * @param threshold 相似度阈值
+     * @return 相似度结果列表，按相似度降序排列
+     */
+    public List<TextSimilarityService.SimilarityResult> search(String question, double threshold) {
+        BigramVector query = BigramVector.of(TextNormalizer.normalize(question));
+        if (query.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        lock.readLock().lock();
+        try {
+            if (idByQuestion.isEmpty()) {
+                return Collections.emptyList();
+            }
+
+            // 只对候选做精确余弦校验
+            List<TextSimilarityService.SimilarityResult> results = new ArrayList<>();
+            for (Integer id : candidates(query, threshold)) {
+                IndexedQuestion candidate = questions.get(id);
+                double similarity = query.cosine(candidate.vector());
+                if (similarity >= threshold) {
+                    results.add(new TextSimilarityService.SimilarityResult(candidate.text(), similarity));
+                }
+            }
+            results.sort((r1, r2) -> Double.compare(r2.getSimilarity(), r1.getSimilarity()));
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 生成候选问题ID（在读锁内调用）
+     *
+     * @param query     目标问题向量（非空）
+     * @param threshold 相似度阈值
+     * @return 候选问题ID
+     */
+    protected abstract Collection<Integer> candidates(BigramVector query, double threshold);
+
+    /**
+     * 问题加入索引后的回调（在写锁内调用）
+     */
+    protected abstract void onAdded(int id, BigramVector vector);
+
+    /**
+     * 问题移出索引后的回调（在写锁内调用）
+     */
+    protected abstract void onRemoved(int id, BigramVector vector);
+
+    /**
+     * 索引清空后的回调（在写锁内调用）
+     */
+    protected abstract void onCleared();
+
+    private void addLocked(String question, BigramVector vector) {
+        if (idByQuestion.containsKey(question)) {
+            return;
+        }
+        int id = nextId++;
+        idByQuestion.put(question, id);
+        questions.put(id, new IndexedQuestion(question, vector));
+        onAdded(id, vector);
+
+        // 超出容量时淘汰最早加入的问题
+        while (idByQuestion.size() > capacity) {
+            Iterator<String> eldest = idByQuestion.keySet().iterator();
+            removeLocked(eldest.next());
+        }
+    }
+
+    private boolean removeLocked(String question) {
+        Integer id = idByQuestion.remove(question);
+        if (id == null) {
+            return false;
+        }
+        IndexedQuestion removed = questions.remove(id);
+        onRemoved(id, removed.vector());
+        return true;
+    }
+
+    private void clearLocked() {
+        idByQuestion.clear();
+        questions.clear();
+        nextId = 0;
+        onCleared();
+    }
+
+    /**
+     * 已索引的问题及其预计算向量
+     */
+    private record IndexedQuestion(String text, BigramVector vector) {
+    }
+}
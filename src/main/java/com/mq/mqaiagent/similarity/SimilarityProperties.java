@@ -0,0 +1,53 @@
+package com.mq.mqaiagent.similarity;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 相似问题匹配配置。
+ *
+ * 配置示例：
+ * <pre>
+ * mq:
+ *   ai:
+ *     similarity:
+ *       engine: minhash
+ *       minhash:
+ *         bands: 32
+ *         rows: 4
+ * </pre>
+ */
+@Component
+@ConfigurationProperties(prefix = "mq.ai.similarity")
+@Data
+public class SimilarityProperties {
+
+    /**
+     * 匹配引擎：cosine（倒排 2-gram + 精确余弦，默认）或 minhash（MinHash/LSH）。
+     */
+    private String engine = "cosine";
+
+    /**
+     * MinHash/LSH 参数。
+     */
+    private MinHash minhash = new MinHash();
+
+    @Data
+    public static class MinHash {
+        /**
+         * band 数量，越多召回越高、候选越多。
+         */
+        private int bands = 32;
+
+        /**
+         * 每个 band 的行数，越多候选越少、召回越低。
+         */
+        private int rows = 4;
+
+        /**
+         * 哈希函数种子，各实例需保持一致。
+         */
+        private long seed = 42;
+    }
+}
@@ -0,0 +1,75 @@
+package com.mq.mqaiagent.similarity;
+
+/**
+ * 文本归一化工具
+ * 相似度计算、问题索引与缓存键生成共用同一套预处理规则，保证各处结果一致
+ */
+public final class TextNormalizer {
+
+    /**
+     * 最小文本长度，低于此长度的文本不进行相似度计算
+     */
+    public static final int MIN_TEXT_LENGTH = 5;
+
+    private TextNormalizer() {
+    }
+
+    /**
+     * 文本预处理：转小写、合并空白、移除英文标点（保留中文字符）、去除首尾空格
+     *
+     * @param text 原始文本
+     * @return 预处理后的文本，空文本返回空串
+     */
+    public static String normalize(String text) {
+        if (text == null || text.isBlank()) {
+            return "";
+        }
+
+        // 单次扫描，等价于依次执行：
+        // toLowerCase() -> replaceAll("\\s+", " ") -> replaceAll("[\\p{Punct}&&[^\\u4e00-\\u9fa5]]", "") -> trim()
+        String lower = text.toLowerCase();
+        StringBuilder builder = new StringBuilder(lower.length());
+        boolean inWhitespace = false;
+        for (int i = 0; i < lower.length(); i++) {
+            char c = lower.charAt(i);
+            if (isRegexWhitespace(c)) {
+                // 连续空白合并为一个空格
+                if (!inWhitespace) {
+                    builder.append(' ');
+                }
+                inWhitespace = true;
+            } else {
+                inWhitespace = false;
+                // 移除英文标点（中文标点与中文字符保留）
+                if (!isAsciiPunct(c)) {
+                    builder.append(c);
+                }
+            }
+        }
+        return builder.toString().trim();
+    }
+
+    /**
+     * 预处理后的文本是否足够长，可以参与相似度计算
+     *
+     * @param normalizedText 预处理后的文本
+     * @return 是否可以参与相似度计算
+     */
+    public static boolean isComparable(String normalizedText) {
+        return normalizedText != null && normalizedText.length() >= MIN_TEXT_LENGTH;
+    }
+
+    /**
+     * 与正则 \s 相同的空白字符集合：[ \t\n\x0B\f\r]
+     */
+    private static boolean isRegexWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * 与正则 \p{Punct} 相同的 ASCII 标点集合
+     */
+    private static boolean isAsciiPunct(char c) {
+        return (c >= '!' && c <= '/') || (c >= ':' && c <= '@') || (c >= '[' && c <= '`') || (c >= '{' && c <= '~');
+    }
+}
@@ -0,0 +1,45 @@
+package com.mq.mqaiagent.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 哈希工具
+ *
+ */
+public class HashUtils {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * 截断后保留的字节数（128 位）
+     */
+    private static final int DIGEST_128_BYTES = 16;
+
+    /**
+     * SHA-256 截断为 128 位后的十六进制串（32 个字符）
+     * 128 位足以忽略碰撞概率，同时缩短缓存键长度
+     *
+     * @param text 输入文本
+     * @return 32 位十六进制哈希
+     */
+    public static String sha256Hex128(String text) {
+        byte[] digest = sha256().digest(text.getBytes(StandardCharsets.UTF_8));
+        char[] hex = new char[DIGEST_128_BYTES * 2];
+        for (int i = 0; i < DIGEST_128_BYTES; i++) {
+            hex[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0x0F];
+            hex[i * 2 + 1] = HEX_DIGITS[digest[i] & 0x0F];
+        }
+        return new String(hex);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // 所有 JVM 都必须支持 SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
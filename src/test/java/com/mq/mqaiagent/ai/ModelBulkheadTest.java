@@ -0,0 +1,229 @@
+package com.mq.mqaiagent.ai;
+
+import com.mq.mqaiagent.common.ErrorCode;
+import com.mq.mqaiagent.exception.GlobalExceptionHandler;
+import com.mq.mqaiagent.exception.ModelOverloadedException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 模型并发隔离的拒绝、许可释放、流式准入检查与 429 映射测试
+ *
+ * @author MQQQ
+ * @version v1.0
+ * @since 2025/9/19
+ */
+class ModelBulkheadTest {
+
+    private static final AiModelType MODEL = AiModelType.QWEN_PLUS;
+    private static final Prompt PROMPT = new Prompt("深蹲膝盖疼怎么办");
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final GatedChatModel delegate = new GatedChatModel();
+    private ModelBulkhead bulkhead;
+    private Thread holder;
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        delegate.gate.countDown();
+        if (holder != null) {
+            holder.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    @Test
+    void testCall_QueueFull_ShouldRejectImmediately() throws InterruptedException {
+        ChatModel model = decorate(1, 0, 5_000);
+        holdPermit(model);
+
+        long start = System.nanoTime();
+        ModelOverloadedException e = assertThrows(ModelOverloadedException.class, () -> model.call(PROMPT));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1_000);
+        assertEquals(5, e.getRetryAfterSeconds());
+        assertEquals(1.0, rejected("queue_full"), 0.0);
+    }
+
+    @Test
+    void testCall_WaitTimeout_ShouldReject() throws InterruptedException {
+        ChatModel model = decorate(1, 1, 50);
+        holdPermit(model);
+
+        assertThrows(ModelOverloadedException.class, () -> model.call(PROMPT));
+        assertEquals(1.0, rejected("wait_timeout"), 0.0);
+        assertEquals(0.0, rejected("queue_full"), 0.0);
+    }
+
+    @Test
+    void testCall_DelegateError_ShouldReleasePermit() {
+        ChatModel model = decorate(1, 0, 5_000);
+        delegate.gate.countDown();
+        delegate.failure = new IllegalStateException("模型调用失败");
+
+        // 许可泄漏时第二次调用会被舱壁拒绝，而不是抛出模型异常
+        assertThrows(IllegalStateException.class, () -> model.call(PROMPT));
+        assertThrows(IllegalStateException.class, () -> model.call(PROMPT));
+        assertEquals(0.0, inflight(), 0.0);
+    }
+
+    @Test
+    void testStream_ErrorAndCancel_ShouldReleasePermit() throws InterruptedException {
+        ChatModel model = decorate(1, 0, 5_000);
+        delegate.gate.countDown();
+
+        delegate.streamSource = Flux.error(new IllegalStateException("流式调用失败"));
+        assertThrows(IllegalStateException.class, () -> model.stream(PROMPT).blockLast());
+        awaitInflight(0);
+
+        delegate.streamSource = Flux.never();
+        Disposable subscription = model.stream(PROMPT).subscribe();
+        awaitInflight(1);
+        subscription.dispose();
+        awaitInflight(0);
+
+        assertNotNull(model.call(PROMPT));
+    }
+
+    @Test
+    void testStream_Queued_ShouldNotBlockSubscribingThread() throws InterruptedException {
+        ChatModel model = decorate(1, 1, 5_000);
+        holdPermit(model);
+        delegate.streamSource = Flux.just(response("ok"));
+        List<ChatResponse> received = new CopyOnWriteArrayList<>();
+
+        long start = System.nanoTime();
+        model.stream(PROMPT).subscribe(received::add);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1_000);
+        assertTrue(received.isEmpty());
+
+        // 释放被占用的许可后，排队中的流式调用继续执行
+        delegate.gate.countDown();
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (received.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, received.size());
+        awaitInflight(0);
+    }
+
+    @Test
+    void testCheckAdmission_QueueFull_ShouldRejectBeforeStreaming() throws InterruptedException {
+        ChatModel model = decorate(1, 0, 5_000);
+        // 有空闲许可时放行
+        assertDoesNotThrow(() -> bulkhead.checkAdmission(MODEL));
+        holdPermit(model);
+
+        ModelOverloadedException e = assertThrows(ModelOverloadedException.class,
+                () -> bulkhead.checkAdmission(MODEL));
+        assertEquals(5, e.getRetryAfterSeconds());
+        assertEquals(1.0, rejected("queue_full"), 0.0);
+        // 检查本身不占用许可
+        assertEquals(1.0, inflight(), 0.0);
+    }
+
+    @Test
+    void testCheckAdmission_QueueHasRoom_ShouldAdmit() throws InterruptedException {
+        ChatModel model = decorate(1, 1, 5_000);
+        holdPermit(model);
+
+        assertDoesNotThrow(() -> bulkhead.checkAdmission(MODEL));
+        assertEquals(0.0, rejected("queue_full"), 0.0);
+    }
+
+    @Test
+    void testOverloaded_ShouldMapTo429WithRetryAfter() {
+        var response = new GlobalExceptionHandler()
+                .modelOverloadedExceptionHandler(new ModelOverloadedException("模型繁忙", 7));
+
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, response.getStatusCode());
+        assertEquals("7", response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        assertEquals(ErrorCode.TOO_MANY_REQUESTS_ERROR.getCode(), response.getBody().getCode());
+    }
+
+    private ChatModel decorate(int maxConcurrent, int maxQueue, long maxWaitMillis) {
+        ModelBulkheadProperties properties = new ModelBulkheadProperties();
+        properties.setMaxConcurrent(maxConcurrent);
+        properties.setMaxQueue(maxQueue);
+        properties.setMaxWaitMillis(maxWaitMillis);
+        bulkhead = new ModelBulkhead(properties, meterRegistry);
+        return bulkhead.decorate(MODEL, delegate);
+    }
+
+    /**
+     * 在另一个线程发起一次阻塞在 gate 上的调用，占住唯一的许可
+     */
+    private void holdPermit(ChatModel model) throws InterruptedException {
+        holder = new Thread(() -> model.call(PROMPT));
+        holder.start();
+        assertTrue(delegate.entered.await(5, TimeUnit.SECONDS));
+    }
+
+    private double rejected(String reason) {
+        return meterRegistry.get("mq.ai.model.rejected").tag("model", MODEL.getCode()).tag("reason", reason)
+                .counter().count();
+    }
+
+    private double inflight() {
+        return meterRegistry.get("mq.ai.model.inflight").tag("model", MODEL.getCode()).gauge().value();
+    }
+
+    /**
+     * 流式调用的许可在 boundedElastic 上获取与释放，等待在途数到达预期值
+     */
+    private void awaitInflight(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (inflight() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, inflight(), 0.0);
+    }
+
+    private static ChatResponse response(String text) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+    }
+
+    /**
+     * 同步调用阻塞在 gate 上，用于占住许可；流式调用返回预设的数据源
+     */
+    private static class GatedChatModel implements ChatModel {
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private volatile RuntimeException failure;
+        private volatile Flux<ChatResponse> streamSource = Flux.empty();
+
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            entered.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return response("ok");
+        }
+
+        @Override
+        public Flux<ChatResponse> stream(Prompt prompt) {
+            return streamSource;
+        }
+    }
+}
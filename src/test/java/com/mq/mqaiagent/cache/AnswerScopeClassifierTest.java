@@ -0,0 +1,40 @@
+package com.mq.mqaiagent.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 回答作用域分类测试
+ *
+ * @author MQQQ
+ * @version v1.0
+ * @since 2025/9/8
+ */
+class AnswerScopeClassifierTest {
+
+    private final AnswerScopeClassifier classifier = new AnswerScopeClassifier();
+
+    @Test
+    void testClassify_KnowledgeQuestionsAreGeneric() {
+        assertEquals(AnswerScopeClassifier.Scope.GENERIC, classifier.classify("深蹲的标准动作要领是什么？", false));
+        assertEquals(AnswerScopeClassifier.Scope.GENERIC, classifier.classify("增肌期每天需要摄入多少蛋白质", false));
+        assertEquals(AnswerScopeClassifier.Scope.GENERIC, classifier.classify("我想增肌，请给我一些建议", false));
+    }
+
+    @Test
+    void testClassify_PersonalDataIsPersonal() {
+        assertEquals(AnswerScopeClassifier.Scope.PERSONAL, classifier.classify("身高175cm体重80kg怎么减脂", false));
+        assertEquals(AnswerScopeClassifier.Scope.PERSONAL, classifier.classify("我的体测成绩不及格怎么办", false));
+        assertEquals(AnswerScopeClassifier.Scope.PERSONAL, classifier.classify("我膝盖有点疼还能跑步吗", false));
+        assertEquals(AnswerScopeClassifier.Scope.PERSONAL, classifier.classify("今年20岁适合练大重量吗", false));
+    }
+
+    @Test
+    void testClassify_ContextDependentIsPersonal() {
+        assertEquals(AnswerScopeClassifier.Scope.PERSONAL, classifier.classify("深蹲的标准动作要领是什么？", true));
+        assertEquals(AnswerScopeClassifier.Scope.PERSONAL, classifier.classify("按照你刚才说的，下周怎么安排", false));
+        assertEquals(AnswerScopeClassifier.Scope.PERSONAL, classifier.classify("继续", false));
+        assertEquals(AnswerScopeClassifier.Scope.PERSONAL, classifier.classify(null, false));
+    }
+}
@@ -0,0 +1,248 @@
+package com.mq.mqaiagent.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.longThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 降级缓存的三种对账策略、删除登记及其溢出、对账期间重新写入的测试
+ *
+ * @author MQQQ
+ * @version v1.0
+ * @since 2025/9/19
+ */
+@SuppressWarnings("unchecked")
+class FallbackCacheStoreTest {
+
+    private static final String RESPONSE_KEY = "mq:ai:agent:response:abc";
+    private static final String MEMORY_KEY = "mq:ai:agent:chat:memory:1:chat-1";
+    private static final String METRICS_KEY = "mq:ai:agent:metrics:qwen-plus";
+
+    private final FallbackCacheProperties properties = new FallbackCacheProperties();
+    private final RedisTemplate<String, Object> redisTemplate = mock(RedisTemplate.class);
+    private final RedisOperations<String, Object> operations = mock(RedisOperations.class);
+    private final ValueOperations<String, Object> valueOperations = mock(ValueOperations.class);
+    private final RedisCircuitBreaker redisCircuitBreaker = mock(RedisCircuitBreaker.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    /**
+     * 在流水线命令执行之后、对账移除快照之前运行，模拟对账期间的并发写入
+     */
+    private Runnable duringReconcile = () -> {
+    };
+
+    @BeforeEach
+    void setUp() {
+        when(redisCircuitBreaker.isAvailable()).thenReturn(true);
+        when(operations.opsForValue()).thenReturn(valueOperations);
+        when(redisTemplate.executePipelined(any(SessionCallback.class))).thenAnswer(invocation -> {
+            SessionCallback<Object> callback = invocation.getArgument(0);
+            callback.execute(operations);
+            duringReconcile.run();
+            return List.of();
+        });
+    }
+
+    @Test
+    void testReconcile_Discard_ShouldDropLocalEntryWithoutTouchingRedis() {
+        FallbackCacheStore store = newStore();
+        store.put(RESPONSE_KEY, "每周训练三次", 3600);
+        assertEquals("每周训练三次", store.get(RESPONSE_KEY));
+
+        store.reconcile();
+
+        verify(redisTemplate, never()).executePipelined(any(SessionCallback.class));
+        assertNull(store.get(RESPONSE_KEY));
+        assertTrue(store.isEmpty());
+    }
+
+    @Test
+    void testReconcile_Invalidate_ShouldDeleteRedisKey() {
+        FallbackCacheStore store = newStore();
+        store.put(MEMORY_KEY, List.of("你好"), 3600);
+
+        store.reconcile();
+
+        verify(operations).delete(MEMORY_KEY);
+        verify(valueOperations, never()).set(anyString(), any(), anyLong(), any(TimeUnit.class));
+        assertTrue(store.isEmpty());
+    }
+
+    @Test
+    void testReconcile_WriteBack_ShouldWriteRemainingTtl() {
+        FallbackCacheStore store = newStore();
+        store.put(METRICS_KEY, 42L, 60);
+
+        store.reconcile();
+
+        verify(valueOperations).set(eq(METRICS_KEY), eq(42L),
+                longThat(ttl -> ttl > 0 && ttl <= TimeUnit.SECONDS.toMillis(60)), eq(TimeUnit.MILLISECONDS));
+        verify(operations, never()).delete(anyString());
+        assertTrue(store.isEmpty());
+    }
+
+    @Test
+    void testReconcile_RedisUnavailable_ShouldKeepEntries() {
+        when(redisCircuitBreaker.isAvailable()).thenReturn(false);
+        FallbackCacheStore store = newStore();
+        store.put(MEMORY_KEY, List.of("你好"), 3600);
+
+        store.reconcile();
+
+        verify(redisTemplate, never()).executePipelined(any(SessionCallback.class));
+        assertEquals(List.of("你好"), store.get(MEMORY_KEY));
+    }
+
+    @Test
+    void testReconcile_PipelineFailure_ShouldRetryNextRound() {
+        FallbackCacheStore store = newStore();
+        store.put(METRICS_KEY, 42L, 60);
+        duringReconcile = () -> {
+            throw new RedisConnectionFailureException("连接被拒绝");
+        };
+
+        store.reconcile();
+        assertEquals(42L, store.get(METRICS_KEY));
+        verify(redisCircuitBreaker).recordFailure(any(RedisConnectionFailureException.class));
+
+        duringReconcile = () -> {
+        };
+        store.reconcile();
+        verify(valueOperations, times(2)).set(eq(METRICS_KEY), eq(42L), anyLong(), eq(TimeUnit.MILLISECONDS));
+        assertTrue(store.isEmpty());
+    }
+
+    @Test
+    void testPendingDelete_ShouldSurviveLocalEntryExpiry() {
+        // 本地条目写入即过期，模拟故障期间被淘汰
+        properties.setMaxTtlSeconds(0);
+        FallbackCacheStore store = newStore();
+        store.put(MEMORY_KEY, List.of("你好"), 3600);
+        store.delete(RESPONSE_KEY);
+        assertNull(store.get(MEMORY_KEY));
+
+        store.reconcile();
+
+        verify(operations).delete(MEMORY_KEY);
+        verify(operations).delete(RESPONSE_KEY);
+    }
+
+    @Test
+    void testReconcile_RewriteDuringReconcile_ShouldKeepNewValue() {
+        FallbackCacheStore store = newStore();
+        store.put(METRICS_KEY, 42L, 60);
+        duringReconcile = () -> store.put(METRICS_KEY, 43L, 60);
+
+        store.reconcile();
+        assertEquals(43L, store.get(METRICS_KEY));
+
+        duringReconcile = () -> {
+        };
+        store.reconcile();
+        verify(valueOperations).set(eq(METRICS_KEY), eq(43L), anyLong(), eq(TimeUnit.MILLISECONDS));
+        assertTrue(store.isEmpty());
+    }
+
+    @Test
+    void testReconcile_DeleteRegisteredDuringReconcile_ShouldRunAgain() {
+        FallbackCacheStore store = newStore();
+        store.delete(RESPONSE_KEY);
+        // 同一毫秒内的重复登记也不能被本轮对账移除
+        duringReconcile = () -> store.delete(RESPONSE_KEY);
+
+        store.reconcile();
+        assertFalse(store.isEmpty());
+
+        duringReconcile = () -> {
+        };
+        store.reconcile();
+        verify(operations, times(2)).delete(RESPONSE_KEY);
+        assertTrue(store.isEmpty());
+    }
+
+    @Test
+    void testEvict_ShouldClearLocalEntryAndPendingDelete() {
+        FallbackCacheStore store = newStore();
+        store.put(MEMORY_KEY, List.of("你好"), 3600);
+
+        store.evict(MEMORY_KEY);
+        store.reconcile();
+
+        verify(redisTemplate, never()).executePipelined(any(SessionCallback.class));
+        assertTrue(store.isEmpty());
+    }
+
+    @Test
+    void testPendingDeleteOverflow_ShouldInvalidateNamespaceByPrefix() {
+        properties.setMaxEntries(2);
+        FallbackCacheStore store = newStore();
+        String otherMemoryKey = "mq:ai:agent:chat:memory:2:chat-9";
+        Cursor<String> cursor = mock(Cursor.class);
+        when(cursor.hasNext()).thenReturn(true, true, false);
+        when(cursor.next()).thenReturn(MEMORY_KEY, otherMemoryKey);
+        when(redisTemplate.scan(any(ScanOptions.class))).thenReturn(cursor);
+        for (int i = 0; i < 5; i++) {
+            store.delete("mq:ai:agent:chat:memory:1:chat-" + i);
+        }
+
+        store.reconcile();
+
+        // 超出容量的 3 个登记被淘汰，改为整个对话记忆命名空间失效
+        assertEquals(3.0, meterRegistry.get("mq.cache.fallback.pending.dropped").counter().count(), 0.0);
+        ArgumentCaptor<ScanOptions> options = ArgumentCaptor.forClass(ScanOptions.class);
+        verify(redisTemplate).scan(options.capture());
+        assertEquals("mq:ai:agent:chat:memory:*", options.getValue().getPattern());
+        verify(operations).delete(otherMemoryKey);
+        verify(cursor).close();
+        assertTrue(store.isEmpty());
+    }
+
+    @Test
+    void testPendingDeleteOverflow_ScanFailure_ShouldRetryNextRound() {
+        properties.setMaxEntries(1);
+        FallbackCacheStore store = newStore();
+        store.delete(RESPONSE_KEY);
+        store.delete(MEMORY_KEY);
+        when(redisTemplate.scan(any(ScanOptions.class)))
+                .thenThrow(new RedisConnectionFailureException("连接被拒绝"));
+
+        store.reconcile();
+        assertFalse(store.isEmpty());
+        verify(redisCircuitBreaker).recordFailure(any(RedisConnectionFailureException.class));
+    }
+
+    @Test
+    void testNamespaceOf_ShouldPreferConfiguredPrefix() {
+        FallbackCacheStore store = newStore();
+
+        assertEquals("mq:ai:agent:chat:memory:", store.namespaceOf(MEMORY_KEY));
+        assertEquals("mq:ai:agent:user:info:", store.namespaceOf("mq:ai:agent:user:info:123"));
+    }
+
+    private FallbackCacheStore newStore() {
+        return new FallbackCacheStore(properties, redisTemplate, redisCircuitBreaker, meterRegistry);
+    }
+}
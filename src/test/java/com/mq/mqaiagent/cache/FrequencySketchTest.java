@@ -0,0 +1,60 @@
+package com.mq.mqaiagent.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * TinyLFU 频率估计测试
+ *
+ * @author MQQQ
+ * @version v1.0
+ * @since 2025/9/8
+ */
+class FrequencySketchTest {
+
+    @Test
+    void testFrequency_ShouldCountAndSaturate() {
+        FrequencySketch sketch = new FrequencySketch(1024);
+        assertEquals(0, sketch.frequency(42L));
+        for (int i = 0; i < 3; i++) {
+            sketch.increment(42L);
+        }
+        assertEquals(3, sketch.frequency(42L));
+        for (int i = 0; i < 100; i++) {
+            sketch.increment(7L);
+        }
+        // 计数器上限为 15
+        assertEquals(15, sketch.frequency(7L));
+    }
+
+    @Test
+    void testFrequency_ShouldRarelyOverestimateColdKeys() {
+        FrequencySketch sketch = new FrequencySketch(4096);
+        for (long key = 0; key < 2000; key++) {
+            sketch.increment(key * 0x9E3779B97F4A7C15L);
+        }
+        int overestimated = 0;
+        for (long key = 100_000; key < 102_000; key++) {
+            if (sketch.frequency(key * 0x9E3779B97F4A7C15L) >= 2) {
+                overestimated++;
+            }
+        }
+        // 从未出现的问题几乎不会被误判为高频
+        assertTrue(overestimated < 20, "overestimated: " + overestimated);
+    }
+
+    @Test
+    void testAging_ShouldCoolDownOldHotKeys() {
+        FrequencySketch sketch = new FrequencySketch(64);
+        for (int i = 0; i < 20; i++) {
+            sketch.increment(1L);
+        }
+        assertEquals(15, sketch.frequency(1L));
+        // 采样周期为 10 * 64 次写入，之后所有计数器减半；不再访问的热点问题逐渐冷却
+        for (long key = 1000; key < 3000; key++) {
+            sketch.increment(key * 0x9E3779B97F4A7C15L);
+        }
+        assertTrue(sketch.frequency(1L) < 8, "frequency: " + sketch.frequency(1L));
+    }
+}
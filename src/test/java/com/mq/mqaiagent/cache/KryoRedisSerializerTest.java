@@ -0,0 +1,120 @@
+package com.mq.mqaiagent.cache;
+
+import com.mq.mqaiagent.config.RedisConfig;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Kryo Redis 值序列化的格式头、压缩标志、旧 JSON 兼容与 json 模式读取测试
+ *
+ * @author MQQQ
+ * @version v1.0
+ * @since 2025/9/19
+ */
+class KryoRedisSerializerTest {
+
+    private final RedisSerializer<Object> jackson = RedisConfig.jacksonSerializer();
+    private final KryoRedisSerializer kryoMode = new KryoRedisSerializer(jackson, 1024, 4);
+    private final KryoRedisSerializer jsonMode = new KryoRedisSerializer(jackson, false, 1024, 4);
+
+    @Test
+    void testSerialize_ShouldWriteHeaderAndRoundTrip() {
+        List<String> value = new ArrayList<>(List.of("深蹲", "硬拉", "卧推"));
+
+        byte[] bytes = kryoMode.serialize(value);
+
+        assertEquals(KryoRedisSerializer.MAGIC, bytes[0]);
+        assertEquals(KryoRedisSerializer.VERSION, bytes[1]);
+        assertEquals(0, bytes[2] & KryoRedisSerializer.FLAG_DEFLATE);
+        assertEquals(value, kryoMode.deserialize(bytes));
+    }
+
+    @Test
+    void testSerialize_LargeValue_ShouldSetDeflateFlagAndRoundTrip() {
+        List<String> value = IntStream.range(0, 200)
+                .mapToObj(i -> "第" + i + "组：深蹲 5x5，组间休息 90 秒")
+                .collect(ArrayList::new, ArrayList::add, ArrayList::addAll);
+
+        byte[] compressed = kryoMode.serialize(value);
+        byte[] uncompressed = new KryoRedisSerializer(jackson, 0, 4).serialize(value);
+
+        assertEquals(KryoRedisSerializer.FLAG_DEFLATE, compressed[2] & KryoRedisSerializer.FLAG_DEFLATE);
+        assertEquals(0, uncompressed[2] & KryoRedisSerializer.FLAG_DEFLATE);
+        assertTrue(compressed.length < uncompressed.length);
+        assertEquals(value, kryoMode.deserialize(compressed));
+        assertEquals(value, kryoMode.deserialize(uncompressed));
+    }
+
+    @Test
+    void testDeserialize_LegacyJson_ShouldFallBackToJackson() {
+        Map<String, Object> value = new HashMap<>();
+        value.put("title", "用户的健身报告");
+        value.put("suggestions", new ArrayList<>(List.of("每周训练三次", "保证睡眠")));
+
+        byte[] legacy = jackson.serialize(value);
+
+        assertNotEquals(KryoRedisSerializer.MAGIC, legacy[0]);
+        assertEquals(value, kryoMode.deserialize(legacy));
+    }
+
+    @Test
+    void testImmutableCollections_ShouldRoundTripAsMutableCopies() {
+        List<String> list = Stream.of("深蹲", "硬拉").toList();
+        Map<String, Integer> map = Map.of("sets", 5, "reps", 5);
+        Set<String> set = Set.of("力量", "有氧");
+
+        Object listCopy = kryoMode.deserialize(kryoMode.serialize(list));
+        Object mapCopy = kryoMode.deserialize(kryoMode.serialize(map));
+        Object setCopy = kryoMode.deserialize(kryoMode.serialize(set));
+
+        assertEquals(list, listCopy);
+        assertEquals(ArrayList.class, listCopy.getClass());
+        assertEquals(map, mapCopy);
+        assertEquals(LinkedHashMap.class, mapCopy.getClass());
+        assertEquals(set, setCopy);
+        assertEquals(LinkedHashSet.class, setCopy.getClass());
+        assertEquals(List.of(List.of("深蹲")), kryoMode.deserialize(kryoMode.serialize(List.of(List.of("深蹲")))));
+    }
+
+    @Test
+    void testSerialize_String_ShouldKeepLegacyFormat() {
+        assertArrayEquals(jackson.serialize("member-1"), kryoMode.serialize("member-1"));
+        assertEquals("member-1", kryoMode.deserialize(kryoMode.serialize("member-1")));
+    }
+
+    @Test
+    void testJsonMode_ShouldWriteJsonAndStillReadKryo() {
+        List<String> value = new ArrayList<>(List.of("深蹲", "硬拉"));
+
+        byte[] json = jsonMode.serialize(value);
+        assertNotEquals(KryoRedisSerializer.MAGIC, json[0]);
+        assertEquals(value, jackson.deserialize(json));
+
+        // 从 kryo 切回 json 后，已写入的 Kryo 数据（包括压缩过的）仍可读取
+        List<String> large = IntStream.range(0, 200).mapToObj(i -> "第" + i + "组")
+                .collect(ArrayList::new, ArrayList::add, ArrayList::addAll);
+        assertEquals(value, jsonMode.deserialize(kryoMode.serialize(value)));
+        assertEquals(large, jsonMode.deserialize(kryoMode.serialize(large)));
+    }
+
+    @Test
+    void testDeserialize_EmptyOrUnknownVersion() {
+        assertNull(kryoMode.deserialize(null));
+        assertNull(kryoMode.deserialize(new byte[0]));
+        assertThrows(SerializationException.class,
+                () -> kryoMode.deserialize(new byte[]{KryoRedisSerializer.MAGIC, 9, 0}));
+    }
+}
@@ -0,0 +1,209 @@
+package com.mq.mqaiagent.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.net.ConnectException;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Redis 熔断器状态转换、半开试探、后台探测恢复与异常过滤测试
+ *
+ * @author MQQQ
+ * @version v1.0
+ * @since 2025/9/19
+ */
+class RedisCircuitBreakerTest {
+
+    private static final long OPEN_MILLIS = 50;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final RedisConnectionFactory connectionFactory = mock(RedisConnectionFactory.class);
+    private final RedisConnection connection = mock(RedisConnection.class);
+    private RedisCircuitBreaker breaker;
+
+    @BeforeEach
+    void setUp() {
+        RedisCircuitBreakerProperties properties = new RedisCircuitBreakerProperties();
+        properties.setFailureThreshold(3);
+        properties.setOpenMillis(OPEN_MILLIS);
+        when(connectionFactory.getConnection()).thenReturn(connection);
+        when(connection.ping()).thenReturn("PONG");
+        breaker = new RedisCircuitBreaker(properties, connectionFactory, meterRegistry);
+    }
+
+    @Test
+    void testRecordFailure_AtThreshold_ShouldOpen() {
+        breaker.recordFailure(connectionFailure());
+        breaker.recordFailure(connectionFailure());
+        assertEquals(RedisCircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+
+        breaker.recordFailure(connectionFailure());
+
+        assertEquals(RedisCircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.isAvailable());
+        assertFalse(breaker.allowRequest());
+        assertEquals(1.0, transitions("CLOSED", "OPEN"), 0.0);
+    }
+
+    @Test
+    void testRecordSuccess_ShouldResetConsecutiveFailures() {
+        breaker.recordFailure(connectionFailure());
+        breaker.recordFailure(connectionFailure());
+        breaker.recordSuccess();
+        breaker.recordFailure(connectionFailure());
+        breaker.recordFailure(connectionFailure());
+
+        assertEquals(RedisCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void testAllowRequest_AfterOpenMillis_ShouldHalfOpenWithSingleTrial() throws InterruptedException {
+        open();
+        assertFalse(breaker.allowRequest());
+
+        Thread.sleep(OPEN_MILLIS + 20);
+
+        // 第一个调用者拿到试探机会，其余调用在试探结束前仍被拒绝
+        assertTrue(breaker.allowRequest());
+        assertEquals(RedisCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+        assertFalse(breaker.isAvailable());
+        assertEquals(1.0, transitions("OPEN", "HALF_OPEN"), 0.0);
+    }
+
+    @Test
+    void testHalfOpen_TrialSuccess_ShouldClose() throws InterruptedException {
+        halfOpen();
+
+        breaker.recordSuccess();
+
+        assertEquals(RedisCircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        assertEquals(1.0, transitions("HALF_OPEN", "CLOSED"), 0.0);
+        // 恢复后失败计数从零开始
+        breaker.recordFailure(connectionFailure());
+        breaker.recordFailure(connectionFailure());
+        assertEquals(RedisCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void testHalfOpen_TrialFailure_ShouldReopen() throws InterruptedException {
+        halfOpen();
+
+        breaker.recordFailure(connectionFailure());
+
+        assertEquals(RedisCircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        assertEquals(1.0, transitions("HALF_OPEN", "OPEN"), 0.0);
+    }
+
+    @Test
+    void testProbe_WhileOpen_ShouldNotTouchRedis() {
+        open();
+
+        breaker.probe();
+
+        verify(connectionFactory, never()).getConnection();
+        assertEquals(RedisCircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void testProbe_AfterOpenMillis_ShouldRecover() throws InterruptedException {
+        open();
+        Thread.sleep(OPEN_MILLIS + 20);
+
+        breaker.probe();
+
+        verify(connection, times(1)).ping();
+        assertEquals(RedisCircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.isAvailable());
+    }
+
+    @Test
+    void testProbe_AfterOpenMillis_StillDown_ShouldReopen() throws InterruptedException {
+        open();
+        when(connection.ping()).thenThrow(connectionFailure());
+        Thread.sleep(OPEN_MILLIS + 20);
+
+        breaker.probe();
+
+        assertEquals(RedisCircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    void testProbe_FailuresWhileClosed_ShouldOpen() {
+        when(connection.ping()).thenThrow(connectionFailure());
+
+        breaker.probe();
+        breaker.probe();
+        assertEquals(RedisCircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.probe();
+
+        assertEquals(RedisCircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void testRecordFailure_NonConnectivityError_ShouldNotCount() {
+        for (int i = 0; i < 5; i++) {
+            breaker.recordFailure(new SerializationException("反序列化失败"));
+            breaker.recordFailure(new IllegalArgumentException("参数错误"));
+        }
+
+        assertEquals(RedisCircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0.0, transitions("CLOSED", "OPEN"), 0.0);
+    }
+
+    @Test
+    void testIsConnectivityFailure_ShouldMatchConnectionAndTimeoutErrors() {
+        assertTrue(RedisCircuitBreaker.isConnectivityFailure(connectionFailure()));
+        assertTrue(RedisCircuitBreaker.isConnectivityFailure(new QueryTimeoutException("命令超时")));
+        assertTrue(RedisCircuitBreaker.isConnectivityFailure(new TimeoutException("等待超时")));
+        // 包装在其他异常中的连接失败同样计入
+        assertTrue(RedisCircuitBreaker.isConnectivityFailure(
+                new IllegalStateException("调用失败", new ConnectException("Connection refused"))));
+
+        assertFalse(RedisCircuitBreaker.isConnectivityFailure(new SerializationException("反序列化失败")));
+        assertFalse(RedisCircuitBreaker.isConnectivityFailure(new IllegalArgumentException("参数错误")));
+        assertFalse(RedisCircuitBreaker.isConnectivityFailure(null));
+    }
+
+    private void open() {
+        for (int i = 0; i < 3; i++) {
+            breaker.recordFailure(connectionFailure());
+        }
+        assertEquals(RedisCircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    private void halfOpen() throws InterruptedException {
+        open();
+        Thread.sleep(OPEN_MILLIS + 20);
+        assertTrue(breaker.allowRequest());
+        assertEquals(RedisCircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    private double transitions(String from, String to) {
+        return meterRegistry.get("mq.redis.breaker.transitions").tag("from", from).tag("to", to)
+                .counter().count();
+    }
+
+    private static RedisConnectionFailureException connectionFailure() {
+        return new RedisConnectionFailureException("Unable to connect to Redis");
+    }
+}
@@ -0,0 +1,112 @@
+package com.mq.mqaiagent.cache;
+
+import com.mq.mqaiagent.config.RedisConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redis 值序列化 JMH 基准：原 Jackson（带类型信息的 JSON）vs Kryo vs Kryo + Deflate
+ * <p>
+ * 数据为一段 List&lt;Message&gt; 对话（与对话记忆缓存写入 Redis 的内容相同），
+ * 每条消息的字节数在 Setup 阶段打印；序列化/反序列化耗时由 JMH 统计。
+ * 运行方式：先执行 mvn test-compile，然后在 IDE 中运行 main 方法，
+ * 或使用 -prof gc 查看每次操作的分配量。
+ *
+ * @author MQQQ
+ * @version v1.0
+ * @since 2025/9/12
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RedisSerializerBenchmark {
+
+    @Param({"json", "kryo", "kryo-deflate"})
+    private String format;
+
+    @Param({"20", "100"})
+    private int messageCount;
+
+    private RedisSerializer<Object> serializer;
+    private List<Message> conversation;
+    private byte[] serialized;
+
+    @Setup
+    public void setup() {
+        RedisSerializer<Object> jackson = RedisConfig.jacksonSerializer();
+        serializer = switch (format) {
+            case "kryo" -> new KryoRedisSerializer(jackson, 0, 4);
+            case "kryo-deflate" -> new KryoRedisSerializer(jackson, 1024, 4);
+            default -> jackson;
+        };
+        conversation = buildConversation(messageCount);
+        serialized = serializer.serialize(conversation);
+        System.out.printf("%n[%s] 消息数=%d, 总字节=%d, 每条消息=%.1f 字节%n",
+                format, messageCount, serialized.length, (double) serialized.length / messageCount);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return serializer.serialize(conversation);
+    }
+
+    @Benchmark
+    public Object deserialize() {
+        return serializer.deserialize(serialized);
+    }
+
+    /**
+     * 构造健身问答对话：用户提问较短，助手回答较长，与实际对话记忆的体积比例接近
+     */
+    static List<Message> buildConversation(int count) {
+        String[] questions = {
+                "我身高175cm，体重80kg，想在三个月内减脂，每周应该训练几次？",
+                "深蹲的时候膝盖疼是什么原因，需要换成什么动作？",
+                "增肌期间每天需要摄入多少蛋白质，训练后多久吃饭比较好？",
+                "跑步和跳绳哪个减脂效果更好？"
+        };
+        String answer = "根据你的情况，建议每周安排 3~4 次力量训练，配合 2 次 30 分钟左右的中低强度有氧。"
+                + "力量训练以深蹲、硬拉、卧推、划船等复合动作为主，每个动作 3~4 组，每组 8~12 次；"
+                + "饮食上保持每日约 300~500 千卡的热量缺口，蛋白质按每公斤体重 1.6~2.0 克摄入，"
+                + "注意保证睡眠和训练后的拉伸放松。如果训练中出现关节疼痛，应降低重量并检查动作模式。";
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (i % 2 == 0) {
+                messages.add(new UserMessage(questions[(i / 2) % questions.length]));
+            } else {
+                messages.add(new AssistantMessage(answer));
+            }
+        }
+        // 与 DatabaseChatMemory 返回的 stream().toList() 一致，覆盖不可变集合的序列化路径
+        return messages.stream().toList();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RedisSerializerBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,328 @@
+package com.mq.mqaiagent.cache;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 相同 LLM 请求合并的本节点 follower、跨节点 follower、leader 失败与等待上限、熔断测试
+ *
+ * @author MQQQ
+ * @version v1.0
+ * @since 2025/9/19
+ */
+class RequestCoalescerTest {
+
+    private static final String KEY = "mq:ai:agent:response:qwen-plus:generic:abc";
+    private static final String LEASE_KEY = "mq:ai:agent:inflight:" + KEY;
+    private static final String RESULT_KEY = "mq:ai:agent:coalesced:" + KEY;
+
+    private final FakeRedisTemplate redis = new FakeRedisTemplate();
+    private final RequestCoalescer coalescer = new RequestCoalescer();
+    private final List<String> shared = new CopyOnWriteArrayList<>();
+    private final AtomicInteger loaderCalls = new AtomicInteger();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AiResponseCacheProperties properties = new AiResponseCacheProperties();
+    private final RedisCircuitBreaker redisCircuitBreaker = mock(RedisCircuitBreaker.class);
+
+    @BeforeEach
+    void setUp() {
+        properties.setCoalesceLeaseMillis(5_000);
+        properties.setCoalescePollInitialMillis(10);
+        properties.setCoalescePollMaxMillis(50);
+        when(redisCircuitBreaker.allowRequest()).thenReturn(true);
+        ReflectionTestUtils.setField(coalescer, "stringRedisTemplate", redis);
+        ReflectionTestUtils.setField(coalescer, "properties", properties);
+        ReflectionTestUtils.setField(coalescer, "redisCircuitBreaker", redisCircuitBreaker);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testExecute_LocalFollower_ShouldShareLeaderResult() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch gate = new CountDownLatch(1);
+        CompletableFuture<String> leader = CompletableFuture.supplyAsync(() -> coalescer.execute(KEY,
+                () -> {
+                    entered.countDown();
+                    await(gate);
+                    loaderCalls.incrementAndGet();
+                    return "每周训练三次";
+                }, shared::add), executor);
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        CompletableFuture<String> follower = CompletableFuture.supplyAsync(
+                () -> coalescer.execute(KEY, countingLoader("不应调用"), shared::add), executor);
+        waitUntil(() -> coalescer.getLocalCoalesced() == 1);
+        gate.countDown();
+
+        assertEquals("每周训练三次", leader.get(5, TimeUnit.SECONDS));
+        assertEquals("每周训练三次", follower.get(5, TimeUnit.SECONDS));
+        assertEquals(1, loaderCalls.get());
+        // 只有 follower 复用了别人的结果
+        assertEquals(List.of("每周训练三次"), shared);
+    }
+
+    @Test
+    void testExecute_Leader_ShouldPublishResultAndReleaseLease() {
+        assertEquals("每周训练三次", coalescer.execute(KEY, countingLoader("每周训练三次"), shared::add));
+
+        assertEquals("每周训练三次", redis.store.get(RESULT_KEY));
+        assertFalse(redis.store.containsKey(LEASE_KEY));
+        assertTrue(shared.isEmpty());
+    }
+
+    @Test
+    void testExecute_RemoteFollower_ShouldUsePublishedResult() throws Exception {
+        redis.store.put(LEASE_KEY, "other-node:token");
+        CompletableFuture.runAsync(() -> {
+            sleep(100);
+            redis.store.put(RESULT_KEY, "每周训练三次");
+            redis.store.remove(LEASE_KEY);
+        }, executor);
+
+        assertEquals("每周训练三次", coalescer.execute(KEY, countingLoader("不应调用"), shared::add));
+        assertEquals(0, loaderCalls.get());
+        assertEquals(1, coalescer.getRemoteCoalesced());
+        assertEquals(List.of("每周训练三次"), shared);
+    }
+
+    @Test
+    void testExecute_LocalLeaderFailure_ShouldPropagateToFollowers() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch gate = new CountDownLatch(1);
+        CompletableFuture<String> leader = CompletableFuture.supplyAsync(() -> coalescer.execute(KEY,
+                () -> {
+                    entered.countDown();
+                    await(gate);
+                    loaderCalls.incrementAndGet();
+                    throw new IllegalStateException("模型过载");
+                }, shared::add), executor);
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        CompletableFuture<String> follower = CompletableFuture.supplyAsync(
+                () -> coalescer.execute(KEY, countingLoader("不应调用"), shared::add), executor);
+        waitUntil(() -> coalescer.getLocalCoalesced() == 1);
+        gate.countDown();
+
+        ExecutionException leaderError = assertThrows(ExecutionException.class,
+                () -> leader.get(5, TimeUnit.SECONDS));
+        ExecutionException followerError = assertThrows(ExecutionException.class,
+                () -> follower.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, leaderError.getCause());
+        assertSame(leaderError.getCause(), followerError.getCause());
+        assertEquals(1, loaderCalls.get());
+        assertFalse(redis.store.containsKey(RESULT_KEY));
+        assertFalse(redis.store.containsKey(LEASE_KEY));
+        assertTrue(shared.isEmpty());
+    }
+
+    @Test
+    void testExecute_RemoteLeaderFailure_ShouldCallModelItself() {
+        redis.store.put(LEASE_KEY, "other-node:token");
+        CompletableFuture.runAsync(() -> {
+            sleep(100);
+            // 其他节点的 leader 失败：释放租约但没有发布结果
+            redis.store.remove(LEASE_KEY);
+        }, executor);
+
+        assertEquals("自己的回答", coalescer.execute(KEY, countingLoader("自己的回答"), shared::add));
+        assertEquals(1, loaderCalls.get());
+        assertEquals(0, coalescer.getRemoteCoalesced());
+        assertTrue(shared.isEmpty());
+    }
+
+    @Test
+    void testExecute_RemoteLeaderSlow_ShouldStopWaitingAtMaxWait() {
+        properties.setCoalesceMaxWaitMillis(200);
+        // 其他节点的 leader 一直持有租约且没有结果
+        redis.store.put(LEASE_KEY, "other-node:token");
+
+        long start = System.currentTimeMillis();
+        assertEquals("自己的回答", coalescer.execute(KEY, countingLoader("自己的回答"), shared::add));
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertTrue(elapsed < properties.getCoalesceLeaseMillis(), "elapsed: " + elapsed);
+        assertEquals(1, loaderCalls.get());
+        assertTrue(shared.isEmpty());
+    }
+
+    @Test
+    void testExecute_BreakerOpenWhileWaiting_ShouldCallModelItself() {
+        // 抢租约时放行，之后熔断打开
+        when(redisCircuitBreaker.allowRequest()).thenReturn(true, false);
+        redis.store.put(LEASE_KEY, "other-node:token");
+
+        long start = System.currentTimeMillis();
+        assertEquals("自己的回答", coalescer.execute(KEY, countingLoader("自己的回答"), shared::add));
+
+        assertTrue(System.currentTimeMillis() - start < 1_000);
+        assertEquals(1, loaderCalls.get());
+        // 熔断期间不再读写 Redis
+        verify(redis.valueOperations, never()).get(anyString());
+    }
+
+    @Test
+    void testExecute_PollFailure_ShouldRecordFailureAndCallModelItself() {
+        RedisConnectionFailureException failure = new RedisConnectionFailureException("Redis 不可用");
+        when(redis.valueOperations.get(RESULT_KEY)).thenThrow(failure);
+        redis.store.put(LEASE_KEY, "other-node:token");
+
+        assertEquals("自己的回答", coalescer.execute(KEY, countingLoader("自己的回答"), shared::add));
+
+        assertEquals(1, loaderCalls.get());
+        verify(redisCircuitBreaker, times(1)).recordFailure(failure);
+    }
+
+    @Test
+    void testShare_LocalFollower_ShouldSubscribeLeaderStream() {
+        Sinks.Many<String> upstream = Sinks.many().unicast().onBackpressureBuffer();
+        List<String> leaderReceived = new CopyOnWriteArrayList<>();
+        List<String> followerReceived = new CopyOnWriteArrayList<>();
+
+        coalescer.share(KEY, Flux::just, () -> countingStream(upstream.asFlux()), shared::add)
+                .subscribe(leaderReceived::add);
+        upstream.tryEmitNext("每周");
+        coalescer.share(KEY, Flux::just, () -> countingStream(Flux.just("不应调用")), shared::add)
+                .subscribe(followerReceived::add);
+        upstream.tryEmitNext("训练");
+        upstream.tryEmitComplete();
+
+        assertEquals(List.of("每周", "训练"), leaderReceived);
+        // follower 先收到已输出片段的回放
+        assertEquals(List.of("每周", "训练"), followerReceived);
+        assertEquals(1, loaderCalls.get());
+        assertEquals(List.of("每周训练"), shared);
+        assertEquals("每周训练", redis.store.get(RESULT_KEY));
+        assertFalse(redis.store.containsKey(LEASE_KEY));
+    }
+
+    @Test
+    void testShare_SubscribeAfterCompletion_ShouldReplayWithoutCallingUpstream() {
+        Flux<String> leader = coalescer.share(KEY, Flux::just,
+                () -> countingStream(Flux.just("每周", "训练")), shared::add);
+
+        assertEquals(List.of("每周", "训练"), leader.collectList().block());
+        // 模拟在 doFinally 移除合并表条目之前拿到共享流的 follower：得到完整回答，且不再请求上游
+        assertEquals("每周训练", String.join("", leader.collectList().block()));
+        assertEquals(1, loaderCalls.get());
+    }
+
+    @Test
+    void testShare_RemoteFollower_ShouldReplayPublishedResult() {
+        redis.store.put(LEASE_KEY, "other-node:token");
+        redis.store.put(RESULT_KEY, "每周训练");
+
+        Flux<String> follower = coalescer.share(KEY, Flux::just,
+                () -> countingStream(Flux.just("不应调用")), shared::add);
+
+        assertEquals(List.of("每周训练"), follower.collectList().block());
+        assertEquals(0, loaderCalls.get());
+        assertEquals(List.of("每周训练"), shared);
+    }
+
+    private Supplier<String> countingLoader(String response) {
+        return () -> {
+            loaderCalls.incrementAndGet();
+            return response;
+        };
+    }
+
+    private Flux<String> countingStream(Flux<String> source) {
+        loaderCalls.incrementAndGet();
+        return source;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitUntil(Supplier<Boolean> condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.get() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.get());
+    }
+
+    /**
+     * 以内存 Map 模拟租约与结果键：SET NX、GET、SET、EXISTS 与释放租约的脚本
+     */
+    @SuppressWarnings("unchecked")
+    private static class FakeRedisTemplate extends StringRedisTemplate {
+        private final Map<String, String> store = new ConcurrentHashMap<>();
+        private final ValueOperations<String, String> valueOperations = mock(ValueOperations.class);
+
+        FakeRedisTemplate() {
+            when(valueOperations.setIfAbsent(anyString(), anyString(), any(Duration.class)))
+                    .thenAnswer(invocation -> store.putIfAbsent(invocation.getArgument(0),
+                            invocation.getArgument(1)) == null);
+            when(valueOperations.get(any()))
+                    .thenAnswer(invocation -> store.get((String) invocation.getArgument(0)));
+            doAnswer(invocation -> store.put(invocation.getArgument(0),
+                            invocation.getArgument(1)))
+                    .when(valueOperations).set(anyString(), anyString(), any(Duration.class));
+        }
+
+        @Override
+        public ValueOperations<String, String> opsForValue() {
+            return valueOperations;
+        }
+
+        @Override
+        public Boolean hasKey(String key) {
+            return store.containsKey(key);
+        }
+
+        @Override
+        public <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
+            return (T) Long.valueOf(store.remove(keys.get(0), args[0]) ? 1 : 0);
+        }
+    }
+}
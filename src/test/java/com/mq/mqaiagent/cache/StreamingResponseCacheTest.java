@@ -0,0 +1,97 @@
+package com.mq.mqaiagent.cache;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 流式响应缓存的分块回放与写入条件测试
+ *
+ * @author MQQQ
+ * @version v1.0
+ * @since 2025/9/19
+ */
+class StreamingResponseCacheTest {
+
+    private final AiResponseCacheProperties properties = new AiResponseCacheProperties();
+    private final StreamingResponseCache streamingResponseCache = new StreamingResponseCache();
+    private final List<String> cached = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        properties.setReplayChunkChars(4);
+        properties.setReplayChunkDelayMillis(0);
+        ReflectionTestUtils.setField(streamingResponseCache, "properties", properties);
+    }
+
+    @Test
+    void testReplay_ShouldSplitByConfiguredChunkSize() {
+        List<String> chunks = streamingResponseCache.replay("深蹲膝盖疼怎么办呢？").collectList().block();
+
+        assertEquals(List.of("深蹲膝盖", "疼怎么办", "呢？"), chunks);
+    }
+
+    @Test
+    void testSplit_ShouldNotBreakSurrogatePairs() {
+        List<String> chunks = StreamingResponseCache.split("加油💪坚持", 3);
+
+        assertEquals(List.of("加油💪", "坚持"), chunks);
+        assertTrue(StreamingResponseCache.split("", 3).isEmpty());
+        assertTrue(StreamingResponseCache.split(null, 3).isEmpty());
+    }
+
+    @Test
+    void testCacheThrough_Complete_ShouldCacheFullResponse() {
+        List<String> received = streamingResponseCache
+                .cacheThrough(Flux.just("每周", "训练", "三次"), cached::add)
+                .collectList().block();
+
+        assertEquals(List.of("每周", "训练", "三次"), received);
+        assertEquals(List.of("每周训练三次"), cached);
+    }
+
+    @Test
+    void testCacheThrough_Error_ShouldNotCache() {
+        Flux<String> upstream = Flux.concat(Flux.just("每周", "训练"),
+                Flux.error(new IllegalStateException("模型调用失败")));
+
+        assertThrows(IllegalStateException.class,
+                () -> streamingResponseCache.cacheThrough(upstream, cached::add).blockLast());
+        assertTrue(cached.isEmpty());
+    }
+
+    @Test
+    void testCacheThrough_Cancel_ShouldNotCache() {
+        Sinks.Many<String> upstream = Sinks.many().unicast().onBackpressureBuffer();
+        List<String> received = new CopyOnWriteArrayList<>();
+
+        Disposable subscription = streamingResponseCache.cacheThrough(upstream.asFlux(), cached::add)
+                .subscribe(received::add);
+        upstream.tryEmitNext("每周");
+        subscription.dispose();
+        upstream.tryEmitNext("训练");
+        upstream.tryEmitComplete();
+
+        assertEquals(List.of("每周"), received);
+        assertTrue(cached.isEmpty());
+    }
+
+    @Test
+    void testCacheThrough_CallbackFailure_ShouldNotBreakStream() {
+        List<String> received = streamingResponseCache
+                .cacheThrough(Flux.just("每周", "训练"), response -> {
+                    throw new IllegalStateException("Redis 不可用");
+                })
+                .collectList().block();
+
+        assertEquals(List.of("每周", "训练"), received);
+    }
+}
@@ -0,0 +1,55 @@
+package com.mq.mqaiagent.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 缓存过期时间抖动测试
+ *
+ * @author MQQQ
+ * @version v1.0
+ * @since 2025/9/13
+ */
+class TtlJitterTest {
+
+    @Test
+    void testApply_ShouldStayWithinNamespaceRatio() {
+        TtlJitter jitter = new TtlJitter(new TtlJitterProperties());
+        long base = 12 * 3600;
+        Set<Long> distinct = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            long ttl = jitter.apply("mq:ai:agent:ai:response:abc", base);
+            assertTrue(ttl >= base * 0.9 && ttl <= base * 1.1, "ttl out of range: " + ttl);
+            distinct.add(ttl);
+        }
+        // 过期时间应被打散，而不是集中在同一个值
+        assertTrue(distinct.size() > 100);
+    }
+
+    @Test
+    void testApply_ShouldUseLongestPrefixAndDefault() {
+        TtlJitterProperties properties = new TtlJitterProperties();
+        properties.setNamespaces(List.of(
+                new TtlJitterProperties.Namespace("mq:", 0.5),
+                new TtlJitterProperties.Namespace("mq:fixed:", 0.0)));
+        TtlJitter jitter = new TtlJitter(properties);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(3600, jitter.apply("mq:fixed:key", 3600));
+            assertEquals(3600, jitter.apply("other:key", 3600));
+        }
+    }
+
+    @Test
+    void testJitter_ShouldNeverReturnNonPositive() {
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(TtlJitter.jitter(2, 1.0) >= 1);
+        }
+        assertEquals(1, TtlJitter.jitter(1, 0.5));
+    }
+}
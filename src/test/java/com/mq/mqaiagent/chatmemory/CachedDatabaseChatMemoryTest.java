@@ -0,0 +1,195 @@
+package com.mq.mqaiagent.chatmemory;
+
+import com.mq.mqaiagent.mapper.ChatMemoryTestDatabase;
+import com.mq.mqaiagent.service.CacheService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 带缓存的对话记忆测试：缓存窗口内取最近 N 条、写入后追加缓存列表、未命中时按数据库重建（含摘要）、
+ * 摘要键缺失视为未命中、追加失败时清除缓存；缓存服务为 Mock，数据库为 H2
+ *
+ * @author MQQQ
+ * @version v1.0
+ * @since 2025/9/14
+ */
+class CachedDatabaseChatMemoryTest {
+
+    private static final String CHAT_ID = "chat_cached_test";
+    private static final Long USER_ID = 1L;
+    private static final String CACHE_KEY = "mq:ai:agent:chat:memory:{1}:chat_cached_test";
+    private static final String SUMMARY_KEY = CACHE_KEY + ":summary";
+
+    private ChatMemoryTestDatabase database;
+    private final CacheService cacheService = mock(CacheService.class);
+    private CachedDatabaseChatMemory memory;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        database = ChatMemoryTestDatabase.create();
+        when(cacheService.generateChatMemoryKey(CHAT_ID, USER_ID)).thenReturn(CACHE_KEY);
+        when(cacheService.listTail(anyString(), anyInt())).thenReturn(List.of());
+        memory = new CachedDatabaseChatMemory(database.keepReportMapper(), database.chatMessageMapper(),
+                null, null, cacheService);
+    }
+
+    @Test
+    void testAdd_ShouldAppendToCacheList() {
+        List<Message> messages = List.of(new UserMessage("q1"), new AssistantMessage("a1"));
+
+        memory.add(CHAT_ID, USER_ID, messages);
+
+        verify(cacheService).listAppend(eq(CACHE_KEY), eq(messages),
+                eq(CachedDatabaseChatMemory.CACHE_WINDOW_MESSAGES), anyLong());
+        verify(cacheService, never()).listReplace(anyString(), anyList(), anyLong());
+    }
+
+    @Test
+    void testAdd_CacheAppendFailed_ShouldClearCache() {
+        when(cacheService.listAppend(anyString(), anyList(), anyInt(), anyLong()))
+                .thenThrow(new IllegalStateException("追加失败"));
+
+        memory.add(CHAT_ID, USER_ID, List.of(new UserMessage("q1")));
+
+        // 缺消息的列表不能继续命中，列表与摘要键一起删除
+        verify(cacheService).delete(CACHE_KEY);
+        verify(cacheService).delete(SUMMARY_KEY);
+        // 数据库写入不受影响
+        assertEquals(List.of("q1"), texts(memory.get(CHAT_ID, USER_ID, 10)));
+    }
+
+    @Test
+    void testGet_CacheHit_ShouldNotRebuild() {
+        when(cacheService.listTail(CACHE_KEY, 2)).thenReturn(List.of(new UserMessage("q9"), new AssistantMessage("a9")));
+        when(cacheService.get(SUMMARY_KEY, String.class)).thenReturn("以下是此前对话的摘要：\n摘要");
+
+        List<Message> result = memory.get(CHAT_ID, USER_ID, 2);
+
+        assertTrue(result.get(0) instanceof SystemMessage);
+        assertEquals(List.of("以下是此前对话的摘要：\n摘要", "q9", "a9"), texts(result));
+        verify(cacheService, never()).listReplace(anyString(), anyList(), anyLong());
+    }
+
+    @Test
+    void testGet_CacheMiss_ShouldRebuildFromDatabase() {
+        memory.add(CHAT_ID, USER_ID, conversation(false, 6));
+
+        List<Message> result = memory.get(CHAT_ID, USER_ID, 2);
+
+        assertEquals(List.of("q3", "a3"), texts(result));
+        // 摘要键写空串，列表按缓存窗口整体重建
+        verify(cacheService).set(eq(SUMMARY_KEY), eq(""), anyLong());
+        verify(cacheService).listReplace(eq(CACHE_KEY), any(), anyLong());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testGet_CacheMissWithSummary_ShouldCacheSummarySeparately() {
+        memory.add(CHAT_ID, USER_ID, conversation(false, 6));
+        // 前两条已折叠进摘要
+        database.jdbcTemplate().update("UPDATE keep_report SET summary = ?, summarySeq = 2 WHERE chatId = ?",
+                "用户想减脂", CHAT_ID);
+
+        List<Message> result = memory.get(CHAT_ID, USER_ID, 2);
+
+        assertTrue(result.get(0) instanceof SystemMessage);
+        assertTrue(result.get(0).getText().endsWith("用户想减脂"));
+        assertEquals(List.of("q3", "a3"), texts(result.subList(1, result.size())));
+        verify(cacheService).set(eq(SUMMARY_KEY), eq(result.get(0).getText()), anyLong());
+        // 列表中不含摘要，只有摘要之后的消息
+        ArgumentCaptor<List<Message>> cached = ArgumentCaptor.forClass(List.class);
+        verify(cacheService).listReplace(eq(CACHE_KEY), cached.capture(), anyLong());
+        assertEquals(List.of("q2", "a2", "q3", "a3"), texts(cached.getValue()));
+    }
+
+    @Test
+    void testGet_SummaryKeyMissing_ShouldTreatAsMiss() {
+        memory.add(CHAT_ID, USER_ID, conversation(false, 2));
+        // 列表仍在但摘要键已过期：缓存中的旧列表不能单独使用
+        when(cacheService.listTail(CACHE_KEY, 2)).thenReturn(List.of(new UserMessage("旧"), new AssistantMessage("旧")));
+        when(cacheService.get(SUMMARY_KEY, String.class)).thenReturn(null);
+
+        List<Message> result = memory.get(CHAT_ID, USER_ID, 2);
+
+        assertEquals(List.of("q1", "a1"), texts(result));
+        verify(cacheService).set(eq(SUMMARY_KEY), eq(""), anyLong());
+        verify(cacheService).listReplace(eq(CACHE_KEY), any(), anyLong());
+    }
+
+    @Test
+    void testGet_BeyondCacheWindow_ShouldReadDatabaseDirectly() {
+        memory.add(CHAT_ID, USER_ID, conversation(false, 4));
+
+        List<Message> result = memory.get(CHAT_ID, USER_ID, CachedDatabaseChatMemory.CACHE_WINDOW_MESSAGES + 1);
+
+        assertEquals(4, result.size());
+        verify(cacheService, never()).listTail(anyString(), anyInt());
+    }
+
+    @Test
+    void testGetLastNMessages_ShouldReturnTail() {
+        List<Message> window = conversation(false, 6);
+        List<Message> tail = CachedDatabaseChatMemory.getLastNMessages(window, 4);
+        assertEquals(4, tail.size());
+        assertEquals("q2", tail.get(0).getText());
+        assertEquals("a3", tail.get(3).getText());
+        assertEquals(6, CachedDatabaseChatMemory.getLastNMessages(window, 10).size());
+    }
+
+    @Test
+    void testGetLastNMessages_ShouldKeepSummaryOutsideTheCount() {
+        List<Message> window = conversation(true, 6);
+        List<Message> tail = CachedDatabaseChatMemory.getLastNMessages(window, 2);
+        assertEquals(3, tail.size());
+        assertTrue(tail.get(0) instanceof SystemMessage);
+        assertEquals("q3", tail.get(1).getText());
+        assertEquals(7, CachedDatabaseChatMemory.getLastNMessages(window, 10).size());
+    }
+
+    @Test
+    void testSummaryKey_ShouldShareHashTagWithMessageList() {
+        String cacheKey = "mq:ai:agent:chat:memory:{42}:c1";
+        String summaryKey = CachedDatabaseChatMemory.summaryKey(cacheKey);
+        assertTrue(summaryKey.startsWith(cacheKey));
+        assertEquals("{42}", summaryKey.substring(summaryKey.indexOf('{'), summaryKey.indexOf('}') + 1));
+    }
+
+    private static List<String> texts(List<Message> messages) {
+        return messages.stream().map(Message::getText).toList();
+    }
+
+    /**
+     * 生成 count 条交替的问答消息（q1、a1、q2、a2 ...），可选以摘要开头
+     */
+    private static List<Message> conversation(boolean withSummary, int count) {
+        List<Message> messages = new ArrayList<>();
+        if (withSummary) {
+            messages.add(new SystemMessage("摘要"));
+        }
+        for (int i = 0; i < count; i++) {
+            int turn = i / 2 + 1;
+            messages.add(i % 2 == 0 ? new UserMessage("q" + turn) : new AssistantMessage("a" + turn));
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,120 @@
+package com.mq.mqaiagent.chatmemory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 对话消息内容压缩的 JMH 基准：统计一批消息的压缩率与编码/解码耗时
+ * <p>
+ * 默认样本取自知识库文档（src/main/resources/document，短提问 + 较长的 Markdown 回答）；
+ * 用线上对话评估时，导出 chat_message.content（每行一条消息，换行写成 \n），
+ * 通过 -Dchat.samples=文件路径 指定。Setup 阶段打印原文字节数、存储字节数与压缩率，
+ * 每次操作处理整批消息（低于压缩阈值的消息只计算一次 UTF-8 长度），耗时除以消息数即单条消息的 CPU 开销。
+ * 运行方式：先执行 mvn test-compile，然后在项目根目录下于 IDE 中运行 main 方法。
+ *
+ * @author MQQQ
+ * @version v1.0
+ * @since 2025/9/18
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatContentCodecBenchmark {
+
+    private static final String DOCUMENT_DIR = "src/main/resources/document";
+
+    private List<String> samples;
+    private List<String> stored;
+
+    @Setup
+    public void setup() throws IOException {
+        String samplePath = System.getProperty("chat.samples");
+        samples = samplePath != null ? loadSamples(Path.of(samplePath)) : buildSamples();
+        stored = new ArrayList<>(samples.size());
+        long rawBytes = 0;
+        long storedBytes = 0;
+        int encodedCount = 0;
+        for (String sample : samples) {
+            String value = ChatContentCodecs.encode(sample);
+            stored.add(value);
+            rawBytes += sample.getBytes(StandardCharsets.UTF_8).length;
+            storedBytes += value.getBytes(StandardCharsets.UTF_8).length;
+            if (ChatContentCodecs.isEncoded(value)) {
+                encodedCount++;
+            }
+        }
+        System.out.printf("%n[%s] 消息数=%d, 压缩条数=%d, 原文字节=%d, 存储字节=%d, 压缩率=%.1f%%%n",
+                ChatContentCodecs.getDefaultCodec().name(), samples.size(), encodedCount,
+                rawBytes, storedBytes, 100.0 * storedBytes / rawBytes);
+    }
+
+    @Benchmark
+    public void encode(Blackhole blackhole) {
+        for (String sample : samples) {
+            blackhole.consume(ChatContentCodecs.encode(sample));
+        }
+    }
+
+    @Benchmark
+    public void decode(Blackhole blackhole) {
+        for (String value : stored) {
+            blackhole.consume(ChatContentCodecs.decode(value));
+        }
+    }
+
+    private static List<String> loadSamples(Path path) throws IOException {
+        return Files.readAllLines(path, StandardCharsets.UTF_8).stream()
+                .filter(line -> !line.isBlank())
+                .map(line -> line.replace("\\n", "\n"))
+                .toList();
+    }
+
+    /**
+     * 以知识库文档构造样本：每篇文档作为一条助手回答（1.4KB~13KB，接近引用知识库时的回答长度），
+     * 文档中的问题标题作为用户提问
+     */
+    private static List<String> buildSamples() throws IOException {
+        List<String> messages = new ArrayList<>();
+        try (Stream<Path> files = Files.list(Path.of(DOCUMENT_DIR))) {
+            for (Path file : files.filter(path -> path.toString().endsWith(".md")).sorted().toList()) {
+                String document = Files.readString(file, StandardCharsets.UTF_8);
+                document.lines()
+                        .filter(line -> line.startsWith("#### "))
+                        .map(line -> line.substring("#### ".length()))
+                        .forEach(messages::add);
+                messages.add(document);
+            }
+        }
+        return messages;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ChatContentCodecBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
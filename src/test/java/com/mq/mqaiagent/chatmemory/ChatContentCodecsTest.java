@@ -0,0 +1,59 @@
+package com.mq.mqaiagent.chatmemory;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 对话消息内容压缩格式的编解码与兼容性测试
+ *
+ * @author MQQQ
+ * @version v1.0
+ * @since 2025/9/18
+ */
+class ChatContentCodecsTest {
+
+    private static final String LONG_ANSWER = ("根据你的情况，建议每周安排 3~4 次力量训练，配合 2 次 30 分钟左右的中低强度有氧。"
+            + "蛋白质按每公斤体重 1.6~2.0 克摄入，注意保证睡眠和训练后的拉伸放松。").repeat(8);
+
+    @Test
+    void testEncode_ShouldCompressLongContentAndRoundTrip() {
+        String stored = ChatContentCodecs.encode(LONG_ANSWER);
+
+        assertTrue(ChatContentCodecs.isEncoded(stored));
+        assertEquals(DeflateChatContentCodec.ID, stored.charAt(ChatContentCodecs.MAGIC.length()));
+        assertTrue(stored.length() < LONG_ANSWER.getBytes(StandardCharsets.UTF_8).length);
+        assertEquals(LONG_ANSWER, ChatContentCodecs.decode(stored));
+    }
+
+    @Test
+    void testEncode_ShouldKeepShortContentAsPlainText() {
+        String question = "深蹲的时候膝盖疼是什么原因？";
+
+        assertEquals(question, ChatContentCodecs.encode(question));
+        assertNull(ChatContentCodecs.encode(null));
+    }
+
+    @Test
+    void testDecode_ShouldReturnLegacyPlainRowsUnchanged() {
+        assertEquals(LONG_ANSWER, ChatContentCodecs.decode(LONG_ANSWER));
+        assertEquals("", ChatContentCodecs.decode(""));
+        assertNull(ChatContentCodecs.decode(null));
+    }
+
+    @Test
+    void testEncode_ShouldEscapeTextStartingWithMagic() {
+        String text = ChatContentCodecs.MAGIC + "D不是压缩数据";
+        String stored = ChatContentCodecs.encode(text);
+
+        assertNotEquals(text, stored);
+        assertEquals(text, ChatContentCodecs.decode(stored));
+    }
+
+    @Test
+    void testDecode_ShouldRejectUnknownCodec() {
+        assertThrows(IllegalStateException.class, () -> ChatContentCodecs.decode(ChatContentCodecs.MAGIC + "?AAAA"));
+    }
+}
@@ -0,0 +1,223 @@
+package com.mq.mqaiagent.chatmemory;
+
+import com.mq.mqaiagent.ai.AiModelRouter;
+import com.mq.mqaiagent.mapper.ChatMemoryTestDatabase;
+import com.mq.mqaiagent.mapper.ChatMessageMapper;
+import com.mq.mqaiagent.model.entity.ChatMessage;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * 对话记忆压缩的折叠位置与 token 估算测试，以及旧行重写（H2）的测试
+ *
+ * @author MQQQ
+ * @version v1.0
+ * @since 2025/9/14
+ */
+class ChatMemoryCompactorTest {
+
+    private static final String CHAT_ID = "chat_compactor_test";
+
+    @Test
+    void testEstimateTokens_ShouldCountCjkPerCharAndAsciiPerFourChars() {
+        assertEquals(0, ChatMemoryCompactor.estimateTokens(null));
+        assertEquals(4, ChatMemoryCompactor.estimateTokens("深蹲动作"));
+        assertEquals(2, ChatMemoryCompactor.estimateTokens("squat123"));
+        assertEquals(4, ChatMemoryCompactor.estimateTokens("卧推 bench"));
+    }
+
+    @Test
+    void testFoldCount_WithinBudget_ShouldNotFold() {
+        List<ChatMessage> tail = turns(10, "短消息");
+        assertEquals(0, ChatMemoryCompactor.foldCount(null, tail, 1000, 4));
+    }
+
+    @Test
+    void testFoldCount_OverBudget_ShouldKeepRecentMessagesStartingWithUser() {
+        List<ChatMessage> tail = turns(10, "这是一条比较长的健身对话内容");
+        // 保留 4 条：折叠前 6 条，保留部分从用户消息开始
+        assertEquals(6, ChatMemoryCompactor.foldCount(null, tail, 50, 4));
+        // 保留 3 条时第 8 条是助手消息，折叠位置后移到下一条用户消息
+        assertEquals(8, ChatMemoryCompactor.foldCount(null, tail, 50, 3));
+    }
+
+    @Test
+    void testFoldCount_SummaryCountsTowardsBudget() {
+        List<ChatMessage> tail = turns(8, "卧推");
+        assertEquals(0, ChatMemoryCompactor.foldCount(null, tail, 20, 2));
+        assertEquals(6, ChatMemoryCompactor.foldCount("已有摘要".repeat(5), tail, 20, 2));
+    }
+
+    @Test
+    void testFoldCount_NoUserInKeptWindow_ShouldCutAtPreviousUser() {
+        // 一次提问后连续多条助手消息：保留窗口内没有用户消息
+        List<ChatMessage> tail = new ArrayList<>(turns(4, "这是一条比较长的健身对话内容"));
+        for (int i = 0; i < 5; i++) {
+            tail.add(message(tail.size() + 1, "ASSISTANT", "这是一条比较长的健身对话内容"));
+        }
+
+        int cut = ChatMemoryCompactor.foldCount(null, tail, 50, 3);
+
+        // 折叠到上一条用户消息（第 3 条），不会把整个 tail 折叠掉
+        assertEquals(2, cut);
+        assertEquals("USER", tail.get(cut).getType());
+        assertTrue(tail.size() - cut >= 3);
+    }
+
+    @Test
+    void testFoldCount_NoUserMessages_ShouldFallBackToKeepCount() {
+        List<ChatMessage> tail = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            tail.add(message(i + 1, "ASSISTANT", "这是一条比较长的健身对话内容"));
+        }
+
+        assertEquals(5, ChatMemoryCompactor.foldCount(null, tail, 50, 3));
+    }
+
+    @Test
+    void testRecompress_ShouldRewriteOnlyOwnersLegacyRows() throws Exception {
+        ChatMemoryTestDatabase database = ChatMemoryTestDatabase.create();
+        String compressible = "深蹲时保持核心收紧，膝盖与脚尖方向一致。".repeat(100);
+        String incompressible = randomAscii(2000);
+        insertLegacy(database, 1L, 1, compressible);
+        insertLegacy(database, 1L, 2, incompressible);
+        insertLegacy(database, 1L, 3, "短消息不重写");
+        insertLegacy(database, 2L, 1, compressible);
+        ChatMemoryCompactor compactor = compactor(database, database.chatMessageMapper());
+
+        assertEquals(2, compactor.recompress(CHAT_ID, 1L));
+
+        assertTrue(stored(database, 1L, 1).startsWith(ChatContentCodecs.MAGIC + "D"));
+        // 不值得压缩的内容加原文头部作为已处理标记
+        assertEquals(ChatContentCodecs.MAGIC + ChatContentCodecs.PLAIN_ID + incompressible, stored(database, 1L, 2));
+        assertEquals("短消息不重写", stored(database, 1L, 3));
+        // 其他用户的同名对话不受影响
+        assertEquals(compressible, stored(database, 2L, 1));
+        // 已处理的行不会被再次选中，读出的仍是原文
+        assertEquals(0, compactor.recompress(CHAT_ID, 1L));
+        List<ChatMessage> rows = database.chatMessageMapper().selectAfterSeq(CHAT_ID, 1L, 0);
+        assertEquals(List.of(compressible, incompressible, "短消息不重写"),
+                rows.stream().map(ChatMessage::getContent).toList());
+    }
+
+    @Test
+    void testRecompress_MoreThanOneBatch_ShouldFinishConversation() throws Exception {
+        ChatMemoryTestDatabase database = ChatMemoryTestDatabase.create();
+        String incompressible = randomAscii(1500);
+        for (int seq = 1; seq <= ChatMemoryCompactor.RECOMPRESS_BATCH + 5; seq++) {
+            insertLegacy(database, 1L, seq, incompressible);
+        }
+
+        int rewritten = compactor(database, database.chatMessageMapper()).recompress(CHAT_ID, 1L);
+
+        assertEquals(ChatMemoryCompactor.RECOMPRESS_BATCH + 5, rewritten);
+        assertTrue(ChatContentCodecs.isEncoded(stored(database, 1L, ChatMemoryCompactor.RECOMPRESS_BATCH + 5)));
+    }
+
+    @Test
+    void testRecompressLater_ShouldRunInBackgroundOncePerConversation() throws Exception {
+        ChatMemoryTestDatabase database = ChatMemoryTestDatabase.create();
+        insertLegacy(database, 1L, 1, randomAscii(2000));
+        AtomicInteger scans = new AtomicInteger();
+        ChatMemoryCompactor compactor = compactor(database, countingScans(database.chatMessageMapper(), scans));
+
+        compactor.recompressLater(CHAT_ID, 1L);
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!inFlight(compactor).isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertTrue(ChatContentCodecs.isEncoded(stored(database, 1L, 1)));
+        // 同一（用户, 对话）完成后不再提交扫描
+        compactor.recompressLater(CHAT_ID, 1L);
+        assertTrue(inFlight(compactor).isEmpty());
+        assertEquals(1, scans.get());
+    }
+
+    private static ChatMemoryCompactor compactor(ChatMemoryTestDatabase database, ChatMessageMapper chatMessageMapper) {
+        return new ChatMemoryCompactor(new ChatMemoryCompactionProperties(), mock(AiModelRouter.class),
+                database.keepReportMapper(), chatMessageMapper);
+    }
+
+    private static Set<?> inFlight(ChatMemoryCompactor compactor) {
+        return (Set<?>) ReflectionTestUtils.getField(compactor, "inFlight");
+    }
+
+    /**
+     * 统计 selectUncompressed 调用次数的 Mapper 代理
+     */
+    private static ChatMessageMapper countingScans(ChatMessageMapper delegate, AtomicInteger scans) {
+        return (ChatMessageMapper) Proxy.newProxyInstance(ChatMessageMapper.class.getClassLoader(),
+                new Class<?>[]{ChatMessageMapper.class}, (proxy, method, args) -> {
+                    if ("selectUncompressed".equals(method.getName())) {
+                        scans.incrementAndGet();
+                    }
+                    try {
+                        return method.invoke(delegate, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    /**
+     * 以原文写入一行，模拟压缩格式上线前的旧数据
+     */
+    private static void insertLegacy(ChatMemoryTestDatabase database, Long userId, int seq, String content) {
+        database.jdbcTemplate().update("INSERT INTO chat_message (conversationId, userId, seq, type, content, createTime)"
+                + " VALUES (?, ?, ?, ?, ?, ?)", CHAT_ID, userId, seq, "ASSISTANT", content, new Date());
+    }
+
+    private static String stored(ChatMemoryTestDatabase database, Long userId, int seq) {
+        return database.jdbcTemplate().queryForObject(
+                "SELECT content FROM chat_message WHERE conversationId = ? AND userId = ? AND seq = ?",
+                String.class, CHAT_ID, userId, seq);
+    }
+
+    /**
+     * 随机可打印 ASCII：Deflate 后再经 Base64 不会变短
+     */
+    private static String randomAscii(int length) {
+        Random random = new Random(42);
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append((char) ('!' + random.nextInt(94)));
+        }
+        return builder.toString();
+    }
+
+    private static ChatMessage message(int seq, String type, String content) {
+        return ChatMessage.builder()
+                .seq(seq)
+                .type(type)
+                .content(content)
+                .build();
+    }
+
+    /**
+     * 生成 count 条交替的用户/助手消息，序号从 1 开始
+     */
+    private static List<ChatMessage> turns(int count, String content) {
+        List<ChatMessage> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(ChatMessage.builder()
+                    .seq(i + 1)
+                    .type(i % 2 == 0 ? "USER" : "ASSISTANT")
+                    .content(content)
+                    .build());
+        }
+        return messages;
+    }
+}
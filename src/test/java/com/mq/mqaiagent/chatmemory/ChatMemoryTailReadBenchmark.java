@@ -0,0 +1,199 @@
+package com.mq.mqaiagent.chatmemory;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
+import com.baomidou.mybatisplus.core.MybatisConfiguration;
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import com.mq.mqaiagent.mapper.ChatMessageMapper;
+import com.mq.mqaiagent.mapper.KeepReportMapper;
+import com.mq.mqaiagent.model.dto.keepReport.KeepReport;
+import com.mq.mqaiagent.model.entity.ChatMessage;
+import org.apache.ibatis.builder.MapperBuilderAssistant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对话记忆读取最近 N 条的 JMH 基准：旧版整段 JSON 解析后 skip vs chat_message 按序号倒序读取 N 行
+ * <p>
+ * 对话长度取 10 / 100 / 1000 轮（每轮一问一答），每次读取最近 10 条（与 KeepApp 一致）。
+ * 按行读取走真实的 {@link DatabaseChatMemory#get(String, Long, int)}，Mapper 由内存实现代替，
+ * 只返回 LIMIT 范围内的行，模拟数据库按 (conversationId, seq) 索引倒序扫描；
+ * 旧版路径复现原 getOrCreateConversation + skip 的解析过程。两者的网络往返都不在统计范围内，
+ * 旧版还需要从数据库传回整段 TEXT 字段，Setup 阶段会打印其字节数。
+ * 运行方式：先执行 mvn test-compile，然后在 IDE 中运行 main 方法，
+ * 或使用 -prof gc 查看每次操作的分配量。
+ *
+ * @author MQQQ
+ * @version v1.0
+ * @since 2025/9/14
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatMemoryTailReadBenchmark {
+
+    private static final String CHAT_ID = "chat_benchmark";
+    private static final Long USER_ID = 1L;
+    private static final int LAST_N = 10;
+
+    @Param({"10", "100", "1000"})
+    private int turns;
+
+    private String legacyJson;
+    private DatabaseChatMemory memory;
+
+    @Setup
+    public void setup() {
+        // LambdaQueryWrapper 需要实体的列缓存，正常运行时由 MyBatis-Plus 启动时建立
+        TableInfoHelper.initTableInfo(new MapperBuilderAssistant(new MybatisConfiguration(), ""), KeepReport.class);
+
+        List<Message> conversation = buildConversation(turns * 2);
+        legacyJson = toLegacyJson(conversation);
+
+        // 数据库按序号倒序返回
+        List<ChatMessage> rowsDesc = new ArrayList<>(conversation.size());
+        for (int i = conversation.size() - 1; i >= 0; i--) {
+            Message message = conversation.get(i);
+            rowsDesc.add(ChatMessage.builder()
+                    .conversationId(CHAT_ID)
+                    .userId(USER_ID)
+                    .seq(i + 1)
+                    .type(message.getMessageType().name())
+                    .content(message.getText())
+                    .build());
+        }
+        KeepReport header = KeepReport.builder()
+                .id(1L).chatId(CHAT_ID).userId(USER_ID).messages("").summarySeq(0).build();
+
+        KeepReportMapper keepReportMapper = mapper(KeepReportMapper.class, (name, args) ->
+                "selectOne".equals(name) ? header : null);
+        ChatMessageMapper chatMessageMapper = mapper(ChatMessageMapper.class, (name, args) -> {
+            if ("selectLatest".equals(name)) {
+                int limit = (Integer) args[2];
+                return new ArrayList<>(rowsDesc.subList(0, Math.min(limit, rowsDesc.size())));
+            }
+            return null;
+        });
+        memory = new DatabaseChatMemory(keepReportMapper, chatMessageMapper);
+
+        System.out.printf("%n[turns=%d] 旧版 messages 字段=%d 字节，按行读取每次返回 %d 行%n",
+                turns, legacyJson.getBytes(StandardCharsets.UTF_8).length, Math.min(LAST_N, rowsDesc.size()));
+    }
+
+    @Benchmark
+    public List<Message> legacyJsonSkip() {
+        List<Message> allMessages = legacyDeserialize(legacyJson);
+        int skipCount = Math.max(0, allMessages.size() - LAST_N);
+        return allMessages.stream().skip(skipCount).toList();
+    }
+
+    @Benchmark
+    public List<Message> rowTail() {
+        return memory.get(CHAT_ID, USER_ID, LAST_N);
+    }
+
+    /**
+     * 旧版 DatabaseChatMemory.deserializeMessages 的解析过程
+     */
+    private static List<Message> legacyDeserialize(String json) {
+        List<Message> messages = new ArrayList<>();
+        JSONArray jsonArray = JSON.parseArray(json);
+        for (int i = 0; i < jsonArray.size(); i++) {
+            JSONObject jsonObject = jsonArray.getJSONObject(i);
+            String messageType = jsonObject.getString("messageType");
+            if ("USER".equals(messageType)) {
+                messages.add(new UserMessage(jsonObject.getString("message")));
+            } else if ("ASSISTANT".equals(messageType)) {
+                Object messageObj = jsonObject.get("message");
+                String content = messageObj instanceof JSONObject ? messageObj.toString() : jsonObject.getString("message");
+                messages.add(new AssistantMessage(content, new HashMap<>()));
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * 旧版 keep_report.messages 的存储格式
+     */
+    private static String toLegacyJson(List<Message> conversation) {
+        JSONArray jsonArray = new JSONArray();
+        for (Message message : conversation) {
+            JSONObject jsonObject = new JSONObject();
+            jsonObject.put("messageType", message.getMessageType().toString());
+            jsonObject.put("message", message.getText());
+            jsonArray.add(jsonObject);
+        }
+        return jsonArray.toString();
+    }
+
+    /**
+     * 构造健身问答对话：用户提问较短，助手回答较长
+     */
+    private static List<Message> buildConversation(int count) {
+        String[] questions = {
+                "我身高175cm，体重80kg，想在三个月内减脂，每周应该训练几次？",
+                "深蹲的时候膝盖疼是什么原因，需要换成什么动作？",
+                "增肌期间每天需要摄入多少蛋白质，训练后多久吃饭比较好？",
+                "跑步和跳绳哪个减脂效果更好？"
+        };
+        String answer = "根据你的情况，建议每周安排 3~4 次力量训练，配合 2 次 30 分钟左右的中低强度有氧。"
+                + "力量训练以深蹲、硬拉、卧推、划船等复合动作为主，每个动作 3~4 组，每组 8~12 次；"
+                + "饮食上保持每日约 300~500 千卡的热量缺口，蛋白质按每公斤体重 1.6~2.0 克摄入，"
+                + "注意保证睡眠和训练后的拉伸放松。如果训练中出现关节疼痛，应降低重量并检查动作模式。";
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (i % 2 == 0) {
+                messages.add(new UserMessage(questions[(i / 2) % questions.length]));
+            } else {
+                messages.add(new AssistantMessage(answer));
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * 用动态代理实现 Mapper，只响应基准用到的方法
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T mapper(Class<T> type, MapperAnswer answer) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> answer.answer(method.getName(), args));
+    }
+
+    @FunctionalInterface
+    private interface MapperAnswer {
+        Object answer(String methodName, Object[] args);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ChatMemoryTailReadBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
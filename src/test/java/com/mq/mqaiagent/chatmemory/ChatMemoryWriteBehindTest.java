@@ -0,0 +1,220 @@
+package com.mq.mqaiagent.chatmemory;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 对话记忆异步写回的合并、顺序、按用户区分、消息ID与重放测试
+ *
+ * @author MQQQ
+ * @version v1.0
+ * @since 2025/9/16
+ */
+class ChatMemoryWriteBehindTest {
+
+    @TempDir
+    Path logDir;
+
+    @Test
+    void testFlush_ShouldCoalescePerConversationInAppendOrder() {
+        ChatMemoryWriteBehind writeBehind = open();
+        RecordingSink sink = new RecordingSink();
+        writeBehind.bindDefaultSink(sink);
+
+        append(writeBehind, "c1", sink, new UserMessage("q1"), new AssistantMessage("a1"));
+        append(writeBehind, "c2", sink, new UserMessage("x1"));
+        append(writeBehind, "c1", sink, new UserMessage("q2"), new AssistantMessage("a2"));
+        assertEquals(5, writeBehind.getPendingMessages());
+
+        writeBehind.flush();
+        assertEquals(List.of("q1", "a1", "q2", "a2"), sink.persisted.get("chat_c1"));
+        assertEquals(List.of("x1"), sink.persisted.get("chat_c2"));
+        // 两个对话各一次数据库写入
+        assertEquals(2, writeBehind.getFlushedBatches());
+        assertEquals(0, writeBehind.getPendingMessages());
+        writeBehind.shutdown();
+    }
+
+    @Test
+    void testRead_ShouldIncludePendingUntilFlushed() {
+        ChatMemoryWriteBehind writeBehind = open();
+        RecordingSink sink = new RecordingSink();
+        writeBehind.bindDefaultSink(sink);
+
+        append(writeBehind, "c1", sink, new UserMessage("q1"));
+        assertEquals(1, pendingCount(writeBehind, "chat_c1"));
+        assertEquals(0, pendingCount(writeBehind, "chat_c2"));
+
+        writeBehind.flush();
+        assertEquals(0, pendingCount(writeBehind, "chat_c1"));
+        writeBehind.shutdown();
+    }
+
+    @Test
+    void testRestart_ShouldReplayOnlyMessagesNotYetPersisted() {
+        ChatMemoryWriteBehind crashed = open();
+        RecordingSink sink = new RecordingSink();
+        crashed.bindDefaultSink(sink);
+        append(crashed, "c1", sink, new UserMessage("q1"), new AssistantMessage("a1"));
+        crashed.flush();
+        append(crashed, "c1", sink, new UserMessage("q2"));
+        append(crashed, "c2", sink, new UserMessage("x1"));
+        // 不调用 shutdown，模拟进程崩溃
+
+        ChatMemoryWriteBehind restarted = open();
+        assertEquals(2, restarted.getPendingMessages());
+        RecordingSink replaySink = new RecordingSink();
+        restarted.bindDefaultSink(replaySink);
+        restarted.flush();
+        assertEquals(List.of("q2"), replaySink.persisted.get("chat_c1"));
+        assertEquals(List.of("x1"), replaySink.persisted.get("chat_c2"));
+        restarted.shutdown();
+
+        assertEquals(0, open().getPendingMessages());
+    }
+
+    @Test
+    void testFailedFlush_ShouldRetryBeforeNewerMessages() {
+        ChatMemoryWriteBehind writeBehind = open();
+        RecordingSink sink = new RecordingSink();
+        sink.failuresLeft = 1;
+        writeBehind.bindDefaultSink(sink);
+
+        append(writeBehind, "c1", sink, new UserMessage("q1"));
+        writeBehind.flush();
+        assertEquals(1, writeBehind.getFailedFlushes());
+        assertEquals(1, writeBehind.getPendingMessages());
+
+        append(writeBehind, "c1", sink, new UserMessage("q2"));
+        writeBehind.flush();
+        assertEquals(List.of("q1", "q2"), sink.persisted.get("chat_c1"));
+        writeBehind.shutdown();
+
+        assertEquals(0, open().getPendingMessages());
+    }
+
+    @Test
+    void testRetryAndReplay_ShouldKeepMessageIds() {
+        ChatMemoryWriteBehind crashed = open();
+        RecordingSink sink = new RecordingSink();
+        sink.failuresLeft = 1;
+        crashed.bindDefaultSink(sink);
+        append(crashed, "c1", sink, new UserMessage("q1"), new AssistantMessage("a1"));
+
+        crashed.flush();
+        List<String> firstAttempt = sink.attemptedIds.get(0);
+        assertEquals(2, firstAttempt.size());
+        assertEquals(2, firstAttempt.stream().distinct().count());
+        // 写入失败后转写到新段，不调用 shutdown，模拟进程崩溃
+
+        ChatMemoryWriteBehind restarted = open();
+        RecordingSink replaySink = new RecordingSink();
+        restarted.bindDefaultSink(replaySink);
+        restarted.flush();
+        // 重放交给写入方的仍是同一批消息ID，写入方据此跳过已写入的消息
+        assertEquals(List.of(firstAttempt), replaySink.attemptedIds);
+        assertEquals(List.of("q1", "a1"), replaySink.persisted.get("chat_c1"));
+        restarted.shutdown();
+    }
+
+    @Test
+    void testDiscard_ShouldNotReplayClearedConversation() {
+        ChatMemoryWriteBehind crashed = open();
+        RecordingSink sink = new RecordingSink();
+        crashed.bindDefaultSink(sink);
+        append(crashed, "c1", sink, new UserMessage("q1"));
+        append(crashed, "c2", sink, new UserMessage("x1"));
+        crashed.discard("chat_c1", 1L);
+
+        ChatMemoryWriteBehind restarted = open();
+        assertEquals(0, pendingCount(restarted, "chat_c1"));
+        assertEquals(1, pendingCount(restarted, "chat_c2"));
+    }
+
+    @Test
+    void testSameConversationId_ShouldBeQueuedPerUser() {
+        ChatMemoryWriteBehind crashed = open();
+        RecordingSink sink = new RecordingSink();
+        crashed.bindDefaultSink(sink);
+        append(crashed, "c1", 1L, sink, new UserMessage("q1"));
+        append(crashed, "c1", 2L, sink, new UserMessage("x1"), new AssistantMessage("y1"));
+        assertEquals(1, pendingCount(crashed, "chat_c1", 1L));
+        assertEquals(2, pendingCount(crashed, "chat_c1", 2L));
+        assertEquals(0, pendingCount(crashed, "chat_c1", null));
+
+        // 清除用户 1 的对话不影响用户 2 的同名对话，重启后也不重放用户 1 的消息
+        crashed.discard("chat_c1", 1L);
+        assertEquals(0, pendingCount(crashed, "chat_c1", 1L));
+        assertEquals(2, pendingCount(crashed, "chat_c1", 2L));
+
+        ChatMemoryWriteBehind restarted = open();
+        assertEquals(0, pendingCount(restarted, "chat_c1", 1L));
+        assertEquals(2, pendingCount(restarted, "chat_c1", 2L));
+        RecordingSink replaySink = new RecordingSink();
+        restarted.bindDefaultSink(replaySink);
+        restarted.flush();
+        // 只剩用户 2 的消息需要写出
+        assertEquals(List.of("x1", "y1"), replaySink.persisted.get("chat_c1"));
+        restarted.shutdown();
+    }
+
+    private ChatMemoryWriteBehind open() {
+        ChatMemoryWriteBehindProperties properties = new ChatMemoryWriteBehindProperties();
+        properties.setEnabled(true);
+        properties.setLogDir(logDir.toString());
+        properties.setFsync(false);
+        // 测试中手动调用 flush
+        properties.setFlushIntervalMillis(3_600_000);
+        return new ChatMemoryWriteBehind(properties);
+    }
+
+    private static int pendingCount(ChatMemoryWriteBehind writeBehind, String safeConversationId) {
+        return pendingCount(writeBehind, safeConversationId, 1L);
+    }
+
+    private static int pendingCount(ChatMemoryWriteBehind writeBehind, String safeConversationId, Long userId) {
+        return writeBehind.read(safeConversationId, userId, List::size);
+    }
+
+    private static void append(ChatMemoryWriteBehind writeBehind, String conversationId,
+                               ChatMemoryWriteBehind.Sink sink, Message... messages) {
+        append(writeBehind, conversationId, 1L, sink, messages);
+    }
+
+    private static void append(ChatMemoryWriteBehind writeBehind, String conversationId, Long userId,
+                               ChatMemoryWriteBehind.Sink sink, Message... messages) {
+        assertTrue(writeBehind.append(conversationId, "chat_" + conversationId, userId, List.of(messages), sink));
+    }
+
+    /**
+     * 记录每个对话写入的消息内容与每次尝试的消息ID，可模拟写入失败
+     */
+    private static class RecordingSink implements ChatMemoryWriteBehind.Sink {
+        private final Map<String, List<String>> persisted = new LinkedHashMap<>();
+        private final List<List<String>> attemptedIds = new ArrayList<>();
+        private int failuresLeft;
+
+        @Override
+        public void persist(String conversationId, String safeConversationId, Long userId,
+                            List<ChatMemoryWriteBehind.Entry> entries) {
+            attemptedIds.add(entries.stream().map(ChatMemoryWriteBehind.Entry::messageId).toList());
+            if (failuresLeft > 0) {
+                failuresLeft--;
+                throw new IllegalStateException("数据库不可用");
+            }
+            List<String> contents = persisted.computeIfAbsent(safeConversationId, key -> new ArrayList<>());
+            entries.forEach(entry -> contents.add(entry.content()));
+        }
+    }
+}
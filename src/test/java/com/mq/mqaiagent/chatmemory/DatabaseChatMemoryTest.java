@@ -0,0 +1,219 @@
+package com.mq.mqaiagent.chatmemory;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.mq.mqaiagent.mapper.ChatMemoryTestDatabase;
+import com.mq.mqaiagent.mapper.ChatMessageMapper;
+import com.mq.mqaiagent.mapper.KeepReportMapper;
+import com.mq.mqaiagent.model.dto.keepReport.KeepReport;
+import com.mq.mqaiagent.model.entity.ChatMessage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * DatabaseChatMemory 在 H2（MySQL 模式）上的测试：追加与表头刷新、序号冲突重试、
+ * 按用户隔离的序号空间、旧版整段 JSON 迁移、旧行重写交给压缩器
+ *
+ * @author MQQQ
+ * @version v1.0
+ * @since 2025/9/19
+ */
+class DatabaseChatMemoryTest {
+
+    private static final String CHAT_ID = "chat_memory_test";
+
+    private ChatMemoryTestDatabase database;
+    private ChatMessageMapper chatMessageMapper;
+    private KeepReportMapper keepReportMapper;
+    private DatabaseChatMemory memory;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        database = ChatMemoryTestDatabase.create();
+        chatMessageMapper = database.chatMessageMapper();
+        keepReportMapper = database.keepReportMapper();
+        memory = new DatabaseChatMemory(keepReportMapper, chatMessageMapper);
+    }
+
+    @Test
+    void testAdd_ShouldAppendRowsAndCreateHeader() {
+        memory.add(CHAT_ID, 1L, List.of(new UserMessage("每周练几次？"), new AssistantMessage("建议三到四次")));
+        memory.add(CHAT_ID, 1L, List.of(new UserMessage("每次多久？"), new AssistantMessage("一小时左右")));
+
+        assertEquals(List.of(1, 2, 3, 4), seqs(1L));
+        assertEquals(List.of("每周练几次？", "建议三到四次", "每次多久？", "一小时左右"),
+                texts(memory.get(CHAT_ID, 1L, 10)));
+        assertEquals(List.of("每次多久？", "一小时左右"), texts(memory.get(CHAT_ID, 1L, 2)));
+
+        // 表头只有一条，记录最后一条消息，旧字段留空
+        List<KeepReport> headers = keepReportMapper.selectList(new LambdaQueryWrapper<KeepReport>()
+                .eq(KeepReport::getChatId, CHAT_ID));
+        assertEquals(1, headers.size());
+        assertEquals("一小时左右", headers.get(0).getLastMessage());
+        assertEquals("", headers.get(0).getMessages());
+    }
+
+    @Test
+    void testAdd_SameConversationDifferentUsers_ShouldUseSeparateSeqSpaces() {
+        memory.add(CHAT_ID, 1L, List.of(new UserMessage("用户一的问题"), new AssistantMessage("用户一的回答")));
+        memory.add(CHAT_ID, 2L, List.of(new UserMessage("用户二的问题")));
+        memory.add(CHAT_ID, null, List.of(new UserMessage("未登录的问题")));
+
+        assertEquals(List.of(1, 2), seqs(1L));
+        assertEquals(List.of(1), seqs(2L));
+        // 未登录对话按用户ID 0 记录
+        assertEquals(List.of(1), seqs(DatabaseChatMemory.ANONYMOUS_USER_ID));
+        assertEquals(List.of("用户二的问题"), texts(memory.get(CHAT_ID, 2L, 10)));
+        assertEquals(List.of("未登录的问题"), texts(memory.get(CHAT_ID, null, 10)));
+
+        memory.clear(CHAT_ID, 2L);
+
+        assertTrue(memory.get(CHAT_ID, 2L, 10).isEmpty());
+        assertEquals(2, memory.get(CHAT_ID, 1L, 10).size());
+    }
+
+    @Test
+    void testAdd_ConcurrentSeqConflict_ShouldRetryWithNextSeq() {
+        memory.add(CHAT_ID, 1L, List.of(new UserMessage("第一条")));
+        // 本次 INSERT 之前另一个实例抢先写入了相同的序号
+        DatabaseChatMemory racing = new DatabaseChatMemory(keepReportMapper, racingMapper(1));
+
+        racing.add(CHAT_ID, 1L, List.of(new UserMessage("我的问题"), new AssistantMessage("我的回答")));
+
+        assertEquals(List.of(1, 2, 3, 4), seqs(1L));
+        assertEquals(List.of("第一条", "并发写入的消息", "我的问题", "我的回答"), texts(memory.get(CHAT_ID, 1L, 10)));
+    }
+
+    @Test
+    void testAdd_PersistentSeqConflict_ShouldGiveUpAfterMaxAttempts() {
+        AtomicInteger insertCalls = new AtomicInteger();
+        ChatMessageMapper alwaysRacing = racingMapper(Integer.MAX_VALUE, insertCalls);
+        DatabaseChatMemory racing = new DatabaseChatMemory(keepReportMapper, alwaysRacing);
+
+        racing.add(CHAT_ID, 1L, List.of(new UserMessage("我的问题")));
+
+        // 每次尝试都被抢先，三次后放弃（写入失败只记录日志）
+        assertEquals(3, insertCalls.get());
+        assertFalse(texts(memory.get(CHAT_ID, 1L, 10)).contains("我的问题"));
+    }
+
+    @Test
+    void testGet_LegacyJson_ShouldMigrateToRowsAndClearField() {
+        keepReportMapper.insert(legacyHeader(1L));
+
+        assertEquals(List.of("旧问题", "旧回答"), texts(memory.get(CHAT_ID, 1L, 10)));
+
+        assertEquals(List.of(1, 2), seqs(1L));
+        assertEquals("", header(1L).getMessages());
+        // 新消息排在迁移的历史之后
+        memory.add(CHAT_ID, 1L, List.of(new UserMessage("新问题")));
+        assertEquals(List.of(1, 2, 3), seqs(1L));
+        assertEquals(List.of("旧问题", "旧回答", "新问题"), texts(memory.get(CHAT_ID, 1L, 10)));
+    }
+
+    @Test
+    void testAdd_LegacyJsonWithRowsAlreadyMigrated_ShouldNotDuplicate() {
+        keepReportMapper.insert(legacyHeader(1L));
+        // 上次迁移写入了消息行，但清空旧字段失败
+        chatMessageMapper.insertBatch(List.of(
+                row(1L, 1, "USER", "旧问题"),
+                row(1L, 2, "ASSISTANT", "旧回答")));
+
+        memory.add(CHAT_ID, 1L, List.of(new UserMessage("新问题")));
+
+        assertEquals(List.of(1, 2, 3), seqs(1L));
+        assertEquals("", header(1L).getMessages());
+        assertEquals("新问题", header(1L).getLastMessage());
+    }
+
+    @Test
+    void testAdd_ShouldHandLegacyRowRewriteToCompactor() {
+        ChatMemoryCompactor compactor = mock(ChatMemoryCompactor.class);
+        DatabaseChatMemory withCompactor = new DatabaseChatMemory(keepReportMapper, chatMessageMapper, compactor);
+
+        withCompactor.add(CHAT_ID, 1L, List.of(new UserMessage("用户的问题")));
+        withCompactor.add(CHAT_ID, null, List.of(new UserMessage("未登录的问题")));
+
+        // 旧行重写按（用户, 对话）提交到后台，不在写入路径上执行
+        verify(compactor).recompressLater(CHAT_ID, 1L);
+        verify(compactor).recompressLater(CHAT_ID, DatabaseChatMemory.ANONYMOUS_USER_ID);
+    }
+
+    /**
+     * 每次批量插入前先以相同序号插入一条竞争消息，模拟另一个实例并发追加
+     *
+     * @param conflicts 需要制造冲突的插入次数
+     */
+    private ChatMessageMapper racingMapper(int conflicts) {
+        return racingMapper(conflicts, new AtomicInteger());
+    }
+
+    private ChatMessageMapper racingMapper(int conflicts, AtomicInteger insertCalls) {
+        AtomicInteger remaining = new AtomicInteger(conflicts);
+        return (ChatMessageMapper) Proxy.newProxyInstance(ChatMessageMapper.class.getClassLoader(),
+                new Class<?>[]{ChatMessageMapper.class}, (proxy, method, args) -> {
+                    if ("insertBatch".equals(method.getName())) {
+                        insertCalls.incrementAndGet();
+                        if (remaining.getAndDecrement() > 0) {
+                            int seq = chatMessageMapper.selectMaxSeq(CHAT_ID, 1L) + 1;
+                            chatMessageMapper.insertBatch(List.of(row(1L, seq, "USER", "并发写入的消息")));
+                        }
+                    }
+                    try {
+                        return method.invoke(chatMessageMapper, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    private KeepReport legacyHeader(Long userId) {
+        Date now = new Date();
+        return KeepReport.builder()
+                .chatId(CHAT_ID)
+                .userId(userId)
+                .messages("[{\"messageType\":\"USER\",\"message\":\"旧问题\"},"
+                        + "{\"messageType\":\"ASSISTANT\",\"message\":\"旧回答\"}]")
+                .lastMessage("旧回答")
+                .createTime(now)
+                .updateTime(now)
+                .build();
+    }
+
+    private KeepReport header(Long userId) {
+        return keepReportMapper.selectOne(new LambdaQueryWrapper<KeepReport>()
+                .eq(KeepReport::getChatId, CHAT_ID)
+                .eq(KeepReport::getUserId, userId));
+    }
+
+    private static ChatMessage row(Long userId, int seq, String type, String content) {
+        return ChatMessage.builder()
+                .conversationId(CHAT_ID)
+                .userId(userId)
+                .seq(seq)
+                .type(type)
+                .content(content)
+                .createTime(new Date())
+                .build();
+    }
+
+    private List<Integer> seqs(Long userId) {
+        return chatMessageMapper.selectAfterSeq(CHAT_ID, userId, 0).stream().map(ChatMessage::getSeq).toList();
+    }
+
+    private static List<String> texts(List<Message> messages) {
+        return messages.stream().map(Message::getText).toList();
+    }
+}
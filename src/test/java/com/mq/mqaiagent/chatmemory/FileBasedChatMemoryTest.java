@@ -0,0 +1,186 @@
+package com.mq.mqaiagent.chatmemory;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 段文件对话记忆的读写、恢复、压缩与崩溃后重启测试
+ *
+ * @author MQQQ
+ * @version v1.0
+ * @since 2025/9/17
+ */
+class FileBasedChatMemoryTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testGet_ShouldReturnLastNInAppendOrder() {
+        try (FileBasedChatMemory memory = new FileBasedChatMemory(dir.toString())) {
+            memory.add("c1", List.of(new UserMessage("q1"), new AssistantMessage("a1")));
+            memory.add("c2", List.of(new UserMessage("x1")));
+            memory.add("c1", List.of(new UserMessage("q2"), new AssistantMessage("a2")));
+
+            assertEquals(List.of("q2", "a2"), texts(memory.get("c1", 2)));
+            assertEquals(List.of("q1", "a1", "q2", "a2"), texts(memory.get("c1", 10)));
+            assertEquals(List.of("x1"), texts(memory.get("c2", 10)));
+            assertTrue(memory.get("missing", 10).isEmpty());
+        }
+    }
+
+    @Test
+    void testReopen_ShouldRecoverMessagesAndClears() {
+        try (FileBasedChatMemory memory = new FileBasedChatMemory(dir.toString())) {
+            memory.add("c1", List.of(new UserMessage("q1"), new AssistantMessage("a1")));
+            memory.add("c2", List.of(new UserMessage("x1")));
+            memory.clear("c1");
+            memory.add("c1", List.of(new UserMessage("q2")));
+        }
+
+        try (FileBasedChatMemory reopened = new FileBasedChatMemory(dir.toString())) {
+            assertEquals(List.of("q2"), texts(reopened.get("c1", 10)));
+            assertEquals(List.of("x1"), texts(reopened.get("c2", 10)));
+            // 恢复后继续追加，序号不能与清除前的记录冲突
+            reopened.add("c1", List.of(new AssistantMessage("a2")));
+        }
+
+        try (FileBasedChatMemory reopened = new FileBasedChatMemory(dir.toString())) {
+            assertEquals(List.of("q2", "a2"), texts(reopened.get("c1", 10)));
+        }
+    }
+
+    @Test
+    void testCompact_ShouldDropClearedSegmentsAndKeepLiveMessages() throws IOException {
+        String filler = "这是一条用于填满段文件的较长健身对话内容".repeat(5);
+        try (FileBasedChatMemory memory = new FileBasedChatMemory(dir.toString(), 4096)) {
+            for (int i = 0; i < 40; i++) {
+                memory.add("cleared", List.of(new UserMessage(filler + i)));
+                if (i % 10 == 0) {
+                    memory.add("kept", List.of(new UserMessage("k" + i)));
+                }
+            }
+            long before = segmentCount();
+            assertTrue(before > 2);
+
+            memory.clear("cleared");
+            memory.compact();
+            assertTrue(segmentCount() < before);
+            assertEquals(List.of("k0", "k10", "k20", "k30"), texts(memory.get("kept", 10)));
+            assertTrue(memory.get("cleared", 10).isEmpty());
+        }
+
+        try (FileBasedChatMemory reopened = new FileBasedChatMemory(dir.toString(), 4096)) {
+            assertEquals(List.of("k0", "k10", "k20", "k30"), texts(reopened.get("kept", 10)));
+            assertTrue(reopened.get("cleared", 10).isEmpty());
+        }
+    }
+
+    @Test
+    void testRecover_CrashBetweenCompactCopyAndDelete_ShouldNotDuplicateMessages() throws IOException {
+        String filler = "这是一条用于填满段文件的较长健身对话内容".repeat(5);
+        Map<Path, byte[]> beforeCompact = new HashMap<>();
+        try (FileBasedChatMemory memory = new FileBasedChatMemory(dir.toString(), 4096)) {
+            for (int i = 0; i < 40; i++) {
+                memory.add("cleared", List.of(new UserMessage(filler + i)));
+                if (i % 10 == 0) {
+                    memory.add("kept", List.of(new UserMessage("k" + i)));
+                }
+            }
+            memory.clear("cleared");
+            for (Path segment : segments()) {
+                beforeCompact.put(segment, Files.readAllBytes(segment));
+            }
+            memory.compact();
+        }
+        // 模拟存活记录已搬到当前段、原段还没来得及删除时进程被杀
+        int restored = 0;
+        for (Map.Entry<Path, byte[]> segment : beforeCompact.entrySet()) {
+            if (Files.notExists(segment.getKey())) {
+                Files.write(segment.getKey(), segment.getValue());
+                restored++;
+            }
+        }
+        assertTrue(restored > 0);
+
+        try (FileBasedChatMemory reopened = new FileBasedChatMemory(dir.toString(), 4096)) {
+            assertEquals(List.of("k0", "k10", "k20", "k30"), texts(reopened.get("kept", 10)));
+            assertTrue(reopened.get("cleared", 10).isEmpty());
+            // 序号与位置仍一一对应：继续追加、再次压缩后内容不变
+            reopened.add("kept", List.of(new AssistantMessage("k40")));
+            reopened.compact();
+            assertEquals(List.of("k0", "k10", "k20", "k30", "k40"), texts(reopened.get("kept", 10)));
+        }
+
+        try (FileBasedChatMemory reopened = new FileBasedChatMemory(dir.toString(), 4096)) {
+            assertEquals(List.of("k0", "k10", "k20", "k30", "k40"), texts(reopened.get("kept", 10)));
+        }
+    }
+
+    @Test
+    void testImportLegacyFiles_CrashBeforeDelete_ShouldNotImportTwice() throws IOException {
+        List<Message> legacy = List.of(new UserMessage("q1"), new AssistantMessage("a1"), new UserMessage("q2"));
+        // partial：上次导入只写入了第一条；complete：上次已全部写入，只是旧文件没有删除
+        try (FileBasedChatMemory memory = new FileBasedChatMemory(dir.toString())) {
+            memory.add("partial", legacy.subList(0, 1));
+            memory.add("complete", legacy);
+        }
+        writeLegacyFile("partial", legacy);
+        writeLegacyFile("complete", legacy);
+        writeLegacyFile("fresh", legacy);
+
+        try (FileBasedChatMemory reopened = new FileBasedChatMemory(dir.toString())) {
+            assertEquals(List.of("q1", "a1", "q2"), texts(reopened.get("partial", 10)));
+            assertEquals(List.of("q1", "a1", "q2"), texts(reopened.get("complete", 10)));
+            assertEquals(List.of("q1", "a1", "q2"), texts(reopened.get("fresh", 10)));
+        }
+        assertFalse(Files.exists(dir.resolve("partial.kryo")));
+        assertFalse(Files.exists(dir.resolve("complete.kryo")));
+        assertFalse(Files.exists(dir.resolve("fresh.kryo")));
+    }
+
+    /**
+     * 按旧版格式（未注册类，写入类名）写入一个对话文件
+     */
+    private void writeLegacyFile(String conversationId, List<Message> messages) throws IOException {
+        Kryo legacyKryo = new Kryo();
+        legacyKryo.setRegistrationRequired(false);
+        legacyKryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+        try (Output output = new Output(Files.newOutputStream(dir.resolve(conversationId + ".kryo")))) {
+            legacyKryo.writeObject(output, new ArrayList<>(messages));
+        }
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(path -> path.getFileName().toString().startsWith("segment-")).toList();
+        }
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(path -> path.getFileName().toString().startsWith("segment-")).count();
+        }
+    }
+
+    private static List<String> texts(List<Message> messages) {
+        return messages.stream().map(Message::getText).toList();
+    }
+}
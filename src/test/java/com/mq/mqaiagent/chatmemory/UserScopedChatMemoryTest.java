@@ -0,0 +1,51 @@
+package com.mq.mqaiagent.chatmemory;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 按请求解析用户身份的对话键编解码测试
+ *
+ * @author MQQQ
+ * @version v1.0
+ * @since 2025/9/2
+ */
+class UserScopedChatMemoryTest {
+
+    @Test
+    void testEncodeAndDecode_ShouldRoundTripUserAndConversation() {
+        String scoped = UserScopedChatMemory.encode(42L, "chat:with:colons");
+        UserScopedChatMemory.ScopedConversation decoded = UserScopedChatMemory.decode(scoped);
+        assertEquals(42L, decoded.userId());
+        assertEquals("chat:with:colons", decoded.conversationId());
+    }
+
+    @Test
+    void testEncode_WithoutUser_ShouldRoundTripAsAnonymous() {
+        UserScopedChatMemory.ScopedConversation decoded = UserScopedChatMemory.decode(UserScopedChatMemory.encode(null, "abc"));
+        assertNull(decoded.userId());
+        assertEquals("abc", decoded.conversationId());
+    }
+
+    @Test
+    void testEncode_WithoutUser_ShouldNotTrustClientSuppliedUserPrefix() {
+        UserScopedChatMemory.ScopedConversation decoded = UserScopedChatMemory.decode(UserScopedChatMemory.encode(null, "u:5:abc"));
+        assertNull(decoded.userId());
+        assertEquals("u:5:abc", decoded.conversationId());
+    }
+
+    @Test
+    void testDecode_UnscopedId_ShouldKeepConversationId() {
+        UserScopedChatMemory.ScopedConversation decoded = UserScopedChatMemory.decode("abc");
+        assertNull(decoded.userId());
+        assertEquals("abc", decoded.conversationId());
+    }
+
+    @Test
+    void testDecode_NonNumericUser_ShouldFallBackToPlainConversationId() {
+        UserScopedChatMemory.ScopedConversation decoded = UserScopedChatMemory.decode("u:abc:chat");
+        assertNull(decoded.userId());
+        assertEquals("u:abc:chat", decoded.conversationId());
+    }
+}
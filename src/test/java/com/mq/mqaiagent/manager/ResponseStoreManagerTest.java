@@ -0,0 +1,103 @@
+package com.mq.mqaiagent.manager;
+
+import com.mq.mqaiagent.cache.FallbackCacheProperties;
+import com.mq.mqaiagent.cache.FallbackCacheStore;
+import com.mq.mqaiagent.cache.RedisCircuitBreaker;
+import com.mq.mqaiagent.cache.TtlJitter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * 按内容寻址的 AI 响应存储在 Redis 不可用时经降级缓存读写的测试
+ *
+ * @author MQQQ
+ * @version v1.0
+ * @since 2025/9/19
+ */
+@SuppressWarnings("unchecked")
+class ResponseStoreManagerTest {
+
+    private static final String POINTER_KEY = "mq:ai:agent:ai:response:generic:abc";
+    private static final String OTHER_POINTER_KEY = "mq:ai:agent:ai:response:generic:def";
+
+    private final StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+    private final ValueOperations<String, String> valueOperations = mock(ValueOperations.class);
+    private final RedisCircuitBreaker redisCircuitBreaker = mock(RedisCircuitBreaker.class);
+    private final ResponseStoreManager manager = new ResponseStoreManager();
+    private FallbackCacheStore fallbackCacheStore;
+
+    @BeforeEach
+    void setUp() {
+        fallbackCacheStore = new FallbackCacheStore(new FallbackCacheProperties(), mock(RedisTemplate.class),
+                redisCircuitBreaker, new SimpleMeterRegistry());
+        TtlJitter ttlJitter = mock(TtlJitter.class);
+        when(ttlJitter.apply(anyString(), anyLong())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        ReflectionTestUtils.setField(manager, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(manager, "redisCircuitBreaker", redisCircuitBreaker);
+        ReflectionTestUtils.setField(manager, "ttlJitter", ttlJitter);
+        ReflectionTestUtils.setField(manager, "fallbackCacheStore", fallbackCacheStore);
+    }
+
+    @Test
+    void testBreakerOpen_ShouldReadAndWriteFallback() {
+        when(redisCircuitBreaker.allowRequest()).thenReturn(false);
+
+        assertTrue(manager.put(POINTER_KEY, "每周训练三次", 3600));
+
+        assertEquals("每周训练三次", manager.get(POINTER_KEY));
+        assertEquals(Arrays.asList("每周训练三次", null), manager.multiGet(List.of(POINTER_KEY, OTHER_POINTER_KEY)));
+        verifyNoInteractions(stringRedisTemplate);
+    }
+
+    @Test
+    void testBreakerOpen_Delete_ShouldRegisterPendingDelete() {
+        when(redisCircuitBreaker.allowRequest()).thenReturn(false);
+        manager.put(POINTER_KEY, "每周训练三次", 3600);
+
+        assertTrue(manager.delete(POINTER_KEY));
+
+        assertNull(manager.get(POINTER_KEY));
+        // 删除登记保留到 Redis 恢复后对账
+        assertFalse(fallbackCacheStore.isEmpty());
+        verifyNoInteractions(stringRedisTemplate);
+    }
+
+    @Test
+    void testRedisRecovered_UnreconciledLocalEntryShouldWin() {
+        when(redisCircuitBreaker.allowRequest()).thenReturn(false);
+        manager.put(POINTER_KEY, "每周训练三次", 3600);
+        when(redisCircuitBreaker.allowRequest()).thenReturn(true);
+        when(valueOperations.multiGet(List.of(POINTER_KEY, OTHER_POINTER_KEY))).thenReturn(Arrays.asList("old", null));
+
+        assertEquals("每周训练三次", manager.get(POINTER_KEY));
+        assertEquals(Arrays.asList("每周训练三次", null), manager.multiGet(List.of(POINTER_KEY, OTHER_POINTER_KEY)));
+    }
+
+    @Test
+    void testConnectionFailure_ShouldRecordFailure() {
+        when(redisCircuitBreaker.allowRequest()).thenReturn(true);
+        RedisConnectionFailureException failure = new RedisConnectionFailureException("连接被拒绝");
+        when(valueOperations.get(POINTER_KEY)).thenThrow(failure);
+
+        assertNull(manager.get(POINTER_KEY));
+        verify(redisCircuitBreaker).recordFailure(failure);
+    }
+}
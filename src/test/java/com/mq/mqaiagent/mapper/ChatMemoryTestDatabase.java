@@ -0,0 +1,80 @@
+package com.mq.mqaiagent.mapper;
+
+import com.baomidou.mybatisplus.core.MybatisConfiguration;
+import com.baomidou.mybatisplus.core.config.GlobalConfig;
+import com.baomidou.mybatisplus.core.toolkit.GlobalConfigUtils;
+import com.baomidou.mybatisplus.extension.spring.MybatisSqlSessionFactoryBean;
+import org.h2.jdbcx.JdbcDataSource;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import java.util.UUID;
+
+/**
+ * 对话记忆 Mapper 测试使用的 H2 内存库（MySQL 模式）
+ * <p>
+ * 每个实例是一个独立的库，加载 src/main/resources/mapper 下真实的 Mapper XML，
+ * 经 SqlSessionTemplate 调用，唯一索引冲突与线上一样被翻译为 DuplicateKeyException。
+ *
+ * @author MQQQ
+ * @version v1.0
+ * @since 2025/9/19
+ */
+public final class ChatMemoryTestDatabase {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final SqlSessionTemplate sqlSessionTemplate;
+
+    private ChatMemoryTestDatabase(JdbcTemplate jdbcTemplate, SqlSessionTemplate sqlSessionTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.sqlSessionTemplate = sqlSessionTemplate;
+    }
+
+    /**
+     * 创建一个新的空库并建表
+     */
+    public static ChatMemoryTestDatabase create() throws Exception {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+        new ResourceDatabasePopulator(new ClassPathResource("sql/chat_memory_h2.sql")).execute(dataSource);
+
+        // 与 application.yml 中的 mybatis-plus 配置一致
+        MybatisConfiguration configuration = new MybatisConfiguration();
+        configuration.setMapUnderscoreToCamelCase(false);
+        GlobalConfig globalConfig = GlobalConfigUtils.defaults();
+        globalConfig.setBanner(false);
+        globalConfig.getDbConfig()
+                .setLogicDeleteField("isDelete")
+                .setLogicDeleteValue("1")
+                .setLogicNotDeleteValue("0");
+
+        MybatisSqlSessionFactoryBean factoryBean = new MybatisSqlSessionFactoryBean();
+        factoryBean.setDataSource(dataSource);
+        factoryBean.setConfiguration(configuration);
+        factoryBean.setGlobalConfig(globalConfig);
+        factoryBean.setMapperLocations(new Resource[]{
+                new ClassPathResource("mapper/ChatMessageMapper.xml"),
+                new ClassPathResource("mapper/KeepReportMapper.xml")
+        });
+        return new ChatMemoryTestDatabase(new JdbcTemplate(dataSource),
+                new SqlSessionTemplate(factoryBean.getObject()));
+    }
+
+    public ChatMessageMapper chatMessageMapper() {
+        return sqlSessionTemplate.getMapper(ChatMessageMapper.class);
+    }
+
+    public KeepReportMapper keepReportMapper() {
+        return sqlSessionTemplate.getMapper(KeepReportMapper.class);
+    }
+
+    /**
+     * 直接访问表数据，用于核对数据库中实际存储的内容
+     */
+    public JdbcTemplate jdbcTemplate() {
+        return jdbcTemplate;
+    }
+}
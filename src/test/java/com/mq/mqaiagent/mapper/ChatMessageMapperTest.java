@@ -0,0 +1,123 @@
+package com.mq.mqaiagent.mapper;
+
+import com.mq.mqaiagent.chatmemory.ChatContentCodecs;
+import com.mq.mqaiagent.model.entity.ChatMessage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * chat_message Mapper XML 在 H2（MySQL 模式）上的测试：批量插入、倒序取最近 N 条、
+ * 按（对话, 用户）分配的序号空间与唯一索引
+ *
+ * @author MQQQ
+ * @version v1.0
+ * @since 2025/9/19
+ */
+class ChatMessageMapperTest {
+
+    private static final String CHAT_ID = "chat_mapper_test";
+
+    private ChatMemoryTestDatabase database;
+    private ChatMessageMapper mapper;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        database = ChatMemoryTestDatabase.create();
+        mapper = database.chatMessageMapper();
+    }
+
+    @Test
+    void testInsertBatch_SelectLatest_ShouldReturnNewestFirst() {
+        assertEquals(5, mapper.insertBatch(rows(CHAT_ID, 1L, 1, 5)));
+
+        List<ChatMessage> latest = mapper.selectLatest(CHAT_ID, 1L, 3);
+
+        assertEquals(List.of(5, 4, 3), latest.stream().map(ChatMessage::getSeq).toList());
+        assertEquals("消息5", latest.get(0).getContent());
+        assertEquals(1L, latest.get(0).getUserId());
+        assertNotNull(latest.get(0).getId());
+    }
+
+    @Test
+    void testSelectAfterSeq_ShouldReturnAscending() {
+        mapper.insertBatch(rows(CHAT_ID, 1L, 1, 5));
+
+        List<ChatMessage> after = mapper.selectAfterSeq(CHAT_ID, 1L, 2);
+
+        assertEquals(List.of(3, 4, 5), after.stream().map(ChatMessage::getSeq).toList());
+    }
+
+    @Test
+    void testSelectMaxSeq_ShouldBeScopedPerUser() {
+        assertEquals(0, mapper.selectMaxSeq(CHAT_ID, 1L));
+
+        mapper.insertBatch(rows(CHAT_ID, 1L, 1, 4));
+        // 不同用户的同名对话从 1 开始分配序号，不与其他用户冲突
+        mapper.insertBatch(rows(CHAT_ID, 2L, 1, 2));
+        mapper.insertBatch(rows(CHAT_ID, 0L, 1, 1));
+
+        assertEquals(4, mapper.selectMaxSeq(CHAT_ID, 1L));
+        assertEquals(2, mapper.selectMaxSeq(CHAT_ID, 2L));
+        assertEquals(1, mapper.selectMaxSeq(CHAT_ID, 0L));
+        assertEquals(List.of(2, 1), mapper.selectLatest(CHAT_ID, 2L, 10).stream().map(ChatMessage::getSeq).toList());
+    }
+
+    @Test
+    void testInsertBatch_DuplicateSeq_ShouldThrowDuplicateKey() {
+        mapper.insertBatch(rows(CHAT_ID, 1L, 1, 2));
+
+        assertThrows(DuplicateKeyException.class, () -> mapper.insertBatch(rows(CHAT_ID, 1L, 2, 2)));
+        // 整条 INSERT 失败，不会写入部分行
+        assertEquals(2, mapper.selectMaxSeq(CHAT_ID, 1L));
+    }
+
+    @Test
+    void testInsertBatch_DuplicateMessageId_ShouldThrowDuplicateKey() {
+        List<ChatMessage> first = rows(CHAT_ID, 1L, 1, 1);
+        first.get(0).setMessageId("m-1");
+        mapper.insertBatch(first);
+
+        List<ChatMessage> retry = rows(CHAT_ID, 1L, 2, 1);
+        retry.get(0).setMessageId("m-1");
+
+        assertThrows(DuplicateKeyException.class, () -> mapper.insertBatch(retry));
+        assertEquals(List.of("m-1"), mapper.selectExistingMessageIds(List.of("m-1", "m-2")));
+    }
+
+    @Test
+    void testContent_LongText_ShouldBeStoredCompressedAndReadAsText() {
+        String longText = "深蹲时保持核心收紧，膝盖与脚尖方向一致。".repeat(100);
+        List<ChatMessage> batch = rows(CHAT_ID, 1L, 1, 1);
+        batch.get(0).setContent(longText);
+        mapper.insertBatch(batch);
+
+        String stored = database.jdbcTemplate()
+                .queryForObject("SELECT content FROM chat_message WHERE seq = 1", String.class);
+
+        assertTrue(ChatContentCodecs.isEncoded(stored));
+        assertTrue(stored.length() < longText.length());
+        assertEquals(longText, mapper.selectLatest(CHAT_ID, 1L, 1).get(0).getContent());
+    }
+
+    private static List<ChatMessage> rows(String conversationId, Long userId, int fromSeq, int count) {
+        List<ChatMessage> rows = new ArrayList<>(count);
+        for (int seq = fromSeq; seq < fromSeq + count; seq++) {
+            rows.add(ChatMessage.builder()
+                    .conversationId(conversationId)
+                    .userId(userId)
+                    .seq(seq)
+                    .type(seq % 2 == 1 ? "USER" : "ASSISTANT")
+                    .content("消息" + seq)
+                    .createTime(new Date())
+                    .build());
+        }
+        return rows;
+    }
+}
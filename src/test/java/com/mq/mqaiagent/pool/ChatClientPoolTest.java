@@ -1,5 +1,10 @@
 package com.mq.mqaiagent.pool;
 
+import com.mq.mqaiagent.ai.AiModelRouter;
+import com.mq.mqaiagent.ai.AiModelType;
+import com.mq.mqaiagent.chatmemory.ChatMemoryCompactor;
+import com.mq.mqaiagent.chatmemory.ChatMemoryWriteBehind;
+import com.mq.mqaiagent.mapper.ChatMessageMapper;
 import com.mq.mqaiagent.mapper.KeepReportMapper;
 import com.mq.mqaiagent.service.CacheService;
 import org.junit.jupiter.api.BeforeEach;
@@ -8,9 +13,19 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.model.ChatModel;
-import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.nullable;
 import static org.mockito.Mockito.when;
 
 /**
@@ -20,14 +35,25 @@ import static org.mockito.Mockito.when;
  * @version v1.0
  * @since 2025/1/17
  */
-@SpringBootTest
 class ChatClientPoolTest {
 
     @Mock
     private ChatModel dashscopeChatModel;
+
+    @Mock
+    private AiModelRouter aiModelRouter;
+
+    @Mock
+    private ChatMemoryCompactor chatMemoryCompactor;
+
+    @Mock
+    private ChatMemoryWriteBehind chatMemoryWriteBehind;
     
     @Mock
     private KeepReportMapper keepReportMapper;
+
+    @Mock
+    private ChatMessageMapper chatMessageMapper;
     
     @Mock
     private CacheService cacheService;
@@ -41,11 +67,17 @@ class ChatClientPoolTest {
         // 模拟 CacheService 的行为
         when(cacheService.isRedisAvailable()).thenReturn(true);
         
+        when(aiModelRouter.resolve(nullable(AiModelType.class))).thenReturn(
+                new AiModelRouter.ResolvedModel(AiModelType.QWEN_PLUS, dashscopeChatModel, null));
+
         // 创建 ChatClientPool 实例
         chatClientPool = new ChatClientPool();
-        // 通过反射设置私有字段（在实际应用中，这些会通过 @Autowired 注入）
-        setPrivateField(chatClientPool, "dashscopeChatModel", dashscopeChatModel);
+        // 通过反射设置私有字段（在实际应用中，这些会通过 @Resource 注入）
+        setPrivateField(chatClientPool, "aiModelRouter", aiModelRouter);
+        setPrivateField(chatClientPool, "chatMemoryCompactor", chatMemoryCompactor);
+        setPrivateField(chatClientPool, "chatMemoryWriteBehind", chatMemoryWriteBehind);
         setPrivateField(chatClientPool, "keepReportMapper", keepReportMapper);
+        setPrivateField(chatClientPool, "chatMessageMapper", chatMessageMapper);
         setPrivateField(chatClientPool, "cacheService", cacheService);
     }
 
@@ -71,29 +103,23 @@ class ChatClientPoolTest {
     }
 
     @Test
-    void testGetKeepAppClientWithMemory_ShouldReturnDifferentInstancesForDifferentUsers() {
+    void testGetKeepAppClient_ShouldBeSharedAcrossUsers() {
         // Given
         String systemPrompt = "You are a fitness assistant";
-        Long userId1 = 1L;
-        Long userId2 = 2L;
         
-        // When
-        ChatClient client1 = chatClientPool.getKeepAppClientWithMemory(userId1, systemPrompt);
-        ChatClient client2 = chatClientPool.getKeepAppClientWithMemory(userId2, systemPrompt);
-        ChatClient client3 = chatClientPool.getKeepAppClientWithMemory(userId1, systemPrompt); // 相同用户
+        // When：用户身份通过 advisor 参数传入，池中只按 (模型, 系统提示词) 缓存
+        ChatClient client1 = chatClientPool.getKeepAppClient(systemPrompt);
+        ChatClient client2 = chatClientPool.getKeepAppClient(systemPrompt);
+        ChatClient client3 = chatClientPool.getKeepAppClient(systemPrompt);
         
         // Then
-        assertNotNull(client1);
-        assertNotNull(client2);
-        assertNotNull(client3);
-        assertNotSame(client1, client2, "不同用户应该返回不同的ChatClient实例");
-        assertSame(client1, client3, "相同用户应该返回相同的ChatClient实例");
+        assertSame(client1, client2, "所有用户应该共享同一个ChatClient实例");
+        assertSame(client1, client3, "所有用户应该共享同一个ChatClient实例");
         
         // 验证缓存统计
         ChatClientPool.CacheStats stats = chatClientPool.getCacheStats();
-        assertEquals(2, stats.cacheMisses(), "应该有2次缓存未命中");
-        assertEquals(1, stats.cacheHits(), "应该有1次缓存命中");
-        assertEquals(2, stats.totalCreated(), "应该总共创建2个实例");
+        assertEquals(1, stats.currentCacheSize(), "池中应只有1个实例");
+        assertEquals(1, stats.totalCreated(), "应该总共创建1个实例");
     }
 
     @Test
@@ -167,6 +193,62 @@ class ChatClientPoolTest {
         assertEquals(2, stats.totalCreated(), "应该总共创建2个实例");
     }
 
+    @Test
+    void testMaximumSize_ShouldEvictBeyondLimit() {
+        // Given
+        int maxSize = (int) ReflectionTestUtils.getField(ChatClientPool.class, "MAX_CACHE_SIZE");
+        int total = maxSize + 100;
+
+        // When
+        for (int i = 0; i < total; i++) {
+            chatClientPool.getMqManusClient("prompt-" + i);
+        }
+        // 容量淘汰在 Caffeine 的维护任务中执行，主动触发一次
+        chatClientPool.cleanupExpiredClients();
+
+        // Then
+        ChatClientPool.CacheStats stats = chatClientPool.getCacheStats();
+        assertEquals(total, stats.totalCreated(), "每个不同的提示词应该各创建一次");
+        assertTrue(stats.currentCacheSize() <= maxSize, "池大小不应超过上限: " + stats.currentCacheSize());
+        assertEquals(total - stats.currentCacheSize(), stats.evictionCount(), "超出上限的实例应该被淘汰");
+    }
+
+    @Test
+    void testGetKeepAppClient_ConcurrentFirstRequests_ShouldCreateOnce() throws Exception {
+        // Given：拉长创建过程，让并发的首次请求都落在创建期间
+        AtomicInteger created = new AtomicInteger();
+        when(chatMemoryWriteBehind.isActive()).thenAnswer(invocation -> {
+            created.incrementAndGet();
+            Thread.sleep(100);
+            return false;
+        });
+        int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<ChatClient>> futures = new ArrayList<>();
+
+        // When
+        try {
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return chatClientPool.getKeepAppClient("You are a fitness assistant");
+                }));
+            }
+            start.countDown();
+
+            // Then
+            ChatClient first = futures.get(0).get(5, TimeUnit.SECONDS);
+            for (Future<ChatClient> future : futures) {
+                assertSame(first, future.get(5, TimeUnit.SECONDS), "并发请求应该拿到同一个实例");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, created.get(), "工厂方法只应执行一次");
+        assertEquals(1, chatClientPool.getCacheStats().totalCreated());
+    }
+
     /**
      * 通过反射设置私有字段
      */
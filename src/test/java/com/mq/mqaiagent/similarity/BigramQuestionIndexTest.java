@@ -0,0 +1,103 @@
+package com.mq.mqaiagent.similarity;
+
+import com.mq.mqaiagent.service.TextSimilarityService;
+import com.mq.mqaiagent.service.impl.TextSimilarityServiceImpl;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 相似问题倒排索引测试
+ *
+ * @author MQQQ
+ * @version v1.0
+ * @since 2025/9/5
+ */
+class BigramQuestionIndexTest {
+
+    private static final double THRESHOLD = 0.75;
+
+    private final TextSimilarityService exactScorer = new TextSimilarityServiceImpl();
+
+    @Test
+    void testSearch_ShouldFindSimilarQuestion() {
+        BigramQuestionIndex index = new BigramQuestionIndex(100);
+        index.add("我想增肌，请给我一些建议");
+        index.add("如何制定减脂期的饮食计划");
+
+        List<TextSimilarityService.SimilarityResult> results = index.search("我想增肌，请给我建议", THRESHOLD);
+        assertEquals(1, results.size());
+        assertEquals("我想增肌，请给我一些建议", results.get(0).getText());
+        assertTrue(results.get(0).getSimilarity() > 0.7);
+    }
+
+    @Test
+    void testSearch_ShortQuestion_ShouldReturnEmpty() {
+        BigramQuestionIndex index = new BigramQuestionIndex(100);
+        index.add("增肌");
+        assertTrue(index.search("增肌", THRESHOLD).isEmpty());
+    }
+
+    @Test
+    void testRemoveAndCapacity() {
+        BigramQuestionIndex index = new BigramQuestionIndex(2);
+        index.add("第一个健身问题是什么");
+        index.add("第二个健身问题是什么");
+        index.add("第三个健身问题是什么");
+        assertEquals(2, index.size());
+        assertTrue(index.search("第一个健身问题是什么", 0.99).isEmpty());
+
+        assertTrue(index.remove("第二个健身问题是什么"));
+        assertFalse(index.remove("第二个健身问题是什么"));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    void testSearch_ShouldMatchExactScorer() {
+        List<String> corpus = buildCorpus(2000, 42);
+        BigramQuestionIndex index = new BigramQuestionIndex(corpus.size());
+        index.replaceAll(corpus);
+
+        Random random = new Random(7);
+        for (int i = 0; i < 200; i++) {
+            String query = corpus.get(random.nextInt(corpus.size())) + (i % 2 == 0 ? "呢" : "");
+
+            List<String> expected = exactScorer.calculateSimilarities(query, corpus).stream()
+                    .filter(r -> r.isSimilar(THRESHOLD))
+                    .map(TextSimilarityService.SimilarityResult::getText)
+                    .sorted()
+                    .collect(Collectors.toList());
+            List<String> actual = index.search(query, THRESHOLD).stream()
+                    .map(TextSimilarityService.SimilarityResult::getText)
+                    .sorted()
+                    .collect(Collectors.toList());
+            assertEquals(expected, actual, "query: " + query);
+        }
+    }
+
+    /**
+     * 由健身领域词汇随机拼出的问题语料
+     */
+    static List<String> buildCorpus(int size, long seed) {
+        String[] subjects = {"我想增肌", "我想减脂", "新手健身", "女生塑形", "跑步训练", "力量训练", "核心训练", "拉伸放松"};
+        String[] asks = {"请给我建议", "应该怎么安排", "每周练几次", "需要注意什么", "饮食怎么搭配", "多久能见效"};
+        String[] details = {"", "，我是上班族", "，体重七十公斤", "，在家没有器械", "，膝盖有旧伤", "，time limited"};
+        Random random = new Random(seed);
+        Set<String> corpus = new LinkedHashSet<>();
+        while (corpus.size() < size) {
+            String question = subjects[random.nextInt(subjects.length)]
+                    + asks[random.nextInt(asks.length)]
+                    + details[random.nextInt(details.length)]
+                    + random.nextInt(size);
+            corpus.add(question);
+        }
+        return new ArrayList<>(corpus);
+    }
+}
@@ -0,0 +1,64 @@
+package com.mq.mqaiagent.similarity;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * int 编码 2-gram 向量与文本归一化测试：结果需与原 HashMap/正则实现完全一致
+ *
+ * @author MQQQ
+ * @version v1.0
+ * @since 2025/9/6
+ */
+class BigramVectorTest {
+
+    private static final String ALPHABET = "增肌减脂训练饮食建议我想请给一些，。？！ \t\nABCxyz123,.?!-_()[]{}'\"\\/~@#$%^&*+=:;<>|`";
+
+    @Test
+    void testNormalize_ShouldMatchRegexPreprocess() {
+        Random random = new Random(1);
+        for (int i = 0; i < 5000; i++) {
+            String text = randomText(random, 1 + random.nextInt(30));
+            String expected = text.isBlank() ? "" : LegacyCosine.preprocess(text);
+            assertEquals(expected, TextNormalizer.normalize(text), "text: [" + text + "]");
+        }
+    }
+
+    @Test
+    void testCosine_ShouldMatchLegacyImplementation() {
+        Random random = new Random(2);
+        for (int i = 0; i < 5000; i++) {
+            String text1 = randomText(random, 1 + random.nextInt(25));
+            String text2 = random.nextBoolean() ? text1 + randomText(random, 3) : randomText(random, 1 + random.nextInt(25));
+            if (text1.isBlank() || text2.isBlank()) {
+                continue;
+            }
+            double expected = LegacyCosine.similarity(text1, text2);
+            double actual = BigramVector.of(TextNormalizer.normalize(text1))
+                    .cosine(BigramVector.of(TextNormalizer.normalize(text2)));
+            assertEquals(expected, actual, 1e-12, "texts: [" + text1 + "] [" + text2 + "]");
+        }
+    }
+
+    @Test
+    void testOf_ShouldMergeRepeatedGrams() {
+        BigramVector vector = BigramVector.of("abababa");
+        // ab x3, ba x3
+        assertEquals(2, vector.size());
+        assertEquals(3, vector.countAt(0));
+        assertEquals(3, vector.countAt(1));
+        assertEquals(Math.sqrt(18), vector.norm(), 1e-12);
+        assertTrue(BigramVector.of("abc").isEmpty());
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return builder.toString();
+    }
+}
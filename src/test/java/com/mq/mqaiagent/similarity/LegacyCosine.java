@@ -0,0 +1,61 @@
+package com.mq.mqaiagent.similarity;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 原 TextSimilarityServiceImpl 的相似度计算逻辑，仅作基准对照
+ */
+final class LegacyCosine {
+
+    private LegacyCosine() {
+    }
+
+    static double similarity(String text1, String text2) {
+        String processed1 = preprocess(text1);
+        String processed2 = preprocess(text2);
+        if (processed1.length() < TextNormalizer.MIN_TEXT_LENGTH
+                || processed2.length() < TextNormalizer.MIN_TEXT_LENGTH) {
+            return 0.0;
+        }
+        Map<String, Integer> vector1 = vector(processed1);
+        Map<String, Integer> vector2 = vector(processed2);
+
+        Set<String> allDimensions = new HashSet<>();
+        allDimensions.addAll(vector1.keySet());
+        allDimensions.addAll(vector2.keySet());
+        double dotProduct = 0.0;
+        double norm1 = 0.0;
+        double norm2 = 0.0;
+        for (String dimension : allDimensions) {
+            int value1 = vector1.getOrDefault(dimension, 0);
+            int value2 = vector2.getOrDefault(dimension, 0);
+            dotProduct += value1 * value2;
+            norm1 += value1 * value1;
+            norm2 += value2 * value2;
+        }
+        return dotProduct / (Math.sqrt(norm1) * Math.sqrt(norm2));
+    }
+
+    static String preprocess(String text) {
+        return text.toLowerCase()
+                .replaceAll("\\s+", " ")
+                .replaceAll("[\\p{Punct}&&[^\\u4e00-\\u9fa5]]", "")
+                .trim();
+    }
+
+    private static Map<String, Integer> vector(String text) {
+        Map<String, Integer> vector = new HashMap<>();
+        for (int i = 0; i < text.length() - 1; i++) {
+            vector.merge(text.substring(i, i + 2), 1, Integer::sum);
+        }
+        if (text.length() <= 3) {
+            for (char c : text.toCharArray()) {
+                vector.merge(String.valueOf(c), 1, Integer::sum);
+            }
+        }
+        return vector;
+    }
+}
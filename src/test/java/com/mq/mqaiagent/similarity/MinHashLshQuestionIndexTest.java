@@ -0,0 +1,50 @@
+package com.mq.mqaiagent.similarity;
+
+import com.mq.mqaiagent.service.TextSimilarityService;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * MinHash/LSH 相似问题索引测试
+ * 以倒排 2-gram 索引（与精确余弦逐条计算结果一致）为基准校验默认参数的召回率，
+ * 各参数组合的对比见 {@link MinHashLshTuningReport}。
+ *
+ * @author MQQQ
+ * @version v1.0
+ * @since 2025/9/6
+ */
+class MinHashLshQuestionIndexTest {
+
+    private static final double THRESHOLD = MinHashLshTuningReport.THRESHOLD;
+
+    @Test
+    void testInsertSearchRemove() {
+        MinHashLshQuestionIndex index = new MinHashLshQuestionIndex(100, 32, 4, 42);
+        index.add("我想增肌，请给我一些建议");
+        index.add("如何制定减脂期的饮食计划");
+
+        List<TextSimilarityService.SimilarityResult> results = index.search("我想增肌，请给我一些建议", THRESHOLD);
+        assertEquals(1, results.size());
+        assertEquals("我想增肌，请给我一些建议", results.get(0).getText());
+
+        assertTrue(index.remove("我想增肌，请给我一些建议"));
+        assertTrue(index.search("我想增肌，请给我一些建议", THRESHOLD).isEmpty());
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    void testDefaultConfig_ShouldRecallExactMatchesWithoutFalsePositives() {
+        List<String> corpus = BigramQuestionIndexTest.buildCorpus(5000, 42);
+        BigramQuestionIndex exact = new BigramQuestionIndex(corpus.size());
+        exact.replaceAll(corpus);
+
+        MinHashLshTuningReport.Result result = MinHashLshTuningReport.evaluate(corpus, exact, 32, 4, 500);
+
+        // 精确余弦校验后不会出现误报；默认参数（bands=32, rows=4）的召回率应不低于 95%
+        assertEquals(0, result.falsePositives());
+        assertTrue(result.recall() >= 0.95, "default recall: " + result.recall());
+    }
+}
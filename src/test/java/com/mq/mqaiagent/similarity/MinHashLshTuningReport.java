@@ -0,0 +1,96 @@
+package com.mq.mqaiagent.similarity;
+
+import com.mq.mqaiagent.service.TextSimilarityService;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * MinHash/LSH 调参报告：以倒排 2-gram 索引（与精确余弦逐条计算结果一致）为基准，
+ * 输出不同 bands/rows 下的召回率、候选精确率与平均候选数，便于上线前调参。
+ * 运行方式：先执行 mvn test-compile，然后在 IDE 中运行 main 方法。
+ *
+ * @author MQQQ
+ * @version v1.0
+ * @since 2025/9/19
+ */
+public class MinHashLshTuningReport {
+
+    static final double THRESHOLD = 0.75;
+
+    private static final int[][] CONFIGS = {{8, 4}, {16, 4}, {32, 4}, {12, 3}, {24, 3}, {20, 5}};
+
+    /**
+     * 一组参数在测试语料上的评估结果
+     *
+     * @param falsePositives LSH 返回但精确索引没有返回的结果数（精确余弦校验后应为 0）
+     */
+    record Result(int bands, int rows, double recall, double candidatePrecision, double avgCandidates,
+                  long falsePositives) {
+    }
+
+    /**
+     * 对语料中随机抽取并改写的 queries 个问题，比较 LSH 与精确索引的检索结果
+     */
+    static Result evaluate(List<String> corpus, BigramQuestionIndex exact, int bands, int rows, int queries) {
+        MinHashLshQuestionIndex lsh = new MinHashLshQuestionIndex(corpus.size(), bands, rows, 42);
+        lsh.replaceAll(corpus);
+
+        long truePositives = 0;
+        long falsePositives = 0;
+        long expectedTotal = 0;
+        long candidateTotal = 0;
+        Random random = new Random(7);
+        for (int i = 0; i < queries; i++) {
+            String query = perturb(corpus.get(random.nextInt(corpus.size())), i);
+
+            Set<String> expected = texts(exact.search(query, THRESHOLD));
+            Set<String> actual = texts(lsh.search(query, THRESHOLD));
+            for (String text : actual) {
+                if (expected.contains(text)) {
+                    truePositives++;
+                } else {
+                    falsePositives++;
+                }
+            }
+            expectedTotal += expected.size();
+            candidateTotal += lsh.candidates(BigramVector.of(TextNormalizer.normalize(query)), THRESHOLD).size();
+        }
+
+        double recall = expectedTotal == 0 ? 1.0 : (double) truePositives / expectedTotal;
+        double candidatePrecision = candidateTotal == 0 ? 1.0 : (double) truePositives / candidateTotal;
+        return new Result(bands, rows, recall, candidatePrecision, (double) candidateTotal / queries, falsePositives);
+    }
+
+    private static String perturb(String question, int i) {
+        return switch (i % 3) {
+            case 0 -> question + "呢";
+            case 1 -> question.substring(1);
+            default -> "请问" + question;
+        };
+    }
+
+    private static Set<String> texts(List<TextSimilarityService.SimilarityResult> results) {
+        Set<String> texts = new HashSet<>();
+        for (TextSimilarityService.SimilarityResult result : results) {
+            texts.add(result.getText());
+        }
+        return texts;
+    }
+
+    public static void main(String[] args) {
+        List<String> corpus = BigramQuestionIndexTest.buildCorpus(5000, 42);
+        BigramQuestionIndex exact = new BigramQuestionIndex(corpus.size());
+        exact.replaceAll(corpus);
+
+        System.out.println("bands rows  recall  candidatePrecision  avgCandidates");
+        for (int[] config : CONFIGS) {
+            Result result = evaluate(corpus, exact, config[0], config[1], 500);
+            System.out.printf("%5d %4d  %.3f   %.3f               %.1f%n",
+                    result.bands(), result.rows(), result.recall(), result.candidatePrecision(),
+                    result.avgCandidates());
+        }
+    }
+}
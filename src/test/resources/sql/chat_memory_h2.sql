@@ -0,0 +1,31 @@
+-- Mapper 测试使用的 H2（MySQL 模式）表结构，与 sql/create_table.sql 中的 keep_report、chat_message 保持一致
+-- 去掉了 H2 不支持的表注释、排序规则与 on update 子句
+
+create table if not exists keep_report
+(
+    id          bigint auto_increment primary key,
+    chatId      varchar(255)                       not null,
+    userId      bigint                             not null,
+    messages    text                               not null,
+    lastMessage text                               null,
+    summary     text                               null,
+    summarySeq  int      default 0                 not null,
+    createTime  datetime default CURRENT_TIMESTAMP not null,
+    editTime    datetime default CURRENT_TIMESTAMP not null,
+    updateTime  datetime default CURRENT_TIMESTAMP not null,
+    isDelete    tinyint  default 0                 not null
+);
+
+create table if not exists chat_message
+(
+    id             bigint auto_increment primary key,
+    conversationId varchar(255)                       not null,
+    userId         bigint   default 0                 not null,
+    seq            int                                not null,
+    type           varchar(32)                        not null,
+    content        mediumtext                         not null,
+    messageId      varchar(64)                        null,
+    createTime     datetime default CURRENT_TIMESTAMP not null,
+    constraint uk_conversation_seq unique (conversationId, userId, seq),
+    constraint uk_message_id unique (messageId)
+);